@@ -20,6 +20,7 @@
 package nl.rivm.cib.epidemes.data.cbs;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Collections;
@@ -95,8 +96,11 @@ CBS.37201 (see http://statline.cbs.nl/Statweb/publication/?PA=37201)
  * @author Rick van Krevelen
  */
 //@JsonIgnoreProperties( ignoreUnknown = false )
-public class Cbs37201json
+public class Cbs37201json implements Serializable
 {
+	/** the serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
 
 	private static final List<Object> JSON_KEYS = Stream
 			.concat( Arrays.stream( CBSGender.values() ),
@@ -370,4 +374,16 @@ public class Cbs37201json
 				.flatMap( tuple -> tuple.asFrequencyObservable( offsetRange ) );
 	}
 
+	/**
+	 * @param rows the (e.g. {@link CbsTableCache cached}) parsed rows
+	 * @param offsetRange the offset range, or {@code null} for all available
+	 * @return the resolved/truncated offsets and respective weighted tuples
+	 */
+	public static Observable<WeightedValue<Category>> frequencies(
+		final Iterable<Cbs37201json> rows, final Range<LocalDate> offsetRange )
+	{
+		return Observable.fromIterable( rows )
+				.flatMap( tuple -> tuple.asFrequencyObservable( offsetRange ) );
+	}
+
 }
\ No newline at end of file
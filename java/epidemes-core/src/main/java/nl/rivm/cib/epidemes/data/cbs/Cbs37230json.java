@@ -20,9 +20,11 @@
 package nl.rivm.cib.epidemes.data.cbs;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -107,8 +109,11 @@ import io.reactivex.observables.GroupedObservable;
  * @author Rick van Krevelen
  */
 //@JsonIgnoreProperties( ignoreUnknown = false )
-public class Cbs37230json
+public class Cbs37230json implements Serializable
 {
+	/** the serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
 
 	@JsonIgnore
 	public Map<String, Object> props = new TreeMap<>();
@@ -359,6 +364,21 @@ public class Cbs37230json
 						: Observable.fromArray( metrics ) );
 	}
 
+	/**
+	 * @param rows the (e.g. {@link CbsTableCache cached}) parsed rows
+	 * @param offsetRange the offset range, or {@code null} for all available
+	 * @param metric the {@link CBSPopulationDynamic} frequency metric to use
+	 *            as weights
+	 * @return the resolved/truncated offsets and respective weighted tuples
+	 */
+	public static Observable<WeightedValue<Category>> frequencies(
+		final Iterable<Cbs37230json> rows, final Range<LocalDate> offsetRange,
+		final CBSPopulationDynamic metric )
+	{
+		return Observable.fromIterable( rows ).flatMap(
+				tuple -> tuple.asFrequencyObservable( metric, offsetRange ) );
+	}
+
 	/**
 	 * historic an local demography event rates (births, deaths, migrations,
 	 * ...)
@@ -369,6 +389,8 @@ public class Cbs37230json
 		final ProbabilityDistribution.Factory distFact;
 		ConditionalDistribution<Category, LocalDate> nationalFreqDist;
 		ConditionalDistribution<Category, LocalDate> siteDist;
+		/** Erlang (integer shape Gamma) distributions of unit scale by shape */
+		final Map<Integer, ProbabilityDistribution<Double>> erlangDists = new HashMap<>();
 
 		// <LocalDate, WeightedValue<Category>>
 		public EventProducer( final CBSPopulationDynamic metric,
@@ -376,10 +398,31 @@ public class Cbs37230json
 			final Callable<InputStream> data,
 			final CBSRegionType cbsRegionLevel, final Range<LocalDate> dtRange,
 			final BigDecimal scalingFactor )
+		{
+			this( metric, distFact, readRows( data ), cbsRegionLevel, dtRange,
+					scalingFactor );
+		}
+
+		private static List<Cbs37230json>
+			readRows( final Callable<InputStream> data )
+		{
+			return JsonUtil.readArrayAsync( data, Cbs37230json.class ).toList()
+					.blockingGet();
+		}
+
+		/**
+		 * @param rows the (e.g. {@link CbsTableCache cached}) parsed rows,
+		 *            shared by producers of other metrics
+		 */
+		public EventProducer( final CBSPopulationDynamic metric,
+			final ProbabilityDistribution.Factory distFact,
+			final Iterable<Cbs37230json> rows,
+			final CBSRegionType cbsRegionLevel, final Range<LocalDate> dtRange,
+			final BigDecimal scalingFactor )
 		{
 			this.scalingFactor = scalingFactor;
 			this.distFact = distFact;
-			readAsync( data, dtRange, metric )
+			frequencies( rows, dtRange, metric )
 					.groupBy( wv -> wv.getValue().regionType() )
 					.filter( g -> g.getKey() == cbsRegionLevel
 							|| g.getKey() == CBSRegionType.COUNTRY )
@@ -414,14 +457,44 @@ public class Cbs37230json
 			final String regRef = this.siteDist.draw( dt ).regionPeriod()
 					.regionRef();
 			final int n = eventSitePersonCounter.apply( regRef );
-			final QuantityDistribution<Time> timeDist = this.nationalFreqDist
-					.draw( dt )
-					.timeDist( freq -> this.distFact.createExponential(
-							DecimalUtil.divide( freq, this.scalingFactor ) ) );
-			Quantity<Time> dur = QuantityUtil.zero( Time.class );
-			for( int i = 0; i < n; i++ )
-				dur = dur.add( timeDist.draw() );
-			return dur;
+			if( n < 1 ) return QuantityUtil.zero( Time.class );
+			final Category cat = this.nationalFreqDist.draw( dt );
+			if( n == 1 ) return cat.timeDist( freq -> this.distFact
+					.createExponential( DecimalUtil.divide( freq,
+							this.scalingFactor ) ) )
+					.draw();
+			// sum of n exponential delays ~ Erlang(n), drawn at once
+			return QuantityUtil.valueOf( meanDays( cat ) * this.erlangDists
+					.computeIfAbsent( n, k -> this.distFact.createGamma( k, 1 ) )
+					.draw(), TimeUnits.DAYS );
+		}
+
+		/**
+		 * @param dt the current date
+		 * @param days the duration of the (time) bin
+		 * @return the number of persons per region reference subject to this
+		 *         dynamic in the next {@code days}, drawn as a single (national)
+		 *         Poisson count that is distributed over the regions
+		 */
+		public Map<String, Long> nextCounts( final LocalDate dt,
+			final double days )
+		{
+			final Map<String, Long> result = new TreeMap<>();
+			final double mean = days
+					/ meanDays( this.nationalFreqDist.draw( dt ) );
+			if( !(mean > 0) ) return result;
+			final long n = this.distFact.createPoisson( mean ).draw();
+			for( long i = 0; i < n; i++ )
+				result.merge( this.siteDist.draw( dt ).regionRef(), 1L,
+						Long::sum );
+			return result;
+		}
+
+		/** @return the (scaled) mean number of days between person events */
+		private double meanDays( final Category cat )
+		{
+			return cat.dayCount().doubleValue() / cat.value().doubleValue()
+					/ this.scalingFactor.doubleValue();
 		}
 	}
 }
\ No newline at end of file
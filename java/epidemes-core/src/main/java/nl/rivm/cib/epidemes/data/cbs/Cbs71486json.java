@@ -20,6 +20,7 @@
 package nl.rivm.cib.epidemes.data.cbs;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -62,8 +63,11 @@ import io.reactivex.Observable;
  * @author Rick van Krevelen
  */
 //@JsonIgnoreProperties( ignoreUnknown = true )
-public class Cbs71486json
+public class Cbs71486json implements Serializable
 {
+	/** the serialVersionUID */
+	private static final long serialVersionUID = 1L;
+
 	private static final List<CBSHousehold> HH_TYPES = Arrays
 			.stream( CBSHousehold.values() ).filter( c -> !c.aggregate() )
 			.collect( Collectors.toList() );
@@ -275,4 +279,16 @@ public class Cbs71486json
 				.flatMap( tuple -> tuple.asFrequencyObservable( offsetRange ) );
 	}
 
+	/**
+	 * @param rows the (e.g. {@link CbsTableCache cached}) parsed rows
+	 * @param offsetRange the offset range, or {@code null} for all available
+	 * @return the resolved/truncated offsets and respective weighted tuples
+	 */
+	public static Observable<WeightedValue<Category>> frequencies(
+		final Iterable<Cbs71486json> rows, final Range<LocalDate> offsetRange )
+	{
+		return Observable.fromIterable( rows )
+				.flatMap( tuple -> tuple.asFrequencyObservable( offsetRange ) );
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,511 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.data.cbs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.coala.exception.Thrower;
+import io.coala.json.JsonUtil;
+import io.coala.log.LogUtil;
+import io.coala.math.WeightedValue;
+import io.coala.random.ProbabilityDistribution;
+import nl.rivm.cib.epidemes.data.cbs.CbsRegionCentroidDensity.ExportCol;
+
+/**
+ * {@link CbsRegionCentroidCatalog} is a compact binary (optionally
+ * memory-mapped) catalog of the zip6 centroids exported by
+ * {@link CbsRegionCentroidDensity#export}, streamed once from its nested
+ * territory &rarr; {@link CBSRegionType#PROVINCE} &rarr;
+ * {@link CBSRegionType#COROP} &rarr; {@link CBSRegionType#MUNICIPAL} &rarr;
+ * ward/borough &rarr; {@link CBSRegionType#ZIP4} &rarr;
+ * {@link CBSRegionType#ZIP6} JSON tree, with fixed-width records grouped by
+ * municipality:
+ * 
+ * <pre>
+ * header : magic, version, municipality count, record count
+ * index  : per municipality: code (UTF-8), first record, record count
+ * records: latitude, longitude, residents, employees, boro, zip4, zip6
+ * </pre>
+ * 
+ * The cache file is re-imported once older than its (local) source file or
+ * of another version; delete it to force a re-import, e.g. after other
+ * sources change.
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CbsRegionCentroidCatalog
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( CbsRegionCentroidCatalog.class );
+
+	/** "ZIP6" */
+	static final int MAGIC = 0x5A495036;
+
+	static final int VERSION = 1;
+
+	/** magic, version, municipality count, record count */
+	private static final int HEADER_BYTES = 4 * Integer.BYTES;
+
+	/** lat, lon (double), residents, employees, boro, zip4, zip6 (int) */
+	private static final int RECORD_BYTES = 2 * Double.BYTES
+			+ 5 * Integer.BYTES;
+
+	/** the (fixed) object keys at odd levels of the hierarchy */
+	private static final String[] CONTAINER_KEYS = { null,
+			CBSRegionType.PROVINCE.getPrefix(), null,
+			CBSRegionType.COROP.getPrefix(), null,
+			CBSRegionType.MUNICIPAL.getPrefix() };
+
+	/** hierarchy levels: territory .. municipality, boro, zip4, zip6 */
+	private static final int GM_LEVEL = 6, BORO_LEVEL = 7, ZIP4_LEVEL = 8,
+			ZIP6_LEVEL = 9;
+
+	/**
+	 * @param cache the binary catalog file to map or create, or {@code null}
+	 *            to keep the catalog in memory
+	 * @param json the {@link CbsRegionCentroidDensity} JSON source, read only
+	 *            if {@code cache} does not (yet) exist
+	 * @return the (shared) {@link CbsRegionCentroidCatalog}
+	 * @throws Exception
+	 */
+	public static CbsRegionCentroidCatalog open( final Path cache,
+		final Callable<InputStream> json ) throws Exception
+	{
+		return open( cache, json, null );
+	}
+
+	/**
+	 * @param cache the binary catalog file to map or create, or {@code null}
+	 *            to keep the catalog in memory
+	 * @param json the {@link CbsRegionCentroidDensity} JSON source, read only
+	 *            if {@code cache} does not (yet) exist, is stale or of another
+	 *            version
+	 * @param source the (local) file path of {@code json}, to re-import a
+	 *            {@code cache} older than its source, or {@code null}
+	 * @return the (shared) {@link CbsRegionCentroidCatalog}
+	 * @throws Exception
+	 */
+	public static CbsRegionCentroidCatalog open( final Path cache,
+		final Callable<InputStream> json, final String source )
+		throws Exception
+	{
+		if( cache != null && Files.isReadable( cache ) && (source == null
+				|| !CbsTableCache.isStale( cache, source )) )
+		{
+			final ByteBuffer mapped = map( cache );
+			if( isCurrent( mapped ) )
+			{
+				LOG.debug( "Mapping zip6 catalog: {}", cache );
+				return new CbsRegionCentroidCatalog( mapped );
+			}
+			LOG.info( "Re-importing zip6 catalog of other version: {}",
+					cache );
+		}
+		final ByteBuffer buffer;
+		try( final InputStream is = json.call() )
+		{
+			buffer = importJson( is );
+		}
+		if( cache == null ) return new CbsRegionCentroidCatalog( buffer );
+
+		// write to a unique temp file (e.g. per concurrent replication), then
+		// move atomically and map
+		final Path dir = cache.toAbsolutePath().getParent();
+		if( dir != null ) Files.createDirectories( dir );
+		final Path tmp = Files.createTempFile( dir,
+				cache.getFileName().toString(), ".tmp" );
+		try( final FileChannel out = FileChannel.open( tmp,
+				StandardOpenOption.WRITE ) )
+		{
+			while( buffer.hasRemaining() )
+				out.write( buffer );
+		} catch( final IOException | RuntimeException e )
+		{
+			Files.deleteIfExists( tmp );
+			throw e;
+		}
+		Files.move( tmp, cache, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE );
+		LOG.debug( "Wrote zip6 catalog: {}", cache );
+		return new CbsRegionCentroidCatalog( map( cache ) );
+	}
+
+	/** @return {@code true} iff {@code data} has this catalog version */
+	private static boolean isCurrent( final ByteBuffer data )
+	{
+		return data.limit() >= HEADER_BYTES && data.getInt( 0 ) == MAGIC
+				&& data.getInt( 4 ) == VERSION;
+	}
+
+	private static ByteBuffer map( final Path file ) throws IOException
+	{
+		try( final FileChannel in = FileChannel.open( file,
+				StandardOpenOption.READ ) )
+		{
+			return in.map( FileChannel.MapMode.READ_ONLY, 0, in.size() );
+		}
+	}
+
+	/**
+	 * @param is the {@link CbsRegionCentroidDensity} JSON source
+	 * @return the binary catalog, ready for reading
+	 * @throws IOException
+	 */
+	public static ByteBuffer importJson( final InputStream is )
+		throws IOException
+	{
+		final Importer importer = new Importer();
+		try( final JsonParser p = JsonUtil.getJOM().getFactory()
+				.createParser( is ) )
+		{
+			if( p.nextToken() != JsonToken.START_OBJECT ) Thrower.throwNew(
+					IOException::new, () -> "Expected JSON object" );
+			importer.readObject( p, 0 );
+		}
+		return importer.toBuffer();
+	}
+
+	/**
+	 * {@link Importer} streams the JSON tree, without building
+	 * {@link com.fasterxml.jackson.databind.JsonNode}s
+	 */
+	private static class Importer
+	{
+		private final String[] path = new String[ZIP6_LEVEL + 1];
+
+		/** records per municipality, in order of appearance */
+		private final Map<String, List<Object[]>> records = new LinkedHashMap<>();
+
+		private int count = 0;
+
+		void readObject( final JsonParser p, final int level )
+			throws IOException
+		{
+			while( p.nextToken() == JsonToken.FIELD_NAME )
+			{
+				final String key = p.getCurrentName();
+				final JsonToken value = p.nextToken();
+				if( level == ZIP6_LEVEL )
+				{
+					if( value == JsonToken.START_ARRAY )
+						readZip6( p, key );
+					else
+						p.skipChildren();
+				} else if( value != JsonToken.START_OBJECT
+						|| (level < CONTAINER_KEYS.length
+								&& CONTAINER_KEYS[level] != null
+								&& !CONTAINER_KEYS[level].equals( key )) )
+					p.skipChildren(); // e.g. region tags
+				else
+				{
+					this.path[level] = key;
+					readObject( p, level + 1 );
+				}
+			}
+		}
+
+		void readZip6( final JsonParser p, final String zip6 )
+			throws IOException
+		{
+			final double[] values = new double[ExportCol.values().length];
+			int i = 0;
+			while( p.nextToken() != JsonToken.END_ARRAY )
+				if( i < values.length ) values[i++] = p.getValueAsDouble();
+			final String gm = this.path[GM_LEVEL],
+					boro = this.path[BORO_LEVEL], zip4 = this.path[ZIP4_LEVEL];
+			this.records.computeIfAbsent( gm, k -> new ArrayList<>() )
+					.add( new Object[]
+			{ values, pack( boro ), pack( zip4 ), pack( zip6 ) } );
+			this.count++;
+		}
+
+		ByteBuffer toBuffer()
+		{
+			final byte[][] codes = this.records.keySet().stream()
+					.map( gm -> gm.getBytes( StandardCharsets.UTF_8 ) )
+					.toArray( byte[][]::new );
+			final int indexBytes = Arrays.stream( codes )
+					.mapToInt( b -> Short.BYTES + b.length + 2 * Integer.BYTES )
+					.sum();
+			final ByteBuffer result = ByteBuffer.allocate( HEADER_BYTES
+					+ indexBytes + this.count * RECORD_BYTES );
+			result.putInt( MAGIC ).putInt( VERSION )
+					.putInt( this.records.size() ).putInt( this.count );
+			int first = 0, g = 0;
+			for( List<Object[]> gmRecords : this.records.values() )
+			{
+				result.putShort( (short) codes[g].length ).put( codes[g++] )
+						.putInt( first ).putInt( gmRecords.size() );
+				first += gmRecords.size();
+			}
+			for( List<Object[]> gmRecords : this.records.values() )
+				for( Object[] r : gmRecords )
+				{
+					final double[] v = (double[]) r[0];
+					result.putDouble( v[ExportCol.LATITUDE.ordinal()] )
+							.putDouble( v[ExportCol.LONGITUDE.ordinal()] )
+							.putInt( (int) v[ExportCol.RESIDENTS.ordinal()] )
+							.putInt( (int) v[ExportCol.EMPLOYEES.ordinal()] )
+							.putInt( (Integer) r[1] ).putInt( (Integer) r[2] )
+							.putInt( (Integer) r[3] );
+				}
+			result.flip();
+			return result;
+		}
+	}
+
+	/** packs up to 4 (ASCII) characters into an {@code int} */
+	static int pack( final String code )
+	{
+		if( code.length() > 4 ) return Thrower.throwNew(
+				IllegalArgumentException::new, () -> "Code too long: " + code );
+		int result = 0;
+		for( int i = 0; i < code.length(); i++ )
+			result = (result << 8) | (code.charAt( i ) & 0xFF);
+		return result;
+	}
+
+	static String unpack( final int packed )
+	{
+		final StringBuilder result = new StringBuilder( 4 );
+		for( int shift = 24; shift >= 0; shift -= 8 )
+		{
+			final int c = (packed >>> shift) & 0xFF;
+			if( c != 0 ) result.append( (char) c );
+		}
+		return result.toString();
+	}
+
+	private final ByteBuffer data;
+
+	private final int recordOffset;
+
+	private final int size;
+
+	/** municipality code &rarr; { first record, record count } */
+	private final Map<String, int[]> municipalRanges;
+
+	/** municipality code per record group, in record order */
+	private final String[] groupCodes;
+
+	private final int[] groupFirsts;
+
+	private CbsRegionCentroidCatalog( final ByteBuffer data )
+		throws IOException
+	{
+		this.data = data;
+		if( !isCurrent( data ) ) Thrower.throwNew( IOException::new,
+					() -> "Not a zip6 catalog (version " + VERSION + ")" );
+		final int gmCount = data.getInt( 8 );
+		this.size = data.getInt( 12 );
+		final Map<String, int[]> ranges = new HashMap<>( gmCount * 2 );
+		this.groupCodes = new String[gmCount];
+		this.groupFirsts = new int[gmCount];
+		int pos = HEADER_BYTES;
+		for( int g = 0; g < gmCount; g++ )
+		{
+			final byte[] code = new byte[data.getShort( pos )];
+			pos += Short.BYTES;
+			for( int b = 0; b < code.length; b++ )
+				code[b] = data.get( pos++ );
+			final int first = data.getInt( pos ), n = data.getInt( pos + 4 );
+			pos += 2 * Integer.BYTES;
+			this.groupCodes[g] = new String( code, StandardCharsets.UTF_8 );
+			this.groupFirsts[g] = first;
+			ranges.put( this.groupCodes[g], new int[] { first, n } );
+		}
+		this.recordOffset = pos;
+		this.municipalRanges = Collections.unmodifiableMap( ranges );
+	}
+
+	/** @return the number of zip6 records */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/** @return the {@link CBSRegionType#MUNICIPAL} codes, e.g. "GM0363" */
+	public Set<String> municipalities()
+	{
+		return this.municipalRanges.keySet();
+	}
+
+	/**
+	 * @param gm the {@link CBSRegionType#MUNICIPAL} code, e.g. "GM0363"
+	 * @return the record indices within specified municipality, if any
+	 */
+	public IntStream indices( final String gm )
+	{
+		final int[] range = this.municipalRanges.get( gm );
+		return range == null ? IntStream.empty()
+				: IntStream.range( range[0], range[0] + range[1] );
+	}
+
+	private int offset( final int i )
+	{
+		return this.recordOffset + i * RECORD_BYTES;
+	}
+
+	public double latitude( final int i )
+	{
+		return this.data.getDouble( offset( i ) );
+	}
+
+	public double longitude( final int i )
+	{
+		return this.data.getDouble( offset( i ) + Double.BYTES );
+	}
+
+	public int residents( final int i )
+	{
+		return this.data.getInt( offset( i ) + 2 * Double.BYTES );
+	}
+
+	public int employees( final int i )
+	{
+		return this.data.getInt( offset( i ) + 2 * Double.BYTES + 4 );
+	}
+
+	public double valueOf( final int i, final ExportCol col )
+	{
+		switch( col )
+		{
+		case LATITUDE:
+			return latitude( i );
+		case LONGITUDE:
+			return longitude( i );
+		case RESIDENTS:
+			return residents( i );
+		default:
+		case EMPLOYEES:
+			return employees( i );
+		}
+	}
+
+	/** @return the municipality code, e.g. "GM0363" */
+	public String municipality( final int i )
+	{
+		int g = Arrays.binarySearch( this.groupFirsts, i );
+		if( g < 0 ) g = -g - 2;
+		// skip empty groups sharing the same first index
+		while( g + 1 < this.groupFirsts.length
+				&& this.groupFirsts[g + 1] == i )
+			g++;
+		return this.groupCodes[g];
+	}
+
+	/**
+	 * @return the ward and borough code, e.g. "0000", or any shorter code as
+	 *         imported
+	 */
+	public String boro( final int i )
+	{
+		return unpack( this.data.getInt( offset( i ) + 2 * Double.BYTES + 8 ) );
+	}
+
+	/** @return the zip4 code, e.g. "7512" */
+	public String zip4( final int i )
+	{
+		return unpack(
+				this.data.getInt( offset( i ) + 2 * Double.BYTES + 12 ) );
+	}
+
+	/** @return the zip6 suffix, e.g. "CJ" */
+	public String zip6( final int i )
+	{
+		return unpack(
+				this.data.getInt( offset( i ) + 2 * Double.BYTES + 16 ) );
+	}
+
+	/**
+	 * @return the site name, e.g. "0153_00_05_7512_CJ" (GM_WK_BU_PC4_PC6), as
+	 *         used in {@link CbsRegionCentroidDensity#parse}, with empty ward
+	 *         and borough if their code is too short to split
+	 */
+	public String siteName( final int i )
+	{
+		final String boro = boro( i );
+		final boolean split = boro.length() >= 2;
+		return String.join( "_", municipality( i ).substring( 2 ),
+				split ? boro.substring( 0, 2 ) : "",
+				split ? boro.substring( 2 ) : "", zip4( i ), zip6( i ) );
+	}
+
+	/**
+	 * @param distFact a {@link ProbabilityDistribution.Factory}
+	 * @param filter the records to include
+	 * @param weightCol the {@link ExportCol} to weigh records by
+	 * @return per municipality, a categorical distribution of record indices,
+	 *         omitting municipalities without (positively weighted) records
+	 */
+	public Map<String, ProbabilityDistribution<Integer>> toDists(
+		final ProbabilityDistribution.Factory distFact,
+		final IntPredicate filter, final ExportCol weightCol )
+	{
+		final Map<String, ProbabilityDistribution<Integer>> result = new HashMap<>();
+		this.municipalRanges.keySet().forEach( gm ->
+		{
+			try
+			{
+				result.put( gm, distFact.createCategorical( indices( gm )
+						.filter( filter ).mapToObj( i -> WeightedValue
+								.of( i, valueOf( i, weightCol ) ) ) ) );
+			} catch( final Exception e )
+			{
+				// empty
+			}
+		} );
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[zip6=" + this.size + ", gm="
+				+ this.municipalRanges.size() + "]";
+	}
+}
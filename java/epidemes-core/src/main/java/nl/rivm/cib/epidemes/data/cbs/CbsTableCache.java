@@ -0,0 +1,198 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.data.cbs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.Logger;
+
+import io.coala.exception.Thrower;
+import io.coala.json.JsonUtil;
+import io.coala.log.LogUtil;
+
+/**
+ * {@link CbsTableCache} keeps the parsed rows of CBS (JSON) tables, e.g.
+ * {@link Cbs71486json}, {@link Cbs37201json} or {@link Cbs37230json}, in a
+ * JVM-wide (i.e. scenario-wide) cache keyed by row type, file and region
+ * filter, so (concurrent) replications and their brokers parse each table
+ * only once. Optionally, the filtered rows are also kept in a (serialized,
+ * compressed) binary form that later runs read instead of the JSON source
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CbsTableCache
+{
+
+	/** */
+	private static final Logger LOG = LogUtil.getLogger( CbsTableCache.class );
+
+	/** the cached (immutable) row lists, by key */
+	private static final Map<String, List<?>> CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * @param rowType the type of JSON array elements (table rows)
+	 * @param file the (configured) source file name, to key the rows by
+	 * @param json the JSON source {@link InputStream} supplier
+	 * @param regionOf maps a row to its region reference
+	 * @param binaryDir the directory of (pre-)compiled binary forms, or
+	 *            {@code null} or empty to parse the JSON source only
+	 * @param regionTypes the {@link CBSRegionType}s to retain, or none for all
+	 * @return the (cached) rows of the specified {@link CBSRegionType}s
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static <T extends Serializable> List<T> rows(
+		final Class<T> rowType, final String file,
+		final Callable<InputStream> json, final Function<T, String> regionOf,
+		final String binaryDir, final CBSRegionType... regionTypes )
+	{
+		final Set<CBSRegionType> filter = regionTypes == null
+				|| regionTypes.length == 0
+						? EnumSet.allOf( CBSRegionType.class )
+						: EnumSet.copyOf( Arrays.asList( regionTypes ) );
+		final String key = rowType.getName() + '|' + file + '|' + filter;
+		return (List<T>) CACHE.computeIfAbsent( key, k ->
+		{
+			try
+			{
+				return load( rowType, file, json, regionOf, filter,
+						binaryDir == null || binaryDir.isEmpty() ? null
+								: Paths.get( binaryDir, rowType.getSimpleName()
+										+ '-' + Integer.toHexString(
+												k.hashCode() )
+										+ ".bin.gz" ) );
+			} catch( final Exception e )
+			{
+				return Thrower.rethrowUnchecked( e );
+			}
+		} );
+	}
+
+	/** clears the cached rows, e.g. to release their heap */
+	public static void clear()
+	{
+		CACHE.clear();
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static <T extends Serializable> List<T> load(
+		final Class<T> rowType, final String file,
+		final Callable<InputStream> json, final Function<T, String> regionOf,
+		final Set<CBSRegionType> filter, final Path binary ) throws Exception
+	{
+		final long t0 = System.currentTimeMillis();
+		if( binary != null && Files.isReadable( binary ) && !isStale( binary,
+				file ) )
+			try( final ObjectInputStream in = new ObjectInputStream(
+					new BufferedInputStream( new GZIPInputStream(
+							Files.newInputStream( binary ), 1 << 16 ) ) ) )
+			{
+				final List<T> result = (List<T>) in.readObject();
+				LOG.info( "Read {} {} rows from {} in {}ms", result.size(),
+						rowType.getSimpleName(), binary,
+						System.currentTimeMillis() - t0 );
+				return result;
+			} catch( final IOException | ClassNotFoundException e )
+			{
+				LOG.warn( "Ignoring unreadable binary form: " + binary, e );
+			}
+
+		final ArrayList<T> rows = new ArrayList<>();
+		JsonUtil.readArrayAsync( json, rowType )
+				.filter( row -> filter.contains(
+						CBSRegionType.parse( regionOf.apply( row ) ) ) )
+				.blockingForEach( rows::add );
+		rows.trimToSize();
+		final List<T> result = Collections.unmodifiableList( rows );
+		LOG.info( "Parsed {} {} rows from {} in {}ms", rows.size(),
+				rowType.getSimpleName(), file,
+				System.currentTimeMillis() - t0 );
+		if( binary != null ) save( binary, rows );
+		return result;
+	}
+
+	/**
+	 * @return {@code true} iff {@code file} is a local file modified after
+	 *         {@code binary}; other sources are not checked, so remove the
+	 *         binary form to refresh it
+	 */
+	static boolean isStale( final Path binary, final String file )
+		throws IOException
+	{
+		try
+		{
+			final Path source = Paths.get( file );
+			return Files.isRegularFile( source )
+					&& Files.getLastModifiedTime( source ).compareTo(
+							Files.getLastModifiedTime( binary ) ) > 0;
+		} catch( final RuntimeException e )
+		{
+			return false; // e.g. a URL or resource path
+		}
+	}
+
+	private static void save( final Path binary, final ArrayList<?> rows )
+	{
+		try
+		{
+			final Path dir = binary.toAbsolutePath().getParent();
+			if( dir != null ) Files.createDirectories( dir );
+			final Path tmp = Files.createTempFile( dir,
+					binary.getFileName().toString(), ".tmp" );
+			try( final ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream( new GZIPOutputStream(
+							Files.newOutputStream( tmp ), 1 << 16 ) ) ) )
+			{
+				out.writeObject( rows );
+			} catch( final IOException | RuntimeException e )
+			{
+				Files.deleteIfExists( tmp );
+				throw e;
+			}
+			Files.move( tmp, binary, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE );
+		} catch( final IOException e )
+		{
+			LOG.warn( "Skipping binary form: " + binary, e );
+		}
+	}
+}
@@ -20,8 +20,8 @@
 package nl.rivm.cib.epidemes.data.duo;
 
 import java.util.EnumMap;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
@@ -52,7 +52,7 @@ public enum DuoPedagogy
 
 	;
 
-	private static final Map<String, DuoPedagogy> DUO_CACHE = new HashMap<>();
+	private static final Map<String, DuoPedagogy> DUO_CACHE = new ConcurrentHashMap<>();
 
 	public static DuoPedagogy resolveDuo( final EnumMap<EduCol, JsonNode> school )
 	{
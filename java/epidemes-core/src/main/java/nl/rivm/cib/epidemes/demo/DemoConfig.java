@@ -22,10 +22,10 @@ package nl.rivm.cib.epidemes.demo;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.Period;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -35,15 +35,18 @@ import org.aeonbits.owner.Converter;
 
 import io.coala.config.ConfigUtil;
 import io.coala.config.LocalDateConverter;
+import io.coala.config.LocalDateTimeConverter;
 import io.coala.config.PeriodConverter;
 import io.coala.config.YamlConfig;
 import io.coala.math.DecimalUtil;
+import io.coala.time.Scheduler;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Demical.PersonBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Medical.HealthBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Regional.SiteBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Social.PeerBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Social.SocietyBroker;
 import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+import nl.rivm.cib.epidemes.util.SeriesSink;
 
 /**
  * {@link DemoConfig} used in {@link DemoScenario}
@@ -85,7 +88,8 @@ public interface DemoConfig extends YamlConfig
 
 	String RANDOM_SEED_KEY = "random-seed";
 
-	String sep = ";", eol = "\r\n";
+	/** the {@link SeriesSink.Csv} separator and end-of-line */
+	String sep = SeriesSink.Csv.SEP, eol = SeriesSink.Csv.EOL;
 
 	/** configuration key */
 	String REPLICATION_BASE = "replication";
@@ -111,6 +115,29 @@ public interface DemoConfig extends YamlConfig
 	/** configuration key */
 	String HESITANCY_BASE = "hesitancy";
 
+	/** configuration key */
+	String PATHOGEN_PREFIX = SCENARIO_BASE + KEY_SEP + EPIDEMIOLOGY_BASE
+			+ KEY_SEP + "pathogen" + KEY_SEP;
+
+	/** configuration key */
+	String METAPOPULATION_PREFIX = SCENARIO_BASE + KEY_SEP + EPIDEMIOLOGY_BASE
+			+ KEY_SEP + "metapopulation" + KEY_SEP;
+
+	/**
+	 * {@link Engine} of the epidemic dynamics
+	 */
+	enum Engine
+	{
+		/** stochastic, agent-based transmission at (social) gatherings */
+		AGENT,
+
+		/**
+		 * deterministic, regional {@link nl.rivm.cib.epidemes.model.MetapopulationODE}
+		 * taking over from the (agent-based) population at outbreak start
+		 */
+		ODE;
+	}
+
 	@Key( REPLICATION_PREFIX + "setup-name" )
 	@DefaultValue( "pilot" )
 	String setupName();
@@ -120,6 +147,67 @@ public interface DemoConfig extends YamlConfig
 	@ConverterClass( RandomSeedConverter.class )
 	Long randomSeed();
 
+	/** number of replications, ignored if {@link #randomSeeds()} are set */
+	@Key( REPLICATION_PREFIX + "count" )
+	@DefaultValue( "1" )
+	int replicationCount();
+
+	/**
+	 * explicit (comma-separated) seeds, one per replication, otherwise derived
+	 * from {@link #randomSeed()} for each of {@link #replicationCount()}
+	 */
+	@Key( REPLICATION_PREFIX + "random-seeds" )
+	@DefaultValue( "" )
+	String randomSeeds();
+
+	/** maximum concurrent replications, or 0 for all available processors */
+	@Key( REPLICATION_PREFIX + "parallelism" )
+	@DefaultValue( "0" )
+	int replicationParallelism();
+
+	/**
+	 * binary population snapshot, restored if it exists or otherwise saved
+	 * once the population is initialized; empty to synthesize each replication
+	 */
+	@Key( REPLICATION_PREFIX + "population-snapshot" )
+	@DefaultValue( "" )
+	String populationSnapshot();
+
+	/** (CRON) timing of the SIR time series output */
+	@Key( REPLICATION_PREFIX + "output-timing" )
+	@DefaultValue( "0 0 12 ? * *" )
+	String outputTiming();
+
+	/** virtual time pattern of the SIR time series output */
+	@Key( REPLICATION_PREFIX + "output-time-format" )
+	@DefaultValue( "yyyy-MM-dd" )
+	String outputTimeFormat();
+
+	@Key( REPLICATION_PREFIX + "output-format" )
+	@DefaultValue( "CSV" )
+	SeriesSink.Format outputFormat();
+
+	@Key( REPLICATION_PREFIX + "output-compress" )
+	@DefaultValue( "false" )
+	boolean outputCompress();
+
+	/** rows queued for the output writer thread, or 0 to write in-line */
+	@Key( REPLICATION_PREFIX + "output-buffer" )
+	@DefaultValue( "1024" )
+	int outputBuffer();
+
+	/**
+	 * the {@link Scheduler} implementation, e.g. the
+	 * {@link nl.rivm.cib.epidemes.util.CalendarScheduler}
+	 */
+	@Key( REPLICATION_PREFIX + "scheduler" )
+	@DefaultValue( "io.coala.dsol3.Dsol3Scheduler" )
+	Class<? extends Scheduler> schedulerType();
+
+	@Key( REPLICATION_PREFIX + "engine" )
+	@DefaultValue( "AGENT" )
+	Engine engine();
+
 	@Key( REPLICATION_PREFIX + "duration-period" )
 	@DefaultValue( "P1Y" )
 	@ConverterClass( PeriodConverter.class )
@@ -130,6 +218,72 @@ public interface DemoConfig extends YamlConfig
 	@ConverterClass( LocalDateConverter.class )
 	LocalDate offset();
 
+	@Key( PATHOGEN_PREFIX + "average-recovery-period" )
+	@DefaultValue( "14 day" )
+	String recoveryPeriod();
+
+	@Key( PATHOGEN_PREFIX + "next-outbreak-start-date" )
+	@DefaultValue( "2013-07-06T05:43:21" )
+	@ConverterClass( LocalDateTimeConverter.class )
+	LocalDateTime outbreakStart();
+
+	/** basic reproduction number R<sub>0</sub> of the {@link Engine#ODE} */
+	@Key( METAPOPULATION_PREFIX + "reproduction-number" )
+	@DefaultValue( "12" )
+	double odeReproduction();
+
+	/** mean latent period, or 0 for none (like the agent-based engine) */
+	@Key( METAPOPULATION_PREFIX + "latent-period" )
+	@DefaultValue( "0 day" )
+	String odeLatentPeriod();
+
+	/** mean period of natural immunity, or empty for lifelong */
+	@Key( METAPOPULATION_PREFIX + "immunity-period" )
+	@DefaultValue( "" )
+	String odeImmunityPeriod();
+
+	/** mean period of passive (maternal) immunity, or empty for lifelong */
+	@Key( METAPOPULATION_PREFIX + "passive-immunity-period" )
+	@DefaultValue( "" )
+	String odePassiveImmunityPeriod();
+
+	@Key( METAPOPULATION_PREFIX + "index-region" )
+	@DefaultValue( "GM0363" )
+	String odeIndexRegion();
+
+	@Key( METAPOPULATION_PREFIX + "index-cases" )
+	@DefaultValue( "1" )
+	double odeIndexCases();
+
+	/**
+	 * force of infection shares of the prevalence in enclosing
+	 * {@link nl.rivm.cib.epidemes.data.cbs.CBSRegionType} regions, e.g.
+	 * {@code HEALTH_SERVICES: .15, PROVINCE: .05}, the remainder (minus any
+	 * {@link #odeCommutingShare()}) within each municipality
+	 */
+	@Key( METAPOPULATION_PREFIX + "mixing-levels" )
+	@DefaultValue( "HEALTH_SERVICES: .15, PROVINCE: .05, COUNTRY: .01" )
+	String odeMixingLevels();
+
+	@Key( METAPOPULATION_PREFIX + "region-hierarchy" )
+	@DefaultValue( "${" + CONFIG_BASE_KEY + "}data/83287NED.json" )
+	String odeRegionHierarchy();
+
+	/** commuter counts, lines of {@code origin;destination;count}, if any */
+	@Key( METAPOPULATION_PREFIX + "commuting-flows" )
+	@DefaultValue( "" )
+	String odeCommutingFlows();
+
+	/** force of infection share of the commuting destinations' prevalence */
+	@Key( METAPOPULATION_PREFIX + "commuting-share" )
+	@DefaultValue( ".1" )
+	double odeCommutingShare();
+
+	/** absolute (person count) and relative integration step tolerance */
+	@Key( METAPOPULATION_PREFIX + "tolerance" )
+	@DefaultValue( "1E-6" )
+	double odeTolerance();
+
 	@Key( DEMOGRAPHY_BASE + KEY_SEP + MODULE_KEY )
 	@DefaultValue( "nl.rivm.cib.epidemes.demo.impl.PersonBrokerSimple" )
 	Class<? extends PersonBroker> demeModule();
@@ -169,52 +323,29 @@ public interface DemoConfig extends YamlConfig
 		}
 	}
 
-	static String toHeader( final Object config,
-		final List<Compartment> sirCols,
-		final Map<String, Set<String>> colMapping )
-	{
-		return "\"ActualTime "
-				// escape double-quotes within double-quotes by doubling them
-				// see https://stackoverflow.com/a/43274459
-				+ config.toString().replaceAll( "\"", "\"\"" ) + "\"" + sep
-				+ "VirtualTime" + sep
-				+ String.join( sep,
-						sirCols.stream().map( c -> c.name() )
-								.toArray( String[]::new ) )
-				+ sep
-				+ String.join( sep, sirCols.stream()
-						.flatMap( c -> colMapping.keySet().stream()
-								.map( reg -> c.name().substring( 0, 1 ) + '_'
-										+ reg ) )
-						.toArray( String[]::new ) )
-				+ eol;
-	}
-
-	static String toLine( final List<Compartment> sirCols, final String t,
+	/**
+	 * @return the column values of a {@link SeriesSink} line, by their header
+	 *         name: first overall totals, then aggregates per column mapping
+	 */
+	static Map<String, Long> toValues( final List<Compartment> sirCols,
 		final Map<String, Set<String>> colMapping,
 		final Map<String, EnumMap<Compartment, Long>> homeSIR )
 	{
-		return DateTimeFormatter.ISO_LOCAL_DATE_TIME
-				.format( ZonedDateTime.now() ) + sep + t
-				+ sep
-				+ String.join( sep, sirCols.stream()
-						.map( c -> colMapping.entrySet().stream()
-								.flatMap( e -> e.getValue().stream() )
-								.map( reg -> homeSIR
-										.computeIfAbsent( reg,
-												k -> new EnumMap<>(
-														Compartment.class ) )
-										.computeIfAbsent( c, k -> 0L ) )
-								.mapToLong( n -> n ).sum() )
-						.map( Object::toString ).toArray( String[]::new ) )
-				+ sep
-				+ String.join( sep, sirCols.stream().flatMap( c -> colMapping
-						.entrySet().stream()
-						.map( e -> e.getValue().stream()
-								.mapToLong( reg -> homeSIR.get( reg ).get( c ) )
-								.sum() ) )
-						.map( Object::toString ).toArray( String[]::new ) )
-				+ eol;
+		final Map<String, Long> result = new LinkedHashMap<>();
+		sirCols.forEach( c -> result.put( c.name(),
+				colMapping.entrySet().stream()
+						.flatMap( e -> e.getValue().stream() )
+						.map( reg -> homeSIR
+								.computeIfAbsent( reg,
+										k -> new EnumMap<>(
+												Compartment.class ) )
+								.computeIfAbsent( c, k -> 0L ) )
+						.mapToLong( n -> n ).sum() ) );
+		sirCols.forEach( c -> colMapping.forEach( ( col, regs ) -> result.put(
+				c.name().substring( 0, 1 ) + '_' + col,
+				regs.stream().mapToLong( reg -> homeSIR.get( reg ).get( c ) )
+						.sum() ) ) );
+		return result;
 	}
 
 	static BigDecimal evaluateFraction( final String key,
@@ -111,6 +111,17 @@ public interface DemoScenario extends Scenario
 			@Override
 			Observable<? extends GatherFact> events();
 
+			/** @return the member (person) keys per society key */
+			Map<Object, ? extends List<Object>> members();
+
+			/**
+			 * resume the (restored) societies with specified memberships, as
+			 * if their members had just joined
+			 * 
+			 * @param members the member (person) keys per society key
+			 */
+			SocietyBroker restore( Map<Object, ? extends List<Object>> members );
+
 //			Object join( LifePurpose purpose, PersonTuple person );
 
 //			Map<String, Object> join( PersonTuple person );
@@ -179,6 +190,22 @@ public interface DemoScenario extends Scenario
 		interface VaxAcceptanceEvaluator
 			extends BiPredicate<HouseholdTuple, VaxOccasion>
 		{
+			/**
+			 * evaluates a (weekday's) batch of candidates at once
+			 * 
+			 * @param hhs the candidates' households
+			 * @param occasions the respective {@link VaxOccasion}s, or
+			 *            {@code null} elements for none
+			 * @return the respective acceptance decisions
+			 */
+			default boolean[] test( final List<HouseholdTuple> hhs,
+				final List<VaxOccasion> occasions )
+			{
+				final boolean[] result = new boolean[hhs.size()];
+				for( int i = 0; i < result.length; i++ )
+					result[i] = test( hhs.get( i ), occasions.get( i ) );
+				return result;
+			}
 		}
 	}
 
@@ -225,11 +252,18 @@ public interface DemoScenario extends Scenario
 			 * @param pp the target (particular person)
 			 * @param options the options to minimize, of some type {@link T}
 			 * @param optionSiteKeyMapper maps options to their site reference
-			 * @return key-value pair of the nearest option and rough distance
-			 *         (squared angular degrees in the WGS84 coordinate system)
+			 * @return key-value pair of the nearest option and its
+			 *         (great-circle) distance in km
 			 */
 			<T> Entry<T, Double> selectNearest( PersonTuple pp,
 				Stream<T> options, Function<T, Object> optionSiteKeyMapper );
+
+			/**
+			 * @param siteRef the site reference
+			 * @return the site's { latitude, longitude } in the WGS84
+			 *         coordinate system
+			 */
+			double[] coordsOf( Object siteRef );
 		}
 	}
 
@@ -25,10 +25,10 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.coala.data.Table.Property;
-import io.coala.data.Table.Tuple;
 import nl.rivm.cib.epidemes.data.cbs.CBSBirthRank;
 import nl.rivm.cib.epidemes.data.cbs.CBSHousehold;
 import nl.rivm.cib.epidemes.data.duo.DuoPedagogy;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
 
 @SuppressWarnings( "serial" )
 public
@@ -98,7 +98,7 @@ interface Households
 			Households.EduCulture.class, Households.HouseholdSeq.class, Households.Complacency.class,
 			Households.Confidence.class );
 
-	class HouseholdTuple extends Tuple
+	class HouseholdTuple extends ColumnLayer.ColumnTuple
 	{
 		@Override
 		@SuppressWarnings( "rawtypes" )
@@ -106,5 +106,29 @@ interface Households
 		{
 			return PROPERTIES;
 		}
+
+		/** @return the (unboxed) {@link Confidence} level */
+		public double confidence()
+		{
+			return getAsDouble( Confidence.class );
+		}
+
+		/** @return the (unboxed) {@link Complacency} level */
+		public double complacency()
+		{
+			return getAsDouble( Complacency.class );
+		}
+
+		/** @return the (unboxed) {@link ReferentBirth} time */
+		public double referentBirth()
+		{
+			return getAsDouble( ReferentBirth.class );
+		}
+
+		/** @return the (unboxed) {@link MomBirth} time */
+		public double momBirth()
+		{
+			return getAsDouble( MomBirth.class );
+		}
 	}
 }
\ No newline at end of file
@@ -25,8 +25,8 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.coala.data.Table.Property;
-import io.coala.data.Table.Tuple;
 import nl.rivm.cib.epidemes.model.MSEIRS;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
 
 @SuppressWarnings("serial")
 public interface Persons {
@@ -117,11 +117,31 @@ public interface Persons {
 			Persons.PathogenResistance.class, Persons.Male.class, Persons.CultureRef.class, Persons.VaxCompliance.class,
 			Persons.PersonSeq.class);
 
-	class PersonTuple extends Tuple {
+	class PersonTuple extends ColumnLayer.ColumnTuple {
 		@Override
 		@SuppressWarnings("rawtypes")
 		public List<Class<? extends Property>> properties() {
 			return PROPERTIES;
 		}
+
+		/** @return the (unboxed) virtual {@link Birth} time */
+		public double birth() {
+			return getAsDouble(Birth.class);
+		}
+
+		/** @return the (unboxed) remaining {@link PathogenResistance} */
+		public double resistance() {
+			return getAsDouble(PathogenResistance.class);
+		}
+
+		/** @return the (unboxed) {@link VaxCompliance} bits */
+		public int vaxCompliance() {
+			return getAsInt(VaxCompliance.class);
+		}
+
+		/** @return the (unboxed) {@link Male} gender flag */
+		public boolean male() {
+			return getAsBoolean(Male.class);
+		}
 	}
 }
\ No newline at end of file
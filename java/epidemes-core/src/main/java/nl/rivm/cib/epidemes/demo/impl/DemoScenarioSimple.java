@@ -19,8 +19,17 @@
  */
 package nl.rivm.cib.epidemes.demo.impl;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.ParseException;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
@@ -31,22 +40,24 @@ import java.util.stream.Collectors;
 import javax.inject.Inject;
 
 import org.apache.logging.log4j.Logger;
-import org.ujmp.core.Matrix;
-import org.ujmp.core.calculation.Calculation.Ret;
-import org.ujmp.core.enums.ValueType;
 
 import io.coala.bind.InjectConfig;
 import io.coala.data.DataLayer;
 import io.coala.data.DataLayer.MapFactory;
+import io.coala.json.JsonUtil;
 import io.coala.log.LogUtil;
-import io.coala.math.MatrixUtil;
+import io.coala.math.QuantityUtil;
 import io.coala.random.ProbabilityDistribution;
 import io.coala.time.Instant;
 import io.coala.time.Scheduler;
+import io.coala.time.TimeUnits;
 import io.coala.time.Timing;
+import io.coala.util.FileUtil;
 import io.reactivex.Observable;
 import io.reactivex.ObservableEmitter;
 import io.reactivex.schedulers.Schedulers;
+import nl.rivm.cib.epidemes.data.cbs.CBSRegionType;
+import nl.rivm.cib.epidemes.data.cbs.CbsRegionHierarchy;
 import nl.rivm.cib.epidemes.demo.DemoConfig;
 import nl.rivm.cib.epidemes.demo.DemoScenario;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Demical.DemicFact;
@@ -67,6 +78,8 @@ import nl.rivm.cib.epidemes.demo.entity.Sites.SiteTuple;
 import nl.rivm.cib.epidemes.demo.entity.Societies;
 import nl.rivm.cib.epidemes.demo.entity.Societies.SocietyTuple;
 import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+import nl.rivm.cib.epidemes.model.MetapopulationODE;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
 
 /**
  * {@link DemoScenarioSimple}
@@ -114,8 +127,11 @@ public class DemoScenarioSimple implements DemoScenario
 		return this.scheduler;
 	}
 
-	/** the data source */
-	private Matrix persons, households;
+	/** the (columnar) data source */
+	private ColumnLayer persons, households;
+
+	/** persons per home region &times; compartment, kept by each write */
+	private ColumnLayer.Tally<Compartment> regionalSIR;
 
 	/** demographic event aggregates */
 	private final Map<String, AtomicLong> demicEventStats = new TreeMap<>();
@@ -123,6 +139,12 @@ public class DemoScenarioSimple implements DemoScenario
 	/** epidemic event aggregates */
 	private final Map<String, EnumMap<Compartment, AtomicLong>> sirEventStats = new TreeMap<>();
 
+	/** the {@link DemoConfig.Engine#ODE} dynamics, once the outbreak started */
+	private MetapopulationODE ode = null;
+
+	/** the agent-based SIR deltas when the {@link #ode} took over */
+	private Map<String, EnumMap<Compartment, Long>> odeDeltaOffset = null;
+
 	@Override
 	public void init() throws Exception
 	{
@@ -131,18 +153,18 @@ public class DemoScenarioSimple implements DemoScenario
 		LOG.info( "RNG seed: {}, scheduler offset: {}",
 				this.distFactory.getStream().seed(), scheduler().offset() );
 
-		this.persons = Matrix.Factory.sparse( ValueType.OBJECT, 1_100_000,
-				Persons.PROPERTIES.size() );
-		this.households = Matrix.Factory.sparse( ValueType.OBJECT, 1_000_000,
-				Households.PROPERTIES.size() );
+		this.persons = new ColumnLayer( Persons.PROPERTIES, 1_100_000 );
+		this.households = new ColumnLayer( Households.PROPERTIES, 1_000_000 );
+		this.regionalSIR = this.persons.tally( Persons.HomeRegionRef.class,
+				Persons.PathogenCompartment.class );
 
 		// register data sources BEFORE initializing the brokers
 		this.data
 				.withSource(
 						map -> map.put( PersonTuple.class, Persons.PROPERTIES ),
-						this.persons )
+						props -> this.persons )
 				.withSource( map -> map.put( HouseholdTuple.class,
-						Households.PROPERTIES ), this.households )
+						Households.PROPERTIES ), props -> this.households )
 				.withSource(
 						map -> map.put( RegionTuple.class, Regions.PROPERTIES ),
 						(MapFactory<Long>) HashMap::new )
@@ -154,9 +176,32 @@ public class DemoScenarioSimple implements DemoScenario
 						map -> map.put( SiteTuple.class, Sites.PROPERTIES ),
 						(MapFactory<Long>) HashMap::new );
 
+		// restore any snapshot population BEFORE resetting the brokers
+		final String snapshotFile = this.config.populationSnapshot();
+		final Path snapshot = snapshotFile == null
+				|| snapshotFile.trim().isEmpty() ? null
+						: Paths.get( snapshotFile.trim() );
+		final PopulationSnapshot restored = snapshot != null
+				&& Files.isRegularFile( snapshot )
+						? PopulationSnapshot.restore( snapshot,
+								this.data.getTable( SiteTuple.class ),
+								this.data.getTable( HouseholdTuple.class ),
+								this.data.getTable( PersonTuple.class ),
+								this.data.getTable( SocietyTuple.class ) )
+						: null;
+		if( restored != null
+				&& !restored.reseed( this.distFactory ) )
+			LOG.warn( "Unable to reseed {}, continuing without snapshot seed",
+					this.distFactory.getStream().getClass().getSimpleName() );
+
+		// the ODE takes over (ahead of patient zero) at the outbreak start
+		final boolean agents = this.config.engine() == DemoConfig.Engine.AGENT;
+		if( !agents ) at( this.config.outbreakStart() ).call( this::startODE );
+
 		// reset brokers only AFTER data sources have been initialized
 		this.siteBroker.reset();
-		this.societyBroker.reset();
+		// skip the gatherings that drive agent-based transmission
+		if( agents ) this.societyBroker.reset();
 		this.peerBroker.reset();
 		this.healthBroker.reset();
 
@@ -168,6 +213,131 @@ public class DemoScenarioSimple implements DemoScenario
 		this.personBroker.reset().events().observeOn( Schedulers.io() )
 				.ofType( Demical.DemicFact.class ).subscribe( this::onDemicFact,
 						scheduler()::fail, this::logStats );
+
+		if( restored != null )
+		{
+			if( agents ) this.societyBroker.restore( restored.members() );
+		} else if( snapshot != null )
+		{
+			// save after the brokers' initial (t=0) joins and assignments
+			if( agents )
+				atOnce( t -> saveSnapshot( snapshot ) );
+			else
+				// lacking societies, it would starve later agent-based runs
+				LOG.warn( "Not saving snapshot {} from {} engine", snapshot,
+						this.config.engine() );
+		}
+	}
+
+	private void saveSnapshot( final Path snapshot ) throws IOException
+	{
+		PopulationSnapshot.save( snapshot, this.distFactory,
+				this.data.getTable( SiteTuple.class ),
+				this.data.getTable( HouseholdTuple.class ),
+				this.data.getTable( PersonTuple.class ),
+				this.data.getTable( SocietyTuple.class ),
+				this.societyBroker.members() );
+	}
+
+	private static double toDays( final String period )
+	{
+		return period == null || period.trim().isEmpty()
+				? Double.POSITIVE_INFINITY
+				: QuantityUtil.decimalValue( QuantityUtil.valueOf( period ),
+						TimeUnits.DAYS ).doubleValue();
+	}
+
+	private static double toDays( final Instant t )
+	{
+		return t.to( TimeUnits.DAYS ).decimal().doubleValue();
+	}
+
+	private void startODE( final Instant t ) throws IOException
+	{
+		final Map<String, EnumMap<Compartment, Long>> totals = this.regionalSIR
+				.snapshot();
+		final MetapopulationODE.Builder builder = new MetapopulationODE.Builder(
+				new ArrayList<>( totals.keySet() ) )
+						.withReproduction( this.config.odeReproduction() )
+						.withPeriods( toDays( this.config.odeLatentPeriod() ),
+								toDays( this.config.recoveryPeriod() ),
+								toDays( this.config.odeImmunityPeriod() ),
+								toDays( this.config
+										.odePassiveImmunityPeriod() ) )
+						.withTolerance( this.config.odeTolerance(),
+								this.config.odeTolerance() );
+
+		// couple regions by their (enclosing) CBS regions
+		final Map<String, EnumMap<CBSRegionType, String>> gmRegions;
+		try( final InputStream is = FileUtil
+				.toInputStream( this.config.odeRegionHierarchy() ) )
+		{
+			gmRegions = JsonUtil.getJOM()
+					.readValue( is, CbsRegionHierarchy.class )
+					.cityRegionsByType();
+		}
+		final String levels = this.config.odeMixingLevels();
+		if( levels != null && !levels.trim().isEmpty() )
+			for( String level : levels.trim().split( "\\s*,\\s*" ) )
+			{
+				final String[] pair = level.split( "\\s*:\\s*" );
+				final CBSRegionType type = CBSRegionType
+						.valueOf( pair[0].trim() );
+				builder.withLevel( Double.valueOf( pair[1] ), reg ->
+				{
+					if( type == CBSRegionType.COUNTRY ) return type;
+					final EnumMap<CBSRegionType, String> regs = gmRegions
+							.get( reg );
+					return regs == null ? null : regs.get( type );
+				} );
+			}
+
+		// couple regions by commuting flows, if any
+		final String flows = this.config.odeCommutingFlows();
+		if( flows != null && !flows.trim().isEmpty() )
+		{
+			builder.withCommuting( this.config.odeCommutingShare() );
+			try( final BufferedReader in = new BufferedReader(
+					new InputStreamReader( FileUtil.toInputStream( flows ) ) ) )
+			{
+				in.lines().map( line -> line.split( DemoConfig.sep ) )
+						// skip any header
+						.filter( cols -> cols.length > 2
+								&& cols[2].trim().matches( "[0-9.Ee+-]+" ) )
+						.forEach( cols -> builder.withCommute( cols[0].trim(),
+								cols[1].trim(),
+								Double.valueOf( cols[2].trim() ) ) );
+			}
+		}
+
+		this.odeDeltaOffset = exportAgentSIRDelta();
+		this.ode = builder.build().reset( totals, toDays( t ) ).seed(
+				this.config.odeIndexRegion(), this.config.odeIndexCases() );
+		LOG.info( "t={} ODE took over {} regions, {} index case(s) in {}",
+				scheduler().nowDT(), totals.size(),
+				this.config.odeIndexCases(), this.config.odeIndexRegion() );
+	}
+
+	/**
+	 * @param totals whether to export totals or (cumulative) inflows
+	 * @param offset the values to add, e.g. prior to the {@link #ode}
+	 * @return the {@link #ode} results, integrated up to {@link #now()}
+	 */
+	private synchronized Map<String, EnumMap<Compartment, Long>> exportODE(
+		final boolean totals,
+		final Map<String, EnumMap<Compartment, Long>> offset )
+	{
+		this.ode.advance( toDays( now() ) );
+		final Map<String, EnumMap<Compartment, Long>> result = totals
+				? this.ode.totals() : this.ode.inflows();
+		offset.forEach( ( reg, sir ) ->
+		{
+			final EnumMap<Compartment, Long> sum = result.computeIfAbsent(
+					reg, k -> new EnumMap<>( Compartment.class ) );
+			for( Compartment c : Compartment.values() )
+				sum.merge( c, sir.getOrDefault( c, 0L ), Long::sum );
+		} );
+		return result;
 	}
 
 	private void onEpidemicFact( final EpidemicFact ev )
@@ -242,6 +412,12 @@ public class DemoScenarioSimple implements DemoScenario
 
 	@Override
 	public Map<String, EnumMap<Compartment, Long>> exportRegionalSIRDelta()
+	{
+		return this.ode == null ? exportAgentSIRDelta()
+				: exportODE( false, this.odeDeltaOffset );
+	}
+
+	private Map<String, EnumMap<Compartment, Long>> exportAgentSIRDelta()
 	{
 		return this.sirEventStats.entrySet().stream().collect( Collectors.toMap(
 				Map.Entry::getKey,
@@ -254,21 +430,9 @@ public class DemoScenarioSimple implements DemoScenario
 	@Override
 	public Map<String, EnumMap<Compartment, Long>> exportRegionalSIRTotal()
 	{
-		final Matrix epicol = this.persons.selectColumns( Ret.LINK,
-				Persons.PROPERTIES
-						.indexOf( Persons.PathogenCompartment.class ) );
-		final Matrix homecol = this.persons.selectColumns( Ret.LINK,
-				Persons.PROPERTIES.indexOf( Persons.HomeRegionRef.class ) );
-
-		return MatrixUtil.streamAvailableCoordinates( epicol, true )
-				// sequential? called from another thread
-				.filter( x -> homecol.getAsObject( x ) != null )
-				.collect( Collectors.groupingBy( homecol::getAsString,
-						Collectors.groupingBy(
-								x -> Compartment.values()[epicol.getAsInt( x )
-										- 1],
-								() -> new EnumMap<>( Compartment.class ),
-								Collectors.counting() ) ) );
+		// copy the (incrementally maintained) counters: O(regions)
+		return this.ode == null ? this.regionalSIR.snapshot()
+				: exportODE( true, Collections.emptyMap() );
 	}
 
 //	@Override
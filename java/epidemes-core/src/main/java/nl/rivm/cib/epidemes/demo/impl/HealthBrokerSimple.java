@@ -19,25 +19,23 @@
  */
 package nl.rivm.cib.epidemes.demo.impl;
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -58,6 +56,7 @@ import io.coala.math.QuantityUtil;
 import io.coala.math.Range;
 import io.coala.random.ConditionalDistribution;
 import io.coala.random.ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
 import io.coala.random.QuantityDistribution;
 import io.coala.time.Duration;
 import io.coala.time.Expectation;
@@ -84,6 +83,9 @@ import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
 import nl.rivm.cib.epidemes.model.VaxDose;
 import nl.rivm.cib.epidemes.model.VaxOccasion;
 import nl.rivm.cib.epidemes.model.VaxRegimen;
+import nl.rivm.cib.epidemes.util.CohortIndex;
+import nl.rivm.cib.epidemes.util.IndexedMinHeap;
+import nl.rivm.cib.epidemes.util.RandomStreams;
 import tec.uom.se.ComparableQuantity;
 
 /**
@@ -116,6 +118,37 @@ public class HealthBrokerSimple implements HealthBroker
 		@DefaultValue( "1" )
 		double betaFactor();
 
+		/**
+		 * minimum gathering size for a site to be a well-mixed compartment
+		 * (see {@link WellMixedPressure}), or 0 to track each occupant's
+		 * resistance (see {@link LocalPressure}) at all sites
+		 */
+		@Key( PATHOGEN_PREFIX + "well-mixed-site-size" )
+		@DefaultValue( "0" )
+		int wellMixedSiteSize();
+
+		/** minimum occupancy of a well-mixed site for tau-leaping */
+		@Key( PATHOGEN_PREFIX + "tau-leap-size" )
+		@DefaultValue( "200" )
+		int tauLeapSize();
+
+		/**
+		 * maximum expected relative change of susceptibles or infectives per
+		 * leap
+		 */
+		@Key( PATHOGEN_PREFIX + "tau-leap-tolerance" )
+		@DefaultValue( ".03" )
+		double tauLeapTolerance();
+
+		/**
+		 * whether to collect all gathering arrivals and departures per site
+		 * and instant, applying them with a single pressure update each (see
+		 * {@link SitePressure#move(Map)}), rather than per gathering
+		 */
+		@Key( PATHOGEN_PREFIX + "batch-site-moves" )
+		@DefaultValue( "false" )
+		boolean batchSiteMoves();
+
 		@Key( PATHOGEN_PREFIX + "last-outbreak-end-date" )
 		@DefaultValue( "2000-06-30" )
 		@ConverterClass( LocalDateConverter.class )
@@ -175,6 +208,9 @@ public class HealthBrokerSimple implements HealthBroker
 	private static final Logger LOG = LogUtil
 			.getLogger( HealthBrokerSimple.class );
 
+	/** the {@link RandomStreams} key of this broker */
+	private static final String HEALTH = "health";
+
 	@InjectConfig
 	private HealthConfig config;
 
@@ -195,7 +231,7 @@ public class HealthBrokerSimple implements HealthBroker
 
 	private final PublishSubject<EpidemicFact> events = PublishSubject.create();
 
-	private final Map<Object, LocalPressure> homePressure = new HashMap<>();
+	private final Map<Object, SitePressure> homePressure = new HashMap<>();
 
 	@Override
 	public Scheduler scheduler()
@@ -221,10 +257,12 @@ public class HealthBrokerSimple implements HealthBroker
 	private ConditionalDistribution<VaxOccasion, VaxDose> vaxOccasionConvenienceDist;
 	/** */
 	private QuantityDistribution<Time> vaxTreatmentDelay;
-	/** age resolution of vaccination cohorts/bins, in scheduler time units */
-	private BigDecimal vaxDecisionAgeResolution;
-	/** current hesitants/susceptibles within/before decision age, by age bin */
-	private TreeMap<BigDecimal, List<Object>> vaxAgeHesitants = new TreeMap<>();
+	/** age resolution of vaccination cohorts (days), in scheduler time units */
+	private double vaxDecisionAgeResolution;
+	/** the regimen's decision age range, in scheduler time units */
+	private Range<Double> vaxDecisionAgeRange;
+	/** current hesitants/susceptibles within/before decision age, by birth day */
+	private final CohortIndex<Object> vaxHesitants = new CohortIndex<>();
 	/** */
 	private ConditionalDistribution<Compartment, RegionPeriod> sirStatusDist;
 	/** */
@@ -277,8 +315,11 @@ public class HealthBrokerSimple implements HealthBroker
 		this.vaxTreatmentDelay = this.distParser.parseQuantity(
 				this.config.treatmentDelayDist(), TimeUnits.WEEK );
 
-		this.resistanceDist = this.distFactory.createExponential( 1 );
-		this.recoveryPeriodDist = this.distFactory
+		this.resistanceDist = RandomStreams
+				.split( this.distFactory, HEALTH, "resistance" )
+				.createExponential( 1 );
+		this.recoveryPeriodDist = RandomStreams
+				.split( this.distFactory, HEALTH, "recovery" )
 				.createExponential( this.gamma_inv )
 				.toQuantities( TimeUnits.DAYS );
 
@@ -297,7 +338,12 @@ public class HealthBrokerSimple implements HealthBroker
 
 		this.vaxDecisionAgeResolution = QuantityUtil
 				.decimalValue( QuantityUtil.valueOf( 1, TimeUnits.DAY )
-						.to( scheduler().timeUnit().asType( Time.class ) ) );
+						.to( scheduler().timeUnit().asType( Time.class ) ) )
+				.doubleValue();
+		this.vaxDecisionAgeRange = this.regimen.decisionAgeRange()
+				.map( age -> QuantityUtil
+						.decimalValue( age, scheduler().timeUnit() )
+						.doubleValue() );
 
 		this.households = this.data.getTable( HouseholdTuple.class );
 		this.persons = this.data.getTable( PersonTuple.class );
@@ -306,10 +352,33 @@ public class HealthBrokerSimple implements HealthBroker
 //		this.persons.onUpdate( Persons.SiteRef.class,this::onMove, scheduler()::fail);
 		this.persons.onUpdate( Persons.PathogenCompartment.class,
 				this::onCompartmentTransition, scheduler()::fail );
+		// resume any persons restored from a snapshot
+		this.persons.stream().forEach( this::onRestore );
 
-		this.societyBroker.events().subscribe( e ->
+		if( this.config.batchSiteMoves() )
+			this.societyBroker.events().subscribe( e ->
+			{
+				// create the site's engine by its (first) gathering size
+				getLP( e.siteRef, e.participants.size() );
+				final Instant t_r = now().add( e.duration );
+				e.participants.forEach( ppRef ->
+				{
+					final Object homeRef = this.persons.containsKey( ppRef )
+							? this.persons.selectValue( ppRef,
+									Persons.HomeSiteRef.class )
+							: null;
+					if( homeRef != null )
+					{
+						move( now(), homeRef, ppRef, false );
+						move( now(), e.siteRef, ppRef, true );
+						move( t_r, homeRef, ppRef, true );
+					}
+					move( t_r, e.siteRef, ppRef, false );
+				} );
+			}, scheduler()::fail );
+		else this.societyBroker.events().subscribe( e ->
 		{
-			final LocalPressure lp = getLP( e.siteRef );
+			final SitePressure lp = getLP( e.siteRef, e.participants.size() );
 
 			final Map<Object, Set<Object>> homeConveners = e.participants
 					.stream().filter( this.persons::containsKey )
@@ -367,9 +436,7 @@ public class HealthBrokerSimple implements HealthBroker
 		final PersonTuple minResistant = this.persons.stream()
 				.filter( pp -> pp.get( Persons.PathogenCompartment.class )
 						.isSusceptible() )
-				.min( ( l, r ) -> l.get( Persons.PathogenResistance.class )
-						.compareTo(
-								r.get( Persons.PathogenResistance.class ) ) )
+				.min( Comparator.comparingDouble( PersonTuple::resistance ) )
 				.orElse( null );
 
 		minResistant.set( Persons.PathogenCompartment.class,
@@ -409,19 +476,110 @@ public class HealthBrokerSimple implements HealthBroker
 		return QuantityUtil.valueOf( n / nI / this.beta, TimeUnits.DAYS );
 	}
 
-	private LocalPressure getLP( final Object siteRef )
+	private SitePressure getLP( final Object siteRef )
+	{
+		return getLP( siteRef, 1 );
+	}
+
+	/**
+	 * @param siteRef the site reference
+	 * @param occupancy the (first) gathering size, to select the engine
+	 * @return the site's (new) {@link SitePressure}
+	 */
+	private SitePressure getLP( final Object siteRef, final int occupancy )
 	{
 		return this.homePressure.computeIfAbsent(
 				Objects.requireNonNull( siteRef, "No site ref?" ),
-				k -> new LocalPressure( scheduler(), this.persons::select,
-						this::infectionTimer ) );
+				k -> this.config.wellMixedSiteSize() > 0
+						&& occupancy >= this.config.wellMixedSiteSize()
+								? new WellMixedPressure( scheduler(),
+										this.persons::select,
+										RandomStreams.split(
+												this.distFactory, HEALTH,
+												"site", k ).getStream(),
+										this.beta, this.config.tauLeapSize(),
+										this.config.tauLeapTolerance() )
+								: new LocalPressure( scheduler(),
+										this.persons::select,
+										this::infectionTimer ) );
+	}
+
+	/**
+	 * per pending instant, per site, each occupant's net move: {@code true}
+	 * to arrive, {@code false} to depart
+	 */
+	private final NavigableMap<Instant, Map<Object, Map<Object, Boolean>>> pendingMoves = new TreeMap<>();
+
+	/**
+	 * @param t the {@link Instant} to apply the move, now or later
+	 * @param siteRef the site reference
+	 * @param ppRef the person reference
+	 * @param arrive {@code true} to arrive, {@code false} to depart
+	 */
+	private void move( final Instant t, final Object siteRef,
+		final Object ppRef, final boolean arrive )
+	{
+		this.pendingMoves.computeIfAbsent( t, k ->
+		{
+			at( k ).call( this::applyMoves );
+			return new LinkedHashMap<>();
+		} ).computeIfAbsent( siteRef, k -> new LinkedHashMap<>() )
+				.put( ppRef, arrive );
+	}
+
+	/** apply each site's moves for specified instant at once */
+	private void applyMoves( final Instant t )
+	{
+		final Map<Object, Map<Object, Boolean>> siteMoves = this.pendingMoves
+				.remove( t );
+		if( siteMoves == null ) return;
+		siteMoves.forEach( ( siteRef, moves ) ->
+		{
+			final Map<Object, PersonTuple> occupants = new LinkedHashMap<>();
+			// arrivals of removed persons depart (if present) instead
+			moves.forEach( ( ppRef, arrive ) -> occupants.put( ppRef,
+					arrive ? this.persons.select( ppRef ) : null ) );
+			getLP( siteRef ).move( occupants );
+		} );
+	}
+
+	/**
+	 * {@link SitePressure} transmits infection among a site's occupants
+	 */
+	interface SitePressure
+	{
+		SitePressure arrive( Stream<PersonTuple> ppl );
+
+		SitePressure depart( Stream<Object> pplRefs );
+
+		/**
+		 * @param moves the net moves, in order, each person reference mapped
+		 *            to its arriving {@link PersonTuple}, or {@code null} to
+		 *            depart
+		 * @return this {@link SitePressure}, updated and rescheduled once
+		 */
+		SitePressure move( Map<Object, PersonTuple> moves );
+
+		default SitePressure depart( final PersonTuple pp )
+		{
+			return depart( Stream.of( pp.key() ) );
+		}
 	}
 
 	public static class LocalPressure //extends Accumulator
-		implements Proactive
+		implements Proactive, SitePressure
 	{
 		final Scheduler scheduler;
-		final Map<Object, Double> resistance = new HashMap<>();
+		/**
+		 * susceptible occupants by their absolute resistance threshold, i.e.
+		 * the {@link #pressure} level at which their remaining resistance is
+		 * depleted
+		 */
+		final IndexedMinHeap<Object> susceptibles = new IndexedMinHeap<>();
+		/** infective occupants, i.e. with zero resistance */
+		final Set<Object> infectives = new HashSet<>();
+		/** remaining (e.g. immune, removed or depleted) occupants */
+		final Set<Object> others = new HashSet<>();
 		final AtomicReference<Expectation> pending = new AtomicReference<>();
 		final Function<Object, PersonTuple> ppGetter;
 		final BiFunction<Integer, Integer, ComparableQuantity<Time>> infectionTimer;
@@ -431,6 +589,11 @@ public class HealthBrokerSimple implements HealthBroker
 		 */
 		ComparableQuantity<Time> pressurizedLatency = null;
 		Instant pressureStart = null;
+		/**
+		 * the (lazy) resistance decrease accumulated so far by all susceptible
+		 * occupants, replacing an O(n) decrement of each occupant
+		 */
+		double pressure = 0d;
 
 		LocalPressure( final Scheduler scheduler,
 			final Function<Object, PersonTuple> ppGetter,
@@ -447,37 +610,48 @@ public class HealthBrokerSimple implements HealthBroker
 			return this.scheduler;
 		}
 
-		private Object getTargetAndRetally( final AtomicInteger infectives )
+		int size()
 		{
-			final List<Object> removed = new ArrayList<>();
-			infectives.set( 0 );
-			final Object result = this.resistance.entrySet().stream()
-					.filter( e ->
-					{
-						// skip if removed
-						final PersonTuple pp = this.ppGetter
-								.apply( e.getKey() );
-						if( pp == null ) return !removed.add( e.getKey() );
-
-						if( e.getValue() > 0 ) return true;
-						if( e.getValue() == 0d ) infectives.incrementAndGet();
-						return false;
-					} )
-					.min( ( l, r ) -> l.getValue().compareTo( r.getValue() ) )
-					.map( Map.Entry::getKey ).orElse( null );
+			return this.susceptibles.size() + this.infectives.size()
+					+ this.others.size();
+		}
 
-			// remove the dead
-			removed.forEach( this.resistance::remove );
-			return result;
+		private Object getTargetAndRetally()
+		{
+			// remove the dead, e.g. deleted while away from their home site
+			final Predicate<Object> dead = ppRef -> this.ppGetter
+					.apply( ppRef ) == null;
+			this.infectives.removeIf( dead );
+			this.others.removeIf( dead );
+			this.susceptibles.removeIf( dead );
+			while( !this.susceptibles.isEmpty() )
+			{
+				final Object ppRef = this.susceptibles.peekKey();
+				final double res = this.susceptibles.peekValue() - this.pressure;
+				if( res > 0 ) return ppRef;
+
+				// depleted without infection, e.g. beyond the horizon
+				this.susceptibles.remove( ppRef );
+				if( res == 0d )
+					this.infectives.add( ppRef );
+				else
+					this.others.add( ppRef );
+			}
+			return null;
 		}
 
-		void infect( final Object targetRef, final Double targetRes )
+		void infect( final Object targetRef, final double targetThreshold )
 		{
 			final PersonTuple target = this.ppGetter.apply( targetRef );
 			target.updateAndGet( Persons.PathogenCompartment.class,
 					oldSIR -> Compartment.INFECTIVE );
 			// update local resistance (if still here)
-			this.resistance.replace( targetRef, targetRes, 0d );
+			if( this.susceptibles.get( targetRef,
+					Double.NaN ) == targetThreshold )
+			{
+				this.susceptibles.remove( targetRef );
+				this.infectives.add( targetRef );
+			}
 			// shift all resistance
 			preschedule();
 			reschedule();
@@ -503,8 +677,7 @@ public class HealthBrokerSimple implements HealthBroker
 //				LOG.debug( "t={} delta-resistance {} = {} / {}",
 //						scheduler().nowDT(), resDecrease, dtPressure,
 //						this.pressurizedLatency );
-				this.resistance.replaceAll( ( ppRef, ppRes ) -> ppRes > 0
-						? ppRes - resDecrease : ppRes );
+				this.pressure += resDecrease;
 			}
 			// reset pressure calculations
 			this.pressurizedLatency = null;
@@ -516,22 +689,21 @@ public class HealthBrokerSimple implements HealthBroker
 			this.pending.updateAndGet( expPrev ->
 			{
 				if( expPrev != null ) expPrev.remove();
-				final AtomicInteger infectivesCount = new AtomicInteger();
-				final Object targetRef = getTargetAndRetally( infectivesCount );
+				final Object targetRef = getTargetAndRetally();
 
 				// no-one to give/receive pressure ?
-				if( targetRef == null || infectivesCount.get() == 0 )
+				if( targetRef == null || this.infectives.isEmpty() )
 					return null; // nothing to schedule
 
 				this.pressureStart = now();
 				this.pressurizedLatency = this.infectionTimer
-						.apply( infectivesCount.get(), this.resistance.size() );
-				final Double targetRes = this.resistance.get( targetRef );
+						.apply( this.infectives.size(), size() );
+				final double targetThreshold = this.susceptibles.peekValue();
 				final ComparableQuantity<Time> dt = this.pressurizedLatency
-						.multiply( targetRes );
+						.multiply( targetThreshold - this.pressure );
 				return dt.compareTo( VAX_HORIZON ) > 0 ? null
-						: after( dt )
-								.call( t_i -> infect( targetRef, targetRes ) );
+						: after( dt ).call(
+								t_i -> infect( targetRef, targetThreshold ) );
 			} );
 		}
 
@@ -543,7 +715,8 @@ public class HealthBrokerSimple implements HealthBroker
 			return this;
 		}
 
-		LocalPressure arrive( final Stream<PersonTuple> ppl )
+		@Override
+		public LocalPressure arrive( final Stream<PersonTuple> ppl )
 		{
 			preschedule();
 			ppl.forEach( this::doArrive );
@@ -553,25 +726,293 @@ public class HealthBrokerSimple implements HealthBroker
 
 		void doArrive( final PersonTuple pp )
 		{
+			final Object ppRef = pp.key();
+			doDepart( ppRef );
 			final Compartment sir = pp.get( Persons.PathogenCompartment.class );
-			this.resistance.put( pp.key(),
-					sir == Compartment.SUSCEPTIBLE
-							? pp.get( Persons.PathogenResistance.class )
-							: sir == Compartment.INFECTIVE ? 0d : -1d );
+			final double res = sir == Compartment.SUSCEPTIBLE
+					? pp.get( Persons.PathogenResistance.class )
+					: sir == Compartment.INFECTIVE ? 0d : -1d;
+			if( res > 0 )
+				this.susceptibles.put( ppRef, this.pressure + res );
+			else if( res == 0d )
+				this.infectives.add( ppRef );
+			else
+				this.others.add( ppRef );
+		}
+
+		void doDepart( final Object ppRef )
+		{
+			if( !this.susceptibles.remove( ppRef )
+					&& !this.infectives.remove( ppRef ) )
+				this.others.remove( ppRef );
+		}
+
+		@Override
+		public LocalPressure depart( final PersonTuple pp )
+		{
+			preschedule();
+			doDepart( pp.key() );
+			reschedule();
+			return this;
 		}
 
-		LocalPressure depart( final PersonTuple pp )
+		@Override
+		public LocalPressure depart( final Stream<Object> pplRefs )
 		{
 			preschedule();
-			this.resistance.remove( pp.key() );
+			pplRefs.forEach( this::doDepart );
 			reschedule();
 			return this;
 		}
 
-		LocalPressure depart( final Stream<Object> pplRefs )
+		@Override
+		public LocalPressure move( final Map<Object, PersonTuple> moves )
 		{
 			preschedule();
-			pplRefs.forEach( this.resistance::remove );
+			moves.forEach( ( ppRef, pp ) ->
+			{
+				if( pp == null )
+					doDepart( ppRef );
+				else
+					doArrive( pp );
+			} );
+			reschedule();
+			return this;
+		}
+	}
+
+	/**
+	 * {@link WellMixedPressure} treats a (large) site as a well-mixed
+	 * compartment, infecting each susceptible occupant at rate &beta;I/N.
+	 * Below {@link #leapSize} occupants it draws each next infection exactly
+	 * (Gillespie), otherwise it leaps ahead by Poisson-distributed infection
+	 * counts (tau-leaping). Random susceptibles are infected, so unlike
+	 * {@link LocalPressure} no resistance is tracked per occupant, which is
+	 * equivalent in distribution as resistances are exponential
+	 */
+	public static class WellMixedPressure implements Proactive, SitePressure
+	{
+		final Scheduler scheduler;
+		final Function<Object, PersonTuple> ppGetter;
+		final PseudoRandom rng;
+		/** the transmission rate, per day */
+		final double beta;
+		/** minimum occupancy for tau-leaping */
+		final int leapSize;
+		/**
+		 * maximum expected relative change of susceptibles or infectives per
+		 * leap
+		 */
+		final double leapTolerance;
+		/** susceptible occupants, for O(1) random draws and removals */
+		final List<Object> susceptibles = new ArrayList<>();
+		/** susceptible occupant &rarr; position in {@link #susceptibles} */
+		final Map<Object, Integer> susceptibleIndex = new HashMap<>();
+		/** infective occupants */
+		final Set<Object> infectives = new HashSet<>();
+		/** remaining (e.g. immune or removed) occupants */
+		final Set<Object> others = new HashSet<>();
+		Expectation pending = null;
+		/** start of the pending leap, if any */
+		Instant leapStart = null;
+
+		WellMixedPressure( final Scheduler scheduler,
+			final Function<Object, PersonTuple> ppGetter,
+			final PseudoRandom rng, final double beta, final int leapSize,
+			final double leapTolerance )
+		{
+			this.scheduler = scheduler;
+			this.ppGetter = ppGetter;
+			this.rng = rng;
+			this.beta = beta;
+			this.leapSize = leapSize;
+			this.leapTolerance = leapTolerance;
+		}
+
+		@Override
+		public Scheduler scheduler()
+		{
+			return this.scheduler;
+		}
+
+		int size()
+		{
+			return this.susceptibles.size() + this.infectives.size()
+					+ this.others.size();
+		}
+
+		/** @return the total infection rate, per day */
+		double propensity()
+		{
+			final int n = size();
+			return n == 0 ? 0
+					: this.beta * this.susceptibles.size()
+							* this.infectives.size() / n;
+		}
+
+		static double toDays( final Duration dt )
+		{
+			return dt.toQuantity( TimeUnits.DAYS ).getValue().doubleValue();
+		}
+
+		/**
+		 * @param mean the Poisson mean
+		 * @return a Poisson draw, approximated by a (rounded) normal draw for
+		 *         larger means
+		 */
+		long nextPoisson( final double mean )
+		{
+			if( mean > 30 ) return Math.max( 0, Math.round(
+					mean + Math.sqrt( mean ) * this.rng.nextGaussian() ) );
+			final double limit = Math.exp( -mean );
+			long k = 0;
+			for( double p = this.rng.nextDouble(); p > limit; p *= this.rng
+					.nextDouble() )
+				k++;
+			return k;
+		}
+
+		void addSusceptible( final Object ppRef )
+		{
+			this.susceptibleIndex.put( ppRef, this.susceptibles.size() );
+			this.susceptibles.add( ppRef );
+		}
+
+		boolean removeSusceptible( final Object ppRef )
+		{
+			final Integer i = this.susceptibleIndex.remove( ppRef );
+			if( i == null ) return false;
+			final Object last = this.susceptibles
+					.remove( this.susceptibles.size() - 1 );
+			if( last != ppRef )
+			{
+				this.susceptibles.set( i, last );
+				this.susceptibleIndex.put( last, i );
+			}
+			return true;
+		}
+
+		/** infect a random susceptible occupant, if (still) susceptible */
+		void infectAny()
+		{
+			final Object ppRef = this.susceptibles
+					.get( this.rng.nextInt( this.susceptibles.size() ) );
+			removeSusceptible( ppRef );
+			final PersonTuple pp = this.ppGetter.apply( ppRef );
+			if( pp == null ) return; // removed
+			if( pp.updateAndGet( Persons.PathogenCompartment.class,
+					sir -> sir == Compartment.SUSCEPTIBLE
+							? Compartment.INFECTIVE
+							: sir ) == Compartment.INFECTIVE )
+				this.infectives.add( ppRef );
+			else
+				this.others.add( ppRef );
+		}
+
+		/** apply the infections of the pending leap so far, if any */
+		void leap()
+		{
+			if( this.leapStart == null ) return;
+			final long k = Math.min( this.susceptibles.size(), nextPoisson(
+					propensity() * toDays( now().subtract( this.leapStart ) ) ) );
+			this.leapStart = null;
+			for( long i = 0; i < k; i++ )
+				infectAny();
+		}
+
+		void reschedule()
+		{
+			if( this.pending != null ) this.pending.remove();
+			this.pending = null;
+			// retally removed and recovered infectives
+			this.infectives.removeIf( ppRef ->
+			{
+				final PersonTuple pp = this.ppGetter.apply( ppRef );
+				if( pp == null ) return true;
+				if( pp.get( Persons.PathogenCompartment.class )
+						.isInfective() ) return false;
+				this.others.add( ppRef );
+				return true;
+			} );
+			final double a = propensity();
+			if( a <= 0 ) return; // nothing to schedule
+
+			final double horizon = QuantityUtil
+					.decimalValue( VAX_HORIZON, TimeUnits.DAYS ).doubleValue();
+			if( size() >= this.leapSize )
+			{
+				this.leapStart = now();
+				// bound the change of both reactants, e.g. of few infectives
+				final double tau = Math.min( horizon,
+						this.leapTolerance * Math.min( this.susceptibles.size(),
+								this.infectives.size() ) / a );
+				this.pending = after( tau, TimeUnits.DAYS ).call( t ->
+				{
+					this.pending = null;
+					leap();
+					reschedule();
+				} );
+				return;
+			}
+			// memoryless: redraw beyond the horizon, or on any change
+			final double dt = -Math.log( 1 - this.rng.nextDouble() ) / a;
+			this.pending = after( Math.min( dt, horizon ), TimeUnits.DAYS )
+					.call( t ->
+					{
+						this.pending = null;
+						if( dt <= horizon ) infectAny();
+						reschedule();
+					} );
+		}
+
+		void doArrive( final PersonTuple pp )
+		{
+			final Object ppRef = pp.key();
+			doDepart( ppRef );
+			final Compartment sir = pp.get( Persons.PathogenCompartment.class );
+			if( sir == Compartment.SUSCEPTIBLE )
+				addSusceptible( ppRef );
+			else if( sir == Compartment.INFECTIVE )
+				this.infectives.add( ppRef );
+			else
+				this.others.add( ppRef );
+		}
+
+		void doDepart( final Object ppRef )
+		{
+			if( !removeSusceptible( ppRef ) && !this.infectives.remove( ppRef ) )
+				this.others.remove( ppRef );
+		}
+
+		@Override
+		public WellMixedPressure arrive( final Stream<PersonTuple> ppl )
+		{
+			leap();
+			ppl.forEach( this::doArrive );
+			reschedule();
+			return this;
+		}
+
+		@Override
+		public WellMixedPressure depart( final Stream<Object> pplRefs )
+		{
+			leap();
+			pplRefs.forEach( this::doDepart );
+			reschedule();
+			return this;
+		}
+
+		@Override
+		public WellMixedPressure move( final Map<Object, PersonTuple> moves )
+		{
+			leap();
+			moves.forEach( ( ppRef, pp ) ->
+			{
+				if( pp == null )
+					doDepart( ppRef );
+				else
+					doArrive( pp );
+			} );
 			reschedule();
 			return this;
 		}
@@ -606,26 +1047,27 @@ public class HealthBrokerSimple implements HealthBroker
 //		this.pendingPressure = null;
 	}
 
-	BigDecimal vaxDecisionAgeBin( final BigDecimal tBirth )
+	/**
+	 * @param t a time (e.g. birth), in scheduler time units
+	 * @return the (vaccination cohort) day of {@code t}
+	 */
+	long vaxDay( final double t )
 	{
-		return tBirth.divide( this.vaxDecisionAgeResolution,
-				RoundingMode.FLOOR );
+		return (long) Math.floor( t / this.vaxDecisionAgeResolution );
 	}
 
 	void addToHesitant( final PersonTuple pp )
 	{
-		final BigDecimal ageBin = vaxDecisionAgeBin(
-				pp.get( Persons.Birth.class ) );
-		this.vaxAgeHesitants.computeIfAbsent( ageBin, k -> new ArrayList<>() )
-				.add( pp.key() );
+		this.vaxHesitants.add(
+				vaxDay( pp.get( Persons.Birth.class ).doubleValue() ),
+				pp.key() );
 	}
 
 	void removeFromHesitant( final PersonTuple pp )
 	{
-		final BigDecimal ageBin = vaxDecisionAgeBin(
-				pp.get( Persons.Birth.class ) );
-		this.vaxAgeHesitants.getOrDefault( ageBin, Collections.emptyList() )
-				.remove( pp.key() );
+		this.vaxHesitants.remove(
+				vaxDay( pp.get( Persons.Birth.class ).doubleValue() ),
+				pp.key() );
 	}
 
 	void onDelete( final PersonTuple pp )
@@ -663,70 +1105,95 @@ public class HealthBrokerSimple implements HealthBroker
 		this.nextCreations.add( pp.key() );
 	}
 
+	/** like {@link #onCreate} but keeping the person's (restored) status */
+	void onRestore( final PersonTuple pp )
+	{
+		if( pp.get(
+				Persons.PathogenCompartment.class ) == Compartment.SUSCEPTIBLE )
+			addToHesitant( pp );
+
+		if( this.pendingPressure == null )
+			this.pendingPressure = atOnce( this::handleMoves );
+
+		this.nextCreations.add( pp.key() );
+	}
+
 	private void scheduleVaccinations( final Instant t )
 	{
-		final Range<BigDecimal> decisionAgeBinRange = this.regimen
-				.decisionAgeRange()
-				.map( age -> vaxDecisionAgeBin( t.decimal().subtract(
-						QuantityUtil.decimalValue( age, t.unit() ) ) ) );
-
-		final NavigableMap<BigDecimal, List<Object>> subMap = decisionAgeBinRange
-				.apply( this.vaxAgeHesitants, false );
-//		LOG.debug( "Vaccinate cohorts range {} -> {} : {}..{} <- {} ppl",
-//				this.regimen.decisionAgeRange(), decisionAgeBinRange,
-//				subMap.firstKey(), subMap.lastKey(),
-//				subMap.values().stream().mapToInt( List::size ).sum() );
-		final AtomicInteger accepting = new AtomicInteger(),
-				rejecting = new AtomicInteger();
-		final PersonTuple[] removable = subMap.values().stream()
-				.flatMap( List::stream ).map( this.persons::select )
-				.filter( pp -> pp
-						.get( Persons.PathogenCompartment.class ) == Compartment.SUSCEPTIBLE )
-				.filter( pp ->
-				{
-					final int status = pp.get( Persons.VaxCompliance.class );
+		// birth days of the regimen's decision ages, oldest first
+		final Range<Double> ages = this.vaxDecisionAgeRange;
+		final double now = t.decimal().doubleValue();
+		final long fromDay = !ages.upperFinite() ? this.vaxHesitants.firstDay()
+				: vaxDay( now - ages.upperValue() )
+						+ (ages.upperInclusive() ? 0 : 1),
+				toDay = !ages.lowerFinite() ? this.vaxHesitants.lastDay()
+						: vaxDay( now - ages.lowerValue() )
+								- (ages.lowerInclusive() ? 0 : 1);
+
+		// collect candidates and their occasions, evaluated in bulk
+		final List<PersonTuple> candidates = new ArrayList<>();
+		final List<ComparableQuantity<Time>> candidateAges = new ArrayList<>();
+		final List<VaxDose> candidateDoses = new ArrayList<>();
+		final List<HouseholdTuple> candidateHhs = new ArrayList<>();
+		final List<VaxOccasion> candidateOccasions = new ArrayList<>();
+		for( Object ppRef : this.vaxHesitants.select( fromDay, toDay ) )
+		{
+			final PersonTuple pp = this.persons.select( ppRef );
+			if( pp == null || pp.get(
+					Persons.PathogenCompartment.class ) != Compartment.SUSCEPTIBLE )
+				continue;
 
-					if( this.regimen.isCompliant( status ) )
-					{
-						LOG.warn( "Already compliant {}", pp );
-						pp.set( Persons.PathogenCompartment.class,
-								Compartment.VACCINATED );
-						return true; // remove from hesitant
-					}
-					final ComparableQuantity<Time> age = ageOf( pp );
+			final int status = pp.get( Persons.VaxCompliance.class );
+			if( this.regimen.isCompliant( status ) )
+			{
+				LOG.warn( "Already compliant {}", pp );
+				pp.set( Persons.PathogenCompartment.class,
+						Compartment.VACCINATED );
+				removeFromHesitant( pp );
+				continue;
+			}
+			final ComparableQuantity<Time> age = ageOf( pp );
 
-					final VaxDose nextDose = this.regimen.nextRegular( status,
-							age );
-					if( nextDose == null )
-					{
-						LOG.warn( "Not covered by NIP, age {} for pp {}",
-								QuantityUtil.pretty( age, TimeUnits.YEAR, 1 ),
-								pp.pretty( Persons.PROPERTIES ) );
-						return true; // remove from hesitant
-					}
-					final VaxOccasion occ = this.vaxOccasionConvenienceDist
-							.draw( nextDose );
-					final HouseholdTuple hh = this.households
-							.get( pp.get( Persons.HouseholdRef.class ) );
-					if( hh == null )
-					{
-						LOG.warn( "No hh for pp, removing {}",
-								pp.pretty( Persons.PROPERTIES ) );
-						return true; // remove from hesitant
-					}
-					if( this.vaxAcceptance.test( hh, occ ) )
-					{
-						accepting.incrementAndGet();
-						startRegimen( nextDose, age, pp );
-						return true; // remove from hesitant
-					}
+			final VaxDose nextDose = this.regimen.nextRegular( status, age );
+			if( nextDose == null )
+			{
+				LOG.warn( "Not covered by NIP, age {} for pp {}",
+						QuantityUtil.pretty( age, TimeUnits.YEAR, 1 ),
+						pp.pretty( Persons.PROPERTIES ) );
+				removeFromHesitant( pp );
+				continue;
+			}
+			final VaxOccasion occ = this.vaxOccasionConvenienceDist
+					.draw( nextDose );
+			final HouseholdTuple hh = this.households
+					.get( pp.get( Persons.HouseholdRef.class ) );
+			if( hh == null )
+			{
+				LOG.warn( "No hh for pp, removing {}",
+						pp.pretty( Persons.PROPERTIES ) );
+				removeFromHesitant( pp );
+				continue;
+			}
+			candidates.add( pp );
+			candidateAges.add( age );
+			candidateDoses.add( nextDose );
+			candidateHhs.add( hh );
+			candidateOccasions.add( occ );
+		}
 
-					rejecting.incrementAndGet();
-					return false; // remain hesitant
-				} ).toArray( PersonTuple[]::new );
-		Arrays.stream( removable ).forEach( this::removeFromHesitant );
+		final boolean[] accepted = this.vaxAcceptance.test( candidateHhs,
+				candidateOccasions );
+		int accepting = 0;
+		for( int i = 0; i < accepted.length; i++ )
+			if( accepted[i] )
+			{
+				accepting++;
+				startRegimen( candidateDoses.get( i ), candidateAges.get( i ),
+						candidates.get( i ) );
+				removeFromHesitant( candidates.get( i ) );
+			}
 		LOG.debug( "t={} Vax accepted by {} and rejected by {}",
-				scheduler().nowDT(), accepting, rejecting );
+				scheduler().nowDT(), accepting, accepted.length - accepting );
 	}
 
 	private void startRegimen( final VaxDose nextDose,
@@ -25,15 +25,25 @@ import java.io.InputStream;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.aeonbits.owner.ConfigFactory;
 import org.apache.logging.log4j.Logger;
@@ -50,11 +60,10 @@ import io.coala.bind.LocalConfig;
 import io.coala.config.ConfigUtil;
 import io.coala.config.YamlUtil;
 import io.coala.data.DataLayer;
-import io.coala.dsol3.Dsol3Scheduler;
+import io.coala.exception.Thrower;
 import io.coala.json.JsonUtil;
 import io.coala.log.LogUtil;
 import io.coala.log.LogUtil.Pretty;
-import io.coala.math3.Math3ProbabilityDistribution;
 import io.coala.math3.Math3PseudoRandom;
 import io.coala.random.DistributionParser;
 import io.coala.random.ProbabilityDistribution;
@@ -75,6 +84,9 @@ import nl.rivm.cib.epidemes.demo.DemoScenario.Regional.SiteBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Social.PeerBroker;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Social.SocietyBroker;
 import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+import nl.rivm.cib.epidemes.util.IsolatedDataLayer;
+import nl.rivm.cib.epidemes.util.RandomStreams;
+import nl.rivm.cib.epidemes.util.SeriesSink;
 
 /**
  * {@link Main}
@@ -89,8 +101,7 @@ public class Main
 	private static final Logger LOG = LogUtil
 			.getLogger( Main.class );
 
-	public static void main( final String[] args )
-		throws InterruptedException, IOException
+	public static void main( final String[] args ) throws Exception
 	{
 		LOG.info( "Starting {}", Main.class.getSimpleName() );
 
@@ -152,7 +163,7 @@ public class Main
 		final long durationDays = Duration
 				.between( offset, offset.plus( config.duration() ) ).toDays();
 		final LocalConfig binderConfig = LocalConfig.builder().withProvider(
-				Scheduler.class, Dsol3Scheduler.class,
+				Scheduler.class, config.schedulerType(),
 				MapBuilder.unordered()
 						.put( SchedulerConfig.ID_KEY, "" + config.setupName() )
 						.put( SchedulerConfig.OFFSET_KEY, "" + offset )
@@ -160,8 +171,8 @@ public class Main
 						.build() )
 				.withProvider( ProbabilityDistribution.Parser.class,
 						DistributionParser.class )
-				// add data layer: static caching
-				.withProvider( DataLayer.class, DataLayer.StaticCaching.class )
+				// add data layer: cached per binder/replication
+				.withProvider( DataLayer.class, IsolatedDataLayer.class )
 				// add deme to create households/persons
 				.withProvider( PersonBroker.class, demeModule, demeConfig )
 				// add site broker for regions/sites/transmission
@@ -174,14 +185,133 @@ public class Main
 
 				.build();
 
+		final CbsRegionHierarchy hier;
+		try( final InputStream is = FileUtil
+				.toInputStream( confBase + "data/83287NED.json" // 2016
+		) )
+		{
+			hier = JsonUtil.getJOM().readValue( is, CbsRegionHierarchy.class );
+		}
+		final TreeMap<String, EnumMap<CBSRegionType, String>> gmRegions = hier
+				.cityRegionsByType();
+
+		final Map<String, String> gmChanges = CbsRegionHistory.allChangesAsPer(
+				LocalDate.of( 2016, 1, 1 ), CbsRegionHistory.parse(
+						confBase, "data/gm_changes_before_2018.csv" ) );
+
+		final List<Long> seeds = replicationSeeds( config );
+		if( seeds.size() == 1 )
+			replicate( config, binderConfig, seeds.get( 0 ), gmRegions,
+					gmChanges, null );
+		else
+			replicateConcurrently( config, binderConfig, seeds, gmRegions,
+					gmChanges );
+
+		LOG.info( "{} done", Main.class.getSimpleName() );
+	}
+
+	/**
+	 * @param config the {@link DemoConfig}
+	 * @return the configured {@link DemoConfig#randomSeeds()}, or else
+	 *         {@link DemoConfig#replicationCount()} successive seeds starting
+	 *         at {@link DemoConfig#randomSeed()}
+	 * @throws IllegalArgumentException on duplicate seeds, as their (seeded)
+	 *             output files would overwrite each other
+	 */
+	static List<Long> replicationSeeds( final DemoConfig config )
+	{
+		final String seeds = config.randomSeeds();
+		if( seeds != null && !seeds.trim().isEmpty() )
+		{
+			final List<Long> result = Arrays
+					.stream( seeds.trim().split( "[,;\\s]+" ) )
+					.map( Long::valueOf ).collect( Collectors.toList() );
+			if( new HashSet<>( result ).size() < result.size() )
+				return Thrower.throwNew( IllegalArgumentException::new,
+						() -> "Duplicate replication seeds: " + seeds );
+			return result;
+		}
+		final long seed = config.randomSeed();
+		return LongStream.range( 0, Math.max( 1, config.replicationCount() ) )
+				.mapToObj( i -> seed + i ).collect( Collectors.toList() );
+	}
+
+	/**
+	 * run replications in a bounded worker pool, each in its own
+	 * {@link LocalBinder} (with its own {@link DataLayer}), then merge their
+	 * daily SIR totals into a summary file
+	 */
+	static void replicateConcurrently( final DemoConfig config,
+		final LocalConfig binderConfig, final List<Long> seeds,
+		final TreeMap<String, EnumMap<CBSRegionType, String>> gmRegions,
+		final Map<String, String> gmChanges )
+		throws InterruptedException, IOException
+	{
+		final int parallelism = Math.min( seeds.size(),
+				config.replicationParallelism() > 0
+						? config.replicationParallelism()
+						: Runtime.getRuntime().availableProcessors() );
+		LOG.info( "Running {} replications, {} at a time, seeds: {}",
+				seeds.size(), parallelism, seeds );
+		final ReplicationSummary summary = new ReplicationSummary( 0.05, 0.25,
+				0.5, 0.75, 0.95 );
+		final ExecutorService pool = Executors
+				.newFixedThreadPool( parallelism );
+		final Map<Long, Future<?>> results = new LinkedHashMap<>();
+		final List<Long> failed = new ArrayList<>();
+		seeds.forEach( seed -> results.put( seed, pool.submit( () ->
+		{
+			Thread.currentThread().setName( "rep" + seed );
+			replicate( config, binderConfig, seed, gmRegions, gmChanges,
+					summary );
+			return null;
+		} ) ) );
+		pool.shutdown();
+		for( Map.Entry<Long, Future<?>> result : results.entrySet() )
+			try
+			{
+				result.getValue().get();
+			} catch( final ExecutionException e )
+			{
+				LOG.error( "Replication failed, seed: " + result.getKey(),
+						e.getCause() );
+				failed.add( result.getKey() );
+			}
+
+		final String summaryFile = "daily-" + config.setupName()
+				+ "-sir-total-summary.csv";
+		try( final FileWriter fw = new FileWriter( summaryFile, false ) )
+		{
+			summary.write( fw );
+		}
+		LOG.debug( "SIR totals summary written to {}", summaryFile );
+		if( !failed.isEmpty() ) Thrower.throwNew( IllegalStateException::new,
+				() -> failed.size() + " of " + seeds.size()
+						+ " replications failed, seeds: " + failed );
+	}
+
+	/**
+	 * run a single replication, writing its daily SIR totals and deltas, see
+	 * {@link SeriesSink}
+	 * 
+	 * @param summary the {@link ReplicationSummary} to merge totals into, or
+	 *            {@code null}
+	 * @throws Exception e.g. if its output failed, stopping only this
+	 *             replication's model
+	 */
+	static void replicate( final DemoConfig config,
+		final LocalConfig binderConfig, final Long randomSeed,
+		final TreeMap<String, EnumMap<CBSRegionType, String>> sharedRegions,
+		final Map<String, String> gmChanges,
+		final ReplicationSummary summary ) throws Exception
+	{
 		// FIXME workaround until seed becomes configurable from coala
 		final PseudoRandom rng = new Math3PseudoRandom.MersenneTwisterFactory()
-				.create( PseudoRandom.Config.NAME_DEFAULT,
-						config.randomSeed() );
+				.create( PseudoRandom.Config.NAME_DEFAULT, randomSeed );
 		final LocalBinder binder = binderConfig.createBinder( MapBuilder
 				.<Class<?>, Object>unordered()
 				.put( ProbabilityDistribution.Factory.class,
-						new Math3ProbabilityDistribution.Factory( rng ) )
+						RandomStreams.of( rng ) )
 				.build() );
 
 		LOG.debug( "Constructing model, seed: {}, config: {}", rng.seed(),
@@ -189,22 +319,17 @@ public class Main
 		final DemoScenarioSimple model = binder
 				.inject( DemoScenarioSimple.class );
 
-		final CbsRegionHierarchy hier;
-		try( final InputStream is = FileUtil
-				.toInputStream( confBase + "data/83287NED.json" // 2016
-		) )
-		{
-			hier = JsonUtil.getJOM().readValue( is, CbsRegionHierarchy.class );
-		}
-		final TreeMap<String, EnumMap<CBSRegionType, String>> gmRegions = hier
-				.cityRegionsByType();
-
 		// TODO from config
 		final long seed = rng.seed().longValue();
 //		final long timestamp = System.currentTimeMillis();
-		final String totalsFile = "daily-" + seed + "-sir-total.csv";
-		final String deltasFile = "daily-" + seed + "-sir-delta.csv";
-		final String timing = "0 0 12 ? * *";
+		final String totalsFile = "daily-" + seed + "-sir-total";
+		final String deltasFile = "daily-" + seed + "-sir-delta";
+		final String timing = config.outputTiming();
+		final DateTimeFormatter timeFormat = DateTimeFormatter
+				.ofPattern( config.outputTimeFormat() );
+		final SeriesSink.Format format = config.outputFormat();
+		final boolean compress = config.outputCompress();
+		final int buffer = config.outputBuffer();
 		final int n = 10;
 		final List<Compartment> sirCols = Arrays.asList(
 				Compartment.SUSCEPTIBLE, Compartment.INFECTIVE,
@@ -212,9 +337,6 @@ public class Main
 		final Compartment sortLogCol = Compartment.INFECTIVE;
 		final CBSRegionType aggregationLevel = CBSRegionType.HEALTH_SERVICES;
 
-		final Map<String, String> gmChanges = CbsRegionHistory.allChangesAsPer(
-				LocalDate.of( 2016, 1, 1 ), CbsRegionHistory.parse(
-						confBase, "data/gm_changes_before_2018.csv" ) );
 		// TODO pick neighbor within region(s)
 		final String gmFallback = "GM0363";
 
@@ -223,38 +345,44 @@ public class Main
 		configTree.with( DemoConfig.REPLICATION_BASE )
 				.put( DemoConfig.RANDOM_SEED_KEY, seed );
 
+		// private copy: unknown (changed) municipalities are added below
+		final TreeMap<String, EnumMap<CBSRegionType, String>> gmRegions = new TreeMap<>(
+				sharedRegions );
 		final TreeMap<String, Set<String>> regNames = new TreeMap<>();
-		Observable.using( () -> new FileWriter( totalsFile, false ),
-				fw -> model.atEach( timing ).map( self ->
+		// fail this replication only, leaving any concurrent ones running
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Observable.using(
+				() -> SeriesSink.open( totalsFile, format, compress, buffer ),
+				sink -> model.atEach( timing ).map( self ->
 				{
 					final Map<String, EnumMap<Compartment, Long>> totals = self
 							.exportRegionalSIRTotal();
-					if( regNames.isEmpty() )
-					{
-						regNames.putAll( totals.keySet().stream().collect(
-								Collectors.groupingBy( gmName -> gmRegions
-										.computeIfAbsent( gmName, k ->
-										{
-											if( gmChanges.containsKey( k ) )
-												return gmRegions.get(
-														gmChanges.get( k ) );
-
-											LOG.warn( "Aggregating {} as {}",
-													gmName, gmFallback );
-											return gmRegions.get( gmFallback );
-										} ).get( aggregationLevel ),
-										() -> new TreeMap<>(),
-										Collectors.toCollection(
-												() -> new TreeSet<>() ) ) ) );
-						fw.write( DemoConfig.toHeader( configTree, sirCols,
-								regNames ) );
-					}
-					fw.write( DemoConfig.toLine( sirCols,
-							model.scheduler().nowDT().toLocalDate().toString(),
-							regNames, totals ) );
-					fw.flush();
+					final boolean first = regNames.isEmpty();
+					if( first ) regNames.putAll( totals.keySet().stream()
+							.collect( Collectors.groupingBy( gmName -> gmRegions
+									.computeIfAbsent( gmName, k ->
+									{
+										if( gmChanges.containsKey( k ) )
+											return gmRegions
+													.get( gmChanges.get( k ) );
+
+										LOG.warn( "Aggregating {} as {}",
+												gmName, gmFallback );
+										return gmRegions.get( gmFallback );
+									} ).get( aggregationLevel ),
+									() -> new TreeMap<>(),
+									Collectors.toCollection(
+											() -> new TreeSet<>() ) ) ) );
+					final String date = timeFormat
+							.format( model.scheduler().nowDT() );
+					final Map<String, Long> values = DemoConfig
+							.toValues( sirCols, regNames, totals );
+					if( first ) sink.header( configTree.toString(),
+							new ArrayList<>( values.keySet() ) );
+					sink.append( date, values.values() );
+					if( summary != null ) summary.add( date, values );
 					return totals;
-				} ), FileWriter::close ).subscribe(
+				} ), SeriesSink::close ).subscribe(
 						homeSIR -> LOG.debug( "t={} TOTAL-top{}:{ {} }",
 								model.scheduler().nowDT(), n,
 								Pretty.of( () -> DemoConfig.toLog( sirCols,
@@ -262,28 +390,27 @@ public class Main
 						e ->
 						{
 							LOG.error( "Problem writing " + totalsFile, e );
-							System.exit( 1 );
+							if( failure.compareAndSet( null, e ) )
+								model.scheduler().fail( e );
 						}, () -> LOG.debug( "SIR totals written to {}",
 								totalsFile ) );
 
 		final AtomicBoolean first = new AtomicBoolean( true );
-		Observable.using( () -> new FileWriter( deltasFile, false ),
-				fw -> model.atEach( timing ).map( self ->
+		Observable.using(
+				() -> SeriesSink.open( deltasFile, format, compress, buffer ),
+				sink -> model.atEach( timing ).map( self ->
 				{
 					final Map<String, EnumMap<Compartment, Long>> deltas = self
 							.exportRegionalSIRDelta();
-					if( first.get() )
-					{
-						first.set( false );
-						fw.write( DemoConfig.toHeader( configTree, sirCols,
-								regNames ) );
-					}
-					fw.write( DemoConfig.toLine( sirCols,
-							model.scheduler().nowDT().toLocalDate().toString(),
-							regNames, deltas ) );
-					fw.flush();
+					final Map<String, Long> values = DemoConfig
+							.toValues( sirCols, regNames, deltas );
+					if( first.getAndSet( false ) ) sink.header(
+							configTree.toString(),
+							new ArrayList<>( values.keySet() ) );
+					sink.append( timeFormat.format( model.scheduler().nowDT() ),
+							values.values() );
 					return deltas;
-				} ), FileWriter::close ).subscribe(
+				} ), SeriesSink::close ).subscribe(
 						homeSIR -> LOG.debug( "t={} DELTA-top{}:{ {} }",
 								model.scheduler().nowDT(), n,
 								Pretty.of( () -> DemoConfig.toLog( sirCols,
@@ -291,14 +418,15 @@ public class Main
 						e ->
 						{
 							LOG.error( "Problem writing " + deltasFile, e );
-							System.exit( 1 );
+							if( failure.compareAndSet( null, e ) )
+								model.scheduler().fail( e );
 						}, () -> LOG.debug( "SIR deltas written to {}",
 								deltasFile ) );
 
 		LOG.debug( "Starting..." );
 		model.run();
-
-		LOG.info( "{} done", Main.class.getSimpleName() );
+		if( failure.get() != null )
+			Thrower.rethrowUnchecked( failure.get() );
 	}
 
 }
\ No newline at end of file
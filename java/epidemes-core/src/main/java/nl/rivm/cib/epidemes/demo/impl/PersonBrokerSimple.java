@@ -20,9 +20,11 @@
 package nl.rivm.cib.epidemes.demo.impl;
 
 import java.io.InputStream;
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -31,12 +33,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javax.inject.Inject;
@@ -53,13 +61,16 @@ import io.coala.data.Picker;
 import io.coala.data.Picker.Branch;
 import io.coala.data.Picker.Root;
 import io.coala.data.Table;
+import io.coala.function.ThrowingFunction;
 import io.coala.log.LogUtil;
 import io.coala.math.DecimalUtil;
 import io.coala.math.QuantityUtil;
 import io.coala.math.Range;
 import io.coala.math.WeightedValue;
 import io.coala.random.ConditionalDistribution;
+import io.coala.random.DistributionParser;
 import io.coala.random.ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
 import io.coala.random.QuantityDistribution;
 import io.coala.time.Duration;
 import io.coala.time.Instant;
@@ -79,6 +90,7 @@ import nl.rivm.cib.epidemes.data.cbs.CBSRegionType;
 import nl.rivm.cib.epidemes.data.cbs.Cbs37201json;
 import nl.rivm.cib.epidemes.data.cbs.Cbs37230json;
 import nl.rivm.cib.epidemes.data.cbs.Cbs71486json;
+import nl.rivm.cib.epidemes.data.cbs.CbsTableCache;
 import nl.rivm.cib.epidemes.data.cbs.RegionPeriod;
 import nl.rivm.cib.epidemes.demo.DemoConfig;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Demical.DemicFact;
@@ -88,6 +100,8 @@ import nl.rivm.cib.epidemes.demo.entity.Households.HouseholdTuple;
 import nl.rivm.cib.epidemes.demo.entity.Persons;
 import nl.rivm.cib.epidemes.demo.entity.Persons.HouseholdPosition;
 import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
+import nl.rivm.cib.epidemes.util.BirthIndex;
+import nl.rivm.cib.epidemes.util.RandomStreams;
 import tec.uom.se.ComparableQuantity;
 
 /** organizes survival and reproduction (across households) */
@@ -97,6 +111,12 @@ public class PersonBrokerSimple implements PersonBroker {
 	/** */
 	private static final Logger LOG = LogUtil.getLogger(PersonBrokerSimple.class);
 
+	/** the {@link RandomStreams} key of this broker */
+	private static final String PERSONS = "persons";
+
+	/** the maximum number of consecutive failed events per region and batch */
+	static final int BATCH_MAX_FAILURES = 10;
+
 	public interface PersonConfig extends YamlConfig {
 
 		@DefaultValue(DemoConfig.CONFIG_BASE_DIR)
@@ -130,20 +150,54 @@ public class PersonBrokerSimple implements PersonBroker {
 		@DefaultValue("MUNICIPAL") // "MUNICIPAL" //"PROVINCE" //"COROP" //"TERRITORY"
 		CBSRegionType regionalResolution();
 
-		@Key("hh-dynamics-timeseries")
+		// threads synthesizing the initial households per region, 0: sequential
+		@Key("hh-synthesis-parallelism")
+		@DefaultValue("0")
+		int hhSynthesisParallelism();
+
+		// days per batch of births, deaths and migrations, 0: event by event
+		@Key("hh-dynamics-batch-days")
+		@DefaultValue("0")
+		double hhDynamicsBatchDays();
+
+		// directory of pre-compiled (binary) CBS tables, empty: parse JSON only
+		@Key("cbs-binary-dir")
+		@DefaultValue("")
+		String cbsBinaryDir();
+
+		String HH_DYNAMICS_KEY = "hh-dynamics-timeseries";
+
+		String HH_BIRTHS_KEY = "hh-birth-timeseries";
+
+		String HH_AGES_KEY = "hh-age-timeseries";
+
+		@Key(HH_DYNAMICS_KEY)
 		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "37230ned_TS_2012_2017.json")
 		@ConverterClass(InputStreamConverter.class)
 		InputStream cbsPopulationDynamics();
 
-		@Key("hh-birth-timeseries")
+		// each *File() is its table's resolved source path, to key its rows by
+		@Key(HH_DYNAMICS_KEY)
+		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "37230ned_TS_2012_2017.json")
+		String cbsPopulationDynamicsFile();
+
+		@Key(HH_BIRTHS_KEY)
 		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "37201_TS_2010_2015.json")
 		@ConverterClass(InputStreamConverter.class)
 		InputStream cbsHouseholdBirths();
 
-		@Key("hh-age-timeseries")
+		@Key(HH_BIRTHS_KEY)
+		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "37201_TS_2010_2015.json")
+		String cbsHouseholdBirthsFile();
+
+		@Key(HH_AGES_KEY)
 		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "71486ned-TS-2010-2016.json")
 		@ConverterClass(InputStreamConverter.class)
 		InputStream cbsHouseholdAges();
+
+		@Key(HH_AGES_KEY)
+		@DefaultValue(DemoConfig.CONFIG_BASE_PARAM + "71486ned-TS-2010-2016.json")
+		String cbsHouseholdAgesFile();
 	}
 
 	@InjectConfig
@@ -213,8 +267,10 @@ public class PersonBrokerSimple implements PersonBroker {
 	@SuppressWarnings("rawtypes")
 	private Branch<BigDecimal, Branch<CBSHousehold, Branch<Comparable, Root<HouseholdTuple>>>> emigrationPicker;
 
-	@SuppressWarnings("rawtypes")
-	private Branch<BigDecimal, Branch<Comparable, Root<PersonTuple>>> eliminationPicker;
+	/** persons by home region and birth, for age categories at any time */
+	private BirthIndex<Object> eliminationIndex;
+
+	private PseudoRandom eliminationRng;
 
 	private ConditionalDistribution<Cbs71486json.Category, RegionPeriod> hhTypeDist;
 	private QuantityDistribution<Time> hhPartnerAgeDiffDist;
@@ -247,6 +303,11 @@ public class PersonBrokerSimple implements PersonBroker {
 							.map(ppKey -> this.persons.selectValue(ppKey, Persons.HouseholdRank.class)).toArray()));
 		}, scheduler()::fail);
 		this.persons = this.data.getTable(PersonTuple.class);
+		this.eliminationIndex = new BirthIndex<>();
+		this.eliminationRng = RandomStreams.split(this.distFactory, PERSONS, "elimination").getStream();
+		this.persons.onUpdate(Persons.HomeRegionRef.class, (ppKey, prev, regRef) -> reindexPerson(ppKey),
+				scheduler()::fail);
+		this.persons.onUpdate(Persons.Birth.class, (ppKey, prev, birth) -> reindexPerson(ppKey), scheduler()::fail);
 		this.persons.onCreate(this::registerPerson, scheduler()::fail);
 		this.persons.onDelete(this::unregisterPerson, scheduler()::fail);
 
@@ -258,8 +319,8 @@ public class PersonBrokerSimple implements PersonBroker {
 		this.dtScalingFactor = DecimalUtil.divide(this.config.populationSize(), this.config.referentPopulationSize());
 
 		final TreeMap<RegionPeriod, Collection<WeightedValue<Cbs71486json.Category>>> values = (TreeMap<RegionPeriod, Collection<WeightedValue<Cbs71486json.Category>>>) Cbs71486json
-				.readAsync(() -> this.config.cbsHouseholdAges(), this.dtRange)
-				.filter(wv -> wv.getValue().regionType() == this.regionalResolution)
+				.frequencies(cbsRows(Cbs71486json.class, this.config.cbsHouseholdAgesFile(), this.config::cbsHouseholdAges,
+						row -> row.region, this.regionalResolution), this.dtRange)
 				.toMultimap(wv -> wv.getValue().regionPeriod(), Functions.identity(), () -> new TreeMap<>())
 				.blockingGet();
 		this.hhTypeDist = ConditionalDistribution.of(this.distFactory::createCategorical, values);
@@ -275,7 +336,13 @@ public class PersonBrokerSimple implements PersonBroker {
 				setupImmigrations(), //
 				setupEmigrations()).flatMap(ev -> ev).subscribe(this.events);
 
-		setupHouseholds(this.config.populationSize());
+		if (this.persons.isEmpty())
+			setupHouseholds(this.config.populationSize());
+		else {
+			// restored from a snapshot
+			this.persons.stream().forEach(this::registerPerson);
+			LOG.info("Resuming {} persons in {} households", this.persons.size(), this.hhMembers.size());
+		}
 
 		// setup pickers AFTER households to prevent re-indexing
 		LOG.info("...indexing potential mothers (expansion picker)");
@@ -285,8 +352,8 @@ public class PersonBrokerSimple implements PersonBroker {
 		this.expansionPicker = // this.binder.inject( ExpansionPicker.class );
 				// new ExpansionPicker( this.scheduler,
 				// this.distFactory.getStream(), this.households );
-				Picker.of(this.households, this.distFactory.getStream(), scheduler()::fail)
-						.splitBy(Households.HomeRegionRef.class).thenBy(Households.KidRank.class)
+				Picker.of(this.households, RandomStreams.split(this.distFactory, PERSONS, "expansion").getStream(),
+						scheduler()::fail).splitBy(Households.HomeRegionRef.class).thenBy(Households.KidRank.class)
 						.thenBy(Households.MomBirth.class, momAgeCats);
 
 		LOG.info("...indexing age of potential emigrant (emigration picker)");
@@ -295,19 +362,11 @@ public class PersonBrokerSimple implements PersonBroker {
 		this.emigrationPicker = // this.binder.inject( EmigrationPicker.class );
 				// new EmigrationPicker( this.scheduler,
 				// this.distFactory.getStream(), this.households );
-				Picker.of(this.households, this.distFactory.getStream(), scheduler()::fail)
-						.splitBy(Households.HomeRegionRef.class).thenBy(Households.Composition.class)
+				Picker.of(this.households, RandomStreams.split(this.distFactory, PERSONS, "emigration").getStream(),
+						scheduler()::fail).splitBy(Households.HomeRegionRef.class).thenBy(Households.Composition.class)
 						.thenBy(Households.ReferentBirth.class, refAgeCats);
 
-		LOG.info("...indexing age of potential death (elimination picker)");
-		final Stream<BigDecimal> birthAgeCats = IntStream.range(
-				// minus newly eligible
-				-20 - 2, 0).mapToObj(n -> now().add(Duration.of(5 * n, TimeUnits.YEAR)).decimal());
-		this.eliminationPicker = // this.binder.inject( EliminationPicker.class );
-				// new EliminationPicker( this.scheduler,
-				// this.distFactory.getStream(), this.persons );
-				Picker.of(this.persons, this.distFactory.getStream(), scheduler()::fail)
-						.splitBy(Persons.HomeRegionRef.class).thenBy(Persons.Birth.class, birthAgeCats);
+		// potential deaths are indexed by birth upon (person) registration
 
 		// TODO RELOCATION, UNION, SEPARATION, DIVISION
 
@@ -317,9 +376,24 @@ public class PersonBrokerSimple implements PersonBroker {
 
 	private void registerPerson(final PersonTuple pp) {
 		this.hhMembers.computeIfAbsent(pp.get(Persons.HouseholdRef.class), k -> new ArrayList<>()).add(pp.key());
+		indexPerson(pp);
+	}
+
+	private void reindexPerson(final Object ppKey) {
+		final PersonTuple pp = this.persons.select(ppKey);
+		if (pp != null)
+			indexPerson(pp);
+	}
+
+	private void indexPerson(final PersonTuple pp) {
+		final Comparable<?> regRef = pp.get(Persons.HomeRegionRef.class);
+		final BigDecimal birth = pp.get(Persons.Birth.class);
+		if (regRef != null && birth != null)
+			this.eliminationIndex.put(pp.key(), regRef, birth.doubleValue());
 	}
 
 	private void unregisterPerson(final PersonTuple pp) {
+		this.eliminationIndex.remove(pp.key());
 		final List<Object> otherMembers = this.hhMembers.compute(pp.get(Persons.HouseholdRef.class),
 				(k, members) -> members != null && members.remove(pp.key()) && !members.isEmpty() ? members : null);
 		final HouseholdTuple hh = this.households.get(pp.get(Persons.HouseholdRef.class));
@@ -362,15 +436,22 @@ public class PersonBrokerSimple implements PersonBroker {
 		// .toArray() );
 	}
 
-	private void setupHouseholds(final int n) {
+	private void setupHouseholds(final int n) throws Exception {
 		LOG.info("Creating households...");
 		final TreeMap<LocalDate, Collection<WeightedValue<Cbs71486json.Category>>> values = (TreeMap<LocalDate, Collection<WeightedValue<Cbs71486json.Category>>>) Cbs71486json
-				.readAsync(() -> this.config.cbsHouseholdAges(), this.dtRange)
-				.filter(wv -> wv.getValue().regionType() == this.regionalResolution)
+				.frequencies(cbsRows(Cbs71486json.class, this.config.cbsHouseholdAgesFile(), this.config::cbsHouseholdAges,
+						row -> row.region, this.regionalResolution), this.dtRange)
 				.toMultimap(wv -> wv.getValue().regionPeriod().periodRef(), Functions.identity(), () -> new TreeMap<>(),
 						k -> new ArrayList<>())
 				.blockingGet();
 		final LocalDate startDT = dt();
+		if (this.config.hhSynthesisParallelism() > 0) {
+			final Map.Entry<LocalDate, Collection<WeightedValue<Cbs71486json.Category>>> floor = values
+					.floorEntry(startDT);
+			synthesizeHouseholds(n, (floor == null ? values.firstEntry() : floor).getValue(),
+					this.config.hhSynthesisParallelism());
+			return;
+		}
 		final ConditionalDistribution<Cbs71486json.Category, LocalDate> hhRegDist = ConditionalDistribution
 				.of(this.distFactory::createCategorical, values);
 		final CountDownLatch latch = new CountDownLatch(1);
@@ -417,30 +498,271 @@ public class PersonBrokerSimple implements PersonBroker {
 				DecimalUtil.toScale(dt == 0 ? 0 : DecimalUtil.divide(i * 1000, dt), 1));
 	}
 
+	/** households synthesized for a single (regional) partition */
+	private static class HouseholdPartition {
+		private final String regionRef;
+		private final List<WeightedValue<Cbs71486json.Category>> cats;
+		private final long personQuota;
+		private final ProbabilityDistribution.Factory distFact;
+		/** partner age differences, drawn from {@link #distFact} */
+		private final QuantityDistribution<Time> partnerAgeDiffDist;
+		private final List<CBSHousehold> types = new ArrayList<>();
+		/** member births and genders, in household (position) order */
+		private double[] births = new double[64];
+		private boolean[] males = new boolean[64];
+		private int personCount = 0;
+
+		private HouseholdPartition(final String regionRef, final List<WeightedValue<Cbs71486json.Category>> cats,
+				final long personQuota, final ProbabilityDistribution.Factory distFact,
+				final QuantityDistribution<Time> partnerAgeDiffDist) {
+			this.regionRef = regionRef;
+			this.cats = cats;
+			this.personQuota = personQuota;
+			this.distFact = distFact;
+			this.partnerAgeDiffDist = partnerAgeDiffDist;
+		}
+
+		private void addMember(final double birth, final boolean male) {
+			if (this.personCount == this.births.length) {
+				this.births = Arrays.copyOf(this.births, 2 * this.personCount);
+				this.males = Arrays.copyOf(this.males, 2 * this.personCount);
+			}
+			this.births[this.personCount] = birth;
+			this.males[this.personCount++] = male;
+		}
+	}
+
+	/** @return the expected household size of specified category */
+	private static double meanSize(final Cbs71486json.Category hhCat) {
+		double sum = 0, weighted = 0;
+		for (WeightedValue<CBSHousehold> wv : hhCat.typeFrequencies()) {
+			sum += wv.getWeight().doubleValue();
+			weighted += wv.getWeight().doubleValue() * wv.getValue().size();
+		}
+		return sum == 0 ? 0 : weighted / sum;
+	}
+
+	/**
+	 * synthesizes households per region in parallel, each partition drawing
+	 * from its own {@link PseudoRandom} stream, keyed by region via
+	 * {@link RandomStreams} so the results do not depend on the number of
+	 * threads, then bulk inserts them (in region order)
+	 * 
+	 * @param n the number of persons to synthesize
+	 * @param cats the weighted categories of all regions at the start date
+	 * @param parallelism the number of synthesizing threads
+	 */
+	private void synthesizeHouseholds(final int n, final Collection<WeightedValue<Cbs71486json.Category>> cats,
+			final int parallelism) throws Exception {
+		final long t0 = System.currentTimeMillis();
+		final TreeMap<String, List<WeightedValue<Cbs71486json.Category>>> regionCats = cats.stream()
+				.collect(Collectors.groupingBy(wv -> wv.getValue().regionRef(), TreeMap::new, Collectors.toList()));
+
+		// person quota per region ~ sum of category weight x mean household size
+		final Map<String, Double> regionWeights = new TreeMap<>();
+		regionCats.forEach((regRef, wvs) -> regionWeights.put(regRef, wvs.stream()
+				.mapToDouble(wv -> wv.getWeight().doubleValue() * meanSize(wv.getValue())).sum()));
+		final double total = regionWeights.values().stream().mapToDouble(w -> w).sum();
+		final List<HouseholdPartition> partitions = new ArrayList<>();
+		// parse here, as synthesizing threads cannot throw
+		final Range<ComparableQuantity<Time>> ageDiffRange = Range.parseQuantity(this.config.hhPartnerAgeDeltaRange(),
+				Time.class);
+		double cumulative = 0;
+		long assigned = 0;
+		for (Map.Entry<String, Double> entry : regionWeights.entrySet()) {
+			cumulative += entry.getValue();
+			// cumulative rounding, so quotas add up to n
+			final long quota = Math.round(n * cumulative / total) - assigned;
+			assigned += quota;
+			// keyed by region, so seeds remain stable across (region) subsets
+			if (quota <= 0)
+				continue;
+			final ProbabilityDistribution.Factory distFact = RandomStreams.split(this.distFactory, PERSONS,
+					"synthesis", entry.getKey());
+			partitions.add(new HouseholdPartition(entry.getKey(), regionCats.get(entry.getKey()), quota, distFact,
+					new DistributionParser(distFact).parseQuantity(this.config.hhPartnerAgeDeltaDist(), Time.class)
+							.transform(v -> ageDiffRange.crop((ComparableQuantity<Time>) v))));
+		}
+
+		final double nowT = now().decimal().doubleValue(),
+				yearT = now().add(Duration.of(1, TimeUnits.YEAR)).decimal().doubleValue() - nowT;
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.submit(() -> partitions.parallelStream().forEach(part -> synthesize(part, nowT, yearT))).get();
+		} finally {
+			pool.shutdown();
+		}
+		final long t1 = System.currentTimeMillis();
+		LOG.info("Synthesized {} persons in {} regions in {}s using {} thread(s), inserting...",
+				partitions.stream().mapToLong(part -> part.personCount).sum(), partitions.size(),
+				DecimalUtil.toScale(DecimalUtil.divide(t1 - t0, 1000), 1), parallelism);
+
+		partitions.forEach(this::insertHouseholds);
+		final long i = this.persons.size(), dt = System.currentTimeMillis() - t0;
+		LOG.info("Created {} of {} persons in {}s at {}/s", i, n, DecimalUtil.toScale(DecimalUtil.divide(dt, 1000), 1),
+				DecimalUtil.toScale(dt == 0 ? 0 : DecimalUtil.divide(i * 1000, dt), 1));
+	}
+
+	/**
+	 * like {@link #createHousehold(Cbs71486json.Category)} but in primitive
+	 * (virtual time) values and without touching any (shared) tables or
+	 * (category-cached) distributions
+	 */
+	private void synthesize(final HouseholdPartition part, final double nowT, final double yearT) {
+		final ProbabilityDistribution.Factory distFact = part.distFact;
+		final PseudoRandom rng = distFact.getStream();
+		final ProbabilityDistribution<Cbs71486json.Category> catDist = distFact.createCategorical(part.cats);
+		final Map<Cbs71486json.Category, ProbabilityDistribution<CBSHousehold>> typeDists = new HashMap<>();
+		while (part.personCount < part.personQuota) {
+			final Cbs71486json.Category hhCat = catDist.draw();
+			final CBSHousehold hhType = typeDists
+					.computeIfAbsent(hhCat, k -> distFact.createCategorical(k.typeFrequencies())).draw();
+			final Range<Integer> ageRange = hhCat.ageRange();
+			final double refAge = ageRange.lowerValue()
+					+ rng.nextDouble() * (ageRange.upperValue() - ageRange.lowerValue());
+			part.types.add(hhType);
+			part.addMember(nowT - yearT * refAge, true);
+			if (hhType.couple())
+				part.addMember(nowT - yearT * (refAge - QuantityUtil
+						.decimalValue(part.partnerAgeDiffDist.draw(), TimeUnits.YEAR).doubleValue()), false);
+			final double refAgeOver15 = refAge - 15;
+			for (int r = 0, k = hhType.childCount(); r < k; r++)
+				// equidistant ages: 0yr < age_1, .., age_n < (ref - 15yr)
+				part.addMember(nowT - yearT * (refAgeOver15 - refAgeOver15 * (1 - rng.nextDouble() * .5 + r) / k),
+						rng.nextBoolean());
+		}
+	}
+
+	private void insertHouseholds(final HouseholdPartition part) {
+		for (int i = 0, p = 0; i < part.types.size(); i++) {
+			final CBSHousehold hhType = part.types.get(i);
+			final BigDecimal refBirth = BigDecimal.valueOf(part.births[p]);
+			final BigDecimal momBirth = hhType.couple() ? BigDecimal.valueOf(part.births[p + 1]) : Households.NO_MOM;
+			final HouseholdTuple hh = this.households.insertValues(map -> map.set(Households.Composition.class, hhType)
+					.set(Households.KidRank.class, CBSBirthRank.values()[hhType.childCount()])
+					.set(Households.HouseholdSeq.class, this.hhSeq.incrementAndGet())
+					.set(Households.ReferentBirth.class, refBirth).set(Households.MomBirth.class, momBirth)
+					.set(Households.HomeRegionRef.class, part.regionRef));
+			createPerson(hh, HouseholdPosition.REFERENT, part.males[p], refBirth);
+			p++;
+			if (hhType.couple()) {
+				createPerson(hh, HouseholdPosition.PARTNER, part.males[p], momBirth);
+				p++;
+			}
+			for (int r = 0, k = hhType.childCount(); r < k; r++, p++)
+				createPerson(hh, HouseholdPosition.ofChildIndex(r), part.males[p], BigDecimal.valueOf(part.births[p]));
+		}
+	}
+
+	/**
+	 * @param rowType the type of CBS table rows
+	 * @param source the table's (resolved) source path, to key its rows by
+	 * @param json the table's JSON source
+	 * @param regionOf maps a row to its region reference
+	 * @param regionTypes the {@link CBSRegionType}s to retain
+	 * @return the (scenario-wide) {@link CbsTableCache cached} rows
+	 */
+	private <T extends Serializable> List<T> cbsRows(final Class<T> rowType, final String source,
+			final Callable<InputStream> json, final Function<T, String> regionOf, final CBSRegionType... regionTypes) {
+		return CbsTableCache.rows(rowType, source, json, regionOf,
+				this.config.cbsBinaryDir(), regionTypes);
+	}
+
+	/** @return the population dynamics rows, shared by all event producers */
+	private List<Cbs37230json> dynamicsRows() {
+		return cbsRows(Cbs37230json.class, this.config.cbsPopulationDynamicsFile(),
+				this.config::cbsPopulationDynamics, row -> row.region, this.regionalResolution, CBSRegionType.COUNTRY);
+	}
+
+	/**
+	 * schedules a demographic dynamic in batches, each applying its Poisson
+	 * count of persons per region at once rather than event by event
+	 * 
+	 * @param producer the {@link Cbs37230json.EventProducer} to draw counts from
+	 * @param applier applies an event in some region, returning the number of
+	 *            persons involved, or 0 if it failed
+	 * @param fact supplies the {@link DemicFact} of the last applied event
+	 * @return the {@link DemicFact}s, per batch
+	 */
+	private Observable<DemicFact> batched(final Cbs37230json.EventProducer producer,
+			final ThrowingFunction<String, Integer, Exception> applier, final Supplier<DemicFact> fact) {
+		final double days = this.config.hhDynamicsBatchDays();
+		return infiniterate(() -> QuantityUtil.valueOf(days, TimeUnits.DAYS)).flatMapIterable(t -> {
+			final List<DemicFact> facts = new ArrayList<>();
+			final Map<String, Long> shortfall = applyCounts(producer.nextCounts(dt(), days), applier,
+					BATCH_MAX_FAILURES, regRef -> facts.add(fact.get()));
+			if (!shortfall.isEmpty())
+				LOG.warn("{} batch fell short by persons per region: {}", dt(), shortfall);
+			return facts;
+		});
+	}
+
+	/**
+	 * applies whole events (e.g. households) per region until its count of
+	 * persons is reached, retrying failed events
+	 * 
+	 * @param counts the number of persons per region reference
+	 * @param applier applies an event in some region, returning the number of
+	 *            persons involved, or 0 if it failed
+	 * @param maxFailures the maximum number of consecutive failures per region
+	 * @param onApplied called with the region reference of each applied event
+	 * @return the number of persons left per region reference that failed more
+	 *         than {@code maxFailures} consecutive times, if any
+	 */
+	static Map<String, Long> applyCounts(final Map<String, Long> counts,
+			final ThrowingFunction<String, Integer, Exception> applier, final int maxFailures,
+			final Consumer<String> onApplied) throws Exception {
+		final Map<String, Long> shortfall = new TreeMap<>();
+		for (Map.Entry<String, Long> entry : counts.entrySet())
+			for (long remaining = entry.getValue(), failures = 0; remaining > 0;) {
+				final int n = applier.apply(entry.getKey());
+				if (n > 0) {
+					onApplied.accept(entry.getKey());
+					remaining -= n;
+					failures = 0;
+				} else if (++failures > maxFailures) {
+					shortfall.put(entry.getKey(), remaining);
+					break;
+				}
+			}
+		return shortfall;
+	}
+
 	private Observable<DemicFact> setupBirths() {
 		// initialize birth family type dist
 		final ConditionalDistribution<Cbs37201json.Category, RegionPeriod> localBirthDist = ConditionalDistribution.of(
 				this.distFactory::createCategorical,
-				Cbs37201json.readAsync(() -> this.config.cbsHouseholdBirths(), this.dtRange)
-						.filter(wv -> wv.getValue().regionType() == this.regionalResolution)
+				Cbs37201json
+						.frequencies(cbsRows(Cbs37201json.class, this.config.cbsHouseholdBirthsFile(),
+								this.config::cbsHouseholdBirths, row -> row.region, this.regionalResolution),
+								this.dtRange)
 						// <RegionPeriod, WeightedValue<Cbs37201json.Category>>
 						.toMultimap(wv -> wv.getValue().regionPeriod(), Functions.identity(), () -> new TreeMap<>())
 						.blockingGet());
 
 		// initialize birth space-time dist
 		final Cbs37230json.EventProducer births = new Cbs37230json.EventProducer(CBSPopulationDynamic.BIRTHS,
-				this.distFactory, () -> this.config.cbsPopulationDynamics(), this.regionalResolution, this.dtRange,
+				this.distFactory, dynamicsRows(), this.regionalResolution, this.dtRange,
 				this.dtScalingFactor);
 		final AtomicReference<DemicFact> pendingEvent = new AtomicReference<>();
-		return infiniterate(() -> births.nextDelay(dt(),
-				regRef -> expandHousehold(localBirthDist.draw(RegionPeriod.of(regRef, dt())), pendingEvent)))
-						.map(t -> pendingEvent.get());
+		if (this.config.hhDynamicsBatchDays() > 0)
+			return batched(births, regRef -> expandHousehold(localBirthDist.draw(RegionPeriod.of(regRef, dt())),
+					pendingEvent), () -> pendingEvent.getAndSet(null));
+		final AtomicReference<String> pendingReg = new AtomicReference<>();
+		return infiniterate(() -> births.nextDelay(dt(), nextRegRef -> {
+			final String regRef = pendingReg.getAndSet(nextRegRef);
+			return regRef == null ? 1
+					: expandHousehold(localBirthDist.draw(RegionPeriod.of(regRef, dt())), pendingEvent);
+		})).map(t -> pendingEvent.get());
 	}
 
 	private Observable<DemicFact> setupDeaths() {
 		final Cbs37230json.EventProducer deaths = new Cbs37230json.EventProducer(CBSPopulationDynamic.DEATHS,
-				this.distFactory, () -> this.config.cbsPopulationDynamics(), this.regionalResolution, this.dtRange,
+				this.distFactory, dynamicsRows(), this.regionalResolution, this.dtRange,
 				this.dtScalingFactor);
+		if (this.config.hhDynamicsBatchDays() > 0)
+			return batched(deaths, regRef -> eliminatePerson(this.hhTypeDist.draw(RegionPeriod.of(regRef, dt()))),
+					Elimination::new);
 		final AtomicReference<String> pendingReg = new AtomicReference<>();
 		return infiniterate(() -> deaths.nextDelay(dt(), nextRegRef -> {
 			final String regRef = pendingReg.getAndSet(nextRegRef);
@@ -450,9 +772,12 @@ public class PersonBrokerSimple implements PersonBroker {
 
 	private Observable<DemicFact> setupImmigrations() {
 		final Cbs37230json.EventProducer immigrations = new Cbs37230json.EventProducer(CBSPopulationDynamic.IMMIGRATION,
-				this.distFactory, () -> this.config.cbsPopulationDynamics(), this.regionalResolution, this.dtRange,
+				this.distFactory, dynamicsRows(), this.regionalResolution, this.dtRange,
 				this.dtScalingFactor);
 
+		if (this.config.hhDynamicsBatchDays() > 0)
+			return batched(immigrations, regRef -> immigrateHousehold(this.hhTypeDist.draw(RegionPeriod.of(regRef, dt()))),
+					Immigration::new);
 		final AtomicReference<String> pendingReg = new AtomicReference<>();
 		return infiniterate(() -> immigrations.nextDelay(dt(), nextRegRef -> {
 			final String regRef = pendingReg.getAndSet(nextRegRef);
@@ -462,9 +787,12 @@ public class PersonBrokerSimple implements PersonBroker {
 
 	private Observable<DemicFact> setupEmigrations() {
 		final Cbs37230json.EventProducer emigrations = new Cbs37230json.EventProducer(CBSPopulationDynamic.EMIGRATION,
-				this.distFactory, () -> this.config.cbsPopulationDynamics(), this.regionalResolution, this.dtRange,
+				this.distFactory, dynamicsRows(), this.regionalResolution, this.dtRange,
 				this.dtScalingFactor);
 
+		if (this.config.hhDynamicsBatchDays() > 0)
+			return batched(emigrations, regRef -> emigrateHousehold(this.hhTypeDist.draw(RegionPeriod.of(regRef, dt()))),
+					Emigration::new);
 		final AtomicReference<String> pendingReg = new AtomicReference<>();
 		return infiniterate(() -> emigrations.nextDelay(dt(), nextRegRef -> {
 			final String regRef = pendingReg.getAndSet(nextRegRef);
@@ -480,18 +808,18 @@ public class PersonBrokerSimple implements PersonBroker {
 		final Instant partnerBirth = now().subtract(Duration.of(refAge.subtract(this.hhPartnerAgeDiffDist.draw())));
 		final HouseholdTuple hh = this.households.insertValues(map -> map.set(Households.Composition.class, hhType)
 				.set(Households.KidRank.class, CBSBirthRank.values()[hhType.childCount()])
-				.set(Households.HouseholdSeq.class, hhSeq).set(Households.ReferentBirth.class, refBirth.decimal())
-				.set(Households.MomBirth.class, hhType.couple() ? partnerBirth.decimal() : Households.NO_MOM)
+				.set(Households.HouseholdSeq.class, hhSeq).set(Households.ReferentBirth.class, compact(refBirth))
+				.set(Households.MomBirth.class, hhType.couple() ? compact(partnerBirth) : Households.NO_MOM)
 				.set(Households.HomeRegionRef.class, hhCat.regionRef()));
 
 		// add household's referent
 		final boolean refMale = true;
-		createPerson(hh, HouseholdPosition.REFERENT, refMale, refBirth.decimal());
+		createPerson(hh, HouseholdPosition.REFERENT, refMale, compact(refBirth));
 
 		// add household's partner
 		if (hhType.couple()) {
 			final boolean partnerMale = !refMale; // TODO from CBS dist
-			createPerson(hh, HouseholdPosition.PARTNER, partnerMale, partnerBirth.decimal());
+			createPerson(hh, HouseholdPosition.PARTNER, partnerMale, compact(partnerBirth));
 		}
 
 		// add household's children
@@ -502,11 +830,20 @@ public class PersonBrokerSimple implements PersonBroker {
 			final Instant birth = now().subtract(refAgeOver15
 					.subtract(refAgeOver15.multiply((1 - this.distFactory.getStream().nextDouble() * .5 + r) / n)));
 			final boolean childMale = this.distFactory.getStream().nextBoolean();
-			createPerson(hh, HouseholdPosition.ofChildIndex(r), childMale, birth.decimal());
+			createPerson(hh, HouseholdPosition.ofChildIndex(r), childMale, compact(birth));
 		}
 		return hh;
 	}
 
+	/**
+	 * @param t the virtual {@link Instant} to store, e.g. a birth time
+	 * @return the {@link Instant#decimal()} value at {@code double} precision,
+	 *         which primitive (columnar) data sources store without boxing
+	 */
+	private static BigDecimal compact(final Instant t) {
+		return BigDecimal.valueOf(t.decimal().doubleValue());
+	}
+
 	private PersonTuple createPerson(final HouseholdTuple hh, final HouseholdPosition rank, final boolean male,
 			final BigDecimal birth) {
 		return this.persons.insertValues(map -> map.set(Persons.PersonSeq.class, this.indSeq.incrementAndGet())
@@ -514,14 +851,8 @@ public class PersonBrokerSimple implements PersonBroker {
 				.set(Persons.Birth.class, birth).set(Persons.Male.class, male));
 	}
 
-	private final AtomicReference<Cbs37201json.Category> pendingBirthCat = new AtomicReference<>();
-
 	private int expandHousehold(final Cbs37201json.Category birthCat, final AtomicReference<DemicFact> pendingEvent)
 			throws InstantiationException, IllegalAccessException {
-		final Cbs37201json.Category oldCat = this.pendingBirthCat.getAndSet(birthCat);
-		if (oldCat == null)
-			return 1; // initial execution
-
 		// pick family
 		final CBSGender gender = birthCat.genderDist(this.distFactory::createCategorical).draw();
 		final CBSBirthRank kidRank = birthCat.rankDist(this.distFactory::createCategorical).draw();
@@ -547,7 +878,7 @@ public class PersonBrokerSimple implements PersonBroker {
 				momAge);
 		final HouseholdPosition rank = HouseholdPosition
 				.ofChildIndex(hh.get(Households.Composition.class).childCount());
-		final PersonTuple newborn = createPerson(hh, rank, gender.isMale(), now().decimal());
+		final PersonTuple newborn = createPerson(hh, rank, gender.isMale(), compact(now()));
 		final CBSHousehold hhTypeNew = hh.updateAndGet(Households.Composition.class, CBSHousehold::plusChild);
 		hh.updateAndGet(Households.KidRank.class, CBSBirthRank::plusOne);
 
@@ -558,13 +889,21 @@ public class PersonBrokerSimple implements PersonBroker {
 
 	}
 
+	/** @return the birth (virtual) time of persons now aged {@code years} */
+	private double birthOf(final Integer years) {
+		return now().subtract(Duration.of(years, TimeUnits.YEAR)).decimal().doubleValue();
+	}
+
 	private int eliminatePerson(final Cbs71486json.Category hhCat) {
-		final Quantity<Time> age = hhCat.ageDist(this.distFactory::createUniformContinuous).draw();
-		final PersonTuple pp = this.eliminationPicker.match(now().subtract(age).decimal()).match(hhCat.regionRef())
-				.draw((args, k, v) -> {
-					LOG.trace("Death {} deviates: {} in {}", args, k.getSimpleName(), v);
-					return true;
-				});
+		// resolve the age category's births at the current time
+		final Range<Integer> ageRange = hhCat.ageRange();
+		final Object ppKey = this.eliminationIndex.draw(hhCat.regionRef(), birthOf(ageRange.upperValue()),
+				birthOf(ageRange.lowerValue()), this.eliminationRng);
+		if (ppKey == null) {
+			LOG.trace("No persons in {}, trying new region...", hhCat.regionRef());
+			return 0;
+		}
+		final PersonTuple pp = this.persons.select(ppKey);
 
 		// TODO import and sample deaths per agecat/region dist
 
@@ -584,7 +923,7 @@ public class PersonBrokerSimple implements PersonBroker {
 		if (this.sizeMismatches.contains(hh.key()))
 			return 0;
 
-		LOG.trace("{} ELIMINATION: shrinking {} person aged ~{}", dt(), hhCat.regionRef(), age);
+		LOG.trace("{} ELIMINATION: shrinking {} person aged {}", dt(), hhCat.regionRef(), ageRange);
 
 		this.persons.delete(pp.key());
 
@@ -0,0 +1,395 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.Logger;
+
+import io.coala.data.Table;
+import io.coala.data.Table.Property;
+import io.coala.data.Table.Tuple;
+import io.coala.exception.Thrower;
+import io.coala.log.LogUtil;
+import io.coala.math3.Math3PseudoRandom;
+import io.coala.random.ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
+import nl.rivm.cib.epidemes.demo.entity.Households;
+import nl.rivm.cib.epidemes.demo.entity.Households.HouseholdTuple;
+import nl.rivm.cib.epidemes.demo.entity.Persons;
+import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
+import nl.rivm.cib.epidemes.demo.entity.Sites.SiteTuple;
+import nl.rivm.cib.epidemes.demo.entity.Societies;
+import nl.rivm.cib.epidemes.demo.entity.Societies.SocietyTuple;
+import nl.rivm.cib.epidemes.util.RandomStreams;
+
+/**
+ * {@link PopulationSnapshot} saves the initialized population, i.e. the
+ * {@link SiteTuple sites}, {@link HouseholdTuple households},
+ * {@link PersonTuple persons} (including their compartment, resistance and
+ * vaccination status), {@link SocietyTuple societies} and their memberships,
+ * to a compact (gzipped) binary file, and restores it into empty tables.
+ * Restored rows get new keys, so references between tables are translated.
+ * Rather than the (implementation specific) internal state of the
+ * {@link PseudoRandom} stream, a continuation seed is kept, derived at save
+ * time from a dedicated {@link RandomStreams} split so saving leaves the
+ * run's own streams untouched
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class PopulationSnapshot
+{
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( PopulationSnapshot.class );
+
+	private static final int MAGIC = 0x45505353; // "EPSS"
+
+	private static final int VERSION = 1;
+
+	private static final byte NULL = 0, FALSE = 1, TRUE = 2, INT = 3,
+			LONG = 4, DOUBLE = 5, DECIMAL = 6, STRING = 7, ENUM = 8;
+
+	/** the key path of the split that derives the continuation seed */
+	static final String SPLIT_KEY = "snapshot";
+
+	/** the seed derived from the saving run's streams at save time */
+	private final long continuationSeed;
+
+	/** the restored member (person) keys per restored society key */
+	private final Map<Object, List<Object>> members;
+
+	private PopulationSnapshot( final long continuationSeed,
+		final Map<Object, List<Object>> members )
+	{
+		this.continuationSeed = continuationSeed;
+		this.members = members;
+	}
+
+	public long continuationSeed()
+	{
+		return this.continuationSeed;
+	}
+
+	public Map<Object, List<Object>> members()
+	{
+		return this.members;
+	}
+
+	/**
+	 * @param rng the {@link PseudoRandom} stream to continue
+	 * @return {@code true} iff {@code rng} was reseeded with the
+	 *         {@link #continuationSeed()} mixed with its own seed, so forks
+	 *         with equal seeds repeat while other seeds diverge
+	 */
+	public boolean reseed( final PseudoRandom rng )
+	{
+		final long seed = this.continuationSeed
+				^ rng.seed().longValue() * 0x9E3779B97F4A7C15L;
+		if( rng instanceof Math3PseudoRandom )
+			Math3PseudoRandom.toRandomGenerator( rng ).setSeed( seed );
+		else if( rng instanceof Random )
+			((Random) rng).setSeed( seed );
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * @param factory the {@link ProbabilityDistribution.Factory} to continue
+	 * @return {@code true} iff its stream was {@link #reseed(PseudoRandom)
+	 *         reseeded}, any {@link RandomStreams} also
+	 *         {@link RandomStreams#rekey(long) rekeyed} with the
+	 *         {@link #continuationSeed()} so its keyed streams continue too
+	 */
+	public boolean reseed( final ProbabilityDistribution.Factory factory )
+	{
+		if( !reseed( factory.getStream() ) ) return false;
+		if( factory instanceof RandomStreams )
+			((RandomStreams) factory).rekey( this.continuationSeed );
+		return true;
+	}
+
+	/**
+	 * @param file the snapshot file to (over)write, replaced atomically
+	 * @param factory the streams to derive the continuation seed from,
+	 *            without drawing from them
+	 * @param members the member (person) keys per society key
+	 * @throws IOException
+	 */
+	public static void save( final Path file,
+		final ProbabilityDistribution.Factory factory,
+		final Table<SiteTuple> sites, final Table<HouseholdTuple> households,
+		final Table<PersonTuple> persons, final Table<SocietyTuple> societies,
+		final Map<Object, ? extends List<Object>> members ) throws IOException
+	{
+		final long t0 = System.currentTimeMillis();
+		final Path dir = file.toAbsolutePath().getParent();
+		if( dir != null ) Files.createDirectories( dir );
+		final Path tmp = Files.createTempFile( dir,
+				file.getFileName().toString(), ".tmp" );
+		try( final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream( new GZIPOutputStream(
+						Files.newOutputStream( tmp ), 1 << 16 ) ) ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeLong( RandomStreams.split( factory, SPLIT_KEY ).key() );
+			writeTable( out, sites );
+			writeTable( out, households );
+			writeTable( out, persons );
+			writeTable( out, societies );
+			out.writeInt( members.size() );
+			for( Map.Entry<Object, ? extends List<Object>> entry : members
+					.entrySet() )
+			{
+				writeValue( out, Object.class, entry.getKey() );
+				out.writeInt( entry.getValue().size() );
+				for( Object ppKey : entry.getValue() )
+					writeValue( out, Object.class, ppKey );
+			}
+		} catch( final IOException | RuntimeException e )
+		{
+			Files.deleteIfExists( tmp );
+			throw e;
+		}
+		Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE );
+		LOG.info( "Saved snapshot of {} persons in {} households to {} in {}ms",
+				persons.size(), households.size(), file,
+				System.currentTimeMillis() - t0 );
+	}
+
+	/**
+	 * @param file the snapshot file to read
+	 * @return the {@link PopulationSnapshot} with its (key-translated)
+	 *         memberships, after inserting all rows into the (empty) tables
+	 * @throws IOException
+	 */
+	public static PopulationSnapshot restore( final Path file,
+		final Table<SiteTuple> sites, final Table<HouseholdTuple> households,
+		final Table<PersonTuple> persons, final Table<SocietyTuple> societies )
+		throws IOException
+	{
+		final long t0 = System.currentTimeMillis();
+		try( final InputStream is = Files.newInputStream( file );
+				final DataInputStream in = new DataInputStream(
+						new BufferedInputStream(
+								new GZIPInputStream( is, 1 << 16 ) ) ) )
+		{
+			if( in.readInt() != MAGIC || in.readInt() != VERSION )
+				return Thrower.throwNew( IOException::new,
+						() -> "Unknown snapshot format: " + file );
+			final long seed = in.readLong();
+
+			final Map<Object, Object> siteKeys = readTable( in, sites,
+					Collections.emptyMap() );
+			final Map<Object, Object> hhKeys = readTable( in, households,
+					Collections.singletonMap( Households.HomeSiteRef.class,
+							siteKeys ) );
+			final Map<Class<?>, Map<Object, Object>> ppRefs = new HashMap<>();
+			ppRefs.put( Persons.HouseholdRef.class, hhKeys );
+			ppRefs.put( Persons.HomeSiteRef.class, siteKeys );
+			final Map<Object, Object> ppKeys = readTable( in, persons, ppRefs );
+			final Map<Object, Object> socKeys = readTable( in, societies,
+					Collections.singletonMap( Societies.SiteRef.class,
+							siteKeys ) );
+
+			final int n = in.readInt();
+			final Map<Object, List<Object>> members = new LinkedHashMap<>( n );
+			for( int i = 0; i < n; i++ )
+			{
+				final Object socKey = socKeys
+						.get( readValue( in, Object.class ) );
+				final int m = in.readInt();
+				final List<Object> ppKeyList = new ArrayList<>( m );
+				for( int j = 0; j < m; j++ )
+					ppKeyList.add( ppKeys.get( readValue( in, Object.class ) ) );
+				members.put( socKey, ppKeyList );
+			}
+			LOG.info(
+					"Restored snapshot of {} persons in {} households from {} in {}ms",
+					ppKeys.size(), hhKeys.size(), file,
+					System.currentTimeMillis() - t0 );
+			return new PopulationSnapshot( seed, members );
+		}
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static void writeTable( final DataOutputStream out,
+		final Table<? extends Tuple> table ) throws IOException
+	{
+		final List<Class<? extends Property>> props = table.properties()
+				.collect( Collectors.toList() );
+		out.writeInt( props.size() );
+		for( Class<? extends Property> prop : props )
+			out.writeUTF( prop.getName() );
+		final List<Class<?>> types = props.stream()
+				.map( Property::returnType ).collect( Collectors.toList() );
+		final List<? extends Tuple> rows = table.stream()
+				.collect( Collectors.toList() );
+		out.writeInt( rows.size() );
+		for( Tuple row : rows )
+		{
+			writeValue( out, Object.class, row.key() );
+			for( int i = 0; i < props.size(); i++ )
+				writeValue( out, types.get( i ),
+						row.get( (Class) props.get( i ) ) );
+		}
+	}
+
+	/**
+	 * @param refs the key translations of referencing properties
+	 * @return the translation of snapshot keys to (new) table keys
+	 */
+	@SuppressWarnings( "rawtypes" )
+	private static Map<Object, Object> readTable( final DataInputStream in,
+		final Table<? extends Tuple> table,
+		final Map<? extends Class<?>, Map<Object, Object>> refs )
+		throws IOException
+	{
+		final int p = in.readInt();
+		final List<Class<? extends Property>> props = new ArrayList<>( p );
+		final List<Class<?>> types = new ArrayList<>( p );
+		for( int i = 0; i < p; i++ )
+		{
+			final String name = in.readUTF();
+			final Class<? extends Property> prop = table.properties()
+					.filter( c -> c.getName().equals( name ) ).findFirst()
+					.orElseGet( () -> Thrower.throwNew(
+							IllegalStateException::new,
+							() -> "Unknown property: " + name ) );
+			props.add( prop );
+			types.add( Property.returnType( prop ) );
+		}
+		final int n = in.readInt();
+		final Map<Object, Object> keys = new HashMap<>( 2 * n );
+		final Map<Class<? extends Property>, Object> values = new HashMap<>();
+		for( int k = 0; k < n; k++ )
+		{
+			final Object key = readValue( in, Object.class );
+			values.clear();
+			for( int i = 0; i < p; i++ )
+			{
+				final Object value = readValue( in, types.get( i ) );
+				if( value == null ) continue;
+				final Map<Object, Object> ref = refs.get( props.get( i ) );
+				values.put( props.get( i ),
+						ref == null ? value : ref.get( value ) );
+			}
+			keys.put( key, table.insertValues( values ).key() );
+		}
+		return keys;
+	}
+
+	private static void writeValue( final DataOutputStream out,
+		final Class<?> type, final Object value ) throws IOException
+	{
+		if( value == null )
+			out.writeByte( NULL );
+		else if( value instanceof Boolean )
+			out.writeByte( (Boolean) value ? TRUE : FALSE );
+		else if( value instanceof Integer )
+		{
+			out.writeByte( INT );
+			out.writeInt( (Integer) value );
+		} else if( value instanceof Long )
+		{
+			out.writeByte( LONG );
+			out.writeLong( (Long) value );
+		} else if( value instanceof Double )
+		{
+			out.writeByte( DOUBLE );
+			out.writeDouble( (Double) value );
+		} else if( value instanceof BigDecimal )
+		{
+			final byte[] unscaled = ((BigDecimal) value).unscaledValue()
+					.toByteArray();
+			out.writeByte( DECIMAL );
+			out.writeByte( unscaled.length );
+			out.write( unscaled );
+			out.writeInt( ((BigDecimal) value).scale() );
+		} else if( value instanceof String )
+		{
+			out.writeByte( STRING );
+			out.writeUTF( (String) value );
+		} else if( value instanceof Enum && type.isEnum() )
+		{
+			out.writeByte( ENUM );
+			out.writeShort( ((Enum<?>) value).ordinal() );
+		} else
+			Thrower.throwNew( IllegalArgumentException::new,
+					() -> "Unsupported " + type.getSimpleName() + " value: "
+							+ value.getClass().getName() );
+	}
+
+	private static Object readValue( final DataInputStream in,
+		final Class<?> type ) throws IOException
+	{
+		final byte tag = in.readByte();
+		switch( tag )
+		{
+		case NULL:
+			return null;
+		case FALSE:
+			return Boolean.FALSE;
+		case TRUE:
+			return Boolean.TRUE;
+		case INT:
+			return in.readInt();
+		case LONG:
+			return in.readLong();
+		case DOUBLE:
+			return in.readDouble();
+		case DECIMAL:
+			final byte[] unscaled = new byte[in.readUnsignedByte()];
+			in.readFully( unscaled );
+			return new BigDecimal( new BigInteger( unscaled ), in.readInt() );
+		case STRING:
+			return in.readUTF();
+		case ENUM:
+			return type.getEnumConstants()[in.readShort()];
+		default:
+			return Thrower.throwNew( IOException::new,
+					() -> "Unknown value tag: " + tag );
+		}
+	}
+}
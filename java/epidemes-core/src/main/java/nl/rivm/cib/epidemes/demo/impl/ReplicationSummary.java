@@ -0,0 +1,119 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.rivm.cib.epidemes.demo.DemoConfig;
+
+/**
+ * {@link ReplicationSummary} merges the daily (regional) SIR series of
+ * concurrent replications into per-day, per-column means and quantiles
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class ReplicationSummary
+{
+	/** the summarized quantiles */
+	private final double[] quantiles;
+
+	/** date &rarr; column &rarr; values, one per replication */
+	private final Map<String, Map<String, long[]>> series = new TreeMap<>();
+
+	/** value count per date and column */
+	private final Map<String, Map<String, Integer>> counts = new TreeMap<>();
+
+	public ReplicationSummary( final double... quantiles )
+	{
+		this.quantiles = quantiles;
+	}
+
+	/**
+	 * @param date the (virtual) date of the values
+	 * @param values the column values of one replication at {@code date}
+	 */
+	public synchronized void add( final String date,
+		final Map<String, Long> values )
+	{
+		final Map<String, long[]> dateSeries = this.series
+				.computeIfAbsent( date, k -> new LinkedHashMap<>() );
+		final Map<String, Integer> dateCounts = this.counts
+				.computeIfAbsent( date, k -> new LinkedHashMap<>() );
+		values.forEach( ( col, value ) ->
+		{
+			final int n = dateCounts.getOrDefault( col, 0 );
+			long[] colValues = dateSeries.computeIfAbsent( col,
+					k -> new long[4] );
+			if( n == colValues.length )
+				dateSeries.put( col,
+						colValues = Arrays.copyOf( colValues, 2 * n ) );
+			colValues[n] = value;
+			dateCounts.put( col, n + 1 );
+		} );
+	}
+
+	/**
+	 * @param values the (unsorted) values
+	 * @param n the number of values
+	 * @param q the quantile in [0,1]
+	 * @return the linearly interpolated quantile (like R's default, type 7)
+	 */
+	static double quantile( final long[] values, final int n, final double q )
+	{
+		final double h = (n - 1) * q;
+		final int lo = (int) Math.floor( h ), hi = (int) Math.ceil( h );
+		return values[lo] + (h - lo) * (values[hi] - values[lo]);
+	}
+
+	/**
+	 * @param w the {@link Writer} to write the summary to, one line per date
+	 *            and column
+	 * @throws IOException
+	 */
+	public synchronized void write( final Writer w ) throws IOException
+	{
+		final String sep = DemoConfig.sep, eol = DemoConfig.eol;
+		w.write( "VirtualTime" + sep + "Column" + sep + "N" + sep + "Mean" );
+		for( double q : this.quantiles )
+			w.write( sep + "P" + Math.round( q * 100 ) );
+		w.write( eol );
+		for( Map.Entry<String, Map<String, long[]>> date : this.series
+				.entrySet() )
+			for( Map.Entry<String, long[]> col : date.getValue().entrySet() )
+			{
+				final int n = this.counts.get( date.getKey() )
+						.get( col.getKey() );
+				final long[] values = Arrays.copyOf( col.getValue(), n );
+				Arrays.sort( values );
+				w.write( date.getKey() + sep + col.getKey() + sep + n + sep
+						+ (double) Arrays.stream( values ).sum() / n );
+				for( double q : this.quantiles )
+					w.write( sep + quantile( values, n, q ) );
+				w.write( eol );
+			}
+		w.flush();
+	}
+}
@@ -21,6 +21,8 @@ package nl.rivm.cib.epidemes.demo.impl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
@@ -45,15 +47,13 @@ import io.coala.data.DataLayer;
 import io.coala.data.Table;
 import io.coala.log.LogUtil;
 import io.coala.math.DecimalUtil;
-import io.coala.math.WeightedValue;
 import io.coala.random.ConditionalDistribution;
 import io.coala.random.ProbabilityDistribution;
 import io.coala.time.Scheduler;
 import io.coala.util.InputStreamConverter;
 import io.reactivex.Observable;
 import io.reactivex.subjects.PublishSubject;
-import nl.rivm.cib.epidemes.data.cbs.CBSRegionType;
-import nl.rivm.cib.epidemes.data.cbs.CbsRegionCentroidDensity;
+import nl.rivm.cib.epidemes.data.cbs.CbsRegionCentroidCatalog;
 import nl.rivm.cib.epidemes.data.cbs.CbsRegionCentroidDensity.ExportCol;
 import nl.rivm.cib.epidemes.data.duo.DuoPedagogy;
 import nl.rivm.cib.epidemes.data.duo.DuoPrimarySchool;
@@ -68,6 +68,8 @@ import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
 import nl.rivm.cib.epidemes.demo.entity.Sites;
 import nl.rivm.cib.epidemes.demo.entity.Sites.BuiltFunction;
 import nl.rivm.cib.epidemes.demo.entity.Sites.SiteTuple;
+import nl.rivm.cib.epidemes.util.GeoGrid;
+import nl.rivm.cib.epidemes.util.RandomStreams;
 
 /**
  * {@link SiteBrokerSimple}
@@ -82,6 +84,9 @@ public class SiteBrokerSimple implements SiteBroker
 	private static final Logger LOG = LogUtil
 			.getLogger( SiteBrokerSimple.class );
 
+	/** the {@link RandomStreams} key of this broker */
+	private static final String SITES = "sites";
+
 	public interface SiteConfig extends YamlConfig
 	{
 		@DefaultValue( DemoConfig.CONFIG_BASE_DIR )
@@ -94,6 +99,21 @@ public class SiteBrokerSimple implements SiteBroker
 		@ConverterClass( InputStreamConverter.class )
 		InputStream cbsZipcodeDensityData();
 
+		/** @return the file path of {@link #cbsZipcodeDensityData()} */
+		@Key( "hh-zip-density" )
+		@DefaultValue( DemoConfig.CONFIG_BASE_PARAM
+				+ "gm_pc6_centroid_density.json" )
+		String cbsZipcodeDensityFile();
+
+		/**
+		 * binary (memory-mapped) catalog of {@link #cbsZipcodeDensityData()},
+		 * created on first use; empty to keep it in memory
+		 */
+		@Key( "hh-zip-density-cache" )
+		@DefaultValue( DemoConfig.CONFIG_BASE_PARAM
+				+ "gm_pc6_centroid_density.bin" )
+		String cbsZipcodeDensityCache();
+
 		@Key( "primary-school-densities" )
 		@DefaultValue( DemoConfig.CONFIG_BASE_PARAM + "gm_pc4_po_pupils.json" )
 		@ConverterClass( InputStreamConverter.class )
@@ -142,16 +162,19 @@ public class SiteBrokerSimple implements SiteBroker
 	/** north-south, latitude, parallel */
 //	private IndexPartition nsParallel;
 
-	/** */
-	private final Map<String, EnumMap<ExportCol, JsonNode>> zipCache = new HashMap<>();
+	/** zip6 centroids, shared by all site setups */
+	private CbsRegionCentroidCatalog zipCatalog;
 	/** */
 	private final Map<String, EnumMap<DuoPrimarySchool.EduCol, JsonNode>> schoolCache = new HashMap<>();
+	/** school locations per pedagogy (including {@link DuoPedagogy#ALL}) */
+	private final Map<DuoPedagogy, GeoGrid<String>> schoolGrids = new EnumMap<>(
+			DuoPedagogy.class );
 	/** zip codes with residences */
-	private ConditionalDistribution<String, String> regionalHomeSiteDist;
+	private ConditionalDistribution<Integer, String> regionalHomeSiteDist;
 	/** zip codes with FTE >= {@link #SMALL_EMPLOYER_CAPACITY} */
-	private ConditionalDistribution<String, String> regionalCorpZipDist;
+	private ConditionalDistribution<Integer, String> regionalCorpZipDist;
 	/** zip codes with FTE < {@link #SMALL_EMPLOYER_CAPACITY} */
-	private ConditionalDistribution<String, String> regionalSMESiteDist;
+	private ConditionalDistribution<Integer, String> regionalSMESiteDist;
 	/** */
 	private TreeMap<String, Map<DuoPedagogy, ProbabilityDistribution<String>>> primarySchools;
 
@@ -159,6 +182,8 @@ public class SiteBrokerSimple implements SiteBroker
 	public SiteBrokerSimple reset() throws Exception
 	{
 		this.sites = this.data.getTable( SiteTuple.class );
+		// continue numbering after any restored sites
+		this.siteSeq.set( this.sites.size() );
 		this.households = this.data.getTable( HouseholdTuple.class )
 				.onCreate( this::assignResidence, scheduler()::fail );
 
@@ -166,6 +191,13 @@ public class SiteBrokerSimple implements SiteBroker
 		this.data.getTable( PersonTuple.class )
 				.onCreate( this::copyHouseholdHome, scheduler()::fail );
 
+		LOG.debug( "...importing zip6 catalog" );
+		final String zipCache = this.config.cbsZipcodeDensityCache();
+		final Path zipCachePath = zipCache == null || zipCache.trim().isEmpty()
+				? null : Paths.get( zipCache.trim() );
+		this.zipCatalog = CbsRegionCentroidCatalog.open( zipCachePath,
+				this.config::cbsZipcodeDensityData,
+				this.config.cbsZipcodeDensityFile() );
 		LOG.debug( "...importing home sites" );
 		setupResidentialSites();
 		LOG.debug( "...importing large enterprise/corporate sites" );
@@ -179,83 +211,69 @@ public class SiteBrokerSimple implements SiteBroker
 		return this;
 	}
 
-	private Stream<WeightedValue<String>> toWeightedValues(
-		final EnumMap<CBSRegionType, String> keys,
-		final EnumMap<ExportCol, JsonNode> values, final ExportCol weightCol )
+	protected void setupResidentialSites()
 	{
-		final String siteName = String.join( "_", keys.values().stream()
-				.map( Object::toString ).toArray( String[]::new ) );
-		this.zipCache.computeIfAbsent( siteName, k -> values );
-		return Stream.of(
-				WeightedValue.of( siteName, values.get( weightCol ).asInt() ) );
+		final Map<String, ProbabilityDistribution<Integer>> residenceDists = //
+				this.zipCatalog.toDists(
+						RandomStreams.split( this.distFactory, SITES, "homes" ),
+						i -> true,
+						ExportCol.RESIDENTS );
+
+		this.regionalHomeSiteDist = regName -> residenceDists
+				.computeIfAbsent( regName,
+						k -> residenceDists.get( FALLBACK_REG ) )
+				.draw();
 	}
 
-	protected void setupResidentialSites() throws IOException
+	protected void setupIndustrialSites()
 	{
-		try( final InputStream is = this.config.cbsZipcodeDensityData() )
-		{
-			final Map<String, ProbabilityDistribution<String>> residenceDists = //
-					CbsRegionCentroidDensity.parse( is, this.distFactory,
-							( keys, zip6 ) -> toWeightedValues( keys, zip6,
-									ExportCol.RESIDENTS ) );
-
-			this.regionalHomeSiteDist = regName -> residenceDists
-					.computeIfAbsent( regName,
-							k -> residenceDists.get( FALLBACK_REG ) )
-					.draw();
-		}
+		final Map<String, ProbabilityDistribution<Integer>> workZipDists = //
+				this.zipCatalog.toDists(
+						RandomStreams.split( this.distFactory, SITES, "corps" ),
+						// skip small-medium enterprise zones
+						i -> this.zipCatalog.employees( i ) >= ZIP6_SME_FTE_LIMIT,
+						ExportCol.EMPLOYEES );
+
+		this.regionalCorpZipDist = regName -> workZipDists.computeIfAbsent(
+				regName, k -> workZipDists.get( FALLBACK_REG ) ).draw();
 	}
 
-	protected void setupIndustrialSites() throws IOException
+	protected void setupSMESites()
 	{
-		try( final InputStream is = this.config.cbsZipcodeDensityData() )
-		{
-			final Map<String, ProbabilityDistribution<String>> workZipDists = //
-					CbsRegionCentroidDensity.parse( is, this.distFactory,
-							( keys,
-								zip6 ) -> zip6.get( ExportCol.EMPLOYEES )
-										// skip small-medium enterprise zones
-										.asInt() < ZIP6_SME_FTE_LIMIT
-												? Stream.empty()
-												: toWeightedValues( keys, zip6,
-														ExportCol.EMPLOYEES ) );
-
-			this.regionalCorpZipDist = regName -> workZipDists.computeIfAbsent(
-					regName, k -> workZipDists.get( FALLBACK_REG ) ).draw();
-		}
-	}
-
-	protected void setupSMESites() throws IOException
-	{
-		try( final InputStream is = this.config.cbsZipcodeDensityData() )
-		{
-			final Map<String, ProbabilityDistribution<String>> smeZipDists = //
-					CbsRegionCentroidDensity.parse( is, this.distFactory,
-							( keys,
-								zip6 ) -> zip6.get( ExportCol.EMPLOYEES )
-										// only small-medium enterprise zones
-										.asInt() >= ZIP6_SME_FTE_LIMIT
-												? Stream.empty()
-												: toWeightedValues( keys, zip6,
-														ExportCol.EMPLOYEES ) );
-
-			this.regionalSMESiteDist = regName -> smeZipDists.computeIfAbsent(
-					regName, k -> smeZipDists.get( FALLBACK_REG ) ).draw();
-		}
+		final Map<String, ProbabilityDistribution<Integer>> smeZipDists = //
+				this.zipCatalog.toDists(
+						RandomStreams.split( this.distFactory, SITES, "smes" ),
+						// only small-medium enterprise zones
+						i -> this.zipCatalog.employees( i ) < ZIP6_SME_FTE_LIMIT,
+						ExportCol.EMPLOYEES );
+
+		this.regionalSMESiteDist = regName -> smeZipDists.computeIfAbsent(
+				regName, k -> smeZipDists.get( FALLBACK_REG ) ).draw();
 	}
 
 	protected void setupSchoolSites() throws IOException
 	{
 		try( final InputStream is = this.config.duoPrimarySchoolData() )
 		{
-			this.primarySchools = DuoPrimarySchool.parse( is, this.distFactory,
+			this.primarySchools = DuoPrimarySchool.parse( is,
+					RandomStreams.split( this.distFactory, SITES, "schools" ),
 					( id, values ) ->
 					{
 						// cache school data
 						this.schoolCache.computeIfAbsent( id, k -> values );
 						// resolve school categories for assortative hh-sampling
-						return Stream.of( DuoPedagogy.resolveDuo( values ),
-								DuoPedagogy.ALL );
+						final DuoPedagogy pedagogy = DuoPedagogy
+								.resolveDuo( values );
+						// index school locations for nearest-school searches
+						final double lat = values.get( EduCol.LATITUDE )
+								.asDouble(),
+								lon = values.get( EduCol.LONGITUDE ).asDouble();
+						Stream.of( pedagogy, DuoPedagogy.ALL )
+								.forEach( p -> this.schoolGrids
+										.computeIfAbsent( p,
+												k -> new GeoGrid<>() )
+										.put( id, lat, lon ) );
+						return Stream.of( pedagogy, DuoPedagogy.ALL );
 					} );
 		}
 	}
@@ -264,18 +282,15 @@ public class SiteBrokerSimple implements SiteBroker
 	{
 		final String homeReg = (String) hh
 				.get( Households.HomeRegionRef.class );
-		final String homeBoroZip = this.regionalHomeSiteDist.draw( homeReg );
-		final EnumMap<ExportCol, JsonNode> zipData = this.zipCache
-				.get( homeBoroZip );
+		final int homeZip = this.regionalHomeSiteDist.draw( homeReg );
 		final SiteTuple site = this.sites.insertValues( map -> map
 				.set( Sites.RegionRef.class, homeReg )
 				.set( Sites.SiteFunction.class, BuiltFunction.RESIDENCE )
-				.set( Sites.SiteName.class,
-						homeBoroZip + "/" + this.siteSeq.incrementAndGet() )
-				.set( Sites.Latitude.class,
-						zipData.get( ExportCol.LATITUDE ).asDouble() )
+				.set( Sites.SiteName.class, this.zipCatalog.siteName( homeZip )
+						+ "/" + this.siteSeq.incrementAndGet() )
+				.set( Sites.Latitude.class, this.zipCatalog.latitude( homeZip ) )
 				.set( Sites.Longitude.class,
-						zipData.get( ExportCol.LONGITUDE ).asDouble() )
+						this.zipCatalog.longitude( homeZip ) )
 //				.put( Sites.Capacity.class, 
 //									zipData.get( ExportCol.RESIDENTIAL ) 
 		);
@@ -293,36 +308,33 @@ public class SiteBrokerSimple implements SiteBroker
 		pp.set( Persons.HomeSiteRef.class, homeSiteRef );
 	}
 
-	private double distanceSquaredDegrees( final double[] latlon,
-		final SiteTuple site )
+	@Override
+	public double[] coordsOf( final Object siteRef )
 	{
-		return distanceSquaredDegrees( latlon, site.get( Sites.Latitude.class ),
-				site.get( Sites.Longitude.class ) );
+		final SiteTuple site = this.sites.select( siteRef );
+		return new double[] { site.get( Sites.Latitude.class ),
+				site.get( Sites.Longitude.class ) };
 	}
 
-	private double distanceSquaredDegrees( final double[] x, final double... y )
+	private double distanceKm( final double[] latLon, final double... other )
 	{
-		double[] dx = { x[0] - x[0], x[1] - y[1] };
-		return dx[0] * dx[0] + dx[1] * dx[1];
+		return GeoGrid.distanceKm( latLon[0], latLon[1], other[0], other[1] );
 	}
 
 	@Override
 	public <T> Entry<T, Double> selectNearest( final PersonTuple pp,
 		final Stream<T> options, final Function<T, Object> optionSiteKeyMapper )
 	{
-		return selectNearest( pp, options,
-				( targetCoords, t ) -> distanceSquaredDegrees( targetCoords,
-						this.sites.select( optionSiteKeyMapper.apply( t ) ) ) );
+		return selectNearest( pp, options, ( targetCoords, t ) -> distanceKm(
+				targetCoords, coordsOf( optionSiteKeyMapper.apply( t ) ) ) );
 	}
 
 	public <T> Entry<T, Double> selectNearest( final PersonTuple pp,
 		final Stream<T> options,
 		final BiFunction<double[], T, Double> distanceMapper )
 	{
-		final SiteTuple targetSite = this.sites
-				.select( pp.get( Persons.HomeSiteRef.class ) );
-		final double[] targetCoords = { targetSite.get( Sites.Latitude.class ),
-				targetSite.get( Sites.Longitude.class ) };
+		final double[] targetCoords = coordsOf(
+				pp.get( Persons.HomeSiteRef.class ) );
 		return options
 				.map( t -> Collections.entry( t,
 						distanceMapper.apply( targetCoords, t ) ) )
@@ -334,18 +346,15 @@ public class SiteBrokerSimple implements SiteBroker
 	public SiteTuple createLocalSME( final PersonTuple pp )
 	{
 		final String smeRegRef = (String) pp.get( Persons.HomeRegionRef.class );
-		final String smeBoroZip = this.regionalSMESiteDist.draw( smeRegRef );
-		final EnumMap<ExportCol, JsonNode> smeZipData = this.zipCache
-				.get( smeBoroZip );
+		final int smeZip = this.regionalSMESiteDist.draw( smeRegRef );
 		return this.sites.insertValues( map -> map
 				.set( Sites.RegionRef.class, smeRegRef )
 				.set( Sites.SiteFunction.class, BuiltFunction.SMALL_ENTERPRISE )
-				.set( Sites.SiteName.class,
-						smeBoroZip + "/" + this.siteSeq.incrementAndGet() )
-				.set( Sites.Latitude.class,
-						smeZipData.get( ExportCol.LATITUDE ).asDouble() )
+				.set( Sites.SiteName.class, this.zipCatalog.siteName( smeZip )
+						+ "/" + this.siteSeq.incrementAndGet() )
+				.set( Sites.Latitude.class, this.zipCatalog.latitude( smeZip ) )
 				.set( Sites.Longitude.class,
-						smeZipData.get( ExportCol.LONGITUDE ).asDouble() )
+						this.zipCatalog.longitude( smeZip ) )
 //				.put( Sites.Capacity.class,
 //						smeZipData.get( ExportCol.EMPLOYEES ) ) 
 		);
@@ -356,18 +365,15 @@ public class SiteBrokerSimple implements SiteBroker
 	{
 		final String corpRegRef = (String) pp
 				.get( Persons.HomeRegionRef.class );
-		final String corpBoroZip = this.regionalCorpZipDist.draw( corpRegRef );
-		final EnumMap<ExportCol, JsonNode> corpZipData = this.zipCache
-				.get( corpBoroZip );
+		final int corpZip = this.regionalCorpZipDist.draw( corpRegRef );
 		return this.sites.insertValues( map -> map
 				.set( Sites.RegionRef.class, corpRegRef )
 				.set( Sites.SiteFunction.class, BuiltFunction.LARGE_ENTERPRISE )
-				.set( Sites.SiteName.class,
-						corpBoroZip + "/" + this.siteSeq.incrementAndGet() )
-				.set( Sites.Latitude.class,
-						corpZipData.get( ExportCol.LATITUDE ).asDouble() )
+				.set( Sites.SiteName.class, this.zipCatalog.siteName( corpZip )
+						+ "/" + this.siteSeq.incrementAndGet() )
+				.set( Sites.Latitude.class, this.zipCatalog.latitude( corpZip ) )
 				.set( Sites.Longitude.class,
-						corpZipData.get( ExportCol.LONGITUDE ).asDouble() )
+						this.zipCatalog.longitude( corpZip ) )
 //				.put( Sites.Capacity.class,
 //						corpZipData.get( ExportCol.EMPLOYEES ) ) 
 		);
@@ -381,9 +387,10 @@ public class SiteBrokerSimple implements SiteBroker
 		final DuoPedagogy hhPedagogy = hh.get( Households.EduCulture.class );
 		final SiteTuple homeSite = this.sites
 				.select( pp.get( Persons.HomeSiteRef.class ) );
-		// crop "0153_00_05_7512_CJ" (GM_WK_BU_PC4_PC6) to PC4 [11..11+4]
+		// crop "0153_00_05_7512_CJ" (GM_WK_BU_PC4_PC6) to PC4, even if the
+		// ward and borough are empty
 		final String siteName = homeSite.get( Sites.SiteName.class ),
-				homeZip = siteName.substring( 11, 15 );
+				homeZip = siteName.split( "_" )[3];
 
 		final Map<DuoPedagogy, ProbabilityDistribution<String>> zipSchools = this.primarySchools
 				.computeIfAbsent( homeZip, k -> new HashMap<>() );
@@ -399,28 +406,23 @@ public class SiteBrokerSimple implements SiteBroker
 		} else
 		{
 			// search all schools for the nearest of the same pedagogy, if any
-			final Entry<Entry<String, EnumMap<EduCol, JsonNode>>, Double> nearest = selectNearest(
-					pp,
-					this.schoolCache.entrySet().stream()
-							.filter( e -> hhPedagogy == null || DuoPedagogy
-									.resolveDuo( e.getValue() ) == hhPedagogy ),
-					( targetCoords, entry ) -> distanceSquaredDegrees(
-							targetCoords,
-							entry.getValue().get( EduCol.LATITUDE ).asDouble(),
-							entry.getValue().get( EduCol.LONGITUDE )
-									.asDouble() ) );
-
-			schoolName = nearest.getKey().getKey();
+			final double[] homeCoords = coordsOf( homeSite.key() );
+			final Entry<String, Double> nearest = this.schoolGrids
+					.get( hhPedagogy == null ? DuoPedagogy.ALL : hhPedagogy )
+					.nearest( homeCoords[0], homeCoords[1],
+							Double.POSITIVE_INFINITY, id -> true );
+
+			schoolName = nearest.getKey();
 			LOG.debug( "...no record for {}/{}, elected nearest: {} (at {}km)",
-					homeZip, hhPedagogy, schoolName, DecimalUtil.pretty(
-							() -> Math.sqrt( nearest.getValue() ) * 111, 2 ) );
+					homeZip, hhPedagogy, schoolName,
+					DecimalUtil.pretty( nearest::getValue, 2 ) );
 
 			// cache search result for other children from same zip/pedagogy
 			zipSchools
 					.computeIfAbsent(
 							hhPedagogy == null
-									? DuoPedagogy.resolveDuo(
-											nearest.getKey().getValue() )
+									? DuoPedagogy.resolveDuo( this.schoolCache
+											.get( schoolName ) )
 									: hhPedagogy,
 							k -> ProbabilityDistribution
 									.createDeterministic( schoolName ) );
@@ -21,6 +21,7 @@ package nl.rivm.cib.epidemes.demo.impl;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,8 +31,6 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -46,13 +45,13 @@ import io.coala.bind.InjectConfig;
 import io.coala.bind.LocalBinder;
 import io.coala.config.YamlConfig;
 import io.coala.data.DataLayer;
-import io.coala.data.IndexPartition;
 import io.coala.data.Table;
 import io.coala.exception.Thrower;
 import io.coala.json.JsonUtil;
 import io.coala.log.LogUtil;
 import io.coala.math.DecimalUtil;
 import io.coala.math.Range;
+import io.coala.random.QuantityDistribution;
 import io.coala.time.Expectation;
 import io.coala.time.Instant;
 import io.coala.time.Scheduler;
@@ -70,6 +69,8 @@ import nl.rivm.cib.epidemes.demo.entity.Sites.SiteTuple;
 import nl.rivm.cib.epidemes.demo.entity.Societies;
 import nl.rivm.cib.epidemes.demo.entity.Societies.SocietyTuple;
 import nl.rivm.cib.epidemes.model.TimedGatherer;
+import nl.rivm.cib.epidemes.util.GeoGrid;
+import nl.rivm.cib.epidemes.util.MemberSet;
 import tec.uom.se.ComparableQuantity;
 
 /**
@@ -137,12 +138,14 @@ public class SocietyBrokerSimple implements SocietyBroker
 	private Table<SocietyTuple> societies;
 	/** */
 	private Table<PersonTuple> persons;
-	/** */
-	private IndexPartition capacityIndex;
+	/** per gatherer type, the societies with remaining capacity >= 1 */
+	private final Map<String, GeoGrid<Object>> vacancies = new HashMap<>();
 	/** */
 	private NavigableMap<String, TimedGatherer> gatherers;
-	/** */
-	private final Map<Object, List<Object>> societyMembers = new HashMap<>();
+	/** per gatherer type, the dispatcher convening all its societies */
+	private final Map<String, Convener> conveners = new HashMap<>();
+	/** per society, its members in an O(1) indexed set */
+	private final Map<Object, MemberSet<Object>> societyMembers = new HashMap<>();
 	/** */
 	private final Map<Object, Object[]> ppSocieties = new HashMap<>();
 	/** */
@@ -168,12 +171,8 @@ public class SocietyBrokerSimple implements SocietyBroker
 		this.persons.onCreate( this::deferJoin, scheduler()::fail );
 		this.persons.onDelete( this::abandonAll, scheduler()::fail );
 
-		this.capacityIndex = new IndexPartition( this.societies,
-				scheduler()::fail );
-		this.capacityIndex.groupBy( Societies.Purpose.class );
-		this.capacityIndex.groupBy( Societies.Capacity.class, Stream.of( 1 ) );
-		// separate 'full' < 1 <= 'available'
-//		this.capacityIndex.groupBy( Societies.CultureRef.class );
+		this.vacancies.clear();
+		this.conveners.clear();
 
 		LOG.debug( "{} ready", getClass().getSimpleName() );
 		return this;
@@ -266,34 +265,12 @@ public class SocietyBrokerSimple implements SocietyBroker
 	{
 		final ComparableQuantity<Time> age = ageOf( pp );
 		final Map<String, Object> roleMemberships = this.gatherers.entrySet()
-				.stream().filter( e ->
-				{
-					final Range<ComparableQuantity<Time>> ageRange = e
-							.getValue().memberAges()
-							.map( q -> q.asType( Time.class ) );
-					if( ageRange.gt( age ) )
-					{
-						// too young, schedule join for later
-						final ComparableQuantity<Time> dtJoin = ageRange
-								.lowerValue().subtract( age );
-						if( Compare.lt( dtJoin, MEMBER_HORIZON ) )
-							after( dtJoin ).call( t -> deferJoin( pp ) );
-						return false;
-					}
-					// not too old?
-					return !ageRange.lt( age );
-				} ).collect( Collectors.toMap( Map.Entry::getKey, e ->
+				.stream().filter( e -> joinable( pp, age, e.getValue() ) )
+				.collect( Collectors.toMap( Map.Entry::getKey, e ->
 				{
 					final SocietyTuple soc = findOrCreateLocalSociety(
 							e.getValue(), pp );
-					final Range<ComparableQuantity<Time>> ageRange = e
-							.getValue().memberAges()
-							.map( q -> q.asType( Time.class ) );
-					final ComparableQuantity<Time> dtLeave = ageRange
-							.upperInclusive()
-									? ageRange.upperValue().subtract( age )
-									: null;
-					join( pp, soc, dtLeave );
+					join( pp, soc, remainingMembership( age, e.getValue() ) );
 					return soc.key();
 				} ) );
 
@@ -307,22 +284,66 @@ public class SocietyBrokerSimple implements SocietyBroker
 		return roleMemberships;
 	}
 
+	/**
+	 * @param pp the (prospective) member
+	 * @param age the member's current age
+	 * @param gatherer the society type to join
+	 * @return {@code true} iff {@code pp} is neither too young (scheduling a
+	 *         later join) nor too old for {@code gatherer}'s societies
+	 */
+	private boolean joinable( final PersonTuple pp,
+		final ComparableQuantity<Time> age, final TimedGatherer gatherer )
+	{
+		final Range<ComparableQuantity<Time>> ageRange = gatherer.memberAges()
+				.map( q -> q.asType( Time.class ) );
+		if( ageRange.gt( age ) )
+		{
+			// too young, schedule join for later
+			final ComparableQuantity<Time> dtJoin = ageRange.lowerValue()
+					.subtract( age );
+			if( Compare.lt( dtJoin, MEMBER_HORIZON ) )
+				after( dtJoin ).call( t -> deferJoin( pp ) );
+			return false;
+		}
+		// not too old?
+		return !ageRange.lt( age );
+	}
+
+	/**
+	 * @param age the member's current age
+	 * @param gatherer the society type joined
+	 * @return the remaining membership duration, or {@code null} if unbounded
+	 */
+	private ComparableQuantity<Time> remainingMembership(
+		final ComparableQuantity<Time> age, final TimedGatherer gatherer )
+	{
+		final Range<ComparableQuantity<Time>> ageRange = gatherer.memberAges()
+				.map( q -> q.asType( Time.class ) );
+		return ageRange.upperInclusive() ? ageRange.upperValue().subtract( age )
+				: null;
+	}
+
 	private void join( final PersonTuple pp, final SocietyTuple soc,
 		final ComparableQuantity<Time> dt )
 	{
-		final List<Object> members = this.societyMembers.get( soc.key() );
+		final MemberSet<Object> members = this.societyMembers.get( soc.key() );
 		final Object ppRef = pp.key();
-		if( members.indexOf( pp.key() ) >= 0 )
+		if( !members.add( ppRef ) )
 		{
 			LOG.warn( "Already member: {} in {}",
 					pp.pretty( Persons.PROPERTIES ),
 					soc.pretty( Societies.PROPERTIES ) );
 			return;
 		}
-		members.add( pp.key() );
 		soc.updateAndGet( Societies.MemberCount.class, n -> n + 1 );
-		soc.updateAndGet( Societies.Capacity.class, n -> n - 1 );
+		updateVacancy( soc,
+				soc.updateAndGet( Societies.Capacity.class, n -> n - 1 ) );
+		abandonAfter( ppRef, soc, members, dt );
+	}
 
+	private void abandonAfter( final Object ppRef, final SocietyTuple soc,
+		final MemberSet<Object> members, final ComparableQuantity<Time> dt )
+	{
 		// if membership lasts beyond horizon, skip abandonment scheduling
 		if( dt == null || Compare.gt( dt, MEMBER_HORIZON ) ) return;
 
@@ -331,10 +352,32 @@ public class SocietyBrokerSimple implements SocietyBroker
 			// abandon
 			members.remove( ppRef );
 			soc.updateAndGet( Societies.MemberCount.class, n -> n - 1 );
-			soc.updateAndGet( Societies.Capacity.class, n -> n + 1 );
+			updateVacancy( soc,
+					soc.updateAndGet( Societies.Capacity.class, n -> n + 1 ) );
 		} );
 	}
 
+	/**
+	 * (un)list specified society for local matching, separating 'full' < 1 <=
+	 * 'available'
+	 * 
+	 * @param soc the society whose capacity changed
+	 * @param capacity the society's remaining capacity
+	 */
+	private void updateVacancy( final SocietyTuple soc, final int capacity )
+	{
+		final GeoGrid<Object> grid = this.vacancies.computeIfAbsent(
+				soc.get( Societies.Purpose.class ), k -> new GeoGrid<>() );
+		if( capacity < 1 )
+			grid.remove( soc.key() );
+		else if( !grid.containsKey( soc.key() ) )
+		{
+			final double[] latLon = this.siteBroker
+					.coordsOf( soc.get( Societies.SiteRef.class ) );
+			grid.put( soc.key(), latLon[0], latLon[1] );
+		}
+	}
+
 	/**
 	 * @param pp
 	 */
@@ -351,7 +394,7 @@ public class SocietyBrokerSimple implements SocietyBroker
 	/**
 	 * @param siteKey
 	 * @param dt
-	 * @param participants
+	 * @param participants the (immutable) participants
 	 * @param onAdjourn
 	 */
 	void convene( final Object siteKey, final Quantity<Time> dt,
@@ -369,24 +412,18 @@ public class SocietyBrokerSimple implements SocietyBroker
 	SocietyTuple findOrCreateLocalSociety( final TimedGatherer gatherer,
 		final PersonTuple person )
 	{
-		// select societies with current capacity >= 1
-		final List<?> socKeys = this.capacityIndex.keys( gatherer.id(), 1 );
-
-		// if no societies yet, or all reached their capacity, create new
-		if( socKeys.isEmpty() ) return createSociety( gatherer, person );
-
-		// minimize society distance to person's home site
-		final Entry<SocietyTuple, Double> nearestSite = this.siteBroker
-				.selectNearest( person, IntStream.range( 0, socKeys.size() )
-						.mapToObj( socKeys::get ).map( this.societies::select ),
-						soc -> soc.get( Societies.SiteRef.class ) );
-
-		// if nearest is still too far, create new
-		final double kmNearest = Math.sqrt( nearestSite.getValue() ) * 111;
-		if( kmNearest > gatherer.maxKm() )
-			return createSociety( gatherer, person );
-
-		return this.societies.select( socKeys.get( 0 ) );
+		// select nearest society with current capacity >= 1 within scope
+		final GeoGrid<Object> grid = this.vacancies.get( gatherer.id() );
+		final double[] homeCoords = this.siteBroker
+				.coordsOf( person.get( Persons.HomeSiteRef.class ) );
+		final Entry<Object, Double> nearest = grid == null ? null
+				: grid.nearest( homeCoords[0], homeCoords[1], gatherer.maxKm(),
+						socKey -> true );
+
+		// if none yet, all reached their capacity, or all too far: create new
+		if( nearest == null ) return createSociety( gatherer, person );
+
+		return this.societies.select( nearest.getKey() );
 	}
 
 	SocietyTuple createSociety( final TimedGatherer gatherer,
@@ -412,21 +449,130 @@ public class SocietyBrokerSimple implements SocietyBroker
 				.set( Societies.SiteRef.class, (Comparable<?>) site.key() )
 				.set( Societies.SocietyName.class, name ) );
 
-		final List<Object> members = new ArrayList<>();
+		final MemberSet<Object> members = new MemberSet<>();
 		this.societyMembers.put( soc.key(), members );
+		updateVacancy( soc, capacity.intValue() );
+		summon( gatherer, soc, members );
+		return soc;
+	}
+
+	/** initiate gatherings of specified society */
+	private void summon( final TimedGatherer gatherer, final SocietyTuple soc,
+		final MemberSet<Object> members )
+	{
+		this.conveners
+				.computeIfAbsent( gatherer.id(), k -> new Convener( gatherer ) )
+				.add( soc.get( Societies.SiteRef.class ), members );
+	}
+
+	/**
+	 * {@link Convener} subscribes once to its gatherer's summonings and then
+	 * convenes all the gatherer's societies in a single pass over compact
+	 * (site, members) arrays, rather than each society subscribing (and
+	 * scheduling) separately. Durations are drawn and {@link GatherFact}s
+	 * emitted in society order
+	 */
+	private class Convener
+	{
+		private final TimedGatherer gatherer;
+
+		private Object[] siteKeys = new Object[16];
+
+		private Object[] members = new Object[16];
+
+		private int size = 0;
+
+		Convener( final TimedGatherer gatherer )
+		{
+			this.gatherer = gatherer;
+			gatherer.summonings().subscribe( this::convene,
+					scheduler()::fail );
+		}
+
+		void add( final Object siteKey, final MemberSet<Object> members )
+		{
+			if( this.size == this.siteKeys.length )
+			{
+				final int n = 2 * this.size;
+				this.siteKeys = Arrays.copyOf( this.siteKeys, n );
+				this.members = Arrays.copyOf( this.members, n );
+			}
+			this.siteKeys[this.size] = siteKey;
+			this.members[this.size++] = members;
+		}
 
-		// initiate gatherings
-		gatherer.summon().subscribe( dt ->
+		@SuppressWarnings( "unchecked" )
+		private void convene( final Instant t ) throws Exception
 		{
-			convene( site.key(), dt, members, () ->
+			final int n = this.size;
+			final List<Object>[] participants = new List[n];
+			for( int i = 0; i < n; i++ )
+				// in case members join or leave during the gathering
+				participants[i] = ((MemberSet<Object>) this.members[i])
+						.snapshot();
+			final QuantityDistribution<Time> dist = this.gatherer
+					.durationDist();
+			for( int i = 0; i < n; i++ )
+				// skip empty societies, e.g. awaiting their first members
+				if( !participants[i].isEmpty() ) SocietyBrokerSimple.this
+						.convene( this.siteKeys[i], dist.draw(),
+								participants[i], null );
+		}
+	}
+
+	@Override
+	public Map<Object, List<Object>> members()
+	{
+		return Collections.unmodifiableMap( this.societyMembers );
+	}
+
+	@Override
+	public SocietyBrokerSimple
+		restore( final Map<Object, ? extends List<Object>> members )
+	{
+		// member key -> gatherer id -> society
+		final Map<Object, Map<String, SocietyTuple>> memberships = new HashMap<>();
+		this.societies.stream().forEach( soc ->
+		{
+			final String purpose = soc.get( Societies.Purpose.class );
+			final MemberSet<Object> socMembers = new MemberSet<>();
+			if( members.containsKey( soc.key() ) )
+				socMembers.addAll( members.get( soc.key() ) );
+			this.societyMembers.put( soc.key(), socMembers );
+			updateVacancy( soc, soc.get( Societies.Capacity.class ) );
+			final TimedGatherer gatherer = this.gatherers.get( purpose );
+			if( gatherer == null )
+				LOG.warn( "No gatherer '{}' configured for restored {}",
+						purpose, soc.pretty( Societies.PROPERTIES ) );
+			else
+				summon( gatherer, soc, socMembers );
+			socMembers.forEach( ppKey -> memberships
+					.computeIfAbsent( ppKey, k -> new HashMap<>() )
+					.put( purpose, soc ) );
+		} );
+
+		// schedule pending abandonments and (too young) joins
+		this.persons.stream().forEach( pp ->
+		{
+			final Map<String, SocietyTuple> ppMemberships = memberships
+					.getOrDefault( pp.key(), Collections.emptyMap() );
+			final ComparableQuantity<Time> age = ageOf( pp );
+			this.gatherers.forEach( ( id, gatherer ) ->
 			{
-				LOG.trace( "Adjourned {}", name );
-				// TODO fire event: convene/st, members returned home
+				final SocietyTuple soc = ppMemberships.get( id );
+				if( soc == null )
+					joinable( pp, age, gatherer );
+				else
+					abandonAfter( pp.key(), soc,
+							this.societyMembers.get( soc.key() ),
+							remainingMembership( age, gatherer ) );
 			} );
-//			LOG.trace( "Gathered {} members: {} (cap: {})", name,
-//					members.size(), site.get( Sites.Capacity.class ) );
-			// TODO fire event: convene/rq
-		}, scheduler()::fail );
-		return soc;
+			if( !ppMemberships.isEmpty() ) this.ppSocieties.put( pp.key(),
+					ppMemberships.values().stream().map( SocietyTuple::key )
+							.toArray() );
+		} );
+		LOG.info( "Restored {} societies with {} members",
+				this.societyMembers.size(), memberships.size() );
+		return this;
 	}
 }
\ No newline at end of file
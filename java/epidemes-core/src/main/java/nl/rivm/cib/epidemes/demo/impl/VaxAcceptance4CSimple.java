@@ -20,12 +20,18 @@
 package nl.rivm.cib.epidemes.demo.impl;
 
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
 
+import io.coala.random.ProbabilityDistribution;
 import io.coala.util.Compare;
 import nl.rivm.cib.epidemes.demo.DemoScenario;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Medical;
 import nl.rivm.cib.epidemes.demo.DemoScenario.Medical.VaxAcceptanceEvaluator;
+import nl.rivm.cib.epidemes.data.vax.HesitancyProfileJson;
+import nl.rivm.cib.epidemes.data.vax.HesitancyProfileJson.HesitancyDimension;
 import nl.rivm.cib.epidemes.demo.entity.Households;
+import nl.rivm.cib.epidemes.demo.entity.Households.HouseholdTuple;
 import nl.rivm.cib.epidemes.model.VaxHesitancy;
 import nl.rivm.cib.epidemes.model.VaxOccasion;
 
@@ -53,4 +59,224 @@ public class VaxAcceptance4CSimple implements Medical.VaxAcceptanceEvaluator
 				.averageBarrier( confidence, complacency );
 		return Compare.ge( convenience, barrier );
 	}
+
+	/** reused across (weekday) sweeps */
+	private final Batch batch = new Batch();
+
+	@Override
+	public boolean[] test( final List<HouseholdTuple> hhs,
+		final List<VaxOccasion> occasions )
+	{
+		this.batch.clear();
+		for( int i = 0; i < hhs.size(); i++ )
+			this.batch.add( hhs.get( i ), occasions.get( i ) );
+		return Arrays.copyOf( this.batch.evaluate().accept, this.batch.size );
+	}
+
+	/**
+	 * applies {@link VaxHesitancy#averageBarrier(double, double)} and
+	 * {@link VaxHesitancy#minimumConvenienceAsDouble(VaxOccasion)} in bulk
+	 * over primitive attitude columns, like {@link #test} one candidate at a
+	 * time
+	 * 
+	 * @param confidence the candidates' confidence levels &isin; [0,1]
+	 * @param complacency the candidates' complacency levels &isin; [0,1]
+	 * @param convenience the candidates' occasion convenience levels &isin;
+	 *            [0,1], or {@link Double#NaN} for no occasion
+	 * @param n the number of candidates
+	 * @param maxConvenience the highest convenience any occasion offers
+	 * @param recheckDelay the delay until re-checking (rejecting) candidates
+	 * @param accept the acceptance decisions to set
+	 * @param recheck the delays to set: 0 if accepted, or
+	 *            {@link Double#POSITIVE_INFINITY} if no occasion could
+	 *            overcome the candidate's barrier (at current attitude), or
+	 *            {@code null} to set decisions only
+	 * @return the number of accepting candidates
+	 */
+	public static int evaluate( final double[] confidence,
+		final double[] complacency, final double[] convenience, final int n,
+		final double maxConvenience, final double recheckDelay,
+		final boolean[] accept, final double[] recheck )
+	{
+		int result = 0;
+		for( int i = 0; i < n; i++ )
+		{
+			final double barrier = VaxHesitancy
+					.averageBarrier( confidence[i], complacency[i] );
+			// no occasion, just apply general attitude
+			accept[i] = Double.isNaN( convenience[i] )
+					? confidence[i] > complacency[i]
+					: convenience[i] >= barrier;
+			if( accept[i] ) result++;
+			if( recheck != null ) recheck[i] = accept[i] ? 0
+					: barrier > maxConvenience ? Double.POSITIVE_INFINITY
+							: recheckDelay;
+		}
+		return result;
+	}
+
+	/**
+	 * {@link Batch} holds the (growing, reused) primitive attitude columns of
+	 * candidate persons or households, e.g. to evaluate vaccination sweeps or
+	 * scenario sweeps over calibrated {@link HesitancyProfileJson} profiles
+	 * without allocations per candidate
+	 */
+	public static class Batch
+	{
+		private double[] confidence;
+
+		private double[] complacency;
+
+		private double[] convenience;
+
+		private boolean[] accept;
+
+		private double[] recheck;
+
+		private int size = 0;
+
+		private int accepted = 0;
+
+		public Batch()
+		{
+			this( 64 );
+		}
+
+		public Batch( final int initialCapacity )
+		{
+			final int n = Math.max( 1, initialCapacity );
+			this.confidence = new double[n];
+			this.complacency = new double[n];
+			this.convenience = new double[n];
+			this.accept = new boolean[n];
+			this.recheck = new double[n];
+		}
+
+		public int size()
+		{
+			return this.size;
+		}
+
+		public Batch clear()
+		{
+			this.size = 0;
+			this.accepted = 0;
+			return this;
+		}
+
+		private void ensureCapacity( final int n )
+		{
+			if( n <= this.confidence.length ) return;
+			final int m = Math.max( n, 2 * this.confidence.length );
+			this.confidence = Arrays.copyOf( this.confidence, m );
+			this.complacency = Arrays.copyOf( this.complacency, m );
+			this.convenience = Arrays.copyOf( this.convenience, m );
+			this.accept = Arrays.copyOf( this.accept, m );
+			this.recheck = Arrays.copyOf( this.recheck, m );
+		}
+
+		/**
+		 * @param confidence &isin; [0,1]
+		 * @param complacency &isin; [0,1]
+		 * @param convenience &isin; [0,1], or {@link Double#NaN} for none
+		 * @return the candidate's index
+		 */
+		public int add( final double confidence, final double complacency,
+			final double convenience )
+		{
+			ensureCapacity( this.size + 1 );
+			this.confidence[this.size] = confidence;
+			this.complacency[this.size] = complacency;
+			this.convenience[this.size] = convenience;
+			return this.size++;
+		}
+
+		/**
+		 * @param hh the candidate {@link HouseholdTuple}, read unboxed
+		 * @param occasion the {@link VaxOccasion}, or {@code null} for none
+		 * @return the candidate's index
+		 */
+		public int add( final HouseholdTuple hh, final VaxOccasion occasion )
+		{
+			return add( hh.confidence(), hh.complacency(),
+					VaxHesitancy.minimumConvenienceAsDouble( occasion ) );
+		}
+
+		/**
+		 * @param profile the calibrated {@link HesitancyProfileJson}
+		 * @param distFact the {@link ProbabilityDistribution.Factory}
+		 * @param convenienceDist the occasion convenience levels, or
+		 *            {@code null} for none
+		 * @param n the number of candidates to draw
+		 * @return this {@link Batch}
+		 */
+		public Batch sample( final HesitancyProfileJson profile,
+			final ProbabilityDistribution.Factory distFact,
+			final ProbabilityDistribution<? extends Number> convenienceDist,
+			final int n )
+		{
+			// profile distributions are cached, i.e. created once
+			final ProbabilityDistribution<Double> confidenceDist = profile.distParams
+					.get( HesitancyDimension.confidence ).createDist( distFact ),
+					complacencyDist = profile.distParams
+							.get( HesitancyDimension.complacency )
+							.createDist( distFact );
+			ensureCapacity( this.size + n );
+			for( int i = 0; i < n; i++ )
+				add( confidenceDist.draw(), complacencyDist.draw(),
+						convenienceDist == null ? Double.NaN
+								: convenienceDist.draw().doubleValue() );
+			return this;
+		}
+
+		/**
+		 * @param maxConvenience the highest convenience any occasion offers
+		 * @param recheckDelay the delay until re-checking rejecting candidates
+		 * @return this {@link Batch}, with decisions and re-check delays set
+		 */
+		public Batch evaluate( final double maxConvenience,
+			final double recheckDelay )
+		{
+			this.accepted = VaxAcceptance4CSimple.evaluate( this.confidence,
+					this.complacency, this.convenience, this.size,
+					maxConvenience, recheckDelay, this.accept, this.recheck );
+			return this;
+		}
+
+		/**
+		 * @return this {@link Batch}, with decisions set but re-check delays
+		 *         left as last {@link #evaluate(double, double) evaluated}
+		 */
+		public Batch evaluate()
+		{
+			this.accepted = VaxAcceptance4CSimple.evaluate( this.confidence,
+					this.complacency, this.convenience, this.size, Double.NaN,
+					Double.NaN, this.accept, null );
+			return this;
+		}
+
+		/** @return the number of accepting candidates, as last evaluated */
+		public int accepted()
+		{
+			return this.accepted;
+		}
+
+		/**
+		 * @param i the candidate's index
+		 * @return the candidate's acceptance decision, as last evaluated
+		 */
+		public boolean accept( final int i )
+		{
+			return this.accept[i];
+		}
+
+		/**
+		 * @param i the candidate's index
+		 * @return the candidate's re-check delay, as last evaluated
+		 */
+		public double recheck( final int i )
+		{
+			return this.recheck[i];
+		}
+	}
 }
\ No newline at end of file
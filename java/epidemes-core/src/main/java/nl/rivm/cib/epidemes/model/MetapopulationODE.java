@@ -0,0 +1,475 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.FirstOrderIntegrator;
+import org.apache.commons.math3.ode.nonstiff.DormandPrince853Integrator;
+
+import io.coala.exception.Thrower;
+import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+
+/**
+ * {@link MetapopulationODE} is a deterministic, region-structured
+ * {@link MSEIRS} model, integrated by the Dormand-Prince (embedded
+ * Runge-Kutta) method. Each region's force of infection mixes its own
+ * prevalence with that of its enclosing region groups (e.g. health services
+ * or provinces, see {@link Builder#withLevel}) and of its commuting
+ * destinations (see {@link Builder#withCommute}), in O(regions &times;
+ * levels + commutes) per evaluation. Besides the {@link Compartment} totals
+ * per region it integrates their cumulative inflows, like the agent-based
+ * regional SIR deltas
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class MetapopulationODE implements FirstOrderDifferentialEquations
+{
+
+	private static final int K = Compartment.values().length;
+
+	private static final int M = Compartment.PASSIVE_IMMUNE.ordinal(),
+			S = Compartment.SUSCEPTIBLE.ordinal(),
+			E = Compartment.EXPOSED.ordinal(),
+			I = Compartment.INFECTIVE.ordinal(),
+			R = Compartment.RECOVERED.ordinal(),
+			NB = Compartment.NEWBORN.ordinal(),
+			D = Compartment.DORMANT.ordinal();
+
+	/** the region names */
+	private final String[] regions;
+
+	/** region name &rarr; index */
+	private final Map<String, Integer> index = new HashMap<>();
+
+	/** transmission, E&rarr;I, I&rarr;R, R&rarr;S and M&rarr;S rates */
+	private final double beta, sigma, gamma, omega, mu;
+
+	/**
+	 * force of infection share of each region's own prevalence, including
+	 * the {@link #commuteShare} of regions without (weighted) commuting flows
+	 */
+	private final double[] localShare;
+
+	private final double[] levelShares;
+
+	/** level &rarr; region &rarr; group index */
+	private final int[][] levelGroups;
+
+	/** level &rarr; group &rarr; infective and total count (scratch) */
+	private final double[][] groupInfective, groupSize;
+
+	private final double commuteShare;
+
+	/** commuting destinations and their weights, in CSR layout */
+	private final int[] commuteOffsets, commuteTargets;
+
+	private final double[] commuteWeights;
+
+	private final FirstOrderIntegrator integrator;
+
+	/** totals then cumulative inflows, per region &times; compartment */
+	private final double[] y;
+
+	/** region prevalence (scratch) */
+	private final double[] prevalence;
+
+	/** current time, in days */
+	private double t = 0;
+
+	private MetapopulationODE( final Builder builder )
+	{
+		this.regions = builder.regions.toArray( new String[0] );
+		for( int i = 0; i < this.regions.length; i++ )
+			this.index.put( this.regions[i], i );
+		this.gamma = 1. / builder.infectiveDays;
+		this.beta = builder.reproduction * this.gamma;
+		this.sigma = builder.latentDays > 0 ? 1. / builder.latentDays : 0;
+		this.omega = 1. / builder.immuneDays;
+		this.mu = 1. / builder.passiveDays;
+
+		final int levels = builder.levelShares.size();
+		this.levelShares = new double[levels];
+		this.levelGroups = new int[levels][];
+		this.groupInfective = new double[levels][];
+		this.groupSize = new double[levels][];
+		double share = 0;
+		for( int l = 0; l < levels; l++ )
+		{
+			share += this.levelShares[l] = builder.levelShares.get( l );
+			this.levelGroups[l] = builder.levelGroups.get( l );
+			final int groups = Arrays.stream( this.levelGroups[l] ).max()
+					.orElse( -1 ) + 1;
+			this.groupInfective[l] = new double[groups];
+			this.groupSize[l] = new double[groups];
+		}
+
+		this.commuteShare = builder.commutes.isEmpty() ? 0
+				: builder.commuteShare;
+		share += this.commuteShare;
+		if( share > 1 ) Thrower.throwNew( IllegalArgumentException::new,
+				() -> "Mixing shares exceed 1: " + builder.levelShares
+						+ " + commuting " + builder.commuteShare );
+
+		final int n = this.regions.length;
+		this.commuteOffsets = new int[n + 1];
+		builder.commutes.forEach(
+				( i, flows ) -> this.commuteOffsets[i + 1] = flows.size() );
+		for( int i = 0; i < n; i++ )
+			this.commuteOffsets[i + 1] += this.commuteOffsets[i];
+		this.commuteTargets = new int[this.commuteOffsets[n]];
+		this.commuteWeights = new double[this.commuteOffsets[n]];
+		this.localShare = new double[n];
+		Arrays.fill( this.localShare, 1 - share + this.commuteShare );
+		builder.commutes.forEach( ( i, flows ) ->
+		{
+			// normalize each origin's outflows
+			final double total = flows.values().stream()
+					.mapToDouble( Double::doubleValue ).sum();
+			if( !(total > 0) ) return; // no outflows: keep commuters local
+			int k = this.commuteOffsets[i];
+			for( Map.Entry<Integer, Double> flow : flows.entrySet() )
+			{
+				this.commuteTargets[k] = flow.getKey();
+				this.commuteWeights[k++] = flow.getValue() / total;
+			}
+			this.localShare[i] -= this.commuteShare;
+		} );
+
+		this.integrator = new DormandPrince853Integrator( 1.0E-8, 1,
+				builder.absoluteTolerance, builder.relativeTolerance );
+		this.y = new double[2 * n * K];
+		this.prevalence = new double[n];
+	}
+
+	/** @return the current (integrated) time, in days */
+	public double time()
+	{
+		return this.t;
+	}
+
+	/** @return the region names, in their state vector order */
+	public List<String> regions()
+	{
+		return Arrays.asList( this.regions );
+	}
+
+	/**
+	 * @param totals the initial {@link Compartment} totals per region, e.g.
+	 *            of the (agent-based) population, ignoring other regions
+	 * @param time the initial time, in days
+	 * @return this {@link MetapopulationODE}
+	 */
+	public MetapopulationODE reset(
+		final Map<String, ? extends Map<Compartment, Long>> totals,
+		final double time )
+	{
+		Arrays.fill( this.y, 0 );
+		totals.forEach( ( reg, sir ) ->
+		{
+			final Integer i = this.index.get( reg );
+			if( i != null ) sir.forEach(
+					( c, n ) -> this.y[i * K + c.ordinal()] = n.doubleValue() );
+		} );
+		this.t = time;
+		return this;
+	}
+
+	/**
+	 * @param region the region to infect
+	 * @param cases the number of (index) cases, at most its
+	 *            {@link Compartment#SUSCEPTIBLE} count
+	 * @return this {@link MetapopulationODE}
+	 */
+	public MetapopulationODE seed( final String region, final double cases )
+	{
+		final Integer i = this.index.get( region );
+		if( i == null ) return Thrower.throwNew(
+				IllegalArgumentException::new,
+				() -> "Unknown region: " + region );
+		final int b = i * K, c = this.regions.length * K + b,
+				target = this.sigma > 0 ? E : I;
+		final double n = Math.min( cases, this.y[b + S] );
+		this.y[b + S] -= n;
+		this.y[b + target] += n;
+		this.y[c + target] += n;
+		return this;
+	}
+
+	/**
+	 * integrate from the current {@link #time()} up to {@code time}, if later
+	 * 
+	 * @param time the time to integrate to, in days
+	 * @return this {@link MetapopulationODE}
+	 */
+	public MetapopulationODE advance( final double time )
+	{
+		if( time <= this.t ) return this;
+		this.integrator.integrate( this, this.t, this.y, time, this.y );
+		this.t = time;
+		return this;
+	}
+
+	/** @return the (rounded) {@link Compartment} totals per region */
+	public Map<String, EnumMap<Compartment, Long>> totals()
+	{
+		return export( 0 );
+	}
+
+	/**
+	 * @return the (rounded) cumulative inflows per region and
+	 *         {@link Compartment}, since the last {@link #reset}
+	 */
+	public Map<String, EnumMap<Compartment, Long>> inflows()
+	{
+		return export( this.regions.length * K );
+	}
+
+	private Map<String, EnumMap<Compartment, Long>> export( final int offset )
+	{
+		final Map<String, EnumMap<Compartment, Long>> result = new TreeMap<>();
+		for( int i = 0; i < this.regions.length; i++ )
+		{
+			final EnumMap<Compartment, Long> sir = new EnumMap<>(
+					Compartment.class );
+			for( Compartment c : Compartment.values() )
+				sir.put( c, Math.round( this.y[offset + i * K + c.ordinal()] ) );
+			result.put( this.regions[i], sir );
+		}
+		return result;
+	}
+
+	@Override
+	public int getDimension()
+	{
+		return this.y.length;
+	}
+
+	@Override
+	public void computeDerivatives( final double t, final double[] y,
+		final double[] yp )
+	{
+		final int n = this.regions.length;
+		for( int l = 0; l < this.levelGroups.length; l++ )
+		{
+			Arrays.fill( this.groupInfective[l], 0 );
+			Arrays.fill( this.groupSize[l], 0 );
+		}
+		for( int i = 0, b = 0; i < n; i++, b += K )
+		{
+			double size = 0;
+			for( int k = 0; k < K; k++ )
+				size += y[b + k];
+			this.prevalence[i] = size > 0 ? y[b + I] / size : 0;
+			for( int l = 0; l < this.levelGroups.length; l++ )
+			{
+				final int g = this.levelGroups[l][i];
+				this.groupInfective[l][g] += y[b + I];
+				this.groupSize[l][g] += size;
+			}
+		}
+		for( int i = 0, b = 0; i < n; i++, b += K )
+		{
+			double force = this.localShare[i] * this.prevalence[i];
+			for( int l = 0; l < this.levelGroups.length; l++ )
+			{
+				final int g = this.levelGroups[l][i];
+				if( this.groupSize[l][g] > 0 )
+					force += this.levelShares[l] * this.groupInfective[l][g]
+							/ this.groupSize[l][g];
+			}
+			for( int k = this.commuteOffsets[i]; k < this.commuteOffsets[i
+					+ 1]; k++ )
+				force += this.commuteShare * this.commuteWeights[k]
+						* this.prevalence[this.commuteTargets[k]];
+			final double lambda = this.beta * force,
+					infect = lambda * (y[b + S] + y[b + NB] + y[b + D]),
+					latent = this.sigma * y[b + E],
+					recover = this.gamma * y[b + I],
+					wane = this.omega * y[b + R],
+					wean = this.mu * y[b + M];
+
+			final int c = n * K + b;
+			Arrays.fill( yp, b, b + K, 0 );
+			Arrays.fill( yp, c, c + K, 0 );
+			yp[b + M] = -wean;
+			yp[b + S] = wane + wean - lambda * y[b + S];
+			yp[b + NB] = -lambda * y[b + NB];
+			yp[b + D] = -lambda * y[b + D];
+			yp[c + S] = wane + wean;
+			if( this.sigma > 0 )
+			{
+				yp[b + E] = infect - latent;
+				yp[c + E] = infect;
+				yp[b + I] = latent - recover;
+				yp[c + I] = latent;
+			} else
+			{
+				yp[b + I] = infect - recover;
+				yp[c + I] = infect;
+			}
+			yp[b + R] = recover - wane;
+			yp[c + R] = recover;
+		}
+	}
+
+	/**
+	 * {@link Builder} of {@link MetapopulationODE}s
+	 */
+	public static class Builder
+	{
+		private final List<String> regions;
+
+		/** region name &rarr; index */
+		private final Map<String, Integer> index = new HashMap<>();
+
+		private double reproduction = 12, latentDays = 0, infectiveDays = 14,
+				immuneDays = Double.POSITIVE_INFINITY,
+				passiveDays = Double.POSITIVE_INFINITY;
+
+		private final List<Double> levelShares = new ArrayList<>();
+
+		private final List<int[]> levelGroups = new ArrayList<>();
+
+		private double commuteShare = 0;
+
+		/** origin &rarr; destination &rarr; flow */
+		private final Map<Integer, Map<Integer, Double>> commutes = new TreeMap<>();
+
+		private double absoluteTolerance = 1.0E-6,
+				relativeTolerance = 1.0E-6;
+
+		/**
+		 * @param regions the region names
+		 */
+		public Builder( final List<String> regions )
+		{
+			this.regions = regions;
+			for( int i = 0; i < regions.size(); i++ )
+				this.index.put( regions.get( i ), i );
+		}
+
+		/**
+		 * @param reproduction the basic reproduction number R<sub>0</sub>
+		 * @return this {@link Builder}
+		 */
+		public Builder withReproduction( final double reproduction )
+		{
+			this.reproduction = reproduction;
+			return this;
+		}
+
+		/**
+		 * @param latentDays the mean {@link Compartment#EXPOSED} period, or 0
+		 *            to infect directly
+		 * @param infectiveDays the mean {@link Compartment#INFECTIVE} period
+		 * @param immuneDays the mean {@link Compartment#RECOVERED} period, or
+		 *            {@link Double#POSITIVE_INFINITY} for lifelong immunity
+		 * @param passiveDays the mean {@link Compartment#PASSIVE_IMMUNE}
+		 *            period, or {@link Double#POSITIVE_INFINITY}
+		 * @return this {@link Builder}
+		 */
+		public Builder withPeriods( final double latentDays,
+			final double infectiveDays, final double immuneDays,
+			final double passiveDays )
+		{
+			this.latentDays = latentDays;
+			this.infectiveDays = infectiveDays;
+			this.immuneDays = immuneDays;
+			this.passiveDays = passiveDays;
+			return this;
+		}
+
+		/**
+		 * @param share the force of infection share of the group prevalence
+		 * @param groupOf maps each region to its group at this level, or
+		 *            {@code null} to group it by itself
+		 * @return this {@link Builder}
+		 */
+		public Builder withLevel( final double share,
+			final Function<String, ?> groupOf )
+		{
+			final Map<Object, Integer> groups = new HashMap<>();
+			this.levelShares.add( share );
+			this.levelGroups.add( this.regions.stream().mapToInt( reg ->
+			{
+				final Object group = groupOf.apply( reg );
+				return groups.computeIfAbsent( group == null ? reg : group,
+						k -> groups.size() );
+			} ).toArray() );
+			return this;
+		}
+
+		/**
+		 * @param share the force of infection share of the commuting
+		 *            destinations' prevalence, if any
+		 * @return this {@link Builder}
+		 */
+		public Builder withCommuting( final double share )
+		{
+			this.commuteShare = share;
+			return this;
+		}
+
+		/**
+		 * @param origin the (home) region
+		 * @param destination the (work or school) region
+		 * @param flow the commuter count, ignored for unknown regions
+		 * @return this {@link Builder}
+		 */
+		public Builder withCommute( final String origin,
+			final String destination, final double flow )
+		{
+			final Integer i = this.index.get( origin ),
+					j = this.index.get( destination );
+			if( i != null && j != null && flow > 0 ) this.commutes
+					.computeIfAbsent( i, k -> new TreeMap<>() )
+					.merge( j, flow, Double::sum );
+			return this;
+		}
+
+		/**
+		 * @param absolute the absolute (person count) step error tolerance
+		 * @param relative the relative step error tolerance
+		 * @return this {@link Builder}
+		 */
+		public Builder withTolerance( final double absolute,
+			final double relative )
+		{
+			this.absoluteTolerance = absolute;
+			this.relativeTolerance = relative;
+			return this;
+		}
+
+		public MetapopulationODE build()
+		{
+			return new MetapopulationODE( this );
+		}
+	}
+}
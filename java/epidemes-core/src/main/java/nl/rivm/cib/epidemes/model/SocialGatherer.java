@@ -88,6 +88,18 @@ public interface SocialGatherer
 	 */
 	Observable<Quantity<Time>> summon();
 
+	/**
+	 * Publishes when people driven by this motor convene, once per instant
+	 * for all its societies, unlike {@link #summon()} which draws a duration
+	 * for each subscriber
+	 * 
+	 * @return an {@link Observable} stream of convene {@link Instant}s
+	 */
+	Observable<Instant> summonings();
+
+	/** @return the distribution of gathering durations */
+	QuantityDistribution<Time> durationDist();
+
 	class SimpleGatherer extends Identified.SimpleOrdinal<String>
 		implements SocialGatherer
 	{
@@ -187,11 +199,16 @@ public interface SocialGatherer
 
 		@Override
 		public Observable<Quantity<Time>> summon()
+		{
+			return summonings().map( t -> this.dist.draw() );
+		}
+
+		@Override
+		public Observable<Instant> summonings()
 		{
 			if( this.summonings == null ) try
 			{
-				this.dist = this.distParser.parseQuantity(
-						fromConfigNonEmpty( DURATION_KEY ), Time.class );
+				this.dist = durationDist();
 				this.summonings = PublishSubject.create();
 				final String cron = fromConfigNonEmpty( TIMING_KEY );
 				final Iterable<Instant> timing = Timing.valueOf( cron )
@@ -201,7 +218,21 @@ public interface SocialGatherer
 			{
 				return Observable.error( e );
 			}
-			return this.summonings.map( t -> this.dist.draw() );
+			return this.summonings;
+		}
+
+		@Override
+		public QuantityDistribution<Time> durationDist()
+		{
+			if( this.dist == null ) try
+			{
+				this.dist = this.distParser.parseQuantity(
+						fromConfigNonEmpty( DURATION_KEY ), Time.class );
+			} catch( final Exception e )
+			{
+				return Thrower.rethrowUnchecked( e );
+			}
+			return this.dist;
 		}
 	}
 
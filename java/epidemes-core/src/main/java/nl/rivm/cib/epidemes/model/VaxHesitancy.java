@@ -197,6 +197,21 @@ public interface VaxHesitancy extends Attitude<VaxOccasion>
 				.multiply( confidence.subtract( complacency ) ) );
 	}
 
+	/**
+	 * primitive {@link #averageBarrier(BigDecimal, BigDecimal)}, e.g. for
+	 * bulk evaluation over attitude columns
+	 * 
+	 * @param confidence &isin; [0,1]
+	 * @param complacency &isin; [0,1]
+	 * @return barrier : &frac12; &minus; &frac12; &times; (confidence &minus;
+	 *         complacency)
+	 */
+	static double averageBarrier( final double confidence,
+		final double complacency )
+	{
+		return .5 - .5 * (confidence - complacency);
+	}
+
 	/**
 	 * ({@link #getConfidence() confidence}, {@link #getComplacency()
 	 * complacency}) &rarr; barrier, each a {@link BigDecimal} &isin; [0,1]
@@ -267,6 +282,21 @@ public interface VaxHesitancy extends Attitude<VaxOccasion>
 				occ.affinity() );
 	}
 
+	/**
+	 * @param occ a {@link VaxOccasion}, or {@code null}
+	 * @return the (unboxed) {@link #minimumConvenience(VaxOccasion)}, or
+	 *         {@link Double#NaN} for no occasion
+	 */
+	static double minimumConvenienceAsDouble( final VaxOccasion occ )
+	{
+		return occ == null ? Double.NaN
+				: Math.min(
+						Math.min( occ.utility().doubleValue(),
+								occ.proximity().doubleValue() ),
+						Math.min( occ.clarity().doubleValue(),
+								occ.affinity().doubleValue() ) );
+	}
+
 	/**
 	 * {@link SocialFactors} of vaccination hesitancy are influenced socially
 	 */
@@ -0,0 +1,265 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.coala.random.PseudoRandom;
+
+/**
+ * {@link BirthIndex} keeps keys (e.g. persons) sorted by their primitive birth
+ * (virtual) time per region, in an order-statistic treap, for O(log n)
+ * insertion, removal and uniform sampling within any birth range. Unlike a
+ * {@link io.coala.data.Picker} split by age categories fixed at reset, the
+ * categories are resolved at sampling time, e.g. ages a to b at time t
+ * select births in [t - b, t - a), the half-open range taken by
+ * {@link #count} and {@link #draw}, so persons never drift out of their
+ * category and the index never needs rebuilding as time advances. Not
+ * thread-safe.
+ * 
+ * @param <K> the key type
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class BirthIndex<K>
+{
+	/** a treap node, ordered by (birth, id) and heap-ordered by priority */
+	private static class Node<K>
+	{
+		final K key;
+		final double birth;
+		final long id;
+		final long priority;
+		int size = 1;
+		Node<K> left, right;
+
+		Node( final K key, final double birth, final long id )
+		{
+			this.key = key;
+			this.birth = birth;
+			this.id = id;
+			// scrambled id: balanced, yet independent of any random stream
+			this.priority = RandomStreams.mix( id );
+		}
+
+		/** @return {@code true} iff this node orders before (birth, id) */
+		boolean before( final double birth, final long id )
+		{
+			return this.birth < birth || this.birth == birth && this.id < id;
+		}
+	}
+
+	/** the region of each key */
+	private final Map<K, Object> regions = new HashMap<>();
+
+	/** the node of each key */
+	private final Map<K, Node<K>> nodes = new HashMap<>();
+
+	/** the treap root per region */
+	private final Map<Object, Node<K>> roots = new HashMap<>();
+
+	private long seq = 0;
+
+	public int size()
+	{
+		return this.nodes.size();
+	}
+
+	public boolean containsKey( final Object key )
+	{
+		return this.nodes.containsKey( key );
+	}
+
+	/**
+	 * @param key the key to (re)index
+	 * @param region the key's region reference
+	 * @param birth the key's birth (virtual) time
+	 */
+	public void put( final K key, final Object region, final double birth )
+	{
+		remove( key );
+		final Node<K> node = new Node<>( key, birth, this.seq++ );
+		this.roots.put( region, insert( this.roots.get( region ), node ) );
+		this.regions.put( key, region );
+		this.nodes.put( key, node );
+	}
+
+	/**
+	 * @param key the key to remove
+	 * @return {@code true} iff {@code key} was indexed
+	 */
+	public boolean remove( final Object key )
+	{
+		final Node<K> node = this.nodes.remove( key );
+		if( node == null ) return false;
+		final Object region = this.regions.remove( key );
+		final Node<K> root = delete( this.roots.get( region ), node.birth,
+				node.id );
+		if( root == null )
+			this.roots.remove( region );
+		else
+			this.roots.put( region, root );
+		return true;
+	}
+
+	/**
+	 * @param region the region reference
+	 * @param from the minimum birth time (inclusive)
+	 * @param to the maximum birth time (exclusive)
+	 * @return the number of keys in {@code region} born in [from, to)
+	 */
+	public int count( final Object region, final double from,
+		final double to )
+	{
+		final Node<K> root = this.roots.get( region );
+		return root == null ? 0
+				: Math.max( 0, rankOf( root, to ) - rankOf( root, from ) );
+	}
+
+	/**
+	 * @param region the region reference
+	 * @param from the minimum birth time (inclusive)
+	 * @param to the maximum birth time (exclusive)
+	 * @param rng the {@link PseudoRandom} stream to sample from
+	 * @return a uniformly sampled key in {@code region} born in [from, to),
+	 *         otherwise the key born nearest to that range, or {@code null}
+	 *         if {@code region} has no keys
+	 */
+	public K draw( final Object region, final double from, final double to,
+		final PseudoRandom rng )
+	{
+		final Node<K> root = this.roots.get( region );
+		if( root == null ) return null;
+		final int lo = rankOf( root, from ), hi = rankOf( root, to );
+		if( hi > lo ) return select( root, lo + rng.nextInt( hi - lo ) ).key;
+		// none in range: deviate to the nearest birth on either side
+		if( lo == 0 ) return select( root, 0 ).key;
+		if( lo == root.size ) return select( root, lo - 1 ).key;
+		final Node<K> below = select( root, lo - 1 ), above = select( root, lo );
+		return from - below.birth <= above.birth - to ? below.key : above.key;
+	}
+
+	private static int size( final Node<?> node )
+	{
+		return node == null ? 0 : node.size;
+	}
+
+	private static <K> Node<K> update( final Node<K> node )
+	{
+		node.size = 1 + size( node.left ) + size( node.right );
+		return node;
+	}
+
+	/** @return the number of nodes born before {@code birth} */
+	private static int rankOf( Node<?> node, final double birth )
+	{
+		int result = 0;
+		while( node != null )
+			if( node.birth < birth )
+			{
+				result += size( node.left ) + 1;
+				node = node.right;
+			} else
+				node = node.left;
+		return result;
+	}
+
+	/** @return the node of (zero-based) rank {@code i} */
+	private static <K> Node<K> select( Node<K> node, int i )
+	{
+		while( true )
+		{
+			final int left = size( node.left );
+			if( i < left )
+				node = node.left;
+			else if( i == left )
+				return node;
+			else
+			{
+				i -= left + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	private static <K> Node<K> insert( final Node<K> root, final Node<K> node )
+	{
+		if( root == null ) return node;
+		if( node.priority > root.priority )
+		{
+			// node becomes the root of this subtree: split root around it
+			split( root, node );
+			return update( node );
+		}
+		if( root.before( node.birth, node.id ) )
+			root.right = insert( root.right, node );
+		else
+			root.left = insert( root.left, node );
+		return update( root );
+	}
+
+	/** splits {@code root} into {@code pivot.left} and {@code pivot.right} */
+	private static <K> void split( final Node<K> root, final Node<K> pivot )
+	{
+		if( root == null )
+		{
+			pivot.left = pivot.right = null;
+			return;
+		}
+		if( root.before( pivot.birth, pivot.id ) )
+		{
+			split( root.right, pivot );
+			root.right = pivot.left;
+			pivot.left = update( root );
+		} else
+		{
+			split( root.left, pivot );
+			root.left = pivot.right;
+			pivot.right = update( root );
+		}
+	}
+
+	private static <K> Node<K> delete( final Node<K> root, final double birth,
+		final long id )
+	{
+		if( root == null ) return null;
+		if( root.birth == birth && root.id == id )
+			return merge( root.left, root.right );
+		if( root.before( birth, id ) )
+			root.right = delete( root.right, birth, id );
+		else
+			root.left = delete( root.left, birth, id );
+		return update( root );
+	}
+
+	private static <K> Node<K> merge( final Node<K> left, final Node<K> right )
+	{
+		if( left == null ) return right;
+		if( right == null ) return left;
+		if( left.priority > right.priority )
+		{
+			left.right = merge( left.right, right );
+			return update( left );
+		}
+		right.left = merge( left, right.left );
+		return update( right );
+	}
+}
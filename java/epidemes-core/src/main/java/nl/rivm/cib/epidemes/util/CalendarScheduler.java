@@ -0,0 +1,486 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.measure.Unit;
+
+import org.apache.logging.log4j.Logger;
+
+import io.coala.bind.InjectConfig;
+import io.coala.bind.LocalBinder;
+import io.coala.function.ThrowingConsumer;
+import io.coala.log.LogUtil;
+import io.coala.time.Expectation;
+import io.coala.time.Instant;
+import io.coala.time.Scheduler;
+import io.coala.time.SchedulerConfig;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.subjects.PublishSubject;
+
+/**
+ * {@link CalendarScheduler} is a {@link Scheduler} like the
+ * {@link io.coala.dsol3.Dsol3Scheduler} but keeping its event list in a
+ * calendar queue over primitive (base unit) time: a ring of fixed-width
+ * time buckets for the near future, appended in O(1) and only sorted (via a
+ * binary heap) once current, with a heap for the far future beyond the ring.
+ * Events are pooled in primitive arrays and cancelled lazily in O(1). Events
+ * due at the same time occur in order of scheduling
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+@Singleton
+public class CalendarScheduler implements Scheduler
+{
+
+	/**
+	 * {@link CalendarConfig} adds the calendar (ring) dimensions to the
+	 * {@link SchedulerConfig}
+	 */
+	public interface CalendarConfig extends SchedulerConfig
+	{
+		/** bucket width, in base time units, e.g. 1.5 hour for days */
+		@Key( "replication.bucket-width" )
+		@DefaultValue( ".0625" )
+		double bucketWidth();
+
+		/** ring size, rounded up to a power of two */
+		@Key( "replication.bucket-count" )
+		@DefaultValue( "16384" )
+		int bucketCount();
+	}
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( CalendarScheduler.class );
+
+	private final PublishSubject<Scheduler> reset = PublishSubject.create();
+
+	private final PublishSubject<Instant> time = PublishSubject.create();
+
+	private final AtomicReference<Instant> t = new AtomicReference<>();
+
+	private final String binderId;
+
+	@InjectConfig
+	private CalendarConfig config;
+
+	/** the event list, or {@code null} if not (yet) running or failed */
+	private volatile EventCalendar events = null;
+
+	private ZonedDateTime offsetCache;
+
+	private Unit<?> baseUnitCache;
+
+	private Thread worker = null;
+
+	@Inject
+	public CalendarScheduler( final LocalBinder binder )
+	{
+		this.binderId = binder.id().toString();
+	}
+
+	public CalendarScheduler( final CalendarConfig config )
+	{
+		this.binderId = config.rawId();
+		this.config = config;
+	}
+
+	@Override
+	public ZonedDateTime offset()
+	{
+		return this.offsetCache != null ? this.offsetCache
+				: (this.offsetCache = Objects
+						.requireNonNull( this.config, "not configured?" )
+						.offset());
+	}
+
+	@Override
+	public Unit<?> timeUnit()
+	{
+		return this.baseUnitCache != null ? this.baseUnitCache
+				: (this.baseUnitCache = Objects
+						.requireNonNull( this.config, "not configured?" )
+						.timeUnit());
+	}
+
+	@Override
+	public SchedulerConfig config()
+	{
+		return this.config;
+	}
+
+	@Override
+	public Instant now()
+	{
+		return this.t.get();
+	}
+
+	@Override
+	public Observable<Instant> time()
+	{
+		return this.time;
+	}
+
+	@Override
+	public void fail( final Throwable e )
+	{
+		this.events = null;
+		this.time.onError( e );
+	}
+
+	@Override
+	public Disposable onReset( final ThrowingConsumer<Scheduler, ?> consumer )
+	{
+		return this.reset.subscribe( scheduler ->
+		{
+			try
+			{
+				LOG.trace( "Using config: {}", this.config.toJSON() );
+				consumer.accept( scheduler );
+			} catch( final Throwable e )
+			{
+				fail( e );
+			}
+		}, this::fail );
+	}
+
+	private void advanceTo( final Instant t )
+	{
+		this.t.updateAndGet( old ->
+		{
+			if( !t.equals( old ) ) this.time.onNext( t );
+			return t;
+		} );
+	}
+
+	private double toBase( final Instant when )
+	{
+		return (timeUnit().equals( when.unit() ) ? when
+				: when.to( timeUnit() )).decimal().doubleValue();
+	}
+
+	@Override
+	public synchronized void resume()
+	{
+		if( this.worker != null ) return;
+		final String id = this.config.rawId(), name = id != null ? id
+				: this.binderId != null ? this.binderId
+						: "repl-" + (System.currentTimeMillis()
+								& System.nanoTime());
+		final Instant end = Instant.of( this.config.rawDuration(),
+				timeUnit() );
+		this.events = new EventCalendar( this.config.bucketWidth(),
+				this.config.bucketCount() );
+		advanceTo( Instant.of( 0, timeUnit() ) );
+		// scheduler ready, publish
+		this.reset.onNext( this );
+		this.worker = new Thread( () -> process( toBase( end ), end ), name );
+		this.worker.start();
+	}
+
+	private void process( final double tEnd, final Instant end )
+	{
+		while( true )
+		{
+			final EventCalendar events = this.events;
+			if( events == null ) return; // failed
+			final Instant when;
+			final ThrowingConsumer<Instant, ?> what;
+			synchronized( events )
+			{
+				final int i = events.poll();
+				if( i < 0 || events.times[i] > tEnd ) break;
+				when = events.instants[i];
+				what = events.actions[i];
+				events.release( i );
+			}
+			advanceTo( when );
+			try
+			{
+				what.accept( when );
+			} catch( final Throwable e )
+			{
+				fail( e );
+				return;
+			}
+		}
+		if( this.events == null ) return;
+		advanceTo( end );
+		this.events = null;
+		this.time.onComplete();
+	}
+
+	@Override
+	public Expectation schedule( final Instant when,
+		final ThrowingConsumer<Instant, ?> what )
+	{
+		final EventCalendar events = this.events;
+		if( events == null ) return null; // not running or failed
+		final double t = toBase( when );
+		final int i, version;
+		synchronized( events )
+		{
+			i = events.add( t, when, what );
+			version = events.versions[i];
+		}
+		return Expectation.of( this, when, new Disposable()
+		{
+			private boolean cancelled = false;
+
+			@Override
+			public boolean isDisposed()
+			{
+				return this.cancelled;
+			}
+
+			@Override
+			public void dispose()
+			{
+				if( !this.cancelled ) synchronized( events )
+				{
+					this.cancelled = events.cancel( i, version );
+				}
+			}
+		} );
+	}
+
+	/**
+	 * {@link EventCalendar} is a (non-thread-safe) calendar queue of pooled
+	 * events, ordered by their time then sequence
+	 */
+	static class EventCalendar
+	{
+		final double width;
+
+		final int mask;
+
+		/** event pool */
+		double[] times = new double[1024];
+
+		long[] seqs = new long[1024];
+
+		Instant[] instants = new Instant[1024];
+
+		@SuppressWarnings( "unchecked" )
+		ThrowingConsumer<Instant, ?>[] actions = new ThrowingConsumer[1024];
+
+		/** incremented at each release, invalidating stale cancellations */
+		int[] versions = new int[1024];
+
+		boolean[] live = new boolean[1024];
+
+		int[] free = new int[1024];
+
+		int freeCount = 0, allocated = 0;
+
+		long nextSeq = 0;
+
+		/** live (scheduled, not cancelled) event count */
+		int size = 0;
+
+		/** ring of buckets with unsorted event slots */
+		final int[][] buckets;
+
+		final int[] bucketSizes;
+
+		/** event slots in the ring */
+		int ringCount = 0;
+
+		/** the current bucket, i.e. {@code floor(t/width)} */
+		long cursor = 0;
+
+		/** events in the current (or past) bucket, sorted */
+		int[] current = new int[64];
+
+		int currentSize = 0;
+
+		/** events beyond the ring, sorted */
+		int[] overflow = new int[64];
+
+		int overflowSize = 0;
+
+		EventCalendar( final double width, final int count )
+		{
+			this.width = width;
+			final int n = Integer.highestOneBit( Math.max( 2, count ) - 1 ) << 1;
+			this.mask = n - 1;
+			this.buckets = new int[n][];
+			this.bucketSizes = new int[n];
+		}
+
+		long bucketOf( final double t )
+		{
+			return (long) Math.floor( t / this.width );
+		}
+
+		int add( final double t, final Instant when,
+			final ThrowingConsumer<Instant, ?> what )
+		{
+			final int i = allocate();
+			this.times[i] = t;
+			this.seqs[i] = this.nextSeq++;
+			this.instants[i] = when;
+			this.actions[i] = what;
+			this.live[i] = true;
+			this.size++;
+			final long b = bucketOf( t );
+			if( b <= this.cursor )
+				this.current = push( this.current, this.currentSize++, i );
+			else if( b <= this.cursor + this.mask )
+				append( (int) (b & this.mask), i );
+			else
+				this.overflow = push( this.overflow, this.overflowSize++, i );
+			return i;
+		}
+
+		boolean cancel( final int i, final int version )
+		{
+			if( this.versions[i] != version || !this.live[i] ) return false;
+			this.live[i] = false; // lazily removed once due
+			this.size--;
+			return true;
+		}
+
+		/** @return the next live event slot (to release), or -1 if none */
+		int poll()
+		{
+			while( true )
+			{
+				while( this.currentSize > 0 )
+				{
+					final int i = pop( this.current, this.currentSize-- );
+					if( this.live[i] )
+					{
+						this.live[i] = false;
+						this.size--;
+						return i;
+					}
+					release( i );
+				}
+				if( this.size == 0 ) return -1;
+				// skip (empty) ring to the far future
+				if( this.ringCount == 0 )
+					this.cursor = bucketOf( this.times[this.overflow[0]] ) - 1;
+				this.cursor++;
+				while( this.overflowSize > 0 && bucketOf(
+						this.times[this.overflow[0]] ) <= this.cursor
+								+ this.mask )
+				{
+					final int i = pop( this.overflow, this.overflowSize-- );
+					append( (int) (bucketOf( this.times[i] ) & this.mask),
+							i );
+				}
+				final int b = (int) (this.cursor & this.mask);
+				for( int k = 0; k < this.bucketSizes[b]; k++ )
+					this.current = push( this.current, this.currentSize++,
+							this.buckets[b][k] );
+				this.ringCount -= this.bucketSizes[b];
+				this.bucketSizes[b] = 0;
+			}
+		}
+
+		void release( final int i )
+		{
+			this.versions[i]++;
+			this.instants[i] = null;
+			this.actions[i] = null;
+			this.free[this.freeCount++] = i;
+		}
+
+		private int allocate()
+		{
+			if( this.freeCount > 0 ) return this.free[--this.freeCount];
+			if( this.allocated == this.times.length )
+			{
+				final int n = 2 * this.allocated;
+				this.times = Arrays.copyOf( this.times, n );
+				this.seqs = Arrays.copyOf( this.seqs, n );
+				this.instants = Arrays.copyOf( this.instants, n );
+				this.actions = Arrays.copyOf( this.actions, n );
+				this.versions = Arrays.copyOf( this.versions, n );
+				this.live = Arrays.copyOf( this.live, n );
+				this.free = Arrays.copyOf( this.free, n );
+			}
+			return this.allocated++;
+		}
+
+		private void append( final int b, final int i )
+		{
+			int[] bucket = this.buckets[b];
+			if( bucket == null )
+				bucket = this.buckets[b] = new int[8];
+			else if( this.bucketSizes[b] == bucket.length )
+				bucket = this.buckets[b] = Arrays.copyOf( bucket,
+						2 * bucket.length );
+			bucket[this.bucketSizes[b]++] = i;
+			this.ringCount++;
+		}
+
+		private boolean before( final int i, final int j )
+		{
+			return this.times[i] < this.times[j] || (this.times[i] == this.times[j]
+					&& this.seqs[i] < this.seqs[j]);
+		}
+
+		/** @return the (grown) heap with event {@code i} added at {@code n} */
+		private int[] push( int[] heap, final int n, final int i )
+		{
+			if( n == heap.length ) heap = Arrays.copyOf( heap, 2 * n );
+			int k = n;
+			while( k > 0 )
+			{
+				final int parent = (k - 1) >>> 1;
+				if( !before( i, heap[parent] ) ) break;
+				heap[k] = heap[parent];
+				k = parent;
+			}
+			heap[k] = i;
+			return heap;
+		}
+
+		/** @return the root of the heap of {@code n} events */
+		private int pop( final int[] heap, final int n )
+		{
+			final int result = heap[0], last = heap[n - 1], size = n - 1;
+			int k = 0;
+			while( true )
+			{
+				int child = 2 * k + 1;
+				if( child >= size ) break;
+				if( child + 1 < size && before( heap[child + 1], heap[child] ) )
+					child++;
+				if( !before( heap[child], last ) ) break;
+				heap[k] = heap[child];
+				k = child;
+			}
+			if( size > 0 ) heap[k] = last;
+			return result;
+		}
+	}
+}
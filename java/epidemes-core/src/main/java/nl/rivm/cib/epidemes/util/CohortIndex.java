@@ -0,0 +1,168 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link CohortIndex} groups keys (e.g. vaccination hesitants) into cohorts by
+ * their primitive (birth) day, in a contiguous array of {@link MemberSet}s
+ * offset by its first day, for O(1) {@link #add} and {@link #remove} and
+ * range queries that visit only the days in range rather than e.g. a
+ * {@link java.util.TreeMap} of boxed {@link java.math.BigDecimal} bins with
+ * O(n) {@link java.util.ArrayList} removals. Not thread-safe.
+ * 
+ * @param <K> the key type
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CohortIndex<K>
+{
+	/** the cohort of day {@link #first} + i, or {@code null} if never used */
+	private MemberSet<K>[] cohorts = newCohorts( 0 );
+
+	private long first = 0L;
+
+	private int size = 0;
+
+	@SuppressWarnings( "unchecked" )
+	private static <K> MemberSet<K>[] newCohorts( final int n )
+	{
+		return new MemberSet[n];
+	}
+
+	/** @return the number of keys in all cohorts */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/** @return the first day covered, e.g. to bound an open range query */
+	public long firstDay()
+	{
+		return this.first;
+	}
+
+	/** @return the last day covered, e.g. to bound an open range query */
+	public long lastDay()
+	{
+		return this.first + this.cohorts.length - 1;
+	}
+
+	/**
+	 * @param day the cohort's (birth) day
+	 * @param key the key to add
+	 * @return {@code true} iff {@code key} was not yet in this day's cohort
+	 */
+	public boolean add( final long day, final K key )
+	{
+		if( this.cohorts.length == 0 )
+		{
+			this.cohorts = newCohorts( 64 );
+			this.first = day;
+		} else if( day < this.first )
+		{
+			final int shift = Math.toIntExact( Math.max( this.first - day,
+					this.cohorts.length / 2 ) );
+			final MemberSet<K>[] grown = newCohorts(
+					this.cohorts.length + shift );
+			System.arraycopy( this.cohorts, 0, grown, shift,
+					this.cohorts.length );
+			this.cohorts = grown;
+			this.first -= shift;
+		} else if( day - this.first >= this.cohorts.length )
+			this.cohorts = Arrays.copyOf( this.cohorts,
+					Math.toIntExact( Math.max( day - this.first + 1,
+							this.cohorts.length * 3L / 2 ) ) );
+		final int i = (int) (day - this.first);
+		if( this.cohorts[i] == null ) this.cohorts[i] = new MemberSet<>();
+		if( !this.cohorts[i].add( key ) ) return false;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * @param day the cohort's (birth) day
+	 * @param key the key to remove
+	 * @return {@code true} iff {@code key} was in this day's cohort
+	 */
+	public boolean remove( final long day, final Object key )
+	{
+		final MemberSet<K> cohort = cohort( day );
+		if( cohort == null || !cohort.remove( key ) ) return false;
+		this.size--;
+		return true;
+	}
+
+	private MemberSet<K> cohort( final long day )
+	{
+		final long i = day - this.first;
+		return i < 0 || i >= this.cohorts.length ? null
+				: this.cohorts[(int) i];
+	}
+
+	/**
+	 * @param day the day to clamp, e.g. {@link Long#MIN_VALUE}
+	 * @return the cohort position of {@code day}, clamped to [0, length - 1]
+	 *         without overflowing for days far outside those covered
+	 */
+	private int clamp( final long day )
+	{
+		return day <= this.first ? 0
+				: day >= lastDay() ? this.cohorts.length - 1
+						: (int) (day - this.first);
+	}
+
+	/**
+	 * @param fromDay the first day, inclusive
+	 * @param toDay the last day, inclusive
+	 * @return the number of keys in the cohorts of specified days, clamped
+	 *         to those covered, e.g. [{@link Long#MIN_VALUE},
+	 *         {@link Long#MAX_VALUE}] for all keys
+	 */
+	public int count( final long fromDay, final long toDay )
+	{
+		int result = 0;
+		if( toDay < Math.max( fromDay, this.first ) || fromDay > lastDay() )
+			return result;
+		for( int i = clamp( fromDay ), n = clamp( toDay ) + 1; i < n; i++ )
+			if( this.cohorts[i] != null ) result += this.cohorts[i].size();
+		return result;
+	}
+
+	/**
+	 * @param fromDay the first day, inclusive
+	 * @param toDay the last day, inclusive
+	 * @return a (modifiable) copy of the keys in the cohorts of specified
+	 *         days (clamped like {@link #count}), ordered by day, so callers
+	 *         may e.g. {@link #remove} keys while evaluating them in bulk
+	 */
+	public List<K> select( final long fromDay, final long toDay )
+	{
+		final List<K> result = new ArrayList<>( count( fromDay, toDay ) );
+		if( toDay < Math.max( fromDay, this.first ) || fromDay > lastDay() )
+			return result;
+		for( int i = clamp( fromDay ), n = clamp( toDay ) + 1; i < n; i++ )
+			if( this.cohorts[i] != null ) result.addAll( this.cohorts[i] );
+		return result;
+	}
+}
@@ -0,0 +1,851 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import io.coala.data.DataLayer;
+import io.coala.data.Table;
+import io.coala.data.Table.Property;
+import io.coala.data.Table.Tuple;
+import io.coala.exception.Thrower;
+import io.reactivex.Observable;
+
+/**
+ * {@link ColumnLayer} provides a struct-of-arrays {@link DataLayer}, storing
+ * each {@link Property} type in its own primitive column: <br/>
+ * { propertyType/column -> { tupleKey/row -> primitive value } }
+ * <p>
+ * Numeric values are stored as {@code double}, {@code long}, {@code int} or
+ * bit, {@link Enum}s by (byte) ordinal, and any other (reference) values are
+ * dictionary-encoded by {@code int}. Unset values default like in
+ * {@link io.coala.data.MatrixLayer} (i.e. zero/false), except for enum and
+ * reference values which default to {@code null}. Row keys are {@link Long}s,
+ * recycled lowest-first after deletion.
+ * <p>
+ * <b>NOTE</b> not thread-safe!
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+@SuppressWarnings( "rawtypes" )
+public class ColumnLayer implements DataLayer
+{
+	/**
+	 * {@link ColumnTuple} adds primitive (unboxed) accessors to a
+	 * {@link Tuple}, falling back to boxed {@link #get(Class)} when not backed
+	 * by a {@link ColumnLayer}
+	 */
+	public static class ColumnTuple extends Tuple
+	{
+		private ColumnLayer layer = null;
+
+		private int row = -1;
+
+		ColumnTuple bind( final ColumnLayer layer, final int row )
+		{
+			this.layer = layer;
+			this.row = row;
+			return this;
+		}
+
+		private Column columnOrNull( final Class<? extends Property> key )
+		{
+			return this.layer == null ? null : this.layer.columns.get( key );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private Object boxed( final Class<? extends Property> key )
+		{
+			return get( (Class<Property<Object>>) key );
+		}
+
+		public double
+			getAsDouble( final Class<? extends Property<? extends Number>> key )
+		{
+			final Column col = columnOrNull( key );
+			if( col != null ) return col.getAsDouble( this.row );
+			final Object value = boxed( key );
+			return value == null ? 0d : ((Number) value).doubleValue();
+		}
+
+		public long
+			getAsLong( final Class<? extends Property<? extends Number>> key )
+		{
+			final Column col = columnOrNull( key );
+			if( col != null ) return col.getAsLong( this.row );
+			final Object value = boxed( key );
+			return value == null ? 0L : ((Number) value).longValue();
+		}
+
+		public int
+			getAsInt( final Class<? extends Property<? extends Number>> key )
+		{
+			final Column col = columnOrNull( key );
+			if( col != null ) return (int) col.getAsLong( this.row );
+			final Object value = boxed( key );
+			return value == null ? 0 : ((Number) value).intValue();
+		}
+
+		public boolean
+			getAsBoolean( final Class<? extends Property<Boolean>> key )
+		{
+			final Column col = columnOrNull( key );
+			if( col != null ) return col.getAsLong( this.row ) != 0L;
+			return Boolean.TRUE.equals( boxed( key ) );
+		}
+	}
+
+	private final List<Class<? extends Property>> properties;
+
+	private final Map<Class<?>, Column> columns = new HashMap<>();
+
+	private final List<Observable<Table.Change>> changes = new ArrayList<>();
+
+	private final Map<Class<?>, Table<?>> tableCache = new HashMap<>();
+
+	private final List<Tally<?>> tallies = new ArrayList<>();
+
+	/** the rows currently in use */
+	private final BitSet live = new BitSet();
+
+	/** the lowest row that may be recycled */
+	private int firstFree = 0;
+
+	private int rowCount = 0;
+
+	private int capacity;
+
+	public ColumnLayer( final List<Class<? extends Property>> properties,
+		final int initialCapacity )
+	{
+		this.properties = properties;
+		this.capacity = Math.max( 16, initialCapacity );
+		for( Class<? extends Property> property : properties )
+			this.columns.put( property, Column.of(
+					Property.returnType( property ), this.capacity ) );
+	}
+
+	public List<Class<? extends Property>> properties()
+	{
+		return this.properties;
+	}
+
+	public int size()
+	{
+		return this.rowCount;
+	}
+
+	/** @return the rows currently in use, in ascending order */
+	public IntStream rows()
+	{
+		return this.live.stream();
+	}
+
+	public boolean contains( final Object key )
+	{
+		if( !(key instanceof Number) ) return false;
+		final long row = ((Number) key).longValue();
+		return row > -1 && row < this.capacity && this.live.get( (int) row );
+	}
+
+	/**
+	 * @param row the row index
+	 * @param property the {@link Property} type (column) to retrieve
+	 * @return the (boxed) value
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <P extends Property<V>, V> V get( final int row,
+		final Class<P> property )
+	{
+		return (V) column( property ).get( row );
+	}
+
+	public double getAsDouble( final int row,
+		final Class<? extends Property<? extends Number>> property )
+	{
+		return column( property ).getAsDouble( row );
+	}
+
+	public long getAsLong( final int row,
+		final Class<? extends Property<? extends Number>> property )
+	{
+		return column( property ).getAsLong( row );
+	}
+
+	private Column column( final Class<? extends Property> property )
+	{
+		final Column result = this.columns.get( property );
+		return result != null ? result
+				: Thrower.throwNew( IllegalArgumentException::new,
+						() -> "Column undefined: " + property );
+	}
+
+	/**
+	 * {@link Tally} maintains the number of rows per group &times; enum value,
+	 * e.g. persons per home region &times; compartment, on each write rather
+	 * than re-scanning all rows. Counts may be read from other threads.
+	 * 
+	 * @param <E> the counted {@link Enum} type
+	 */
+	public static class Tally<E extends Enum<E>>
+	{
+		private final ColumnLayer layer;
+
+		private final Class<? extends Property> groupProperty;
+
+		private final Class<? extends Property<E>> countProperty;
+
+		private final Class<E> enumType;
+
+		private final Map<Object, AtomicLongArray> counts = new ConcurrentHashMap<>();
+
+		@SuppressWarnings( "unchecked" )
+		Tally( final ColumnLayer layer,
+			final Class<? extends Property> groupProperty,
+			final Class<? extends Property<E>> countProperty )
+		{
+			this.layer = layer;
+			this.groupProperty = groupProperty;
+			this.countProperty = countProperty;
+			this.enumType = (Class<E>) Property.returnType( countProperty );
+		}
+
+		boolean covers( final Class<?> property )
+		{
+			return property == this.groupProperty
+					|| property == this.countProperty;
+		}
+
+		void count( final int row, final int delta )
+		{
+			final Object group = this.layer.column( this.groupProperty )
+					.get( row );
+			if( group == null ) return;
+			final Enum<?> value = (Enum<?>) this.layer
+					.column( this.countProperty ).get( row );
+			if( value == null ) return;
+			this.counts
+					.computeIfAbsent( group,
+							k -> new AtomicLongArray(
+									this.enumType.getEnumConstants().length ) )
+					.addAndGet( value.ordinal(), delta );
+		}
+
+		void reset()
+		{
+			this.counts.clear();
+			this.layer.rows().forEach( row -> count( row, 1 ) );
+		}
+
+		/** @return the current count of specified group and value */
+		public long get( final Object group, final E value )
+		{
+			final AtomicLongArray n = this.counts.get( group );
+			return n == null ? 0 : n.get( value.ordinal() );
+		}
+
+		/**
+		 * @return a copy of the current (non-zero) counts, grouped by the
+		 *         {@link String#valueOf(Object) textual} group value
+		 */
+		public Map<String, EnumMap<E, Long>> snapshot()
+		{
+			final E[] values = this.enumType.getEnumConstants();
+			final Map<String, EnumMap<E, Long>> result = new HashMap<>();
+			this.counts.forEach( ( group, n ) ->
+			{
+				final EnumMap<E, Long> groupCounts = new EnumMap<>(
+						this.enumType );
+				for( int i = 0; i < values.length; i++ )
+				{
+					final long count = n.get( i );
+					if( count != 0 ) groupCounts.put( values[i], count );
+				}
+				if( !groupCounts.isEmpty() )
+					result.put( String.valueOf( group ), groupCounts );
+			} );
+			return result;
+		}
+	}
+
+	/**
+	 * @param groupProperty the {@link Property} type to group rows by
+	 * @param countProperty the {@link Enum} {@link Property} type to count
+	 * @return a {@link Tally} kept up-to-date by this layer's writes
+	 */
+	public <E extends Enum<E>> Tally<E> tally(
+		final Class<? extends Property> groupProperty,
+		final Class<? extends Property<E>> countProperty )
+	{
+		column( groupProperty );
+		column( countProperty ); // fail fast
+		final Tally<E> result = new Tally<>( this, groupProperty,
+				countProperty );
+		result.reset();
+		this.tallies.add( result );
+		return result;
+	}
+
+	private void write( final int row, final Class<? extends Property> property,
+		final Object value )
+	{
+		final Column column = column( property );
+		if( this.tallies.isEmpty() )
+		{
+			column.set( row, value );
+			return;
+		}
+		for( int i = 0; i < this.tallies.size(); i++ )
+			if( this.tallies.get( i ).covers( property ) )
+				this.tallies.get( i ).count( row, -1 );
+		column.set( row, value );
+		for( int i = 0; i < this.tallies.size(); i++ )
+			if( this.tallies.get( i ).covers( property ) )
+				this.tallies.get( i ).count( row, 1 );
+	}
+
+	private Long nextIndex()
+	{
+		final int row = this.live.nextClearBit( this.firstFree );
+		if( row >= this.capacity )
+		{
+			this.capacity = Math.max( row + 1, this.capacity << 1 );
+			this.columns.values().forEach( c -> c.grow( this.capacity ) );
+		}
+		this.live.set( row );
+		this.firstFree = row + 1;
+		this.rowCount++;
+		return Long.valueOf( row );
+	}
+
+	private void removeIndex( final Long key )
+	{
+		if( !contains( key ) ) Thrower.throwNew(
+				IndexOutOfBoundsException::new, () -> "Row not in use: " + key );
+		final int row = key.intValue();
+		this.tallies.forEach( t -> t.count( row, -1 ) );
+		this.columns.values().forEach( c -> c.clear( row ) );
+		this.live.clear( row );
+		this.firstFree = Math.min( this.firstFree, row );
+		this.rowCount--;
+	}
+
+	private void clear()
+	{
+		this.live.clear();
+		this.firstFree = 0;
+		this.rowCount = 0;
+		this.columns.replaceAll( ( k, c ) -> Column
+				.of( Property.returnType( k.asSubclass( Property.class ) ),
+						this.capacity ) );
+		this.tallies.forEach( Tally::reset );
+	}
+
+	private Tuple generate( final Class<? extends Tuple> type )
+	{
+		try
+		{
+			return type.newInstance();
+		} catch( final Exception e )
+		{
+			return Thrower.rethrowUnchecked( e );
+		}
+	}
+
+	private String toString( final int row )
+	{
+		return "#" + row + "[" + String.join( ";", this.properties.stream()
+				.map( p -> String.valueOf( this.columns.get( p ).get( row ) ) )
+				.map( s -> s.substring( 0, Math.min( s.length(), 6 ) ) )
+				.toArray( String[]::new ) ) + "]";
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[rows=" + this.rowCount
+				+ ", capacity=" + this.capacity + ", columns="
+				+ this.properties.stream().map( Class::getSimpleName )
+						.reduce( ( l, r ) -> l + ";" + r ).orElse( "" )
+				+ "]";
+	}
+
+	@Override
+	public Observable<Table.Change> changes()
+	{
+		return Observable.fromIterable( this.changes ).flatMap( rx -> rx );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public <T extends Tuple> Table<T> getTable( final Class<T> tupleType )
+	{
+		return (Table<T>) this.tableCache.computeIfAbsent( tupleType, k ->
+		{
+			final Table<?> result = new Table.Simple<Long, Tuple>(
+					this.properties::stream, this::nextIndex,
+					this::removeIndex, () -> rows().mapToObj( Long::valueOf ),
+					( key, emitter ) ->
+					{
+						if( !contains( key ) ) return null;
+						final int row = key.intValue();
+						final Tuple t = generate( tupleType );
+						if( t instanceof ColumnTuple )
+							((ColumnTuple) t).bind( this, row );
+						return t.reset( key, emitter,
+								property -> column( property ).get( row ),
+								( property, value ) -> write( row, property,
+										value ),
+								() -> toString( row ) );
+					}, this::size, this::toString, this::clear );
+			this.changes.add( result.changes() );
+			return result;
+		} );
+	}
+
+	/**
+	 * {@link Column} stores the values of a single {@link Property} type
+	 */
+	static abstract class Column
+	{
+		static Column of( final Class<?> type, final int capacity )
+		{
+			if( Double.class == type || Float.class == type )
+				return new DoubleColumn( type == Float.class, capacity );
+			if( BigDecimal.class == type ) return new DecimalColumn( capacity );
+			if( Long.class == type ) return new LongColumn( capacity );
+			if( Integer.class == type || Short.class == type
+					|| Byte.class == type )
+				return new IntColumn( type, capacity );
+			if( Boolean.class == type ) return new BitColumn();
+			if( type.isEnum() && type.getEnumConstants().length < 255 )
+				return new EnumColumn( type, capacity );
+			return new RefColumn( capacity );
+		}
+
+		abstract Object get( int row );
+
+		abstract void set( int row, Object value );
+
+		abstract void clear( int row );
+
+		abstract void grow( int capacity );
+
+		double getAsDouble( final int row )
+		{
+			final Object value = get( row );
+			return value instanceof Number ? ((Number) value).doubleValue()
+					: 0d;
+		}
+
+		long getAsLong( final int row )
+		{
+			final Object value = get( row );
+			return value instanceof Number ? ((Number) value).longValue()
+					: value instanceof Boolean && (Boolean) value ? 1L : 0L;
+		}
+	}
+
+	static class DoubleColumn extends Column
+	{
+		private final boolean single;
+
+		private double[] values;
+
+		DoubleColumn( final boolean single, final int capacity )
+		{
+			this.single = single;
+			this.values = new double[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			return this.single ? Float.valueOf( (float) this.values[row] )
+					: Double.valueOf( this.values[row] );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values[row] = value == null ? 0d
+					: ((Number) value).doubleValue();
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0d;
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+
+		@Override
+		double getAsDouble( final int row )
+		{
+			return this.values[row];
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return (long) this.values[row];
+		}
+	}
+
+	/**
+	 * {@link DecimalColumn} stores {@link BigDecimal}s as {@code double} plus
+	 * (byte) scale, which restores exactly any value with at most 17
+	 * significant digits, e.g. from {@link BigDecimal#valueOf(double)}; other
+	 * values are kept (boxed) aside
+	 */
+	static class DecimalColumn extends Column
+	{
+		private double[] values;
+
+		private byte[] scales;
+
+		private final Map<Integer, BigDecimal> inexact = new HashMap<>();
+
+		DecimalColumn( final int capacity )
+		{
+			this.values = new double[capacity];
+			this.scales = new byte[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			if( !this.inexact.isEmpty() )
+			{
+				final BigDecimal result = this.inexact.get( row );
+				if( result != null ) return result;
+			}
+			return decode( this.values[row], this.scales[row] );
+		}
+
+		private static BigDecimal decode( final double value, final int scale )
+		{
+			return BigDecimal.valueOf( value ).setScale( scale,
+					RoundingMode.HALF_EVEN );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			if( !this.inexact.isEmpty() ) this.inexact.remove( row );
+			if( value == null )
+			{
+				clear( row );
+				return;
+			}
+			final BigDecimal bd = value instanceof BigDecimal
+					? (BigDecimal) value
+					: new BigDecimal( value.toString() );
+			final double d = bd.doubleValue();
+			this.values[row] = d;
+			final int scale = bd.scale();
+			if( scale == (byte) scale && !Double.isInfinite( d )
+					&& decode( d, scale ).equals( bd ) )
+				this.scales[row] = (byte) scale;
+			else
+			{
+				this.scales[row] = 0;
+				this.inexact.put( row, bd );
+			}
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0d;
+			this.scales[row] = 0;
+			if( !this.inexact.isEmpty() ) this.inexact.remove( row );
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+			this.scales = Arrays.copyOf( this.scales, capacity );
+		}
+
+		@Override
+		double getAsDouble( final int row )
+		{
+			return this.values[row];
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return (long) this.values[row];
+		}
+	}
+
+	static class LongColumn extends Column
+	{
+		private long[] values;
+
+		LongColumn( final int capacity )
+		{
+			this.values = new long[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			return Long.valueOf( this.values[row] );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values[row] = value == null ? 0L
+					: ((Number) value).longValue();
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0L;
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+
+		@Override
+		double getAsDouble( final int row )
+		{
+			return this.values[row];
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return this.values[row];
+		}
+	}
+
+	static class IntColumn extends Column
+	{
+		private final Class<?> type;
+
+		private int[] values;
+
+		IntColumn( final Class<?> type, final int capacity )
+		{
+			this.type = type;
+			this.values = new int[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			final int value = this.values[row];
+			return this.type == Short.class ? Short.valueOf( (short) value )
+					: this.type == Byte.class ? Byte.valueOf( (byte) value )
+							: Integer.valueOf( value );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values[row] = value == null ? 0
+					: ((Number) value).intValue();
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0;
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+
+		@Override
+		double getAsDouble( final int row )
+		{
+			return this.values[row];
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return this.values[row];
+		}
+	}
+
+	static class BitColumn extends Column
+	{
+		private final BitSet values = new BitSet();
+
+		@Override
+		Object get( final int row )
+		{
+			return Boolean.valueOf( this.values.get( row ) );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values.set( row, value != null && (Boolean) value );
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values.clear( row );
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			// BitSet grows as needed
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return this.values.get( row ) ? 1L : 0L;
+		}
+	}
+
+	static class EnumColumn extends Column
+	{
+		/** ordinal offset to distinguish {@code null} */
+		private static final int ENUM_ORDINAL_DELTA = 1;
+
+		private final Object[] constants;
+
+		private byte[] values;
+
+		EnumColumn( final Class<?> type, final int capacity )
+		{
+			this.constants = type.getEnumConstants();
+			this.values = new byte[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			final int code = this.values[row] & 0xFF;
+			return code == 0 ? null
+					: this.constants[code - ENUM_ORDINAL_DELTA];
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values[row] = value == null ? 0
+					: (byte) (((Enum<?>) value).ordinal()
+							+ ENUM_ORDINAL_DELTA);
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0;
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+
+		@Override
+		long getAsLong( final int row )
+		{
+			return (this.values[row] & 0xFF) - ENUM_ORDINAL_DELTA;
+		}
+	}
+
+	/**
+	 * {@link RefColumn} dictionary-encodes (reference) values, e.g. region or
+	 * site identifiers shared by many rows
+	 */
+	static class RefColumn extends Column
+	{
+		private final List<Object> dictionary = new ArrayList<>();
+
+		private final Map<Object, Integer> codes = new HashMap<>();
+
+		private int[] values;
+
+		RefColumn( final int capacity )
+		{
+			this.dictionary.add( null ); // code 0
+			this.values = new int[capacity];
+		}
+
+		@Override
+		Object get( final int row )
+		{
+			return this.dictionary.get( this.values[row] );
+		}
+
+		@Override
+		void set( final int row, final Object value )
+		{
+			this.values[row] = value == null ? 0
+					: this.codes.computeIfAbsent( value, k ->
+					{
+						this.dictionary.add( k );
+						return this.dictionary.size() - 1;
+					} );
+		}
+
+		@Override
+		void clear( final int row )
+		{
+			this.values[row] = 0;
+		}
+
+		@Override
+		void grow( final int capacity )
+		{
+			this.values = Arrays.copyOf( this.values, capacity );
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * {@link GeoGrid} is a uniform latitude/longitude grid index of keys located
+ * in the WGS84 coordinate system, for nearest-neighbor and radius queries
+ * using (great-circle) haversine distances. Each query only visits the cells
+ * (rings) that may still contain a nearer key, rather than scanning all keys.
+ * Not thread-safe.
+ * 
+ * @param <K> the key type
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class GeoGrid<K>
+{
+	/** mean earth radius (km) */
+	public static final double EARTH_RADIUS_KM = 6371.0088;
+
+	/** great-circle distance (km) per degree of latitude */
+	public static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+	/** default cell size (km) */
+	public static final double DEFAULT_CELL_KM = 2;
+
+	/**
+	 * @return the great-circle (haversine) distance in km
+	 */
+	public static double distanceKm( final double lat1, final double lon1,
+		final double lat2, final double lon2 )
+	{
+		final double dLat = Math.toRadians( lat2 - lat1 ),
+				dLon = Math.toRadians( lon2 - lon1 ),
+				sinLat = Math.sin( dLat / 2 ), sinLon = Math.sin( dLon / 2 ),
+				a = sinLat * sinLat + Math.cos( Math.toRadians( lat1 ) )
+						* Math.cos( Math.toRadians( lat2 ) ) * sinLon * sinLon;
+		return 2 * EARTH_RADIUS_KM
+				* Math.atan2( Math.sqrt( a ), Math.sqrt( 1 - a ) );
+	}
+
+	/** cell size (degrees) */
+	private final double cellDeg;
+
+	/** cell index &rarr; keys located in that cell */
+	private final Map<Long, List<K>> cells = new HashMap<>();
+
+	/** key &rarr; { latitude, longitude } */
+	private final Map<K, double[]> coords = new HashMap<>();
+
+	/**
+	 * occupied cell bounds (never shrink until {@link #clear()}), to end
+	 * fruitless ring searches
+	 */
+	private int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE,
+			minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE;
+
+	public GeoGrid()
+	{
+		this( DEFAULT_CELL_KM );
+	}
+
+	/**
+	 * @param cellKm the cell size (km along the meridian)
+	 */
+	public GeoGrid( final double cellKm )
+	{
+		this.cellDeg = cellKm / KM_PER_DEGREE;
+	}
+
+	public int size()
+	{
+		return this.coords.size();
+	}
+
+	public boolean isEmpty()
+	{
+		return this.coords.isEmpty();
+	}
+
+	public boolean containsKey( final Object key )
+	{
+		return this.coords.containsKey( key );
+	}
+
+	/** @return the { latitude, longitude } of specified key, or {@code null} */
+	public double[] coordsOf( final Object key )
+	{
+		return this.coords.get( key );
+	}
+
+	private int row( final double lat )
+	{
+		return (int) Math.floor( lat / this.cellDeg );
+	}
+
+	private int col( final double lon )
+	{
+		return (int) Math.floor( lon / this.cellDeg );
+	}
+
+	private static long cell( final int row, final int col )
+	{
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * insert or move specified {@code key}
+	 * 
+	 * @param key the key to (re)locate
+	 * @param lat the latitude (degrees)
+	 * @param lon the longitude (degrees)
+	 */
+	public void put( final K key, final double lat, final double lon )
+	{
+		remove( key );
+		final int row = row( lat ), col = col( lon );
+		this.coords.put( key, new double[] { lat, lon } );
+		this.cells.computeIfAbsent( cell( row, col ), k -> new ArrayList<>() )
+				.add( key );
+		this.minRow = Math.min( this.minRow, row );
+		this.maxRow = Math.max( this.maxRow, row );
+		this.minCol = Math.min( this.minCol, col );
+		this.maxCol = Math.max( this.maxCol, col );
+	}
+
+	/**
+	 * @param key the key to remove
+	 * @return {@code true} iff {@code key} was present
+	 */
+	public boolean remove( final Object key )
+	{
+		final double[] latLon = this.coords.remove( key );
+		if( latLon == null ) return false;
+		final long cell = cell( row( latLon[0] ), col( latLon[1] ) );
+		final List<K> keys = this.cells.get( cell );
+		keys.remove( key );
+		if( keys.isEmpty() ) this.cells.remove( cell );
+		return true;
+	}
+
+	public void clear()
+	{
+		this.cells.clear();
+		this.coords.clear();
+		this.minRow = this.minCol = Integer.MAX_VALUE;
+		this.maxRow = this.maxCol = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * @return a lower bound (km) on the distance to any key outside the
+	 *         {@code r}-th ring around the query point
+	 */
+	private double ringBoundKm( final double lat, final int r )
+	{
+		// meridians converge: use the most poleward latitude of the next ring
+		final double poleward = Math.min( 90,
+				Math.abs( lat ) + (r + 1) * this.cellDeg );
+		return r * this.cellDeg * KM_PER_DEGREE
+				* Math.max( 0, Math.cos( Math.toRadians( poleward ) ) );
+	}
+
+	private boolean beyondBounds( final int row, final int col, final int r )
+	{
+		return row - r <= this.minRow && row + r >= this.maxRow
+				&& col - r <= this.minCol && col + r >= this.maxCol;
+	}
+
+	/**
+	 * @param lat the query latitude (degrees)
+	 * @param lon the query longitude (degrees)
+	 * @param maxKm the maximum distance (km) to consider
+	 * @param filter the keys to consider, e.g. those with remaining capacity
+	 * @return the nearest accepted key and its distance (km), or {@code null}
+	 *         if none are within {@code maxKm}
+	 */
+	public Entry<K, Double> nearest( final double lat, final double lon,
+		final double maxKm, final Predicate<? super K> filter )
+	{
+		if( this.coords.isEmpty() ) return null;
+		final int row = row( lat ), col = col( lon );
+		K best = null;
+		double bestKm = maxKm;
+		for( int r = 0;; r++ )
+		{
+			for( int i = row - r; i <= row + r; i++ )
+			{
+				// full rows at the ring's edges, only edge columns in between
+				final int step = i == row - r || i == row + r ? 1
+						: Math.max( 1, 2 * r );
+				for( int j = col - r; j <= col + r; j += step )
+				{
+					final List<K> keys = this.cells.get( cell( i, j ) );
+					if( keys == null ) continue;
+					for( int k = 0; k < keys.size(); k++ )
+					{
+						final K key = keys.get( k );
+						final double[] latLon = this.coords.get( key );
+						final double km = distanceKm( lat, lon, latLon[0],
+								latLon[1] );
+						if( (best == null ? km <= bestKm : km < bestKm)
+								&& filter.test( key ) )
+						{
+							best = key;
+							bestKm = km;
+						}
+					}
+				}
+			}
+			final double boundKm = ringBoundKm( lat, r );
+			if( boundKm > maxKm || (best != null && boundKm >= bestKm)
+					|| beyondBounds( row, col, r ) )
+				break;
+		}
+		return best == null ? null
+				: new AbstractMap.SimpleImmutableEntry<>( best, bestKm );
+	}
+
+	/**
+	 * @param lat the query latitude (degrees)
+	 * @param lon the query longitude (degrees)
+	 * @param radiusKm the search radius (km)
+	 * @return the keys within {@code radiusKm}, with their distance (km)
+	 */
+	public Stream<Entry<K, Double>> within( final double lat,
+		final double lon, final double radiusKm )
+	{
+		if( this.coords.isEmpty() ) return Stream.empty();
+		final double dLat = radiusKm / KM_PER_DEGREE,
+				cos = Math.cos( Math.toRadians(
+						Math.min( 90, Math.abs( lat ) + dLat ) ) ),
+				dLon = cos <= 0 ? 180 : Math.min( 180, dLat / cos );
+		final int row0 = Math.max( this.minRow, row( lat - dLat ) ),
+				row1 = Math.min( this.maxRow, row( lat + dLat ) ),
+				col0 = Math.max( this.minCol, col( lon - dLon ) ),
+				col1 = Math.min( this.maxCol, col( lon + dLon ) );
+		final List<Entry<K, Double>> result = new ArrayList<>();
+		for( int i = row0; i <= row1; i++ )
+			for( int j = col0; j <= col1; j++ )
+			{
+				final List<K> keys = this.cells.get( cell( i, j ) );
+				if( keys != null ) for( K key : keys )
+				{
+					final double[] latLon = this.coords.get( key );
+					final double km = distanceKm( lat, lon, latLon[0],
+							latLon[1] );
+					if( km <= radiusKm ) result.add(
+							new AbstractMap.SimpleImmutableEntry<>( key, km ) );
+				}
+			}
+		return result.stream();
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[size=" + this.coords.size()
+				+ ", cells=" + this.cells.size() + "]";
+	}
+}
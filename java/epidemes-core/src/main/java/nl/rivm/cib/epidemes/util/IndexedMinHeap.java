@@ -0,0 +1,252 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * {@link IndexedMinHeap} is a binary min-heap of primitive {@code double}
+ * priorities, indexed by key for O(log n) insert, update and removal of
+ * arbitrary entries and O(1) peeking of the minimum. Not thread-safe.
+ * 
+ * @param <K> the key type
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class IndexedMinHeap<K>
+{
+	/** the heap-ordered keys */
+	private Object[] keys;
+
+	/** the heap-ordered priorities, aligned with {@link #keys} */
+	private double[] values;
+
+	/** the current heap position of each key */
+	private final Map<K, Integer> index = new HashMap<>();
+
+	private int size = 0;
+
+	public IndexedMinHeap()
+	{
+		this( 16 );
+	}
+
+	public IndexedMinHeap( final int initialCapacity )
+	{
+		final int n = Math.max( 1, initialCapacity );
+		this.keys = new Object[n];
+		this.values = new double[n];
+	}
+
+	public int size()
+	{
+		return this.size;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	public boolean containsKey( final Object key )
+	{
+		return this.index.containsKey( key );
+	}
+
+	/**
+	 * @param key the key to look up
+	 * @param defaultValue the value to return if {@code key} is absent
+	 * @return the priority of {@code key}, or {@code defaultValue}
+	 */
+	public double get( final Object key, final double defaultValue )
+	{
+		final Integer i = this.index.get( key );
+		return i == null ? defaultValue : this.values[i];
+	}
+
+	/**
+	 * insert or update the priority of specified {@code key}
+	 * 
+	 * @param key the key to (re)prioritize
+	 * @param value the new priority
+	 */
+	public void put( final K key, final double value )
+	{
+		final Integer i = this.index.get( key );
+		if( i != null )
+		{
+			final double old = this.values[i];
+			this.values[i] = value;
+			if( value < old )
+				siftUp( i );
+			else if( value > old ) siftDown( i );
+			return;
+		}
+		if( this.size == this.keys.length )
+		{
+			final int n = this.size << 1;
+			this.keys = Arrays.copyOf( this.keys, n );
+			this.values = Arrays.copyOf( this.values, n );
+		}
+		this.keys[this.size] = key;
+		this.values[this.size] = value;
+		this.index.put( key, this.size );
+		siftUp( this.size++ );
+	}
+
+	/**
+	 * @param key the key to remove
+	 * @return {@code true} iff {@code key} was present
+	 */
+	public boolean remove( final Object key )
+	{
+		final Integer i = this.index.remove( key );
+		if( i == null ) return false;
+		final int last = --this.size;
+		if( i != last )
+		{
+			final double old = this.values[i];
+			move( last, i );
+			if( this.values[i] < old )
+				siftUp( i );
+			else
+				siftDown( i );
+		}
+		this.keys[last] = null;
+		return true;
+	}
+
+	/**
+	 * @param filter selects the keys to remove
+	 * @return {@code true} iff any key was removed, in O(n) by compacting
+	 *         the survivors and restoring the heap order bottom-up
+	 */
+	@SuppressWarnings( "unchecked" )
+	public boolean removeIf( final Predicate<? super K> filter )
+	{
+		int n = 0;
+		for( int i = 0; i < this.size; i++ )
+			if( filter.test( (K) this.keys[i] ) )
+				this.index.remove( this.keys[i] );
+			else
+			{
+				this.keys[n] = this.keys[i];
+				this.values[n++] = this.values[i];
+			}
+		if( n == this.size ) return false;
+		Arrays.fill( this.keys, n, this.size, null );
+		this.size = n;
+		for( int i = 0; i < n; i++ )
+			this.index.put( (K) this.keys[i], i );
+		for( int i = (n >>> 1) - 1; i >= 0; i-- )
+			siftDown( i );
+		return true;
+	}
+
+	/** @return the key with minimum priority, or {@code null} if empty */
+	@SuppressWarnings( "unchecked" )
+	public K peekKey()
+	{
+		return this.size == 0 ? null : (K) this.keys[0];
+	}
+
+	/** @return the minimum priority */
+	public double peekValue()
+	{
+		if( this.size == 0 ) throw new NoSuchElementException();
+		return this.values[0];
+	}
+
+	/** @return the removed key with minimum priority, or {@code null} */
+	public K poll()
+	{
+		final K result = peekKey();
+		if( result != null ) remove( result );
+		return result;
+	}
+
+	public void clear()
+	{
+		Arrays.fill( this.keys, 0, this.size, null );
+		this.index.clear();
+		this.size = 0;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private void move( final int from, final int to )
+	{
+		this.keys[to] = this.keys[from];
+		this.values[to] = this.values[from];
+		this.index.put( (K) this.keys[to], to );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private void place( final Object key, final double value, final int i )
+	{
+		this.keys[i] = key;
+		this.values[i] = value;
+		this.index.put( (K) key, i );
+	}
+
+	private void siftUp( int i )
+	{
+		final Object key = this.keys[i];
+		final double value = this.values[i];
+		while( i > 0 )
+		{
+			final int parent = (i - 1) >>> 1;
+			if( this.values[parent] <= value ) break;
+			move( parent, i );
+			i = parent;
+		}
+		place( key, value, i );
+	}
+
+	private void siftDown( int i )
+	{
+		final Object key = this.keys[i];
+		final double value = this.values[i];
+		final int half = this.size >>> 1;
+		while( i < half )
+		{
+			int child = (i << 1) + 1;
+			final int right = child + 1;
+			if( right < this.size && this.values[right] < this.values[child] )
+				child = right;
+			if( value <= this.values[child] ) break;
+			move( child, i );
+			i = child;
+		}
+		place( key, value, i );
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[size=" + this.size + ", min="
+				+ (this.size == 0 ? null
+						: this.keys[0] + "=" + this.values[0])
+				+ "]";
+	}
+}
@@ -0,0 +1,129 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.inject.Singleton;
+
+import org.ujmp.core.Matrix;
+
+import io.coala.data.DataLayer;
+import io.coala.data.MapLayer;
+import io.coala.data.MatrixLayer;
+import io.coala.data.Table;
+import io.coala.data.Table.Change;
+import io.coala.data.Table.Property;
+import io.coala.data.Table.Tuple;
+import io.coala.exception.Thrower;
+import io.coala.log.LogUtil;
+import io.coala.util.MapBuilder;
+import io.reactivex.Observable;
+
+/**
+ * {@link IsolatedDataLayer} is a {@link DataLayer} like
+ * {@link DataLayer.StaticCaching} but caching its sources per instance, i.e.
+ * per (replication's) binder, rather than in static (JVM-wide) fields, so
+ * replications may run concurrently in the same JVM
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+@Singleton
+public class IsolatedDataLayer implements DataLayer
+{
+
+	private final Map<Class<?>, DataLayer> sources = new ConcurrentHashMap<>();
+
+	private final List<Observable<Change>> layerChanges = new CopyOnWriteArrayList<>();
+
+	@Override
+	public Observable<Change> changes()
+	{
+		return Observable.fromIterable( this.layerChanges ).flatMap( rx -> rx );
+	}
+
+	@Override
+	public <T extends Tuple> Table<T> getTable( final Class<T> tupleType )
+	{
+		final DataLayer source = this.sources.get( tupleType );
+		return source != null ? source.getTable( tupleType )
+				: Thrower.throwNew( IllegalStateException::new,
+						() -> "Data source not set for: " + tupleType );
+	}
+
+	@Override
+	public DataLayer withSource( final PropertyMapper propertyMapper,
+		final Matrix data )
+	{
+		return withSource( propertyMapper, props ->
+		{
+			final MatrixLayer result = new MatrixLayer( data, props );
+			this.layerChanges.add( result.changes() );
+			return result;
+		} );
+	}
+
+	@Override
+	public DataLayer withSource( final PropertyMapper propertyMapper,
+		final MapFactory<Long> mapFactory )
+	{
+		return withSource( propertyMapper, mapFactory,
+				// start at 1, Matrix transforms 0 to 'null'
+				new AtomicLong( 1L )::getAndIncrement );
+	}
+
+	@Override
+	public <PK> DataLayer withSource( final PropertyMapper propertyMapper,
+		final MapFactory<PK> mapFactory, final Supplier<PK> indexer )
+	{
+		return withSource( propertyMapper, props ->
+		{
+			final MapLayer<PK> result = new MapLayer<>( mapFactory.get(), props,
+					indexer );
+			this.layerChanges.add( result.changes() );
+			return result;
+		} );
+	}
+
+	@SuppressWarnings( "rawtypes" )
+	@Override
+	public DataLayer withSource( final PropertyMapper propertyMapper,
+		final Function<List<Class<? extends Property>>, DataLayer> layerGenerator )
+	{
+		final List<?> replaced = propertyMapper.map( MapBuilder.unordered() )
+				.build().entrySet().stream()
+				// for each tuple, create a new layer for their property subset
+				.filter( e -> this.sources.put( e.getKey(),
+						layerGenerator.apply( e.getValue() ) ) != null )
+				// collect list of replaced tuple/layer combinations
+				.map( Map.Entry::getKey ).collect( Collectors.toList() );
+		if( !replaced.isEmpty() ) LogUtil.getLogger( IsolatedDataLayer.class )
+				.warn( "Replaced layer/source for tuple types: " + replaced );
+		return this;
+	}
+}
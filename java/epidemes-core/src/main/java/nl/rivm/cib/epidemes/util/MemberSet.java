@@ -0,0 +1,183 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * {@link MemberSet} is an insertion-unordered {@link List} of distinct keys
+ * (e.g. society members) in a swap-remove array with a position map, for
+ * O(1) {@link #add}, {@link #remove(Object)}, {@link #contains} and
+ * {@link #indexOf} rather than O(n) in e.g. an {@link java.util.ArrayList}.
+ * Its {@link #snapshot()} is an immutable copy, shared until the next change,
+ * so e.g. repeated gatherings of a stable society cost O(1). Not thread-safe.
+ * <p>
+ * It remains a {@link List}, e.g. for the society members saved in
+ * snapshots, but deviates from the {@link List} contract like a
+ * {@link java.util.Set}: {@link #add} skips (and returns {@code false} for)
+ * keys that are already members, {@link #remove(Object)} moves the last
+ * member into the emptied position, and positional insertion or replacement
+ * ({@code add(int, K)}, {@code set(int, K)}) is unsupported. Its
+ * {@link #equals} and {@link #hashCode} remain those of a {@link List}, i.e.
+ * order-dependent.
+ * 
+ * @param <K> the key type
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class MemberSet<K> extends AbstractList<K> implements RandomAccess
+{
+	/** the members, in positions [0, size) */
+	private Object[] keys;
+
+	/** the current position of each member */
+	private final Map<Object, Integer> index;
+
+	private int size = 0;
+
+	/** the immutable copy since the last change, or {@code null} */
+	private List<K> snapshot = null;
+
+	public MemberSet()
+	{
+		this( 8 );
+	}
+
+	public MemberSet( final int initialCapacity )
+	{
+		this.keys = new Object[Math.max( 1, initialCapacity )];
+		this.index = new HashMap<>( Math.max( 1, initialCapacity ) );
+	}
+
+	public MemberSet( final Collection<? extends K> keys )
+	{
+		this( keys.size() );
+		addAll( keys );
+	}
+
+	@Override
+	public int size()
+	{
+		return this.size;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	@Override
+	public K get( final int i )
+	{
+		if( i < 0 || i >= this.size )
+			throw new IndexOutOfBoundsException( i + " of " + this.size );
+		return (K) this.keys[i];
+	}
+
+	@Override
+	public boolean contains( final Object key )
+	{
+		return this.index.containsKey( key );
+	}
+
+	@Override
+	public int indexOf( final Object key )
+	{
+		return this.index.getOrDefault( key, -1 );
+	}
+
+	@Override
+	public int lastIndexOf( final Object key )
+	{
+		return indexOf( key );
+	}
+
+	/**
+	 * @param key the member to add
+	 * @return {@code true} iff {@code key} was not yet a member
+	 */
+	@Override
+	public boolean add( final K key )
+	{
+		if( this.index.putIfAbsent( key, this.size ) != null ) return false;
+		if( this.size == this.keys.length )
+			this.keys = Arrays.copyOf( this.keys, 2 * this.size );
+		this.keys[this.size++] = key;
+		this.snapshot = null;
+		this.modCount++;
+		return true;
+	}
+
+	/**
+	 * moves the last member into the position of {@code key}
+	 * 
+	 * @param key the member to remove
+	 * @return {@code true} iff {@code key} was a member
+	 */
+	@Override
+	public boolean remove( final Object key )
+	{
+		final Integer i = this.index.remove( key );
+		if( i == null ) return false;
+		final int last = --this.size;
+		if( i != last )
+		{
+			this.keys[i] = this.keys[last];
+			this.index.put( this.keys[i], i );
+		}
+		this.keys[last] = null;
+		this.snapshot = null;
+		this.modCount++;
+		return true;
+	}
+
+	@Override
+	public K remove( final int i )
+	{
+		final K result = get( i );
+		remove( result );
+		return result;
+	}
+
+	@Override
+	public void clear()
+	{
+		Arrays.fill( this.keys, 0, this.size, null );
+		this.index.clear();
+		this.size = 0;
+		this.snapshot = null;
+		this.modCount++;
+	}
+
+	/**
+	 * @return an immutable copy of the current members, shared until the next
+	 *         change
+	 */
+	@SuppressWarnings( "unchecked" )
+	public List<K> snapshot()
+	{
+		return this.snapshot != null ? this.snapshot
+				: (this.snapshot = Collections.unmodifiableList( (List<K>) Arrays
+						.asList( Arrays.copyOf( this.keys, this.size ) ) ));
+	}
+}
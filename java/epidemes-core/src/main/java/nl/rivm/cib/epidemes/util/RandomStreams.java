@@ -0,0 +1,254 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.util.Objects;
+import java.util.Random;
+
+import io.coala.math3.Math3ProbabilityDistribution;
+import io.coala.random.ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
+
+/**
+ * {@link RandomStreams} is a {@link ProbabilityDistribution.Factory} that
+ * derives hierarchical, independent {@link PseudoRandom} streams from its
+ * root seed, keyed by e.g. broker, purpose and entity, see
+ * {@link #split(Object...)}. Each derived stream is a counter-based
+ * {@link Counter} generator, seeded by the root seed and its key path only,
+ * so creating or drawing from one stream never shifts another. Each stream's
+ * own draws still follow the order in which they are made: a stream shared
+ * for some purpose, e.g. all recovery periods or emigration picks, still
+ * advances in event order, and only streams keyed per entity, e.g. per
+ * region or site, draw independently of the order of events elsewhere, or of
+ * the number of threads. Once {@link #rekey(long) rekeyed}, e.g. after
+ * continuing from a snapshot, later splits derive from the new key instead.
+ * This keeps (per-entity) draws reproducible under parallel initialization
+ * and allows common random numbers across scenario comparisons. The root
+ * stream itself remains the one given, e.g. a Mersenne Twister
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class RandomStreams extends Math3ProbabilityDistribution.Factory
+{
+
+	/** the SplitMix64 (Weyl sequence) increment */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * @param root the root {@link PseudoRandom} stream
+	 * @return a {@link RandomStreams} rooted at {@code root}
+	 */
+	public static RandomStreams of( final PseudoRandom root )
+	{
+		return new RandomStreams( root,
+				mix( Objects.requireNonNull( root, "No root?" ).seed()
+						.longValue() ) );
+	}
+
+	/**
+	 * @param factory a {@link ProbabilityDistribution.Factory}, possibly a
+	 *            {@link RandomStreams}
+	 * @param key the key path, e.g. broker, purpose and entity
+	 * @return the keyed {@link RandomStreams}, derived from {@code factory}
+	 *         or otherwise from its (root) stream's seed
+	 */
+	public static RandomStreams split(
+		final ProbabilityDistribution.Factory factory, final Object... key )
+	{
+		return (factory instanceof RandomStreams ? (RandomStreams) factory
+				: of( factory.getStream() )).split( key );
+	}
+
+	/**
+	 * @param z the value to scramble
+	 * @return the SplitMix64 (Stafford variant 13) finalizer of {@code z}
+	 */
+	static long mix( long z )
+	{
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @param key the key element
+	 * @return a JVM-independent 64-bit (FNV-1a) hash of {@code key}'s
+	 *         {@link Object#toString()}, unlike {@link Object#hashCode()}
+	 */
+	static long hash( final Object key )
+	{
+		final String s = String.valueOf( key );
+		long h = 0xcbf29ce484222325L;
+		for( int i = 0; i < s.length(); i++ )
+			h = (h ^ s.charAt( i )) * 0x100000001b3L;
+		return mix( h );
+	}
+
+	/** the key of this stream, current as of the last {@link #rekey(long)} */
+	private volatile long key;
+
+	protected RandomStreams( final PseudoRandom stream, final long key )
+	{
+		super( stream );
+		this.key = key;
+	}
+
+	/** @return the (64-bit) key of this stream, e.g. to seed others */
+	public long key()
+	{
+		return this.key;
+	}
+
+	/**
+	 * @param seed the seed to mix into this stream's key, e.g. a snapshot's
+	 *            continuation seed after reseeding the root stream
+	 * @return this {@link RandomStreams}, its subsequent
+	 *         {@link #split(Object...)}s derived from the new key
+	 */
+	public RandomStreams rekey( final long seed )
+	{
+		this.key = mix( this.key + GOLDEN_GAMMA * mix( seed ) );
+		return this;
+	}
+
+	/**
+	 * @param key the key path relative to this stream, e.g. purpose and
+	 *            entity
+	 * @return a new {@link RandomStreams} with an independent {@link Counter}
+	 *         stream, always the same for the same (current) key and key path
+	 */
+	public RandomStreams split( final Object... key )
+	{
+		long k = this.key;
+		final StringBuilder id = new StringBuilder(
+				String.valueOf( getStream().id() ) );
+		for( Object elem : key )
+		{
+			k = mix( k + GOLDEN_GAMMA * hash( elem ) );
+			id.append( '/' ).append( elem );
+		}
+		return new RandomStreams( Counter.of( id, k ), k );
+	}
+
+	/**
+	 * {@link Counter} is a counter-based {@link PseudoRandom} whose i-th draw
+	 * is the SplitMix64 finalizer of {@code seed + i * gamma}, so it can
+	 * {@link #jump(long)} ahead in O(1), like {@link java.util.SplittableRandom}
+	 * but as {@link Random} for the {@link Math3ProbabilityDistribution}s
+	 * 
+	 * @version $Id$
+	 * @author Rick van Krevelen
+	 */
+	public static class Counter extends Random implements PseudoRandom
+	{
+		/** the serialVersionUID */
+		private static final long serialVersionUID = 1L;
+
+		public static Counter of( final CharSequence id, final long seed )
+		{
+			final Counter result = new Counter();
+			result.id = Name.of( id );
+			result.setSeed( seed );
+			return result;
+		}
+
+		/** the id */
+		private Name id;
+
+		/** the seed */
+		private long seed;
+
+		/** the number of 64-bit draws so far */
+		private long counter;
+
+		@Override
+		public synchronized void setSeed( final long seed )
+		{
+			super.setSeed( seed );
+			this.seed = seed;
+			this.counter = 0;
+		}
+
+		/**
+		 * @param n the number of 64-bit draws to skip
+		 * @return this {@link Counter}, for chaining
+		 */
+		public synchronized Counter jump( final long n )
+		{
+			this.counter += n;
+			return this;
+		}
+
+		/** @return the number of 64-bit draws so far */
+		public synchronized long position()
+		{
+			return this.counter;
+		}
+
+		@Override
+		public Name id()
+		{
+			return this.id;
+		}
+
+		@Override
+		public Long seed()
+		{
+			return this.seed;
+		}
+
+		@Override
+		public synchronized long nextLong()
+		{
+			return mix( this.seed + GOLDEN_GAMMA * ++this.counter );
+		}
+
+		@Override
+		public long nextLong( final long bound )
+		{
+			return PseudoRandom.super.nextLong( bound );
+		}
+
+		@Override
+		protected int next( final int bits )
+		{
+			return (int) (nextLong() >>> (64 - bits));
+		}
+
+		@Override
+		public int nextInt()
+		{
+			return (int) (nextLong() >>> 32);
+		}
+
+		@Override
+		public boolean nextBoolean()
+		{
+			return nextLong() < 0;
+		}
+
+		@Override
+		public double nextDouble()
+		{
+			return (nextLong() >>> 11) * 0x1.0p-53;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.Logger;
+
+import io.coala.exception.Thrower;
+import io.coala.log.LogUtil;
+
+/**
+ * {@link SeriesConverter} converts {@link SeriesSink.Binary} (optionally
+ * gzipped) series files into {@link SeriesSink.Csv} text, e.g.
+ * {@code daily-1234-sir-total.bin.gz} into {@code daily-1234-sir-total.csv}
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class SeriesConverter
+{
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( SeriesConverter.class );
+
+	/**
+	 * @param is the binary series, gzipped or not
+	 * @param os the CSV target
+	 * @throws IOException
+	 */
+	public static void toCsv( final InputStream is, final OutputStream os )
+		throws IOException
+	{
+		final InputStream in = new BufferedInputStream( is, 1 << 16 );
+		in.mark( 2 );
+		final boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+		in.reset();
+		try( final SeriesSink csv = new SeriesSink.Csv( os ) )
+		{
+			SeriesSink.Binary.replay( gzip ? new GZIPInputStream( in ) : in,
+					csv );
+		}
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		if( args.length == 0 ) Thrower.throwNew( IllegalArgumentException::new,
+				() -> "Usage: " + SeriesConverter.class.getSimpleName()
+						+ " <series.bin[.gz]>..." );
+		for( String file : args )
+		{
+			final String csvFile = file.replaceFirst( "(\\.bin)?(\\.gz)?$", "" )
+					+ SeriesSink.Format.CSV.extension();
+			try( final InputStream is = Files.newInputStream( Paths.get( file ) );
+					final OutputStream os = Files
+							.newOutputStream( Paths.get( csvFile ) ) )
+			{
+				toCsv( is, os );
+			}
+			LOG.info( "Converted {} to {}", file, csvFile );
+		}
+	}
+}
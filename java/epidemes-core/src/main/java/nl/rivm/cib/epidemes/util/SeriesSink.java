@@ -0,0 +1,485 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.Logger;
+
+import io.coala.exception.Thrower;
+import io.coala.log.LogUtil;
+
+/**
+ * {@link SeriesSink} receives (aggregate) time series rows, e.g. regional SIR
+ * totals, each stamped with its actual (wall-clock) and virtual time. See
+ * {@link Csv} for text, {@link Binary} for compact block-columnar output, and
+ * {@link Async} for buffered writing off the simulation thread
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public interface SeriesSink extends Closeable
+{
+
+	/**
+	 * @param meta the series description, e.g. its configuration
+	 * @param columns the value column names
+	 * @throws IOException
+	 */
+	void header( String meta, List<String> columns ) throws IOException;
+
+	/**
+	 * @param actualMillis the actual (epoch) time in ms
+	 * @param virtualTime the (formatted) virtual time
+	 * @param values the values, one per column
+	 * @throws IOException
+	 */
+	void append( long actualMillis, String virtualTime, long[] values )
+		throws IOException;
+
+	/** stamps and appends a row of boxed values, e.g. a map's values */
+	default void append( final String virtualTime,
+		final Collection<Long> values ) throws IOException
+	{
+		append( System.currentTimeMillis(), virtualTime,
+				values.stream().mapToLong( v -> v ).toArray() );
+	}
+
+	enum Format
+	{
+		CSV( ".csv" ), BINARY( ".bin" );
+
+		private final String extension;
+
+		private Format( final String extension )
+		{
+			this.extension = extension;
+		}
+
+		public String extension()
+		{
+			return this.extension;
+		}
+
+		public SeriesSink create( final OutputStream out )
+		{
+			return this == CSV ? new Csv( out ) : new Binary( out );
+		}
+	}
+
+	/**
+	 * @param file the base file name, to extend with the {@link Format}
+	 *            extension (and {@code .gz} if compressed)
+	 * @param format the {@link Format}
+	 * @param compress whether to gzip the output
+	 * @param buffer the maximum number of rows to queue for the writer thread,
+	 *            or 0 to write on the caller's thread
+	 * @return the opened {@link SeriesSink}
+	 * @throws IOException
+	 */
+	static SeriesSink open( final String file, final Format format,
+		final boolean compress, final int buffer ) throws IOException
+	{
+		final Path path = Paths
+				.get( file + format.extension() + (compress ? ".gz" : "") );
+		final OutputStream os = Files.newOutputStream( path );
+		final SeriesSink sink = format.create(
+				compress ? new GZIPOutputStream( os, 1 << 16 ) : os );
+		return buffer > 0 ? new Async( sink, buffer, path.toString() ) : sink;
+	}
+
+	/**
+	 * {@link Csv} writes the (legacy) semicolon-separated text format,
+	 * buffered rather than flushed per line
+	 */
+	class Csv implements SeriesSink
+	{
+		public static final String SEP = ";", EOL = "\r\n";
+
+		private final Writer out;
+
+		public Csv( final OutputStream out )
+		{
+			this( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+		}
+
+		public Csv( final Writer out )
+		{
+			this.out = new BufferedWriter( out, 1 << 16 );
+		}
+
+		@Override
+		public void header( final String meta, final List<String> columns )
+			throws IOException
+		{
+			// escape double-quotes within double-quotes by doubling them
+			// see https://stackoverflow.com/a/43274459
+			this.out.write( "\"ActualTime " + meta.replaceAll( "\"", "\"\"" )
+					+ "\"" + SEP + "VirtualTime" + SEP
+					+ String.join( SEP, columns ) + EOL );
+		}
+
+		@Override
+		public void append( final long actualMillis, final String virtualTime,
+			final long[] values ) throws IOException
+		{
+			this.out.write( DateTimeFormatter.ISO_LOCAL_DATE_TIME
+					.format( LocalDateTime.ofInstant(
+							Instant.ofEpochMilli( actualMillis ),
+							ZoneId.systemDefault() ) ) );
+			this.out.write( SEP );
+			this.out.write( virtualTime );
+			for( long value : values )
+			{
+				this.out.write( SEP );
+				this.out.write( Long.toString( value ) );
+			}
+			this.out.write( EOL );
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.out.close();
+		}
+	}
+
+	/**
+	 * {@link Binary} writes blocks of rows column by column, each column
+	 * delta-encoded as (zig-zag) variable-length integers, so slowly changing
+	 * series take only a few bytes per value. Use
+	 * {@link #replay(InputStream, SeriesSink)} to convert, e.g. into
+	 * {@link Csv}
+	 */
+	class Binary implements SeriesSink
+	{
+		private static final int MAGIC = 0x53455253; // "SERS"
+
+		private static final int VERSION = 1;
+
+		/** rows per block */
+		public static final int BLOCK_ROWS = 256;
+
+		private final DataOutputStream out;
+
+		private int columns = -1;
+
+		private int rows = 0;
+
+		private final long[] actual = new long[BLOCK_ROWS];
+
+		private final String[] virtual = new String[BLOCK_ROWS];
+
+		private long[][] values;
+
+		public Binary( final OutputStream out )
+		{
+			this.out = new DataOutputStream(
+					new BufferedOutputStream( out, 1 << 16 ) );
+		}
+
+		@Override
+		public void header( final String meta, final List<String> columns )
+			throws IOException
+		{
+			final byte[] bytes = meta.getBytes( StandardCharsets.UTF_8 );
+			this.out.writeInt( MAGIC );
+			this.out.writeInt( VERSION );
+			this.out.writeInt( bytes.length );
+			this.out.write( bytes );
+			this.out.writeInt( columns.size() );
+			for( String column : columns )
+				this.out.writeUTF( column );
+			this.columns = columns.size();
+			this.values = new long[this.columns][BLOCK_ROWS];
+		}
+
+		@Override
+		public void append( final long actualMillis, final String virtualTime,
+			final long[] values ) throws IOException
+		{
+			if( values.length != this.columns )
+				Thrower.throwNew( IllegalArgumentException::new,
+						() -> "Expected " + this.columns + " values, got: "
+								+ values.length );
+			this.actual[this.rows] = actualMillis;
+			this.virtual[this.rows] = virtualTime;
+			for( int j = 0; j < this.columns; j++ )
+				this.values[j][this.rows] = values[j];
+			if( ++this.rows == BLOCK_ROWS ) writeBlock();
+		}
+
+		private void writeBlock() throws IOException
+		{
+			if( this.rows == 0 ) return;
+			this.out.writeInt( this.rows );
+			writeDeltas( this.out, this.actual, this.rows );
+			for( int i = 0; i < this.rows; i++ )
+				this.out.writeUTF( this.virtual[i] );
+			for( int j = 0; j < this.columns; j++ )
+				writeDeltas( this.out, this.values[j], this.rows );
+			this.rows = 0;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				if( this.columns >= 0 )
+				{
+					writeBlock();
+					this.out.writeInt( 0 ); // end of series
+				}
+			} finally
+			{
+				this.out.close();
+			}
+		}
+
+		private static void writeDeltas( final DataOutputStream out,
+			final long[] values, final int n ) throws IOException
+		{
+			long prev = 0;
+			for( int i = 0; i < n; i++ )
+			{
+				final long delta = values[i] - prev;
+				prev = values[i];
+				// zig-zag, then 7 bits per byte
+				long v = (delta << 1) ^ (delta >> 63);
+				while( (v & ~0x7FL) != 0 )
+				{
+					out.writeByte( (int) ((v & 0x7F) | 0x80) );
+					v >>>= 7;
+				}
+				out.writeByte( (int) v );
+			}
+		}
+
+		private static void readDeltas( final DataInputStream in,
+			final long[] values, final int n ) throws IOException
+		{
+			long prev = 0;
+			for( int i = 0; i < n; i++ )
+			{
+				long v = 0;
+				for( int shift = 0;; shift += 7 )
+				{
+					final int b = in.readUnsignedByte();
+					v |= (long) (b & 0x7F) << shift;
+					if( (b & 0x80) == 0 ) break;
+				}
+				prev += (v >>> 1) ^ -(v & 1);
+				values[i] = prev;
+			}
+		}
+
+		/**
+		 * @param is the (decompressed) {@link Binary} series to read
+		 * @param sink the {@link SeriesSink} to replay the series into
+		 * @throws IOException
+		 */
+		public static void replay( final InputStream is, final SeriesSink sink )
+			throws IOException
+		{
+			final DataInputStream in = new DataInputStream( is );
+			if( in.readInt() != MAGIC || in.readInt() != VERSION )
+				Thrower.throwNew( IOException::new,
+						() -> "Unknown series format" );
+			final byte[] meta = new byte[in.readInt()];
+			in.readFully( meta );
+			final int columns = in.readInt();
+			final List<String> names = new ArrayList<>( columns );
+			for( int j = 0; j < columns; j++ )
+				names.add( in.readUTF() );
+			sink.header( new String( meta, StandardCharsets.UTF_8 ), names );
+
+			final long[] actual = new long[BLOCK_ROWS];
+			final String[] virtual = new String[BLOCK_ROWS];
+			final long[][] values = new long[columns][BLOCK_ROWS];
+			final long[] row = new long[columns];
+			try
+			{
+				for( int n = in.readInt(); n > 0; n = in.readInt() )
+				{
+					readDeltas( in, actual, n );
+					for( int i = 0; i < n; i++ )
+						virtual[i] = in.readUTF();
+					for( int j = 0; j < columns; j++ )
+						readDeltas( in, values[j], n );
+					for( int i = 0; i < n; i++ )
+					{
+						for( int j = 0; j < columns; j++ )
+							row[j] = values[j][i];
+						sink.append( actual[i], virtual[i], row );
+					}
+				}
+			} catch( final EOFException e )
+			{
+				// series was not closed properly, keep the complete blocks
+				LogUtil.getLogger( Binary.class )
+						.warn( "Truncated series, ignoring last block" );
+			}
+		}
+	}
+
+	/**
+	 * {@link Async} queues rows for a (single) writer thread, so the caller
+	 * (e.g. the simulation thread) only blocks while the queue is full. Write
+	 * failures are rethrown on the caller's next (or closing) call
+	 */
+	class Async implements SeriesSink
+	{
+		/** */
+		private static final Logger LOG = LogUtil.getLogger( Async.class );
+
+		private static final Callable<Void> EOF = () -> null;
+
+		private final SeriesSink sink;
+
+		private final BlockingQueue<Callable<Void>> queue;
+
+		private final Thread writer;
+
+		private volatile IOException failure = null;
+
+		public Async( final SeriesSink sink, final int capacity,
+			final String name )
+		{
+			this.sink = sink;
+			this.queue = new ArrayBlockingQueue<>( capacity );
+			this.writer = new Thread( this::drain, "sink:" + name );
+			this.writer.setDaemon( true );
+			this.writer.start();
+		}
+
+		private void drain()
+		{
+			try
+			{
+				for( Callable<Void> task = this.queue
+						.take(); task != EOF; task = this.queue.take() )
+					if( this.failure == null ) try
+					{
+						task.call();
+					} catch( final IOException e )
+					{
+						this.failure = e;
+					} catch( final Exception e )
+					{
+						this.failure = new IOException( e );
+					}
+			} catch( final InterruptedException e )
+			{
+				this.failure = new InterruptedIOException( "Interrupted" );
+			} finally
+			{
+				try
+				{
+					this.sink.close();
+				} catch( final IOException e )
+				{
+					if( this.failure == null ) this.failure = e;
+					else LOG.warn( "Problem closing sink", e );
+				}
+			}
+		}
+
+		private void submit( final Callable<Void> task ) throws IOException
+		{
+			if( this.failure != null ) throw this.failure;
+			try
+			{
+				this.queue.put( task );
+			} catch( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted" );
+			}
+		}
+
+		@Override
+		public void header( final String meta, final List<String> columns )
+			throws IOException
+		{
+			submit( () ->
+			{
+				this.sink.header( meta, columns );
+				return null;
+			} );
+		}
+
+		@Override
+		public void append( final long actualMillis, final String virtualTime,
+			final long[] values ) throws IOException
+		{
+			// copy: callers may reuse their array
+			final long[] row = Arrays.copyOf( values, values.length );
+			submit( () ->
+			{
+				this.sink.append( actualMillis, virtualTime, row );
+				return null;
+			} );
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				// bypass submit(): even after a failure, the writer must stop
+				if( this.writer.isAlive() ) this.queue.put( EOF );
+				this.writer.join();
+			} catch( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted" );
+			}
+			if( this.failure != null ) throw this.failure;
+		}
+	}
+}
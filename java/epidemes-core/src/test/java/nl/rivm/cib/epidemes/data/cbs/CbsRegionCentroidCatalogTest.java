@@ -0,0 +1,168 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.data.cbs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * {@link CbsRegionCentroidCatalogTest} tests the import, write and (mapped)
+ * read round-trip of {@link CbsRegionCentroidCatalog}
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CbsRegionCentroidCatalogTest
+{
+
+	/**
+	 * territory &rarr; PV &rarr; CR &rarr; GM &rarr; boro &rarr; zip4 &rarr;
+	 * zip6: [lat, lon, residents, employees], including a region tag to skip
+	 * and a (one-character) borough code too short to split
+	 */
+	private static final String JSON = ("{'NL00':{'PV':{'PV27':{'tags':{'x':1},"
+			+ "'CR':{'CR23':{'GM':{"
+			+ "'GM0363':{'0005':{'1011':{'AB':[52.37,4.90,120,30],"
+			+ "'AC':[52.38,4.91,80,0]}},'9':{'1012':{'XY':[52.36,4.89,5,7]}}},"
+			+ "'GM0344':{'0101':{'3511':{'CD':[52.09,5.12,60,300]}}}"
+			+ "}}}}}}}").replace( '\'', '"' );
+
+	private static Callable<InputStream> json( final AtomicInteger reads )
+	{
+		return () ->
+		{
+			reads.incrementAndGet();
+			return new ByteArrayInputStream(
+					JSON.getBytes( StandardCharsets.UTF_8 ) );
+		};
+	}
+
+	private static void assertCatalog( final CbsRegionCentroidCatalog cat )
+	{
+		assertEquals( "size", 4, cat.size() );
+		assertEquals( "municipalities",
+				new HashSet<>( Arrays.asList( "GM0363", "GM0344" ) ),
+				cat.municipalities() );
+		final int[] ams = cat.indices( "GM0363" ).toArray();
+		assertEquals( "GM0363 records", 3, ams.length );
+		assertEquals( "GM0344 records", 1, cat.indices( "GM0344" ).count() );
+		assertEquals( "no records", 0, cat.indices( "GM0000" ).count() );
+
+		final int i = ams[0];
+		assertEquals( "lat", 52.37, cat.latitude( i ), 0 );
+		assertEquals( "lon", 4.90, cat.longitude( i ), 0 );
+		assertEquals( "residents", 120, cat.residents( i ) );
+		assertEquals( "employees", 30, cat.employees( i ) );
+		assertEquals( "gm", "GM0363", cat.municipality( i ) );
+		assertEquals( "site", "0363_00_05_1011_AB", cat.siteName( i ) );
+
+		// the short borough keeps its record, with empty ward and borough
+		final int k = ams[2];
+		assertEquals( "boro", "9", cat.boro( k ) );
+		assertEquals( "zip4", "1012", cat.zip4( k ) );
+		assertEquals( "zip6", "XY", cat.zip6( k ) );
+		assertEquals( "site", "0363___1012_XY", cat.siteName( k ) );
+		assertEquals( "pc4 field", "1012", cat.siteName( k ).split( "_" )[3] );
+
+		final int u = cat.indices( "GM0344" ).findFirst().getAsInt();
+		assertEquals( "gm", "GM0344", cat.municipality( u ) );
+		assertEquals( "site", "0344_01_01_3511_CD", cat.siteName( u ) );
+		assertEquals( "employees", 300, cat.employees( u ) );
+	}
+
+	@Test
+	public void testInMemory() throws Exception
+	{
+		final AtomicInteger reads = new AtomicInteger();
+		assertCatalog( CbsRegionCentroidCatalog.open( null, json( reads ) ) );
+		assertEquals( "imported", 1, reads.get() );
+	}
+
+	@Test
+	public void testWriteAndMap() throws Exception
+	{
+		final Path dir = Files.createTempDirectory( "zip6" );
+		final Path cache = dir.resolve( "zip6.bin" );
+		final AtomicInteger reads = new AtomicInteger();
+		assertCatalog( CbsRegionCentroidCatalog.open( cache, json( reads ) ) );
+		assertTrue( "written", Files.isRegularFile( cache ) );
+		try( final Stream<Path> files = Files.list( dir ) )
+		{
+			assertEquals( "no temp files left", 1, files.count() );
+		}
+		assertCatalog( CbsRegionCentroidCatalog.open( cache, json( reads ) ) );
+		assertEquals( "mapped, not re-imported", 1, reads.get() );
+	}
+
+	@Test
+	public void testReimportStale() throws Exception
+	{
+		final Path dir = Files.createTempDirectory( "zip6" );
+		final Path cache = dir.resolve( "zip6.bin" ),
+				source = dir.resolve( "zip6.json" );
+		Files.write( source, JSON.getBytes( StandardCharsets.UTF_8 ) );
+		final AtomicInteger reads = new AtomicInteger();
+		CbsRegionCentroidCatalog.open( cache, json( reads ),
+				source.toString() );
+		assertEquals( "imported", 1, reads.get() );
+		CbsRegionCentroidCatalog.open( cache, json( reads ),
+				source.toString() );
+		assertEquals( "current", 1, reads.get() );
+
+		// a source newer than the catalog
+		Files.setLastModifiedTime( source, FileTime.fromMillis(
+				Files.getLastModifiedTime( cache ).toMillis() + 60_000 ) );
+		assertCatalog( CbsRegionCentroidCatalog.open( cache, json( reads ),
+				source.toString() ) );
+		assertEquals( "stale source", 2, reads.get() );
+	}
+
+	@Test
+	public void testReimportOtherVersion() throws Exception
+	{
+		final Path cache = Files.createTempDirectory( "zip6" )
+				.resolve( "zip6.bin" );
+		Files.write( cache,
+				ByteBuffer.allocate( 16 )
+						.putInt( CbsRegionCentroidCatalog.MAGIC )
+						.putInt( CbsRegionCentroidCatalog.VERSION + 1 )
+						.putInt( 0 ).putInt( 0 ).array() );
+		final AtomicInteger reads = new AtomicInteger();
+		assertCatalog( CbsRegionCentroidCatalog.open( cache, json( reads ) ) );
+		assertEquals( "other version", 1, reads.get() );
+		assertCatalog( CbsRegionCentroidCatalog.open( cache, json( reads ) ) );
+		assertEquals( "rewritten", 1, reads.get() );
+	}
+}
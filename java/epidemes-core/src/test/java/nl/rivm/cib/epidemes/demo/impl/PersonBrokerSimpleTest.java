@@ -0,0 +1,132 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import io.coala.math.Range;
+import io.coala.math3.Math3ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
+import nl.rivm.cib.epidemes.data.cbs.CBSPopulationDynamic;
+import nl.rivm.cib.epidemes.data.cbs.CBSRegionType;
+import nl.rivm.cib.epidemes.data.cbs.Cbs37230json;
+import nl.rivm.cib.epidemes.util.RandomStreams;
+
+/**
+ * {@link PersonBrokerSimpleTest} tests that the batched population dynamics
+ * of {@link PersonBrokerSimple} apply the counts drawn per region by the
+ * {@link Cbs37230json.EventProducer}, retrying failed events
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class PersonBrokerSimpleTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( PersonBrokerSimpleTest.class );
+
+	private static final String DYNAMICS_FILE = "dist/data/37230ned_TS_2012_2017.json";
+
+	/** the maximum number of persons per (household) event */
+	private static final int MAX_EVENT_SIZE = 4;
+
+	@Test
+	public void testBatchedCounts() throws Exception
+	{
+		final PseudoRandom rng = RandomStreams.Counter.of( "test", 1234L );
+		final Cbs37230json.EventProducer producer = new Cbs37230json.EventProducer(
+				CBSPopulationDynamic.IMMIGRATION,
+				Math3ProbabilityDistribution.Factory.of( rng ),
+				() -> Files.newInputStream( Paths.get( DYNAMICS_FILE ) ),
+				CBSRegionType.MUNICIPAL,
+				Range.upFromAndIncluding( LocalDate.of( 2016, 1, 1 ) ),
+				BigDecimal.valueOf( .01 ) );
+		final LocalDate dt = LocalDate.of( 2016, 6, 1 );
+		for( int batch = 0; batch < 10; batch++ )
+		{
+			final Map<String, Long> counts = producer.nextCounts( dt, 7 );
+			final Map<String, Long> applied = new TreeMap<>(),
+					events = new TreeMap<>(), notified = new TreeMap<>();
+			// households of 1..MAX_EVENT_SIZE persons, a third failing
+			final Map<String, Long> shortfall = PersonBrokerSimple
+					.applyCounts( counts, regRef ->
+					{
+						if( rng.nextDouble() < 1. / 3 ) return 0;
+						final int n = 1 + rng.nextInt( MAX_EVENT_SIZE );
+						applied.merge( regRef, (long) n, Long::sum );
+						events.merge( regRef, 1L, Long::sum );
+						return n;
+					}, PersonBrokerSimple.BATCH_MAX_FAILURES,
+							regRef -> notified.merge( regRef, 1L,
+									Long::sum ) );
+			assertTrue( "shortfall: " + shortfall, shortfall.isEmpty() );
+			assertEquals( "regions", counts.keySet(), applied.keySet() );
+			assertEquals( "applied events", events, notified );
+			counts.forEach( ( regRef, n ) ->
+			{
+				final long m = applied.get( regRef );
+				assertTrue( regRef + " reached: " + m + " < " + n, m >= n );
+				assertTrue( regRef + " overshoot: " + m + " vs " + n,
+						m < n + MAX_EVENT_SIZE );
+			} );
+			LOG.trace( "batch {}: {} persons in {} regions", batch,
+					counts.values().stream().mapToLong( n -> n ).sum(),
+					counts.size() );
+		}
+	}
+
+	@Test
+	public void testBatchedShortfall() throws Exception
+	{
+		final Map<String, Long> counts = new TreeMap<>();
+		counts.put( "GM0344", 3L );
+		counts.put( "GM0363", 5L );
+		final Map<String, Long> calls = new TreeMap<>(),
+				notified = new TreeMap<>();
+		final Map<String, Long> shortfall = PersonBrokerSimple
+				.applyCounts( counts, regRef ->
+				{
+					final long i = calls.merge( regRef, 1L, Long::sum );
+					// GM0363 fails after its first (single person) event
+					return regRef.equals( "GM0363" ) && i > 1 ? 0 : 1;
+				}, 2, regRef -> notified.merge( regRef, 1L, Long::sum ) );
+		assertEquals( "shortfall", Collections.singletonMap( "GM0363", 4L ),
+				shortfall );
+		assertEquals( "GM0344 calls", 3L, (long) calls.get( "GM0344" ) );
+		assertEquals( "GM0363 calls", 1L + 3L, (long) calls.get( "GM0363" ) );
+		assertEquals( "GM0344 applied", 3L, (long) notified.get( "GM0344" ) );
+		assertEquals( "GM0363 applied", 1L, (long) notified.get( "GM0363" ) );
+	}
+}
@@ -0,0 +1,260 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.data.Table;
+import io.coala.data.Table.Property;
+import io.coala.data.Table.Tuple;
+import io.coala.log.LogUtil;
+import nl.rivm.cib.epidemes.data.cbs.CBSHousehold;
+import nl.rivm.cib.epidemes.demo.entity.Households;
+import nl.rivm.cib.epidemes.demo.entity.Households.HouseholdTuple;
+import nl.rivm.cib.epidemes.demo.entity.Persons;
+import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
+import nl.rivm.cib.epidemes.demo.entity.Sites;
+import nl.rivm.cib.epidemes.demo.entity.Sites.SiteTuple;
+import nl.rivm.cib.epidemes.demo.entity.Societies;
+import nl.rivm.cib.epidemes.demo.entity.Societies.SocietyTuple;
+import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
+import nl.rivm.cib.epidemes.util.RandomStreams;
+
+/**
+ * {@link PopulationSnapshotTest} tests the {@link PopulationSnapshot}
+ * round-trip, and that saving leaves the run's random streams untouched
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class PopulationSnapshotTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( PopulationSnapshotTest.class );
+
+	/** the tables of a population */
+	private static class Population
+	{
+		final Table<SiteTuple> sites = new ColumnLayer( Sites.PROPERTIES, 16 )
+				.getTable( SiteTuple.class );
+		final Table<HouseholdTuple> households = new ColumnLayer(
+				Households.PROPERTIES, 16 ).getTable( HouseholdTuple.class );
+		final Table<PersonTuple> persons = new ColumnLayer(
+				Persons.PROPERTIES, 16 ).getTable( PersonTuple.class );
+		final Table<SocietyTuple> societies = new ColumnLayer(
+				Societies.PROPERTIES, 16 ).getTable( SocietyTuple.class );
+		final Map<Object, List<Object>> members = new LinkedHashMap<>();
+
+		PopulationSnapshot restore( final Path file ) throws IOException
+		{
+			return PopulationSnapshot.restore( file, this.sites,
+					this.households, this.persons, this.societies );
+		}
+	}
+
+	private static RandomStreams streams( final long seed )
+	{
+		return RandomStreams.of( RandomStreams.Counter.of( "root", seed ) );
+	}
+
+	private static Population populate( final RandomStreams rng )
+	{
+		final Population result = new Population();
+		final Random rnd = (Random) rng.getStream();
+		final List<Object> sites = new ArrayList<>();
+		for( int i = 0; i < 5; i++ )
+		{
+			final int n = i;
+			sites.add( result.sites.insertValues( map -> map
+					.set( Sites.SiteName.class, "site" + n )
+					.set( Sites.RegionRef.class, "GM0" + (363 + n % 2) )
+					.set( Sites.Latitude.class, 52 + rnd.nextDouble() )
+					.set( Sites.Longitude.class, 5 + rnd.nextDouble() )
+					.set( Sites.Capacity.class, 10 * n ) ).key() );
+		}
+		// leave a gap, so restored keys differ from saved keys
+		result.sites.delete( sites.remove( 1 ) );
+		for( int h = 0; h < 20; h++ )
+		{
+			final Object site = sites.get( rnd.nextInt( sites.size() ) );
+			final Object hh = result.households.insertValues( map -> map
+					.set( Households.HomeSiteRef.class, (Comparable<?>) site )
+					.set( Households.Composition.class,
+							CBSHousehold.values()[rnd.nextInt(
+									CBSHousehold.values().length )] )
+					.set( Households.ReferentBirth.class,
+							BigDecimal.valueOf( -rnd.nextInt( 20000 ), 1 ) ) )
+					.key();
+			for( int p = 1 + rnd.nextInt( 4 ); p > 0; p-- )
+				result.persons.insertValues( map -> map
+						.set( Persons.HouseholdRef.class, hh )
+						.set( Persons.HomeSiteRef.class, (Comparable<?>) site )
+						.set( Persons.PathogenCompartment.class,
+								Compartment.values()[rnd.nextInt(
+										Compartment.values().length )] )
+						.set( Persons.PathogenResistance.class,
+								rnd.nextDouble() )
+						.set( Persons.Male.class, rnd.nextBoolean() ) );
+		}
+		final List<Object> persons = result.persons.stream()
+				.map( Tuple::key ).collect( Collectors.toList() );
+		result.persons.delete( persons.remove( 0 ) );
+		for( Object site : sites )
+		{
+			final Object soc = result.societies.insertValues( map -> map
+					.set( Societies.SiteRef.class, (Comparable<?>) site )
+					.set( Societies.SocietyName.class, "soc@" + site )
+					.set( Societies.Capacity.class, 30 ) ).key();
+			result.members.put( soc,
+					Arrays.asList( persons.get( rnd.nextInt( persons.size() ) ),
+							persons.get(
+									rnd.nextInt( persons.size() ) ) ) );
+		}
+		return result;
+	}
+
+	/**
+	 * @return the row values of {@code table}, its (and referenced) keys
+	 *         replaced by their row number, in key order
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static List<List<Object>> rows( final Table<?> table,
+		final Map<Class<?>, Map<Object, Integer>> refs,
+		final Map<Object, Integer> ordinals )
+	{
+		final List<? extends Tuple> tuples = table.stream()
+				.collect( Collectors.toList() );
+		tuples.forEach( t -> ordinals.put( t.key(), ordinals.size() ) );
+		final List<Class<? extends Property>> props = table.properties()
+				.collect( Collectors.toList() );
+		return tuples.stream().map( t -> props.stream().map( p ->
+		{
+			final Object value = t.get( (Class) p );
+			return refs.containsKey( p ) && value != null
+					? refs.get( p ).get( value ) : value;
+		} ).collect( Collectors.toList() ) ).collect( Collectors.toList() );
+	}
+
+	private static List<Object> dump( final Population pop,
+		final Map<Object, List<Object>> members )
+	{
+		final Map<Object, Integer> siteIds = new HashMap<>(),
+				hhIds = new HashMap<>(), ppIds = new HashMap<>(),
+				socIds = new HashMap<>();
+		final Map<Class<?>, Map<Object, Integer>> refs = new HashMap<>();
+		refs.put( Households.HomeSiteRef.class, siteIds );
+		refs.put( Persons.HomeSiteRef.class, siteIds );
+		refs.put( Persons.HouseholdRef.class, hhIds );
+		refs.put( Societies.SiteRef.class, siteIds );
+		final List<Object> result = new ArrayList<>();
+		result.add( rows( pop.sites, refs, siteIds ) );
+		result.add( rows( pop.households, refs, hhIds ) );
+		result.add( rows( pop.persons, refs, ppIds ) );
+		result.add( rows( pop.societies, refs, socIds ) );
+		final Map<Integer, List<Integer>> soc = new HashMap<>();
+		members.forEach( ( key, ppKeys ) -> soc.put( socIds.get( key ),
+				ppKeys.stream().map( ppIds::get )
+						.collect( Collectors.toList() ) ) );
+		result.add( soc );
+		return result;
+	}
+
+	private static long[] draws( final RandomStreams rng )
+	{
+		final long[] result = new long[8];
+		for( int i = 0; i < 4; i++ )
+			result[i] = rng.getStream().nextLong();
+		for( int i = 4; i < result.length; i++ )
+			result[i] = rng.split( "health", i ).getStream().nextLong();
+		return result;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final long seed = 1234L;
+		final Path dir = Files.createTempDirectory( "snapshot" );
+		final Path file = dir.resolve( "pop.bin.gz" );
+		try
+		{
+			final RandomStreams rng = streams( seed );
+			final Population saved = populate( rng );
+			final long position = ((RandomStreams.Counter) rng.getStream())
+					.position();
+			PopulationSnapshot.save( file, rng, saved.sites, saved.households,
+					saved.persons, saved.societies, saved.members );
+			assertEquals( "saving draws nothing", position,
+					((RandomStreams.Counter) rng.getStream()).position() );
+
+			final Population restored = new Population(),
+					again = new Population();
+			final PopulationSnapshot snapshot = restored.restore( file );
+			assertEquals( "continuation seed",
+					RandomStreams.split( rng, "snapshot" ).key(),
+					snapshot.continuationSeed() );
+			assertEquals( "tables", dump( saved, saved.members ),
+					dump( restored, snapshot.members() ) );
+			assertNotEquals( "translated keys", saved.sites.stream()
+					.map( Tuple::key ).collect( Collectors.toList() ),
+					restored.sites.stream().map( Tuple::key )
+							.collect( Collectors.toList() ) );
+
+			// continuations of (equally seeded) restores repeat
+			final RandomStreams rng1 = streams( seed ), rng2 = streams( seed ),
+					rng3 = streams( seed + 1 );
+			assertTrue( "reseeded", snapshot.reseed( rng1 ) );
+			assertTrue( "reseeded", again.restore( file ).reseed( rng2 ) );
+			assertTrue( "reseeded", snapshot.reseed( rng3 ) );
+			final long[] draws = draws( rng1 );
+			assertTrue( "continued",
+					Arrays.equals( draws, draws( rng2 ) ) );
+			assertTrue( "other seed diverges",
+					!Arrays.equals( draws, draws( rng3 ) ) );
+			assertTrue( "continuation differs from the fresh stream",
+					!Arrays.equals( draws, draws( streams( seed ) ) ) );
+			LOG.trace( "continuation draws: {}", Arrays.toString( draws ) );
+		} finally
+		{
+			Files.deleteIfExists( file );
+			Files.delete( dir );
+		}
+	}
+}
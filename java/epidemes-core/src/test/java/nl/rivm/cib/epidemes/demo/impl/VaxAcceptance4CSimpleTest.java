@@ -0,0 +1,146 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.data.Table;
+import io.coala.log.LogUtil;
+import nl.rivm.cib.epidemes.demo.entity.Households;
+import nl.rivm.cib.epidemes.demo.entity.Households.HouseholdTuple;
+import nl.rivm.cib.epidemes.model.VaxOccasion;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
+
+/**
+ * {@link VaxAcceptance4CSimpleTest} tests that the primitive
+ * {@link VaxAcceptance4CSimple#evaluate} kernel and its
+ * {@link VaxAcceptance4CSimple.Batch} agree with the boxed
+ * {@link VaxAcceptance4CSimple#test(HouseholdTuple, VaxOccasion)}, over
+ * dyadic attitudes and convenience levels that hit the barrier exactly
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class VaxAcceptance4CSimpleTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( VaxAcceptance4CSimpleTest.class );
+
+	/** attitude levels per step, exact in both double and decimal */
+	private static final int STEPS = 16;
+
+	/** a convenience offset, exact in both double and decimal */
+	private static final double DELTA = 1. / 64;
+
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void testKernel()
+	{
+		final Table<HouseholdTuple> households = new ColumnLayer(
+				Households.PROPERTIES, 16 ).getTable( HouseholdTuple.class );
+		final List<HouseholdTuple> hhs = new ArrayList<>();
+		final List<VaxOccasion> occasions = new ArrayList<>();
+		for( int a = 0; a <= STEPS; a++ )
+			for( int b = 0; b <= STEPS; b++ )
+			{
+				final BigDecimal confidence = BigDecimal
+						.valueOf( (double) a / STEPS ),
+						complacency = BigDecimal
+								.valueOf( (double) b / STEPS );
+				final HouseholdTuple hh = households.insertValues( map -> map
+						.set( Households.Confidence.class, confidence )
+						.set( Households.Complacency.class, complacency ) );
+				final double barrier = .5 - .5 * ((double) (a - b) / STEPS);
+				// no occasion, ties, and the minimum of mixed factors
+				for( VaxOccasion occasion : new VaxOccasion[] { null,
+						VaxOccasion.of( barrier, barrier, barrier, barrier ),
+						VaxOccasion.of( 1, barrier, 1, 1 ),
+						VaxOccasion.of( 1, 1, 1, barrier - DELTA ),
+						VaxOccasion.of( barrier + DELTA, 1, 1, 1 ) } )
+				{
+					hhs.add( hh );
+					occasions.add( occasion );
+				}
+			}
+
+		final VaxAcceptance4CSimple evaluator = new VaxAcceptance4CSimple();
+		final double maxConvenience = .5, recheckDelay = 7;
+		final VaxAcceptance4CSimple.Batch batch = new VaxAcceptance4CSimple.Batch(
+				1 );
+		final boolean[] expected = new boolean[hhs.size()];
+		int accepted = 0;
+		for( int i = 0; i < expected.length; i++ )
+		{
+			expected[i] = evaluator.test( hhs.get( i ), occasions.get( i ) );
+			if( expected[i] ) accepted++;
+			assertEquals( "index", i, batch.add( hhs.get( i ),
+					occasions.get( i ) ) );
+		}
+		batch.evaluate( maxConvenience, recheckDelay );
+		assertEquals( "accepted", accepted, batch.accepted() );
+		for( int i = 0; i < expected.length; i++ )
+		{
+			final HouseholdTuple hh = hhs.get( i );
+			final String candidate = hh.confidence() + " vs "
+					+ hh.complacency() + " at " + (occasions.get( i ) == null
+							? "no occasion" : occasions.get( i ).asMap());
+			assertEquals( "decision " + candidate, expected[i],
+					batch.accept( i ) );
+			final double barrier = .5
+					- .5 * (hh.confidence() - hh.complacency());
+			assertEquals( "recheck " + candidate,
+					expected[i] ? 0 : barrier > maxConvenience
+							? Double.POSITIVE_INFINITY : recheckDelay,
+					batch.recheck( i ), 0 );
+		}
+		for( int i = 0; i < expected.length; i += 5 )
+		{
+			assertTrue( "tie accepts", expected[i + 1] && expected[i + 2] );
+			assertTrue( "below rejects", !expected[i + 3] );
+			assertTrue( "above accepts", expected[i + 4] );
+		}
+		assertTrue( "some accept", accepted > 0 );
+		assertTrue( "some reject", accepted < expected.length );
+
+		// bulk decisions only, leaving the re-check delays as evaluated
+		assertTrue( "bulk", Arrays.equals( expected,
+				evaluator.test( hhs, occasions ) ) );
+		assertTrue( "bulk again", Arrays.equals( expected,
+				evaluator.test( hhs, occasions ) ) );
+		final double[] rechecks = new double[expected.length];
+		for( int i = 0; i < expected.length; i++ )
+			rechecks[i] = batch.recheck( i );
+		assertEquals( "reevaluated", accepted, batch.evaluate().accepted() );
+		for( int i = 0; i < expected.length; i++ )
+			assertEquals( "recheck kept", rechecks[i], batch.recheck( i ), 0 );
+		LOG.trace( "{} of {} candidates accept", accepted, expected.length );
+	}
+}
@@ -0,0 +1,264 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.demo.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import org.aeonbits.owner.ConfigFactory;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.data.Table;
+import io.coala.log.LogUtil;
+import io.coala.time.SchedulerConfig;
+import io.coala.time.TimeUnits;
+import nl.rivm.cib.epidemes.demo.entity.Persons;
+import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
+import nl.rivm.cib.epidemes.demo.impl.HealthBrokerSimple.WellMixedPressure;
+import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+import nl.rivm.cib.epidemes.util.CalendarScheduler;
+import nl.rivm.cib.epidemes.util.ColumnLayer;
+import nl.rivm.cib.epidemes.util.RandomStreams;
+
+/**
+ * {@link WellMixedPressureTest} tests the {@link WellMixedPressure}'s
+ * Gillespie and tau-leaping infection counts against the (exact) mean of
+ * the stochastic SI process, i.e. the SIR process while nobody recovers
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class WellMixedPressureTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( WellMixedPressureTest.class );
+
+	/** the transmission rate, per day */
+	private static final double BETA = 1;
+
+	/** the simulated period, in days */
+	private static final double DAYS = 1;
+
+	/**
+	 * @return the mean infections within {@link #DAYS} of the (pure birth)
+	 *         SI process, solving its forward (master) equations by RK4
+	 */
+	private static double siMean( final int n, final int i0 )
+	{
+		final double[] p = new double[n + 1], k1 = new double[n + 1],
+				k2 = new double[n + 1], k3 = new double[n + 1],
+				k4 = new double[n + 1], tmp = new double[n + 1];
+		p[i0] = 1;
+		// stable for the largest rate, BETA n / 4
+		final int steps = (int) Math.ceil( DAYS * BETA * n );
+		final double dt = DAYS / steps;
+		for( int s = 0; s < steps; s++ )
+		{
+			derive( p, k1, n );
+			for( int k = 0; k <= n; k++ )
+				tmp[k] = p[k] + dt / 2 * k1[k];
+			derive( tmp, k2, n );
+			for( int k = 0; k <= n; k++ )
+				tmp[k] = p[k] + dt / 2 * k2[k];
+			derive( tmp, k3, n );
+			for( int k = 0; k <= n; k++ )
+				tmp[k] = p[k] + dt * k3[k];
+			derive( tmp, k4, n );
+			for( int k = 0; k <= n; k++ )
+				p[k] += dt / 6 * (k1[k] + 2 * k2[k] + 2 * k3[k] + k4[k]);
+		}
+		double mean = 0;
+		for( int k = i0; k <= n; k++ )
+			mean += (k - i0) * p[k];
+		return mean;
+	}
+
+	private static void derive( final double[] p, final double[] dp,
+		final int n )
+	{
+		double inflow = 0;
+		for( int k = 0; k <= n; k++ )
+		{
+			final double rate = BETA * k * (n - k) / n * p[k];
+			dp[k] = inflow - rate;
+			inflow = rate;
+		}
+	}
+
+	/**
+	 * @param n the occupancy
+	 * @param i0 the initial infectives
+	 * @param leapSize the minimum occupancy for tau-leaping
+	 * @param tolerance the tau-leaping tolerance
+	 * @param seed the random seed
+	 * @param onStart the action after the population arrived
+	 * @return the infections within {@link #DAYS}
+	 */
+	private static long infections( final int n, final int i0,
+		final int leapSize, final double tolerance, final long seed,
+		final Consumer<Setup> onStart )
+	{
+		final CalendarScheduler scheduler = new CalendarScheduler(
+				ConfigFactory.create( CalendarScheduler.CalendarConfig.class,
+						Collections.singletonMap(
+								SchedulerConfig.DURATION_KEY,
+								String.valueOf( DAYS ) ) ) );
+		final AtomicLong result = new AtomicLong( -1 );
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		scheduler.time().subscribe( t ->
+		{
+		}, error::set );
+		scheduler.onReset( s ->
+		{
+			final Table<PersonTuple> persons = new ColumnLayer(
+					Persons.PROPERTIES, n ).getTable( PersonTuple.class );
+			for( int i = 0; i < n; i++ )
+			{
+				final Compartment sir = i < i0 ? Compartment.INFECTIVE
+						: Compartment.SUSCEPTIBLE;
+				persons.insertValues( map -> map
+						.set( Persons.PathogenCompartment.class, sir ) );
+			}
+			final WellMixedPressure pressure = new WellMixedPressure( s,
+					persons::select,
+					RandomStreams.Counter.of( "site", seed ), BETA,
+					leapSize, tolerance );
+			pressure.arrive( persons.stream() );
+			onStart.accept( new Setup( persons, pressure ) );
+			// apply any pending leap, then count
+			pressure.after( DAYS - 1e-9, TimeUnits.DAYS ).call( t ->
+			{
+				pressure.arrive( Stream.empty() );
+				result.set( persons.stream()
+						.filter( pp -> pp.get(
+								Persons.PathogenCompartment.class ) != Compartment.SUSCEPTIBLE )
+						.count() - i0 );
+			} );
+		} );
+		scheduler.run();
+		assertNull( "failed", error.get() );
+		return result.get();
+	}
+
+	/** the population and its pressure, to change at the start */
+	private static class Setup
+	{
+		final Table<PersonTuple> persons;
+
+		final WellMixedPressure pressure;
+
+		Setup( final Table<PersonTuple> persons,
+			final WellMixedPressure pressure )
+		{
+			this.persons = persons;
+			this.pressure = pressure;
+		}
+	}
+
+	private static void assertMean( final String engine, final int n,
+		final int i0, final int leapSize, final double tolerance,
+		final int runs, final double bias )
+	{
+		final double expected = siMean( n, i0 );
+		double sum = 0, sumSq = 0;
+		for( int r = 0; r < runs; r++ )
+		{
+			final long k = infections( n, i0, leapSize, tolerance, 1234L + r,
+					setup ->
+					{
+					} );
+			sum += k;
+			sumSq += (double) k * k;
+		}
+		final double mean = sum / runs,
+				se = Math.sqrt( (sumSq / runs - mean * mean) / runs );
+		LOG.trace( "{} n={}: mean {} +/- {}, expected {}", engine, n, mean,
+				se, expected );
+		// sampling error, and any (tau-leaping) bias
+		assertEquals( engine + " mean infections", expected, mean,
+				4 * se + bias * expected );
+	}
+
+	@Test
+	public void testGillespie()
+	{
+		assertMean( "Gillespie", 200, 20, Integer.MAX_VALUE, 0, 200, 0 );
+	}
+
+	@Test
+	public void testTauLeap()
+	{
+		// small leaps, exact Poisson draws
+		assertMean( "Tau-leap", 1000, 100, 0, .03, 100, .02 );
+	}
+
+	@Test
+	public void testTauLeapNormal()
+	{
+		// leaps with Poisson means above 30, drawn as (rounded) normals
+		assertMean( "Tau-leap (normal)", 10000, 4000, 0, .01, 40, .01 );
+	}
+
+	@Test
+	public void testRecovered()
+	{
+		for( int leapSize : new int[] { Integer.MAX_VALUE, 0 } )
+			assertEquals( "no pressure from the recovered", 0,
+					infections( 1000, 500, leapSize, .01, 1234L, setup ->
+					{
+						assertEquals( "propensity", BETA * 500 * 500 / 1000,
+								setup.pressure.propensity(), 1e-9 );
+						// recover half, then retally
+						setup.persons.stream().limit( 250 )
+								.forEach( pp -> pp.set(
+										Persons.PathogenCompartment.class,
+										Compartment.RECOVERED ) );
+						setup.pressure.depart( Stream.empty() );
+						assertEquals( "propensity", BETA * 500 * 250 / 1000,
+								setup.pressure.propensity(), 1e-9 );
+						// recover the rest
+						setup.persons.stream()
+								.filter( pp -> pp.get(
+										Persons.PathogenCompartment.class ) == Compartment.INFECTIVE )
+								.forEach( pp -> pp.set(
+										Persons.PathogenCompartment.class,
+										Compartment.RECOVERED ) );
+						setup.pressure.depart( Stream.empty() );
+						assertEquals( "propensity", 0,
+								setup.pressure.propensity(), 0 );
+						assertNull( "nothing scheduled",
+								setup.pressure.pending );
+					} ) );
+		assertTrue( "pressure", infections( 1000, 500, 0, .01, 1234L,
+				setup ->
+				{
+				} ) > 0 );
+	}
+}
@@ -0,0 +1,218 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+
+/**
+ * {@link MetapopulationODETest} tests the {@link MetapopulationODE}'s
+ * conservation, its uncoupled limit and its monotonicity
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class MetapopulationODETest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( MetapopulationODETest.class );
+
+	private static final List<String> REGIONS = Arrays.asList( "GM0363",
+			"GM0599", "GM0344", "GM0014" );
+
+	private static final long[] SIZES = { 850000, 630000, 350000, 200000 };
+
+	/** @return initial totals: mostly susceptible, some immune */
+	private static Map<String, EnumMap<Compartment, Long>> population()
+	{
+		final Map<String, EnumMap<Compartment, Long>> result = new TreeMap<>();
+		for( int i = 0; i < REGIONS.size(); i++ )
+		{
+			final EnumMap<Compartment, Long> sir = new EnumMap<>(
+					Compartment.class );
+			sir.put( Compartment.SUSCEPTIBLE, SIZES[i] * 9 / 10 );
+			sir.put( Compartment.RECOVERED, SIZES[i] / 20 );
+			sir.put( Compartment.VACCINATED, SIZES[i] / 40 );
+			sir.put( Compartment.PASSIVE_IMMUNE, SIZES[i] / 80 );
+			sir.put( Compartment.NEWBORN, SIZES[i] / 100 );
+			sir.put( Compartment.DORMANT, SIZES[i] - SIZES[i] * 9 / 10
+					- SIZES[i] / 20 - SIZES[i] / 40 - SIZES[i] / 80
+					- SIZES[i] / 100 );
+			result.put( REGIONS.get( i ), sir );
+		}
+		return result;
+	}
+
+	private static long sum( final Map<Compartment, Long> sir )
+	{
+		return sir.values().stream().mapToLong( Long::longValue ).sum();
+	}
+
+	@Test
+	public void testConservation()
+	{
+		final MetapopulationODE ode = new MetapopulationODE.Builder( REGIONS )
+				.withPeriods( 8, 7, 365, 180 )
+				.withLevel( .2, reg -> reg.compareTo( "GM0300" ) < 0 )
+				.withLevel( .1, reg -> "NL" ).withCommuting( .3 )
+				.withCommute( "GM0344", "GM0363", 1000 )
+				.withCommute( "GM0014", "GM0363", 300 )
+				.withCommute( "GM0014", "GM0599", 100 )
+				.withCommute( "GM0599", "GM0014", 50 ).build()
+				.reset( population(), 0 ).seed( "GM0014", 10 );
+		for( int t = 10; t <= 360; t += 50 )
+		{
+			final Map<String, EnumMap<Compartment, Long>> totals = ode
+					.advance( t ).totals();
+			for( int i = 0; i < REGIONS.size(); i++ )
+				// each of the (rounded) compartments may be off by 1/2
+				assertEquals( REGIONS.get( i ) + " at t=" + t, SIZES[i],
+						sum( totals.get( REGIONS.get( i ) ) ),
+						Compartment.values().length / 2. );
+			LOG.trace( "t={}: {}", t, totals.get( "GM0363" ) );
+		}
+		assertTrue( "spread by commuting", ode.inflows().get( "GM0363" )
+				.get( Compartment.EXPOSED ) > 1000 );
+	}
+
+	@Test
+	public void testUncoupledLimit()
+	{
+		// commuting flows without a share: each region a single population
+		final double r0 = 2.5, infectiveDays = 5;
+		final MetapopulationODE ode = new MetapopulationODE.Builder( REGIONS )
+				.withReproduction( r0 )
+				.withPeriods( 0, infectiveDays, Double.POSITIVE_INFINITY,
+						Double.POSITIVE_INFINITY )
+				.withCommuting( 0 ).withCommute( "GM0344", "GM0363", 1000 )
+				.withCommute( "GM0363", "GM0344", 1000 )
+				.withTolerance( 1e-3, 1e-10 ).build();
+		final Map<String, EnumMap<Compartment, Long>> pop = new TreeMap<>();
+		for( int i = 0; i < REGIONS.size(); i++ )
+		{
+			final EnumMap<Compartment, Long> sir = new EnumMap<>(
+					Compartment.class );
+			sir.put( Compartment.SUSCEPTIBLE, SIZES[i] );
+			pop.put( REGIONS.get( i ), sir );
+		}
+		ode.reset( pop, 0 );
+		// seed all but the last region, which must remain untouched
+		final double i0 = 100;
+		for( int i = 0; i < REGIONS.size() - 1; i++ )
+			ode.seed( REGIONS.get( i ), i0 );
+
+		for( int t = 10; t <= 200; t += 10 )
+		{
+			final Map<String, EnumMap<Compartment, Long>> totals = ode
+					.advance( t ).totals();
+			for( int i = 0; i < REGIONS.size() - 1; i++ )
+			{
+				final EnumMap<Compartment, Long> sir = totals
+						.get( REGIONS.get( i ) );
+				final double n = SIZES[i], s0 = n - i0,
+						r = sir.get( Compartment.RECOVERED );
+				// SIR invariant: S(t) = S(0) exp( -R0 R(t) / N )
+				assertEquals( REGIONS.get( i ) + " S at t=" + t,
+						s0 * Math.exp( -r0 * r / n ),
+						sir.get( Compartment.SUSCEPTIBLE ), 1e-5 * n );
+			}
+			assertEquals( "unseeded", SIZES[REGIONS.size() - 1],
+					(long) totals.get( REGIONS.get( REGIONS.size() - 1 ) )
+							.get( Compartment.SUSCEPTIBLE ) );
+		}
+		// final size: s = s0 exp( -R0 (1 - s) ), solved by fixed point
+		for( int i = 0; i < REGIONS.size() - 1; i++ )
+		{
+			final double n = SIZES[i], s0 = (n - i0) / n;
+			double s = 0;
+			for( int k = 0; k < 200; k++ )
+				s = s0 * Math.exp( -r0 * (1 - s) );
+			assertEquals( REGIONS.get( i ) + " final size", s * n,
+					ode.advance( 400 ).totals().get( REGIONS.get( i ) )
+							.get( Compartment.SUSCEPTIBLE ),
+					1e-4 * n );
+			LOG.trace( "{} final susceptible share: {}", REGIONS.get( i ),
+					s );
+		}
+	}
+
+	@Test
+	public void testMonotonicity()
+	{
+		final MetapopulationODE.Builder builder = new MetapopulationODE.Builder(
+				REGIONS ).withPeriods( 8, 7, Double.POSITIVE_INFINITY,
+						Double.POSITIVE_INFINITY )
+						.withLevel( .2, reg -> "NL" ).withCommuting( .2 )
+						.withCommute( "GM0344", "GM0363", 1000 );
+		long last = -1;
+		for( double cases : new double[] { 0, 1, 10, 100, 1000 } )
+		{
+			final MetapopulationODE ode = builder.build()
+					.reset( population(), 0 ).seed( "GM0344", cases );
+			final Map<String, EnumMap<Compartment, Long>> inflows = ode
+					.inflows();
+			assertEquals( "seeded cases", Math.round( cases ),
+					(long) inflows.get( "GM0344" ).get( Compartment.EXPOSED ) );
+			// cumulative inflows never decrease as time advances
+			EnumMap<Compartment, Long> prev = inflows.get( "GM0363" );
+			for( int t = 5; t <= 100; t += 5 )
+			{
+				final EnumMap<Compartment, Long> next = ode.advance( t )
+						.inflows().get( "GM0363" );
+				for( Compartment c : Compartment.values() )
+					assertTrue( c + " inflow at t=" + t,
+							next.get( c ) >= prev.get( c ) );
+				prev = next;
+			}
+			// advancing backwards is a no-op
+			assertEquals( "no rewind", prev,
+					ode.advance( 50 ).inflows().get( "GM0363" ) );
+			assertEquals( "time", 100, ode.time(), 0 );
+			// more index cases, never fewer cases elsewhere
+			final long cumulative = prev.get( Compartment.EXPOSED );
+			assertTrue( cases + " cases: " + cumulative + " < " + last,
+					cumulative >= last );
+			last = cumulative;
+		}
+		assertTrue( "spread", last > 0 );
+
+		// seeding is capped by the susceptibles
+		final MetapopulationODE ode = builder.build().reset( population(), 0 )
+				.seed( "GM0014", Double.MAX_VALUE );
+		assertEquals( "all susceptibles", 0L, (long) ode.totals()
+				.get( "GM0014" ).get( Compartment.SUSCEPTIBLE ) );
+		assertEquals( "conserved", SIZES[3],
+				sum( ode.totals().get( "GM0014" ) ) );
+	}
+}
@@ -0,0 +1,239 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import io.coala.random.PseudoRandom;
+
+/**
+ * {@link BirthIndexTest} tests {@link BirthIndex} counts and draws over
+ * half-open birth ranges against a sorted-list oracle, while keys are put,
+ * re-indexed and removed
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class BirthIndexTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil.getLogger( BirthIndexTest.class );
+
+	/** an oracle entry, ordered by (birth, seq) like the index */
+	private static class Entry
+	{
+		final Integer key;
+		final double birth;
+		final long seq;
+
+		Entry( final Integer key, final double birth, final long seq )
+		{
+			this.key = key;
+			this.birth = birth;
+			this.seq = seq;
+		}
+	}
+
+	private static final Comparator<Entry> ORDER = Comparator
+			.<Entry>comparingDouble( e -> e.birth )
+			.thenComparingLong( e -> e.seq );
+
+	/** the sorted entries per region */
+	private final Map<Object, List<Entry>> oracle = new HashMap<>();
+
+	/** the region of each key */
+	private final Map<Integer, Object> regions = new HashMap<>();
+
+	private long seq = 0;
+
+	private void put( final BirthIndex<Integer> index, final Integer key,
+		final Object region, final double birth )
+	{
+		remove( index, key );
+		index.put( key, region, birth );
+		final List<Entry> list = this.oracle.computeIfAbsent( region,
+				r -> new ArrayList<>() );
+		list.add( new Entry( key, birth, this.seq++ ) );
+		list.sort( ORDER );
+		this.regions.put( key, region );
+	}
+
+	private void remove( final BirthIndex<Integer> index, final Integer key )
+	{
+		final Object region = this.regions.remove( key );
+		assertEquals( "remove " + key, region != null, index.remove( key ) );
+		if( region != null )
+			this.oracle.get( region ).removeIf( e -> e.key.equals( key ) );
+	}
+
+	/** @return the number of entries born before {@code birth} */
+	private static int rankOf( final List<Entry> list, final double birth )
+	{
+		int result = 0;
+		while( result < list.size() && list.get( result ).birth < birth )
+			result++;
+		return result;
+	}
+
+	/** mirrors {@link BirthIndex#draw}, drawing from an equal stream */
+	private static Integer draw( final List<Entry> list, final double from,
+		final double to, final PseudoRandom rng )
+	{
+		if( list == null || list.isEmpty() ) return null;
+		final int lo = rankOf( list, from ),
+				hi = Math.max( lo, rankOf( list, to ) );
+		if( hi > lo ) return list.get( lo + rng.nextInt( hi - lo ) ).key;
+		if( lo == 0 ) return list.get( 0 ).key;
+		if( lo == list.size() ) return list.get( lo - 1 ).key;
+		final Entry below = list.get( lo - 1 ), above = list.get( lo );
+		return from - below.birth <= above.birth - to ? below.key
+				: above.key;
+	}
+
+	private void assertRange( final BirthIndex<Integer> index,
+		final Object region, final double from, final double to,
+		final PseudoRandom rng, final PseudoRandom oracleRng )
+	{
+		final List<Entry> list = this.oracle.get( region );
+		final String range = region + " [" + from + ", " + to + ")";
+		final int count = list == null ? 0
+				: (int) list.stream()
+						.filter( e -> e.birth >= from && e.birth < to )
+						.count();
+		assertEquals( "count " + range, count,
+				index.count( region, from, to ) );
+		final Integer key = index.draw( region, from, to, rng );
+		assertEquals( "draw " + range, draw( list, from, to, oracleRng ),
+				key );
+		if( count > 0 )
+		{
+			final double birth = list.stream().filter( e -> e.key == key )
+					.findFirst().get().birth;
+			assertTrue( "in " + range + ": " + birth,
+					birth >= from && birth < to );
+		}
+	}
+
+	@Test
+	public void testOracle()
+	{
+		final Random rnd = new Random( 1234L );
+		final PseudoRandom rng = RandomStreams.Counter.of( "index", 5678L ),
+				oracleRng = RandomStreams.Counter.of( "oracle", 5678L );
+		final BirthIndex<Integer> index = new BirthIndex<>();
+		final String[] regions = { "GM0344", "GM0363", "GM0599" };
+		for( int i = 0; i < 5000; i++ )
+		{
+			final Integer key = rnd.nextInt( 300 );
+			final double op = rnd.nextDouble();
+			if( op < .7 )
+				// (re)index, often at tied (integer) births
+				put( index, key, regions[rnd.nextInt( 2 )],
+						rnd.nextBoolean() ? rnd.nextInt( 100 )
+								: rnd.nextDouble() * 100 );
+			else
+				remove( index, key );
+
+			assertEquals( "size", this.regions.size(), index.size() );
+			assertEquals( "contains " + key, this.regions.containsKey( key ),
+					index.containsKey( key ) );
+			final double from = rnd.nextInt( 110 ) - 5,
+					to = from + rnd.nextInt( 20 ) - 2;
+			for( String region : regions )
+				assertRange( index, region, from, to, rng, oracleRng );
+		}
+		LOG.trace( "sizes: {}", this.oracle.entrySet().stream()
+				.map( e -> e.getKey() + "=" + e.getValue().size() )
+				.toArray() );
+	}
+
+	@Test
+	public void testDeviation()
+	{
+		final PseudoRandom rng = RandomStreams.Counter.of( "index", 1L );
+		final BirthIndex<Integer> index = new BirthIndex<>();
+		assertNull( "empty region", index.draw( "GM0363", 0, 10, rng ) );
+		assertEquals( "empty count", 0, index.count( "GM0363", 0, 10 ) );
+		index.put( 1, "GM0363", 10 );
+		index.put( 2, "GM0363", 20 );
+		index.put( 3, "GM0363", 30 );
+
+		// the half-open range [from, to) excludes births at to
+		assertEquals( "[10, 20)", 1, index.count( "GM0363", 10, 20 ) );
+		assertEquals( "[10, 20) draw", 1,
+				(int) index.draw( "GM0363", 10, 20, rng ) );
+		assertEquals( "[10, 30)", 2, index.count( "GM0363", 10, 30 ) );
+		assertEquals( "inverse range", 0, index.count( "GM0363", 30, 10 ) );
+
+		// empty ranges deviate to the nearest birth, below on ties
+		assertEquals( "before all", 1, (int) index.draw( "GM0363", 0, 5, rng ) );
+		assertEquals( "after all", 3, (int) index.draw( "GM0363", 31, 40, rng ) );
+		assertEquals( "nearer below", 1,
+				(int) index.draw( "GM0363", 11, 16, rng ) );
+		assertEquals( "nearer above", 2,
+				(int) index.draw( "GM0363", 16, 19.5, rng ) );
+		assertEquals( "tie", 1, (int) index.draw( "GM0363", 15, 15, rng ) );
+		assertNull( "other region", index.draw( "GM0344", 0, 40, rng ) );
+
+		// re-index moves the key, remove empties the region
+		index.put( 2, "GM0344", 20 );
+		assertEquals( "moved from", 0, index.count( "GM0363", 20, 21 ) );
+		assertEquals( "moved to", 2,
+				(int) index.draw( "GM0344", 0, 10, rng ) );
+		assertTrue( "removed", index.remove( 2 ) );
+		assertFalse( "removed twice", index.remove( 2 ) );
+		assertFalse( "contains", index.containsKey( 2 ) );
+		assertNull( "emptied region", index.draw( "GM0344", 0, 40, rng ) );
+		assertEquals( "size", 2, index.size() );
+	}
+
+	@Test
+	public void testUniform()
+	{
+		final PseudoRandom rng = RandomStreams.Counter.of( "index", 2L );
+		final BirthIndex<Integer> index = new BirthIndex<>();
+		for( int i = 0; i < 20; i++ )
+			index.put( i, "GM0363", i );
+		final int n = 50000;
+		final int[] hits = new int[20];
+		for( int i = 0; i < n; i++ )
+			hits[index.draw( "GM0363", 5, 15, rng )]++;
+		for( int i = 0; i < hits.length; i++ )
+			if( i < 5 || i >= 15 )
+				assertEquals( "out of range " + i, 0, hits[i] );
+			else
+				assertEquals( "uniform " + i, n / 10., hits[i], n / 10. * .05 );
+	}
+}
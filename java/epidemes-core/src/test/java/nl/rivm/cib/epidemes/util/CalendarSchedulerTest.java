@@ -0,0 +1,156 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import nl.rivm.cib.epidemes.util.CalendarScheduler.EventCalendar;
+
+/**
+ * {@link CalendarSchedulerTest} tests {@link CalendarScheduler}'s
+ * {@link EventCalendar} against a {@link PriorityQueue}
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CalendarSchedulerTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( CalendarSchedulerTest.class );
+
+	/** a reference event */
+	private static class Event
+	{
+		final double t;
+
+		final long seq;
+
+		final int slot, version;
+
+		/** position in the live list */
+		int pos;
+
+		Event( final double t, final long seq, final int slot,
+			final int version )
+		{
+			this.t = t;
+			this.seq = seq;
+			this.slot = slot;
+			this.version = version;
+		}
+	}
+
+	@Test
+	public void testRandomized()
+	{
+		final long seed = 1234L;
+		final Random rnd = new Random( seed );
+		// few buckets, so far events overflow the ring
+		final EventCalendar cal = new EventCalendar( 1., 16 );
+		final PriorityQueue<Event> ref = new PriorityQueue<>( Comparator
+				.<Event>comparingDouble( e -> e.t ).thenComparingLong( e -> e.seq ) );
+		final List<Event> live = new ArrayList<>();
+		long seq = 0;
+		double now = 0;
+		int polled = 0, cancelled = 0, ties = 0, maxSize = 0;
+		// grow the pool beyond its initial capacity, drain, then regrow
+		final int[] targets = { 5000, 0, 3000, 0 };
+		for( int target : targets )
+			while( target > 0 ? live.size() < target : !live.isEmpty() )
+			{
+				final double p = rnd.nextDouble();
+				final boolean grow = target > 0 ? p < .6 : p < .3;
+				if( grow )
+				{
+					final double q = rnd.nextDouble();
+					// now (FIFO ties), whole-unit ties, near or far future
+					final double t = q < .1 ? now
+							: q < .4 ? Math.floor( now ) + 1 + rnd.nextInt( 3 )
+									: q < .9 ? now + 10 * rnd.nextDouble()
+											: now + 1000 * rnd.nextDouble();
+					final int i = cal.add( t, null, null );
+					assertEquals( "seq", seq, cal.seqs[i] );
+					final Event e = new Event( t, seq++, i, cal.versions[i] );
+					e.pos = live.size();
+					live.add( e );
+					ref.add( e );
+					maxSize = Math.max( maxSize, live.size() );
+				} else if( !live.isEmpty() && rnd.nextDouble() < .2 )
+				{
+					final Event e = live.get( rnd.nextInt( live.size() ) );
+					assertTrue( "cancel", cal.cancel( e.slot, e.version ) );
+					assertFalse( "cancel twice",
+							cal.cancel( e.slot, e.version ) );
+					assertTrue( "ref", ref.remove( e ) );
+					remove( live, e );
+					cancelled++;
+				} else
+				{
+					final int i = cal.poll();
+					final Event e = ref.poll();
+					if( e == null )
+					{
+						assertEquals( "empty", -1, i );
+						continue;
+					}
+					assertEquals( "time", e.t, cal.times[i], 0 );
+					assertEquals( "seq (FIFO)", e.seq, cal.seqs[i] );
+					assertEquals( "slot", e.slot, i );
+					if( e.t == now ) ties++;
+					now = e.t;
+					cal.release( i );
+					assertFalse( "stale cancel",
+							cal.cancel( e.slot, e.version ) );
+					remove( live, e );
+					polled++;
+				}
+				assertEquals( "size", ref.size(), cal.size );
+			}
+		assertEquals( "drained", -1, cal.poll() );
+		assertTrue( "pool grown", cal.allocated > 1024 );
+		LOG.trace( "seed {}: polled {}, cancelled {}, ties {}, max size {}",
+				seed, polled, cancelled, ties, maxSize );
+		assertTrue( "ties", ties > 0 );
+	}
+
+	private static void remove( final List<Event> live, final Event e )
+	{
+		final Event last = live.remove( live.size() - 1 );
+		if( last != e )
+		{
+			live.set( e.pos, last );
+			last.pos = e.pos;
+		}
+	}
+}
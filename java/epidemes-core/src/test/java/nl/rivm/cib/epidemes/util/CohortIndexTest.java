@@ -0,0 +1,203 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+
+/**
+ * {@link CohortIndexTest} tests {@link CohortIndex} counts and selections
+ * against a {@link TreeMap} oracle while its cohort array grows to either
+ * side, including ranges beyond the days covered
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class CohortIndexTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( CohortIndexTest.class );
+
+	/** the keys per day */
+	private final TreeMap<Long, Set<Integer>> oracle = new TreeMap<>();
+
+	private boolean add( final CohortIndex<Integer> index, final long day,
+		final Integer key )
+	{
+		final boolean result = this.oracle
+				.computeIfAbsent( day, d -> new HashSet<>() ).add( key );
+		assertEquals( "add " + key + " on " + day, result,
+				index.add( day, key ) );
+		assertTrue( "first day", index.firstDay() <= day );
+		assertTrue( "last day", index.lastDay() >= day );
+		return result;
+	}
+
+	private boolean remove( final CohortIndex<Integer> index, final long day,
+		final Integer key )
+	{
+		final Set<Integer> keys = this.oracle.get( day );
+		final boolean result = keys != null && keys.remove( key );
+		assertEquals( "remove " + key + " on " + day, result,
+				index.remove( day, key ) );
+		return result;
+	}
+
+	private void assertRange( final CohortIndex<Integer> index,
+		final long fromDay, final long toDay )
+	{
+		final String range = "[" + fromDay + ", " + toDay + "]";
+		final Map<Long, Set<Integer>> expected = fromDay > toDay
+				? Collections.emptyMap()
+				: this.oracle.subMap( fromDay, true, toDay, true );
+		final int count = expected.values().stream().mapToInt( Set::size )
+				.sum();
+		assertEquals( "count " + range, count, index.count( fromDay, toDay ) );
+		final List<Integer> selected = index.select( fromDay, toDay );
+		assertEquals( "select " + range, count, selected.size() );
+		// ordered by day, in any order within each day
+		int i = 0;
+		for( Map.Entry<Long, Set<Integer>> entry : expected.entrySet() )
+		{
+			final int n = entry.getValue().size();
+			assertEquals( "select " + range + " on " + entry.getKey(),
+					entry.getValue(),
+					new HashSet<>( selected.subList( i, i + n ) ) );
+			i += n;
+		}
+	}
+
+	private void assertAll( final CohortIndex<Integer> index )
+	{
+		final int size = this.oracle.values().stream().mapToInt( Set::size )
+				.sum();
+		assertEquals( "size", size, index.size() );
+		assertRange( index, Long.MIN_VALUE, Long.MAX_VALUE );
+		assertRange( index, index.firstDay(), index.lastDay() );
+		assertEquals( "all", size,
+				index.count( Long.MIN_VALUE, Long.MAX_VALUE ) );
+	}
+
+	@Test
+	public void testGrowth()
+	{
+		final CohortIndex<Integer> index = new CohortIndex<>();
+		assertEquals( "empty", 0,
+				index.count( Long.MIN_VALUE, Long.MAX_VALUE ) );
+		assertTrue( "empty", index.select( 0, 100 ).isEmpty() );
+
+		add( index, 1000, 1 );
+		final long first = index.firstDay(), last = index.lastDay();
+		assertEquals( "first", 1000, first );
+
+		// prepend a little: shift by half the cohorts at least
+		add( index, 990, 2 );
+		assertTrue( "shifted", index.firstDay() < 990 );
+		assertEquals( "kept last", last, index.lastDay() );
+		// prepend beyond the shift
+		add( index, 500, 3 );
+		assertEquals( "first", 500, index.firstDay() );
+		// append a little and beyond the growth
+		add( index, index.lastDay() + 1, 4 );
+		add( index, 5000, 5 );
+		assertEquals( "last", 5000, index.lastDay() );
+		assertFalse( "duplicate", add( index, 990, 2 ) );
+		add( index, 990, 6 );
+		assertAll( index );
+
+		// open and out-of-bounds ranges clamp to the days covered
+		assertRange( index, Long.MIN_VALUE, 990 );
+		assertRange( index, 990, Long.MAX_VALUE );
+		assertRange( index, Long.MIN_VALUE, 499 );
+		assertRange( index, 5001, Long.MAX_VALUE );
+		assertRange( index, 0, 499 );
+		assertRange( index, 6000, 7000 );
+		assertRange( index, 1000, 990 );
+		assertEquals( "cohort", new HashSet<>( Arrays.asList( 2, 6 ) ),
+				new HashSet<>( index.select( 990, 990 ) ) );
+
+		// remove after growth, also from days never covered
+		assertTrue( remove( index, 1000, 1 ) );
+		assertTrue( remove( index, 500, 3 ) );
+		assertFalse( remove( index, 500, 3 ) );
+		assertFalse( remove( index, 990, 3 ) );
+		assertFalse( remove( index, 100, 2 ) );
+		assertFalse( remove( index, 9000, 2 ) );
+		assertFalse( remove( index, Long.MIN_VALUE, 2 ) );
+		assertAll( index );
+		assertEquals( "emptied", Collections.emptyList(),
+				index.select( 500, 500 ) );
+	}
+
+	@Test
+	public void testOracle()
+	{
+		final Random rnd = new Random( 1234L );
+		final CohortIndex<Integer> index = new CohortIndex<>();
+		final List<long[]> added = new ArrayList<>();
+		for( int i = 0; i < 5000; i++ )
+		{
+			// drift both ways to grow either side
+			final long day = rnd.nextInt( 200 ) - 100 + i / 5 * (i % 2 * 2 - 1);
+			if( rnd.nextDouble() < .6 || added.isEmpty() )
+			{
+				final Integer key = rnd.nextInt( 1000 );
+				if( add( index, day, key ) )
+					added.add( new long[] { day, key } );
+			} else
+			{
+				final long[] entry = added
+						.remove( rnd.nextInt( added.size() ) );
+				assertTrue( "remove",
+						remove( index, entry[0], (int) entry[1] ) );
+				// mostly absent keys, or ones added on other days
+				final int key = rnd.nextInt( 1000 );
+				if( remove( index, day, key ) ) added
+						.removeIf( e -> e[0] == day && e[1] == key );
+			}
+			final long from = index.firstDay() - 10
+					+ rnd.nextInt( (int) (index.lastDay() - index.firstDay()
+							+ 20) ),
+					to = from + rnd.nextInt( 100 ) - 5;
+			assertRange( index, from, to );
+			if( i % 100 == 0 ) assertAll( index );
+		}
+		LOG.trace( "days {}..{}: {} keys", index.firstDay(), index.lastDay(),
+				index.size() );
+	}
+}
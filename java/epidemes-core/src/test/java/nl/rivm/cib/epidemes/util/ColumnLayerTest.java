@@ -0,0 +1,291 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import io.coala.data.Table;
+import nl.rivm.cib.epidemes.demo.entity.Persons;
+import nl.rivm.cib.epidemes.demo.entity.Persons.PersonTuple;
+import nl.rivm.cib.epidemes.model.MSEIRS.Compartment;
+
+/**
+ * {@link ColumnLayerTest} tests {@link ColumnLayer} on the {@link Persons}
+ * columns
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class ColumnLayerTest
+{
+
+	private static PersonTuple insert( final Table<PersonTuple> persons,
+		final long seq, final String region, final Compartment sir )
+	{
+		return persons.insertValues( map -> map
+				.set( Persons.PersonSeq.class, seq )
+				.set( Persons.HomeRegionRef.class, region )
+				.set( Persons.PathogenCompartment.class, sir ) );
+	}
+
+	@Test
+	public void testInsertUpdateDelete()
+	{
+		final ColumnLayer layer = new ColumnLayer( Persons.PROPERTIES, 16 );
+		final Table<PersonTuple> persons = layer.getTable( PersonTuple.class );
+		final PersonTuple pp = persons.insertValues( map -> map
+				.set( Persons.PersonSeq.class, 7L )
+				.set( Persons.Male.class, true )
+				.set( Persons.Birth.class, new BigDecimal( "-12.50" ) )
+				.set( Persons.PathogenResistance.class, .25 )
+				.set( Persons.VaxCompliance.class, 3 )
+				.set( Persons.HomeRegionRef.class, "GM0363" )
+				.set( Persons.HouseholdRank.class,
+						Persons.HouseholdPosition.PARTNER ) );
+		assertEquals( "size", 1, persons.size() );
+		assertEquals( "first row", 0L, pp.key() );
+
+		// read back, boxed and primitive
+		final PersonTuple read = persons.select( pp.key() );
+		assertEquals( "seq", 7L, (long) read.get( Persons.PersonSeq.class ) );
+		assertEquals( "seq", 7L, read.getAsLong( Persons.PersonSeq.class ) );
+		assertTrue( "male", read.getAsBoolean( Persons.Male.class ) );
+		assertEquals( "birth, incl. scale", new BigDecimal( "-12.50" ),
+				read.get( Persons.Birth.class ) );
+		assertEquals( "birth", -12.5, read.birth(), 0 );
+		assertEquals( "resistance", .25,
+				read.getAsDouble( Persons.PathogenResistance.class ), 0 );
+		assertEquals( "compliance", 3,
+				read.getAsInt( Persons.VaxCompliance.class ) );
+		assertEquals( "region", "GM0363",
+				read.get( Persons.HomeRegionRef.class ) );
+		assertSame( "rank", Persons.HouseholdPosition.PARTNER,
+				read.get( Persons.HouseholdRank.class ) );
+		// unset values default to zero/false, or null for enums and refs
+		assertNull( "no compartment",
+				read.get( Persons.PathogenCompartment.class ) );
+		assertNull( "no household", read.get( Persons.HouseholdRef.class ) );
+
+		// update
+		read.set( Persons.PathogenCompartment.class, Compartment.INFECTIVE );
+		read.set( Persons.HomeRegionRef.class, "GM0599" );
+		read.set( Persons.Male.class, false );
+		assertSame( "updated", Compartment.INFECTIVE, persons
+				.selectValue( pp.key(), Persons.PathogenCompartment.class ) );
+		assertEquals( "updated", "GM0599", persons.selectValue( pp.key(),
+				Persons.HomeRegionRef.class ) );
+		assertFalse( "updated",
+				persons.select( pp.key() ).getAsBoolean( Persons.Male.class ) );
+
+		// delete, then recycle the lowest free row with cleared values
+		final PersonTuple pp2 = insert( persons, 8L, "GM0344",
+				Compartment.SUSCEPTIBLE );
+		assertEquals( "next row", 1L, pp2.key() );
+		assertTrue( "delete", persons.delete( pp.key() ) );
+		assertFalse( "delete twice", persons.delete( pp.key() ) );
+		assertNull( "deleted", persons.select( pp.key() ) );
+		assertFalse( "deleted", layer.contains( pp.key() ) );
+		assertEquals( "size", 1, persons.size() );
+		final PersonTuple pp3 = persons.insert();
+		assertEquals( "recycled", 0L, pp3.key() );
+		assertEquals( "cleared", 0L, pp3.getAsLong( Persons.PersonSeq.class ) );
+		assertNull( "cleared", pp3.get( Persons.HomeRegionRef.class ) );
+		assertEquals( "cleared", BigDecimal.ZERO,
+				pp3.get( Persons.Birth.class ) );
+		assertEquals( "rows", 2L, layer.rows().count() );
+	}
+
+	@Test
+	public void testChanges()
+	{
+		final ColumnLayer layer = new ColumnLayer( Persons.PROPERTIES, 16 );
+		final Table<PersonTuple> persons = layer.getTable( PersonTuple.class );
+		final List<Object> created = new ArrayList<>(),
+				deleted = new ArrayList<>();
+		final List<Object[]> updated = new ArrayList<>();
+		persons.onCreate( pp -> created.add( pp.key() ), e -> fail( e ) );
+		persons.onDelete( pp ->
+		{
+			// deleted tuples are still readable on notification
+			assertEquals( "seq before delete", 2L,
+					(long) pp.get( Persons.PersonSeq.class ) );
+			deleted.add( pp.key() );
+		}, e -> fail( e ) );
+		persons.onUpdate( Persons.PathogenCompartment.class,
+				( key, oldSIR, newSIR ) -> updated
+						.add( new Object[] { key, oldSIR, newSIR } ),
+				e -> fail( e ) );
+
+		final PersonTuple pp1 = insert( persons, 1L, "GM0363",
+				Compartment.SUSCEPTIBLE );
+		final PersonTuple pp2 = insert( persons, 2L, "GM0363",
+				Compartment.SUSCEPTIBLE );
+		assertEquals( "created", 2, created.size() );
+		assertEquals( "created", pp2.key(), created.get( 1 ) );
+
+		persons.select( pp1.key() ).updateAndGet(
+				Persons.PathogenCompartment.class,
+				sir -> Compartment.INFECTIVE );
+		assertEquals( "updated", 1, updated.size() );
+		assertEquals( "key", pp1.key(), updated.get( 0 )[0] );
+		assertSame( "old", Compartment.SUSCEPTIBLE, updated.get( 0 )[1] );
+		assertSame( "new", Compartment.INFECTIVE, updated.get( 0 )[2] );
+		// unchanged values emit nothing
+		persons.select( pp1.key() ).updateAndGet(
+				Persons.PathogenCompartment.class, sir -> sir );
+		assertEquals( "unchanged", 1, updated.size() );
+
+		persons.delete( pp2.key() );
+		assertEquals( "deleted", 1, deleted.size() );
+		assertEquals( "deleted", pp2.key(), deleted.get( 0 ) );
+		// changes of all tables combined
+		final List<Table.Change> all = new ArrayList<>();
+		layer.changes().subscribe( all::add, e -> fail( e ) );
+		insert( persons, 3L, "GM0363", Compartment.RECOVERED );
+		assertEquals( "layer changes", 1, all.size() );
+		assertEquals( "layer changes", Table.Operation.CREATE,
+				all.get( 0 ).crud() );
+	}
+
+	@Test
+	public void testGrow()
+	{
+		final ColumnLayer layer = new ColumnLayer( Persons.PROPERTIES, 16 );
+		final Table<PersonTuple> persons = layer.getTable( PersonTuple.class );
+		final int n = 1000;
+		for( int i = 0; i < n; i++ )
+			persons.insertValues( map -> map
+					.set( Persons.PersonSeq.class, (long) persons.size() )
+					.set( Persons.Birth.class,
+							BigDecimal.valueOf( -.5 * persons.size() ) )
+					.set( Persons.Male.class, persons.size() % 2 == 0 )
+					.set( Persons.PathogenCompartment.class,
+							Compartment.values()[persons.size()
+									% Compartment.values().length] ) );
+		assertEquals( "size", n, persons.size() );
+		for( int i = 0; i < n; i++ )
+		{
+			final PersonTuple pp = persons.select( (long) i );
+			assertEquals( "seq", i, pp.getAsLong( Persons.PersonSeq.class ) );
+			assertEquals( "birth", -.5 * i, pp.birth(), 0 );
+			assertEquals( "male", i % 2 == 0,
+					pp.getAsBoolean( Persons.Male.class ) );
+			assertSame( "sir",
+					Compartment.values()[i % Compartment.values().length],
+					pp.get( Persons.PathogenCompartment.class ) );
+		}
+		persons.clear();
+		assertEquals( "cleared", 0, persons.size() );
+		assertEquals( "restart", 0L, persons.insert().key() );
+	}
+
+	@Test
+	public void testTally()
+	{
+		final ColumnLayer layer = new ColumnLayer( Persons.PROPERTIES, 16 );
+		final Table<PersonTuple> persons = layer.getTable( PersonTuple.class );
+		insert( persons, 0L, "GM0363", Compartment.INFECTIVE );
+		final ColumnLayer.Tally<Compartment> tally = layer.tally(
+				Persons.HomeRegionRef.class,
+				Persons.PathogenCompartment.class );
+		assertTally( layer, tally ); // counts existing rows
+
+		final String[] regions = { "GM0363", "GM0599", "GM0344", null };
+		final Compartment[] sirs = { Compartment.SUSCEPTIBLE,
+				Compartment.INFECTIVE, Compartment.RECOVERED, null };
+		final Random rnd = new Random( 1234L );
+		final List<Object> keys = new ArrayList<>();
+		for( int i = 0; i < 2000; i++ )
+		{
+			final String region = regions[rnd.nextInt( regions.length )];
+			final Compartment sir = sirs[rnd.nextInt( sirs.length )];
+			final int op = keys.isEmpty() ? 0 : rnd.nextInt( 5 );
+			final Object key = keys.isEmpty() ? null
+					: keys.get( rnd.nextInt( keys.size() ) );
+			if( op == 0 )
+				keys.add( insert( persons, i, region, sir ).key() );
+			else if( op == 1 )
+				persons.select( key ).set( Persons.HomeRegionRef.class,
+						region );
+			else if( op == 2 )
+				persons.select( key ).set( Persons.PathogenCompartment.class,
+						sir );
+			else if( op == 3 )
+				persons.select( key ).updateAndGet(
+						Persons.PathogenCompartment.class, old -> sir );
+			else
+			{
+				persons.delete( key );
+				keys.remove( key );
+			}
+			if( i % 100 == 0 ) assertTally( layer, tally );
+		}
+		assertTally( layer, tally );
+		persons.clear();
+		assertTrue( "cleared", tally.snapshot().isEmpty() );
+		insert( persons, 0L, "GM0363", Compartment.RECOVERED );
+		assertTally( layer, tally );
+	}
+
+	private static void assertTally( final ColumnLayer layer,
+		final ColumnLayer.Tally<Compartment> tally )
+	{
+		final Map<String, EnumMap<Compartment, Long>> scan = new HashMap<>();
+		layer.rows().forEach( row ->
+		{
+			final Object region = layer.get( row,
+					Persons.HomeRegionRef.class );
+			final Compartment sir = layer.get( row,
+					Persons.PathogenCompartment.class );
+			if( region != null && sir != null )
+				scan.computeIfAbsent( String.valueOf( region ),
+						k -> new EnumMap<>( Compartment.class ) )
+						.merge( sir, 1L, Long::sum );
+		} );
+		assertEquals( "snapshot", scan, tally.snapshot() );
+		for( String region : new String[] { "GM0363", "GM0599", "GM0344" } )
+			for( Compartment sir : Compartment.values() )
+				assertEquals( region + " " + sir,
+						scan.containsKey( region )
+								? (long) scan.get( region ).getOrDefault( sir,
+										0L )
+								: 0L,
+						tally.get( region, sir ) );
+	}
+
+	private static void fail( final Throwable e )
+	{
+		throw new AssertionError( e );
+	}
+}
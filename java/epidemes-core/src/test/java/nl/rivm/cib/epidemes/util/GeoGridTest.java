@@ -0,0 +1,179 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+
+/**
+ * {@link GeoGridTest} tests {@link GeoGrid}'s ring search and radius queries
+ * against a brute-force scan
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class GeoGridTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil.getLogger( GeoGridTest.class );
+
+	/** random points: the Netherlands, or high (northern) latitudes */
+	private static double[] randomPoint( final Random rnd )
+	{
+		return rnd.nextBoolean()
+				? new double[]
+				{ 50.7 + 2.9 * rnd.nextDouble(), 3.3 + 4 * rnd.nextDouble() }
+				: new double[]
+				{ 80 + 9.99 * rnd.nextDouble(), -20 + 60 * rnd.nextDouble() };
+	}
+
+	private static Entry<Integer, Double> bruteNearest(
+		final Map<Integer, double[]> points, final double lat,
+		final double lon, final double maxKm,
+		final Predicate<Integer> filter )
+	{
+		Entry<Integer, Double> best = null;
+		for( Entry<Integer, double[]> p : points.entrySet() )
+		{
+			final double km = GeoGrid.distanceKm( lat, lon, p.getValue()[0],
+					p.getValue()[1] );
+			if( km <= maxKm && filter.test( p.getKey() )
+					&& (best == null || km < best.getValue()) )
+				best = new java.util.AbstractMap.SimpleImmutableEntry<>(
+						p.getKey(), km );
+		}
+		return best;
+	}
+
+	private static void assertQueries( final GeoGrid<Integer> grid,
+		final Map<Integer, double[]> points, final Random rnd, final int n )
+	{
+		final double[] maxKms = { 5, 50, 500, Double.POSITIVE_INFINITY };
+		final Predicate<Integer> all = key -> true,
+				some = key -> key % 3 != 0;
+		int found = 0;
+		for( int q = 0; q < n; q++ )
+		{
+			final double[] xy = randomPoint( rnd );
+			final double maxKm = maxKms[q % maxKms.length];
+			for( Predicate<Integer> filter : new Predicate[] { all, some } )
+			{
+				final Entry<Integer, Double> expected = bruteNearest( points,
+						xy[0], xy[1], maxKm, filter ),
+						actual = grid.nearest( xy[0], xy[1], maxKm, filter );
+				if( expected == null )
+				{
+					assertNull( "none within " + maxKm, actual );
+					continue;
+				}
+				assertTrue( "nearest within " + maxKm, actual != null );
+				assertTrue( "filtered", filter.test( actual.getKey() ) );
+				// keys may differ on ties, distances may not
+				assertEquals( "nearest km", expected.getValue(),
+						actual.getValue(), 1e-9 );
+				found++;
+			}
+
+			final double radiusKm = maxKms[q % 3];
+			final Map<Integer, Double> within = grid
+					.within( xy[0], xy[1], radiusKm )
+					.collect( Collectors.toMap( Entry::getKey,
+							Entry::getValue ) );
+			final Map<Integer, Double> scan = new TreeMap<>();
+			points.forEach( ( key, p ) ->
+			{
+				final double km = GeoGrid.distanceKm( xy[0], xy[1], p[0],
+						p[1] );
+				if( km <= radiusKm ) scan.put( key, km );
+			} );
+			assertEquals( "within " + radiusKm, scan, new TreeMap<>( within ) );
+		}
+		assertTrue( "found any", found > 0 );
+	}
+
+	@Test
+	public void testBruteForce()
+	{
+		final long seed = 1234L;
+		final Random rnd = new Random( seed );
+		final GeoGrid<Integer> grid = new GeoGrid<>( 10 );
+		final Map<Integer, double[]> points = new TreeMap<>();
+		for( int i = 0; i < 2000; i++ )
+		{
+			final double[] xy = randomPoint( rnd );
+			points.put( i, xy );
+			grid.put( i, xy[0], xy[1] );
+		}
+		// move and remove some
+		for( int i = 0; i < 200; i++ )
+		{
+			final double[] xy = randomPoint( rnd );
+			points.put( i, xy );
+			grid.put( i, xy[0], xy[1] );
+		}
+		for( int i = 200; i < 400; i++ )
+		{
+			points.remove( i );
+			assertTrue( "removed", grid.remove( i ) );
+		}
+		assertEquals( "size", points.size(), grid.size() );
+		assertQueries( grid, points, rnd, 200 );
+		LOG.trace( "seed {}: {}", seed, grid );
+	}
+
+	@Test
+	public void testClear()
+	{
+		final Random rnd = new Random( 4321L );
+		final GeoGrid<Integer> grid = new GeoGrid<>( 10 );
+		grid.put( -1, -60, -170 );
+		grid.put( -2, 70, 170 );
+		grid.clear();
+		assertTrue( "cleared", grid.isEmpty() );
+		assertNull( "none", grid.nearest( 52, 5, Double.POSITIVE_INFINITY,
+				key -> true ) );
+		assertFalse( "none", grid.within( 52, 5, 1000 ).findAny().isPresent() );
+
+		// reuse
+		final Map<Integer, double[]> points = new TreeMap<>();
+		for( int i = 0; i < 500; i++ )
+		{
+			final double[] xy = randomPoint( rnd );
+			points.put( i, xy );
+			grid.put( i, xy[0], xy[1] );
+		}
+		assertQueries( grid, points, rnd, 100 );
+	}
+}
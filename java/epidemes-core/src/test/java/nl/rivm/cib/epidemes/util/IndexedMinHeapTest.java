@@ -0,0 +1,150 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+
+/**
+ * {@link IndexedMinHeapTest} tests {@link IndexedMinHeap} against a
+ * {@link HashMap} of priorities
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class IndexedMinHeapTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( IndexedMinHeapTest.class );
+
+	@Test( expected = NoSuchElementException.class )
+	public void testEmpty()
+	{
+		final IndexedMinHeap<String> heap = new IndexedMinHeap<>();
+		assertTrue( "empty", heap.isEmpty() );
+		assertNull( "no key", heap.peekKey() );
+		assertNull( "no poll", heap.poll() );
+		assertFalse( "no remove", heap.remove( "a" ) );
+		assertEquals( "default", -1, heap.get( "a", -1 ), 0 );
+		heap.peekValue();
+	}
+
+	@Test
+	public void testPutUpdateRemove()
+	{
+		final IndexedMinHeap<String> heap = new IndexedMinHeap<>( 1 );
+		heap.put( "c", 3 );
+		heap.put( "a", 1 );
+		heap.put( "b", 2 );
+		assertEquals( "size", 3, heap.size() );
+		assertEquals( "min", "a", heap.peekKey() );
+		assertEquals( "min value", 1, heap.peekValue(), 0 );
+
+		// update: increase the minimum, decrease another
+		heap.put( "a", 4 );
+		assertEquals( "sifted down", "b", heap.peekKey() );
+		heap.put( "c", 0 );
+		assertEquals( "sifted up", "c", heap.peekKey() );
+		assertEquals( "updated, not added", 3, heap.size() );
+		assertEquals( "get", 4, heap.get( "a", -1 ), 0 );
+
+		// remove the minimum and an inner entry
+		assertTrue( "remove min", heap.remove( "c" ) );
+		assertFalse( "remove twice", heap.remove( "c" ) );
+		assertFalse( "contains", heap.containsKey( "c" ) );
+		assertEquals( "next min", "b", heap.peekKey() );
+		assertTrue( "remove last", heap.remove( "a" ) );
+		assertEquals( "poll", "b", heap.poll() );
+		assertTrue( "drained", heap.isEmpty() );
+	}
+
+	@Test
+	public void testRandomized()
+	{
+		final long seed = 1234L;
+		final Random rnd = new Random( seed );
+		final IndexedMinHeap<Integer> heap = new IndexedMinHeap<>( 4 );
+		final Map<Integer, Double> ref = new HashMap<>();
+		int puts = 0, updates = 0, removals = 0;
+		for( int op = 0; op < 20000; op++ )
+		{
+			final Integer key = rnd.nextInt( 500 );
+			final double p = rnd.nextDouble();
+			if( p < .6 )
+			{
+				// few distinct values, so ties occur
+				final double value = rnd.nextInt( 100 ) / 4.;
+				if( ref.put( key, value ) == null )
+					puts++;
+				else
+					updates++;
+				heap.put( key, value );
+			} else if( p < .9 )
+			{
+				assertEquals( "remove " + key, ref.remove( key ) != null,
+						heap.remove( key ) );
+				removals++;
+			} else if( !ref.isEmpty() )
+			{
+				final Integer min = heap.poll();
+				final double value = ref.remove( min );
+				for( double v : ref.values() )
+					assertTrue( "min", value <= v );
+			}
+			assertEquals( "size", ref.size(), heap.size() );
+			if( !ref.isEmpty() ) assertEquals( "peek",
+					ref.get( heap.peekKey() ), heap.peekValue(), 0 );
+			assertEquals( "get", ref.getOrDefault( key, Double.NaN ),
+					heap.get( key, Double.NaN ), 0 );
+		}
+		LOG.trace( "seed {}: puts {}, updates {}, removals {}", seed, puts,
+				updates, removals );
+
+		// removeIf keeps the survivors in heap order
+		heap.removeIf( key -> key % 3 == 0 );
+		ref.keySet().removeIf( key -> key % 3 == 0 );
+		final List<Double> polled = new ArrayList<>();
+		while( !heap.isEmpty() )
+		{
+			final double value = heap.peekValue();
+			assertEquals( "value", ref.remove( heap.poll() ), value, 0 );
+			polled.add( value );
+		}
+		assertTrue( "all polled", ref.isEmpty() );
+		for( int i = 1; i < polled.size(); i++ )
+			assertTrue( "ordered", polled.get( i - 1 ) <= polled.get( i ) );
+	}
+}
@@ -0,0 +1,192 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+
+/**
+ * {@link MemberSetTest} tests the {@link MemberSet} positions after
+ * swap-removals against a {@link HashSet}, its set-like deviations from the
+ * {@link List} contract, and the invalidation of its shared
+ * {@link MemberSet#snapshot()}
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class MemberSetTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil.getLogger( MemberSetTest.class );
+
+	private static void assertConsistent( final Set<Integer> expected,
+		final MemberSet<Integer> members )
+	{
+		assertEquals( "size", expected.size(), members.size() );
+		assertEquals( "members", expected, new HashSet<>( members ) );
+		for( int i = 0; i < members.size(); i++ )
+		{
+			final Integer key = members.get( i );
+			assertEquals( "index of " + key, i, members.indexOf( key ) );
+			assertEquals( "last index of " + key, i,
+					members.lastIndexOf( key ) );
+			assertTrue( "contains " + key, members.contains( key ) );
+		}
+	}
+
+	@Test
+	public void testSwapRemove()
+	{
+		final Random rnd = new Random( 1234L );
+		final Set<Integer> expected = new HashSet<>();
+		final MemberSet<Integer> members = new MemberSet<>( 1 );
+		for( int i = 0; i < 20000; i++ )
+		{
+			final Integer key = rnd.nextInt( 200 );
+			final double op = rnd.nextDouble();
+			if( op < .5 )
+				assertEquals( "add " + key, expected.add( key ),
+						members.add( key ) );
+			else if( op < .9 )
+				assertEquals( "remove " + key, expected.remove( key ),
+						members.remove( key ) );
+			else if( !members.isEmpty() )
+			{
+				final int j = rnd.nextInt( members.size() );
+				final Integer last = members.get( members.size() - 1 );
+				final Integer removed = members.remove( j );
+				assertTrue( "remove at " + j, expected.remove( removed ) );
+				// the last member moves into the emptied position
+				if( j < members.size() )
+					assertEquals( "swapped", last, members.get( j ) );
+			}
+			if( i % 1000 == 999 && rnd.nextBoolean() )
+			{
+				members.clear();
+				expected.clear();
+			}
+			if( !expected.contains( key ) )
+				assertEquals( "no index of " + key, -1,
+						members.indexOf( key ) );
+			assertConsistent( expected, members );
+		}
+		LOG.trace( "final size: {}", members.size() );
+	}
+
+	@Test
+	public void testSetDeviations()
+	{
+		final MemberSet<Integer> members = new MemberSet<>(
+				Arrays.asList( 1, 2, 3, 2, 1 ) );
+		assertEquals( "distinct", Arrays.asList( 1, 2, 3 ), members );
+		assertFalse( "duplicate", members.add( 2 ) );
+		assertEquals( "skipped", 3, members.size() );
+		assertFalse( "absent", members.remove( (Object) 4 ) );
+		try
+		{
+			members.add( 0, 4 );
+			fail( "positional insertion" );
+		} catch( final UnsupportedOperationException e )
+		{
+			// expected
+		}
+		try
+		{
+			members.set( 0, 4 );
+			fail( "positional replacement" );
+		} catch( final UnsupportedOperationException e )
+		{
+			// expected
+		}
+		try
+		{
+			members.get( 3 );
+			fail( "out of bounds" );
+		} catch( final IndexOutOfBoundsException e )
+		{
+			// expected
+		}
+		try
+		{
+			for( Iterator<Integer> it = members.iterator(); it.hasNext(); )
+				if( it.next() == 1 ) members.add( 4 );
+			fail( "concurrent modification" );
+		} catch( final ConcurrentModificationException e )
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testSnapshot()
+	{
+		final MemberSet<Integer> members = new MemberSet<>(
+				Arrays.asList( 1, 2, 3 ) );
+		final List<Integer> snapshot = members.snapshot();
+		assertEquals( "copy", members, snapshot );
+		assertSame( "shared while unchanged", snapshot, members.snapshot() );
+		try
+		{
+			snapshot.add( 4 );
+			fail( "immutable" );
+		} catch( final UnsupportedOperationException e )
+		{
+			// expected
+		}
+
+		// no-op changes keep the snapshot
+		assertFalse( members.add( 3 ) );
+		assertFalse( members.remove( (Object) 4 ) );
+		assertSame( "kept", snapshot, members.snapshot() );
+
+		// changes invalidate it, leaving earlier copies intact
+		members.remove( (Object) 1 );
+		final List<Integer> removed = members.snapshot();
+		assertNotSame( "after remove", snapshot, removed );
+		assertEquals( "removed", Arrays.asList( 3, 2 ), removed );
+		assertEquals( "intact", Arrays.asList( 1, 2, 3 ), snapshot );
+		members.add( 5 );
+		assertNotSame( "after add", removed, members.snapshot() );
+		assertEquals( "added", Arrays.asList( 3, 2, 5 ), members.snapshot() );
+		final List<Integer> added = members.snapshot();
+		members.clear();
+		assertNotSame( "after clear", added, members.snapshot() );
+		assertTrue( "cleared", members.snapshot().isEmpty() );
+		assertEquals( "intact", Arrays.asList( 3, 2, 5 ), added );
+	}
+}
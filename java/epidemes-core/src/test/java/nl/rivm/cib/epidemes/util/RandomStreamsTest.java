@@ -0,0 +1,172 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import io.coala.math3.Math3ProbabilityDistribution;
+import io.coala.random.PseudoRandom;
+
+/**
+ * {@link RandomStreamsTest} tests that {@link RandomStreams} splits depend on
+ * their root seed and key path only, and continue deterministically once
+ * {@link RandomStreams#rekey(long) rekeyed}
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class RandomStreamsTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( RandomStreamsTest.class );
+
+	private static RandomStreams root( final long seed )
+	{
+		return RandomStreams.of( RandomStreams.Counter.of( "root", seed ) );
+	}
+
+	private static long[] draws( final RandomStreams streams, final int n )
+	{
+		final PseudoRandom rng = streams.getStream();
+		final long[] result = new long[n];
+		for( int i = 0; i < n; i++ )
+			result[i] = rng.nextLong();
+		return result;
+	}
+
+	private static boolean diverge( final long[] a, final long[] b )
+	{
+		for( int i = 0; i < a.length; i++ )
+			if( a[i] == b[i] ) return false;
+		return true;
+	}
+
+	@Test
+	public void testSplit()
+	{
+		final long seed = 1234L;
+		final RandomStreams root = root( seed );
+		final long[] expected = draws( root.split( "health", "site", 7 ), 100 );
+
+		// same key path, same sequence, whatever was split or drawn before
+		final RandomStreams other = root( seed );
+		draws( other.split( "health", "recovery" ), 1000 );
+		draws( other, 1000 );
+		assertArrayEquals( "same key", expected,
+				draws( other.split( "health", "site", 7 ), 100 ) );
+		assertArrayEquals( "nested key", expected,
+				draws( other.split( "health" ).split( "site", 7 ), 100 ) );
+		// without drawing from the root stream
+		assertEquals( "root untouched", 1000,
+				((RandomStreams.Counter) other.getStream()).position() );
+		// also via a plain factory of an equally seeded root stream
+		assertArrayEquals( "plain factory", expected,
+				draws( RandomStreams.split(
+						Math3ProbabilityDistribution.Factory.of(
+								RandomStreams.Counter.of( "root", seed ) ),
+						"health", "site", 7 ), 100 ) );
+
+		// other keys, key orders or root seeds diverge
+		for( RandomStreams diverging : new RandomStreams[] {
+				root.split( "health", "site", 8 ),
+				root.split( "site", "health", 7 ),
+				root.split( "health", "site" ),
+				root( seed + 1 ).split( "health", "site", 7 ) } )
+			assertTrue( "diverging " + diverging.getStream().id(),
+					diverge( expected, draws( diverging, 100 ) ) );
+		LOG.trace( "seed {}: {}...", seed,
+				Arrays.toString( Arrays.copyOf( expected, 3 ) ) );
+	}
+
+	@Test
+	public void testRekey()
+	{
+		final long seed = 1234L, continuation = 5678L;
+		final RandomStreams root = root( seed );
+		final RandomStreams before = root.split( "persons", "emigration" );
+		final long[] beforeDraws = draws( before, 50 );
+		final long key = root.key();
+
+		root.rekey( continuation );
+		assertFalse( "new key", key == root.key() );
+		final long[] rekeyed = draws( root.split( "persons", "emigration" ),
+				100 );
+		assertTrue( "rekeyed splits diverge", diverge( rekeyed,
+				draws( root( seed ).split( "persons", "emigration" ),
+						100 ) ) );
+		// equally seeded and rekeyed streams continue alike
+		assertArrayEquals( "deterministic", rekeyed,
+				draws( root( seed ).rekey( continuation )
+						.split( "persons", "emigration" ), 100 ) );
+		assertTrue( "other continuation", diverge( rekeyed,
+				draws( root( seed ).rekey( continuation + 1 )
+						.split( "persons", "emigration" ), 100 ) ) );
+		assertTrue( "rekeyed twice", diverge( rekeyed,
+				draws( root( seed ).rekey( continuation ).rekey( continuation )
+						.split( "persons", "emigration" ), 100 ) ) );
+
+		// earlier splits keep their sequence
+		final long[] after = draws( before, 50 ),
+				fresh = draws( root( seed ).split( "persons", "emigration" ),
+						100 );
+		assertArrayEquals( "unaffected", fresh, concat( beforeDraws, after ) );
+	}
+
+	@Test
+	public void testCounter()
+	{
+		final RandomStreams.Counter rng = RandomStreams.Counter.of( "c", 42L );
+		final long[] expected = new long[20];
+		for( int i = 0; i < expected.length; i++ )
+			expected[i] = rng.nextLong();
+		assertEquals( "position", expected.length, rng.position() );
+
+		rng.setSeed( 42L );
+		assertEquals( "reset", 0, rng.position() );
+		rng.jump( 10 );
+		for( int i = 10; i < expected.length; i++ )
+			assertEquals( "jumped draw " + i, expected[i], rng.nextLong() );
+
+		rng.setSeed( 42L );
+		for( int i = 0; i < 1000; i++ )
+		{
+			final double x = rng.nextDouble();
+			assertFalse( "unit interval: " + x, x < 0 || x >= 1 );
+		}
+	}
+
+	private static long[] concat( final long[] a, final long[] b )
+	{
+		final long[] result = Arrays.copyOf( a, a.length + b.length );
+		System.arraycopy( b, 0, result, a.length, b.length );
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.epidemes.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+
+/**
+ * {@link SeriesSinkTest} tests the {@link SeriesSink.Binary} round-trip and
+ * the {@link SeriesSink.Async} failure handling
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class SeriesSinkTest
+{
+
+	/** */
+	private static final Logger LOG = LogUtil.getLogger( SeriesSinkTest.class );
+
+	/** {@link Recorder} keeps the rows it receives */
+	private static class Recorder implements SeriesSink
+	{
+		String meta;
+
+		List<String> columns;
+
+		final List<Long> actual = new ArrayList<>();
+
+		final List<String> virtual = new ArrayList<>();
+
+		final List<long[]> values = new ArrayList<>();
+
+		volatile boolean closed = false;
+
+		@Override
+		public void header( final String meta, final List<String> columns )
+			throws IOException
+		{
+			this.meta = meta;
+			this.columns = columns;
+		}
+
+		@Override
+		public void append( final long actualMillis, final String virtualTime,
+			final long[] values ) throws IOException
+		{
+			this.actual.add( actualMillis );
+			this.virtual.add( virtualTime );
+			this.values.add( values.clone() );
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.closed = true;
+		}
+	}
+
+	private static Recorder write( final SeriesSink sink, final long seed,
+		final int rows ) throws IOException
+	{
+		final Recorder result = new Recorder();
+		result.header( "seed=" + seed + " beta=\"1\"",
+				Arrays.asList( "S", "I", "R" ) );
+		sink.header( result.meta, result.columns );
+		final Random rnd = new Random( seed );
+		final long[] row = { 1000, 10, 0 };
+		long t = 1500000000000L;
+		for( int i = 0; i < rows; i++ )
+		{
+			// slowly changing, with the occasional extreme
+			row[0] -= rnd.nextInt( 3 );
+			row[1] += rnd.nextInt( 5 ) - 2;
+			row[2] = i % 100 == 99 ? Long.MIN_VALUE
+					: i % 100 == 0 ? Long.MAX_VALUE : row[2] + 1;
+			t += rnd.nextInt( 1000 );
+			result.append( t, "day " + i, row );
+			sink.append( t, "day " + i, row ); // reuses its row
+		}
+		sink.close();
+		return result;
+	}
+
+	private static void assertSeries( final Recorder expected,
+		final Recorder actual )
+	{
+		assertEquals( "meta", expected.meta, actual.meta );
+		assertEquals( "columns", expected.columns, actual.columns );
+		assertEquals( "actual", expected.actual, actual.actual );
+		assertEquals( "virtual", expected.virtual, actual.virtual );
+		assertEquals( "rows", expected.values.size(), actual.values.size() );
+		for( int i = 0; i < expected.values.size(); i++ )
+			assertArrayEquals( "row " + i, expected.values.get( i ),
+					actual.values.get( i ) );
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException
+	{
+		// empty, partial block, and several blocks
+		for( int rows : new int[] { 0, 1, SeriesSink.Binary.BLOCK_ROWS - 1,
+				SeriesSink.Binary.BLOCK_ROWS, 3 * SeriesSink.Binary.BLOCK_ROWS
+						+ 7 } )
+		{
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final Recorder expected = write(
+					new SeriesSink.Binary( bytes ), rows, rows );
+			final Recorder actual = new Recorder();
+			SeriesSink.Binary.replay(
+					new ByteArrayInputStream( bytes.toByteArray() ), actual );
+			assertSeries( expected, actual );
+			LOG.trace( "{} rows in {} bytes", rows, bytes.size() );
+		}
+	}
+
+	@Test
+	public void testAsync() throws IOException
+	{
+		final Recorder actual = new Recorder();
+		final Recorder expected = write(
+				new SeriesSink.Async( actual, 4, "test" ), 1234L, 1000 );
+		assertTrue( "closed", actual.closed );
+		assertSeries( expected, actual );
+	}
+
+	@Test
+	public void testAsyncFailure() throws IOException
+	{
+		final IOException failure = new IOException( "disk full" );
+		final Recorder failing = new Recorder()
+		{
+			@Override
+			public void append( final long actualMillis,
+				final String virtualTime, final long[] values )
+				throws IOException
+			{
+				throw failure;
+			}
+		};
+		final SeriesSink sink = new SeriesSink.Async( failing, 2, "failing" );
+		sink.header( "failing", Arrays.asList( "x" ) );
+		IOException thrown = null;
+		try
+		{
+			// fill the queue, until the failure is rethrown
+			for( int i = 0; i < 1000 && thrown == null; i++ )
+			{
+				sink.append( i, "t" + i, new long[] { i } );
+				if( i == 0 ) Thread.yield();
+			}
+		} catch( final IOException e )
+		{
+			thrown = e;
+		}
+		// whether or not rethrown yet, closing stops the writer
+		try
+		{
+			sink.close();
+			throw new AssertionError( "close should rethrow the failure" );
+		} catch( final IOException e )
+		{
+			assertSame( "failure", failure, e );
+		}
+		assertTrue( "underlying sink closed", failing.closed );
+		if( thrown != null ) assertSame( "failure", failure, thrown );
+		// closing again rethrows, without blocking
+		try
+		{
+			sink.close();
+			throw new AssertionError( "close should rethrow the failure" );
+		} catch( final IOException e )
+		{
+			assertSame( "failure", failure, e );
+		}
+	}
+}
@@ -629,6 +629,11 @@ public interface PilotConfig extends GlobalConfig
 		return attitudePropagatorType().newInstance();
 	}
 
+	/** @see HHAttitudePropagator.Precision */
+	@Key( HESITANCY_PREFIX + "propagator-precision" )
+	@DefaultValue( "DOUBLE" )
+	HHAttitudePropagator.Precision attitudePropagatorPrecision();
+
 	/**
 	 * <a
 	 * href=http://www.quartz-scheduler.org/documentation/quartz-2.x/tutorials/crontrigger.html>Cron
@@ -65,6 +65,7 @@ import nl.rivm.cib.epidemes.cbs.json.CBSGender;
 import nl.rivm.cib.epidemes.cbs.json.CBSHousehold;
 import nl.rivm.cib.episim.model.SocialConnector;
 import nl.rivm.cib.episim.model.SocialGatherer;
+import nl.rivm.cib.episim.model.SocialGraph;
 import nl.rivm.cib.episim.model.vaccine.attitude.VaxOccasion;
 import nl.rivm.cib.json.HesitancyProfileJson;
 import nl.rivm.cib.json.RelationFrequencyJson;
@@ -226,6 +227,8 @@ public class PilotScenario implements Scenario
 	/** */
 	private transient HHAttitudePropagator attitudePropagator;
 	/** */
+	private transient HHAttitudePropagator.Precision attitudePrecision;
+	/** */
 	private transient ConditionalDistribution<Map<HHAttribute, BigDecimal>, HesitancyProfileJson> hesitancyDist;
 
 	private transient ProbabilityDistribution<Double> resistanceDist;
@@ -603,6 +606,7 @@ public class PilotScenario implements Scenario
 				.newInstance();
 		this.attitudePropagator = this.config.attitudePropagatorType()
 				.newInstance();
+		this.attitudePrecision = this.config.attitudePropagatorPrecision();
 
 		atEach( this.config.attitudePropagatorRecurrence( scheduler() ),
 				this::propagate );
@@ -1011,11 +1015,10 @@ public class PilotScenario implements Scenario
 						: nowDays.subtract( this.lastPropagationInstantDays );
 		this.lastPropagationInstantDays = nowDays;
 
-		final Matrix interactions = SparseMatrix.Factory
-				.zeros( this.hhNetwork.getSize() );
+		final SocialGraph.Builder interactions = new SocialGraph.Builder(
+				(int) this.hhNetwork.getRowCount() );
 		LongStream.range( this.attractors.size(), this.hhNetwork.getRowCount() )
-				//.parallel() 
-				// NOTE DefaultSparseGenericMatrix (HashMap) not concurrent
+				// NOTE builder and binomial draws are not concurrent
 				.forEach( i ->
 				{
 					final long[] J = contacts( i );
@@ -1029,15 +1032,17 @@ public class PilotScenario implements Scenario
 					for( int j = J.length; j-- != 0; )
 						if( binom.draw() > 0 )
 						{
-							final long[] x = { i, J[j] };
-							SocialConnector.setSymmetric( interactions,
-									SocialConnector.getSymmetric(
-											this.hhNetwork, x ),
-									x );
+							final double w = SocialConnector
+									.getSymmetric( this.hhNetwork, i, J[j] )
+									.doubleValue();
+							// a zero weight set no link in the sparse matrix either
+							if( w != 0 ) interactions.link( (int) i,
+									(int) J[j], w );
 						}
 				} );
-		final Map<Long, Integer> changed = this.attitudePropagator
-				.propagate( interactions, this.hhAttributes );
+		final Map<Long, Integer> changed = this.attitudePropagator.propagate(
+				interactions.build(), this.hhAttributes,
+				this.attitudePrecision );
 		changed.forEach( ( i, n ) ->
 		{
 			pushChangedAttributes( i );
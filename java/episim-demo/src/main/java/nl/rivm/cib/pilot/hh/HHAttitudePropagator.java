@@ -20,27 +20,16 @@
 package nl.rivm.cib.pilot.hh;
 
 import java.math.BigDecimal;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.LongStream;
 
-import org.apache.logging.log4j.Logger;
 import org.ujmp.core.Matrix;
-import org.ujmp.core.SparseMatrix;
-import org.ujmp.core.calculation.Calculation.Ret;
 
 import io.coala.log.LogUtil;
 import io.coala.math.DecimalUtil;
-import io.coala.math.MatrixUtil;
-import nl.rivm.cib.episim.model.SocialConnector;
+import nl.rivm.cib.episim.model.SocialGraph;
 import nl.rivm.cib.episim.model.vaccine.attitude.VaxHesitancy;
 
 /**
@@ -72,6 +61,33 @@ public interface HHAttitudePropagator
 				HHAttribute.COMPLACENCY.ordinal() );
 	}
 
+	/**
+	 * {@link Precision} of the (double) weighted sums: each household's peers
+	 * are always reduced sequentially in ascending order, so results do not
+	 * depend on thread count or scheduling
+	 */
+	enum Precision
+	{
+		/** plain double summation */
+		DOUBLE,
+
+		/** Kahan-compensated summation, e.g. for high-degree households */
+		COMPENSATED;
+	}
+
+	/**
+	 * @param appreciation some appreciation weight
+	 * @param calculationLevel some calculation level
+	 * @return the filtered appreciation, by default as per
+	 *         {@link #filteredAppreciation(BigDecimal, BigDecimal)}
+	 */
+	default double filteredAppreciation( final double appreciation,
+		final double calculationLevel )
+	{
+		return filteredAppreciation( DecimalUtil.valueOf( appreciation ),
+				DecimalUtil.valueOf( calculationLevel ) ).doubleValue();
+	}
+
 	/**
 	 * @param hhPressure an m &times; n {@link Matrix} containing for <em>m</em>
 	 *            households (rows) their respective appreciation weight values
@@ -87,143 +103,171 @@ public interface HHAttitudePropagator
 		final Matrix hhAttributes, final long... attributePressuredCols )
 	{
 		Objects.requireNonNull( hhPressure, "network null" );
+		return propagate( SocialGraph.of( hhPressure ), hhAttributes,
+				Precision.DOUBLE, attributePressuredCols );
+	}
+
+	/**
+	 * propagate the new weighted averages of default social attributes:
+	 * {@link HHAttribute#CONFIDENCE} and {@link HHAttribute#COMPLACENCY}
+	 * 
+	 * @param hhPressure the households' appreciation weights
+	 * @param hhAttributes an n &times; k {@link Matrix} containing for all
+	 *            <em>n</em> households (rows) their respective <em>k</em>
+	 *            attribute values (columns)
+	 * @param precision the summation {@link Precision}
+	 * @return updated indices mapped to number of peers causing the change
+	 */
+	default Map<Long, Integer> propagate( final SocialGraph hhPressure,
+		final Matrix hhAttributes, final Precision precision )
+	{
+		return propagate( hhPressure, hhAttributes, precision,
+				HHAttribute.CONFIDENCE.ordinal(),
+				HHAttribute.COMPLACENCY.ordinal() );
+	}
+
+	/**
+	 * @param hhPressure the households' appreciation weights
+	 * @param hhAttributes an n &times; k {@link Matrix} containing for all
+	 *            <em>n</em> households (rows) their respective <em>k</em>
+	 *            attribute values (columns)
+	 * @param precision the summation {@link Precision}
+	 * @param attributePressuredCols the indices of {@link HHAttribute} values
+	 *            to replace by their respective newly weighted average
+	 * @return updated indices mapped to number of peers causing the change
+	 */
+	default Map<Long, Integer> propagate( final SocialGraph hhPressure,
+		final Matrix hhAttributes, final Precision precision,
+		final long... attributePressuredCols )
+	{
 		Objects.requireNonNull( hhAttributes, "attributes null" );
-		final long hhTotal = hhAttributes.getRowCount();
-
-		final AtomicLong duration = new AtomicLong(
-				System.currentTimeMillis() ), hhCount = new AtomicLong();
-		final Logger LOG = LogUtil.getLogger( getClass() );
-		final AtomicBoolean logged = new AtomicBoolean( false );
-
-		// calculate new attributes based on all current (weighted) information
-		final Matrix newAttributes = Matrix.Factory.zeros( hhTotal, Objects
-				.requireNonNull( attributePressuredCols, "cols null" ).length );
-
-		final Set<Long> attrLogged = new HashSet<>();
-		final Matrix colV = hhAttributes.selectColumns( Ret.LINK,
-				attributePressuredCols );
-		final Map<Long, Integer> changed = LongStream.range( 0, hhTotal )
-				.parallel() // !!
-				.mapToObj( i ->
-				{
-					hhCount.incrementAndGet();
-					if( System.currentTimeMillis() - duration.get() > 1000 )
-					{
-						duration.set( System.currentTimeMillis() );
-						LOG.trace( "Propagating; {} of {}", hhCount.get(),
-								hhTotal );
-						logged.set( true );
-					}
-
-					final long attr = hhAttributes.getAsLong( i,
-							HHAttribute.ATTRACTOR_REF.ordinal() );
-					if( attr == i || attr < 0 ) // skip attractor
-					{
-						MatrixUtil.insertObject( false, newAttributes,
-								colV.selectRows( Ret.LINK, i ), i, 0 );
-						return (Number[]) null;
-					}
-					final Matrix rowW = SparseMatrix.Factory.zeros( 1,
-							hhTotal );
-
-					final BigDecimal calc = hhAttributes.getAsBigDecimal( i,
-							HHAttribute.CALCULATION.ordinal() );
-					final AtomicReference<BigDecimal> sumW = new AtomicReference<>(
-							BigDecimal.ZERO );
-					final AtomicInteger sumJ = new AtomicInteger( 0 );
-					SocialConnector.availablePeers( hhPressure, i ).forEach( j ->
-					{
-						sumJ.incrementAndGet();
-						final BigDecimal w = SocialConnector
-								.getSymmetric( hhPressure, i, j );
-						// apply calculation threshold function to peers
-						sumW.getAndUpdate(
-								s -> s.add( filteredAppreciation( w, calc ) ) );
-						rowW.setAsBigDecimal( w, 0, j );
-					} );
-
-					if( sumW.get().signum() < 1 )
-					{
-						MatrixUtil.insertObject( false, newAttributes,
-								colV.selectRows( Ret.LINK, i ), i, 0 );
-						return (Number[]) null;
-					}
-
-					// determine weights for self and attractor
-					final BigDecimal selfW = sumW.get()
-							.multiply( hhAttributes.getAsBigDecimal( attr,
-									HHAttribute.IMPRESSION_SELF_MULTIPLIER
-											.ordinal() ) ),
-							attrW = sumW.get().multiply(
-									hhAttributes.getAsBigDecimal( attr,
-											HHAttribute.IMPRESSION_ATTRACTOR_MULTIPLIER
-													.ordinal() ) ),
-							totalW = sumW.get().add( selfW ).add( attrW );
-
-					// set own impact/stability
-					rowW.setAsBigDecimal( selfW, 0, i );
-
-					// set attractor impact/pressure
-					rowW.setAsBigDecimal( attrW, 0, attr );
-
-					// get current hesitancy values and insert transformed
-//					final Matrix prod = rowW.mtimes( colV )
-//							.divide( totalW.doubleValue() );
-//					LOG.trace( "{}:\n{}*\n{}\n / {}\t= {} ", i, rowW,
-//							colV.transpose(), totalW, prod );
-					final Matrix res = sumW.get().signum() == 0 ? colV
-							: rowW.mtimes( colV )
-									.divide( totalW.doubleValue() );
-					MatrixUtil.insertObject( false, newAttributes, res, i, 0 );
-
-					final int j = sumJ.get();
-					if( attrLogged.add( attr ) )
-					{
-						final int scale = 4;
-						final int n = hhAttributes.getAsInt( i,
-								HHAttribute.SOCIAL_NETWORK_SIZE.ordinal() );
-						LOG.trace(
-								"hh #{} [{},{}] ---({}/{}={}%)--> [{},{}] -> [{},{}]",
-								i,
-								DecimalUtil.toScale(
-										hhAttributes.getAsBigDecimal( i,
-												attributePressuredCols[0] ),
-										scale ),
-								DecimalUtil.toScale(
-										hhAttributes.getAsBigDecimal( i,
-												attributePressuredCols[1] ),
-										scale ),
-								j, n, DecimalUtil.toScale( 100. * j / n, 1 ),
-								DecimalUtil.toScale(
-										newAttributes.getAsBigDecimal( i, 0 ),
-										scale ),
-								DecimalUtil.toScale(
-										newAttributes.getAsBigDecimal( i, 1 ),
-										scale ),
-								DecimalUtil.toScale(
-										hhAttributes.getAsBigDecimal( attr,
-												attributePressuredCols[0] ),
-										1 ),
-								DecimalUtil.toScale(
-										hhAttributes.getAsBigDecimal( attr,
-												attributePressuredCols[1] ),
-										1 ) );
-					}
-					return new Number[] { i, j };
-				} ).filter( e -> e != null ).collect( Collectors
-						.toMap( e -> (Long) e[0], e -> (Integer) e[1] ) );
-		if( logged.get() )
-			LOG.trace( "Propagated all {} of {}", hhCount.get(), hhTotal );
-
-		// update all attributes at once afterwards
-		IntStream.range( 0, attributePressuredCols.length ).parallel()
-				.forEach( col -> MatrixUtil.insertObject( false, hhAttributes,
-						newAttributes.selectColumns( Ret.LINK, col ), 0,
-						attributePressuredCols[col] ) );
+		Objects.requireNonNull( attributePressuredCols, "cols null" );
+		final long start = System.currentTimeMillis();
+		final int hhTotal = (int) hhAttributes.getRowCount();
+		final int[] attractorRef = new int[hhTotal];
+		final double[] calculation = new double[hhTotal],
+				selfMultiplier = new double[hhTotal],
+				attractorMultiplier = new double[hhTotal];
+		final double[][] values = new double[attributePressuredCols.length][hhTotal];
+		IntStream.range( 0, hhTotal ).parallel().forEach( i ->
+		{
+			attractorRef[i] = hhAttributes.getAsInt( i,
+					HHAttribute.ATTRACTOR_REF.ordinal() );
+			calculation[i] = hhAttributes.getAsDouble( i,
+					HHAttribute.CALCULATION.ordinal() );
+			selfMultiplier[i] = hhAttributes.getAsDouble( i,
+					HHAttribute.IMPRESSION_SELF_MULTIPLIER.ordinal() );
+			attractorMultiplier[i] = hhAttributes.getAsDouble( i,
+					HHAttribute.IMPRESSION_ATTRACTOR_MULTIPLIER.ordinal() );
+			for( int c = 0; c < values.length; c++ )
+				values[c][i] = hhAttributes.getAsDouble( i,
+						attributePressuredCols[c] );
+		} );
 
+		final double[][] result = new double[values.length][];
+		final int[] peers = propagate( hhPressure, attractorRef, calculation,
+				selfMultiplier, attractorMultiplier, values, result,
+				precision );
+
+		// update all (changed) attributes at once afterwards
+		final Map<Long, Integer> changed = new HashMap<>();
+		for( int i = 0; i < hhTotal; i++ )
+			if( peers[i] >= 0 )
+			{
+				changed.put( (long) i, peers[i] );
+				for( int c = 0; c < values.length; c++ )
+					hhAttributes.setAsDouble( result[c][i], i,
+							attributePressuredCols[c] );
+			}
+		LogUtil.getLogger( getClass() ).trace(
+				"Propagated {} of {} households in {}ms", changed.size(),
+				hhTotal, System.currentTimeMillis() - start );
 		return changed;
 	}
 
+	/**
+	 * the propagation kernel: for each household i (but attractors) with
+	 * peers j and attractor a, a sparse matrix-vector product
+	 * <p>
+	 * v'<sub>i</sub> = (&sum;<sub>j</sub> w<sub>ij</sub> v<sub>j</sub> +
+	 * s<sub>a</sub> W v<sub>i</sub> + t<sub>a</sub> W v<sub>a</sub>) / (W +
+	 * s<sub>a</sub> W + t<sub>a</sub> W)
+	 * <p>
+	 * where W = &sum;<sub>j</sub> f(w<sub>ij</sub>, c<sub>i</sub>) sums the
+	 * {@link #filteredAppreciation(double, double) filtered} weights
+	 * 
+	 * @param hhPressure the households' appreciation weights w
+	 * @param attractorRef the households' attractor index a, or -1
+	 * @param calculation the households' calculation level c
+	 * @param selfMultiplier the (attractors') self impression multiplier s
+	 * @param attractorMultiplier the (attractors') impression multiplier t
+	 * @param values the current (column-wise) attribute values v
+	 * @param result the (column-wise) propagated values v', filled as needed
+	 * @param precision the summation {@link Precision}
+	 * @return the number of peers of each updated household, or -1 if
+	 *         unchanged (and copied to {@code result})
+	 */
+	default int[] propagate( final SocialGraph hhPressure,
+		final int[] attractorRef, final double[] calculation,
+		final double[] selfMultiplier, final double[] attractorMultiplier,
+		final double[][] values, final double[][] result,
+		final Precision precision )
+	{
+		final int hhTotal = attractorRef.length, cols = values.length;
+		for( int c = 0; c < cols; c++ )
+			if( result[c] == null ) result[c] = new double[hhTotal];
+		final boolean compensate = precision == Precision.COMPENSATED;
+		final int[] peers = new int[hhTotal];
+		IntStream.range( 0, hhTotal ).parallel().forEach( i ->
+		{
+			final int attr = attractorRef[i];
+			final double[] sum = new double[cols + 1],
+					err = compensate ? new double[cols + 1] : null;
+			if( attr != i && attr >= 0 && i < hhPressure.size() )
+				hhPressure.forEachLink( i, ( j, w ) ->
+				{
+					// apply calculation threshold function to peers
+					add( sum, err, cols,
+							filteredAppreciation( w, calculation[i] ) );
+					// attractor impact replaces its peer weight, if any
+					if( j != attr ) for( int c = 0; c < cols; c++ )
+						add( sum, err, c, w * values[c][j] );
+				} );
+			final double sumW = sum[cols];
+			if( sumW <= 0 ) // skip attractors and the unimpressed
+			{
+				peers[i] = -1;
+				for( int c = 0; c < cols; c++ )
+					result[c][i] = values[c][i];
+				return;
+			}
+			// determine weights for self and attractor
+			final double selfW = sumW * selfMultiplier[attr],
+					attrW = sumW * attractorMultiplier[attr],
+					totalW = sumW + selfW + attrW;
+			for( int c = 0; c < cols; c++ )
+				result[c][i] = (sum[c] + selfW * values[c][i]
+						+ attrW * values[c][attr]) / totalW;
+			peers[i] = hhPressure.degree( i );
+		} );
+		return peers;
+	}
+
+	/** adds {@code x} to {@code sum[k]}, compensating if {@code err} is set */
+	static void add( final double[] sum, final double[] err, final int k,
+		final double x )
+	{
+		if( err == null )
+		{
+			sum[k] += x;
+			return;
+		}
+		// see https://en.wikipedia.org/wiki/Kahan_summation_algorithm
+		final double y = x - err[k], t = sum[k] + y;
+		err[k] = (t - sum[k]) - y;
+		sum[k] = t;
+	}
+
 	// examples
 
 	/** {@link Threshold} wraps {@link VaxHesitancy#thresholdAppreciation} */
@@ -236,6 +280,13 @@ public interface HHAttitudePropagator
 			return VaxHesitancy.thresholdAppreciation( appreciation,
 					calculationLevel );
 		}
+
+		@Override
+		public double filteredAppreciation( final double appreciation,
+			final double calculationLevel )
+		{
+			return appreciation < 1 - calculationLevel ? 0 : appreciation;
+		}
 	}
 
 	/** {@link Shifted} wraps {@link VaxHesitancy#shiftedAppreciation} */
@@ -248,5 +299,12 @@ public interface HHAttitudePropagator
 			return VaxHesitancy.shiftedAppreciation( appreciation,
 					calculationLevel );
 		}
+
+		@Override
+		public double filteredAppreciation( final double appreciation,
+			final double calculationLevel )
+		{
+			return Math.max( 0, appreciation - .5 + calculationLevel );
+		}
 	}
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import java.math.BigDecimal;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
@@ -189,6 +190,17 @@ public interface SocialConnector
 			this.beta = beta;
 		}
 
+		/**
+		 * @param size number of nodes to connect
+		 * @param k the number of lattice successors per node
+		 * @return the connected {@link SocialGraph}, for large networks
+		 * @see SocialGraph#wattsStrogatz
+		 */
+		public SocialGraph graph( final int size, final int k )
+		{
+			return SocialGraph.wattsStrogatz( this.rng, size, k, this.beta );
+		}
+
 		@Override
 		public Matrix connect( final long size, final Supplier<Long> degree,
 			final Predicate<long[]> legalJ )
@@ -217,30 +229,32 @@ public interface SocialConnector
 				}
 			}
 
-			// step 2: perturb lattice
-			// FIXME parallelized row selection causes NPE, not Thread safe?
-			LongStream.range( 0, size - 1 )// last row in triangle is empty
-				.parallel()
-					.forEach( i -> LongStream.range( i + 1, size - 1 )
-							.filter( j -> SocialConnector.isPeer( result, i, j )
-									&& this.rng.nextDouble() < this.beta )
-							.forEach( j ->
-							{
-								// shuffle until : non-self and non-used
-								final long[] x = { i, j }, y = { i, j };
-								for( int attempt = 0; attempt < 10 && (y[1] == i // skip self
-										|| SocialConnector.isPeer( result, y ) // skip used
-										|| !legalJ.test( y ) // skip illegal
-								); attempt++ )
-									y[1] = i + this.rng.nextLong( size - i );
-
-								// weight to move from i,j to i,k
-								final double w = result.getAsDouble( x );
-								// reset old position
-								result.setAsDouble( 0, x );
-								// set new position
-								result.setAsDouble( w, y );
-							} ) );
+			// step 2: perturb lattice, visiting only the lattice links rather
+			// than scanning each row's upper triangle
+			MatrixUtil.streamAvailableCoordinates( result, false )
+					.filter( x -> result.getAsDouble( x ) != 0d )
+					.collect( Collectors.toList() ).forEach( x ->
+					{
+						if( this.rng.nextDouble() >= this.beta ) return;
+						final long i = x[0];
+						// shuffle until : non-self and non-used
+						final long[] y = { i, x[1] };
+						for( int attempt = 0; attempt < 10 && (y[1] == i // skip self
+								|| SocialConnector.isPeer( result, y ) // skip used
+								|| !legalJ.test( y ) // skip illegal
+						); attempt++ )
+							y[1] = i + this.rng.nextLong( size - i );
+						if( y[1] == i || SocialConnector.isPeer( result, y )
+								|| !legalJ.test( y ) )
+							return; // keep lattice link
+
+						// weight to move from i,j to i,k
+						final double w = result.getAsDouble( x );
+						// reset old position
+						result.setAsDouble( 0, x );
+						// set new position
+						result.setAsDouble( w, y );
+					} );
 
 			return result;
 		}
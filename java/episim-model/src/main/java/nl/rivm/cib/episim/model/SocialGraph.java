@@ -0,0 +1,506 @@
+/* $Id$
+ * 
+ * Part of ZonMW project no. 50-53000-98-156
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2016 RIVM National Institute for Health and Environment 
+ */
+package nl.rivm.cib.episim.model;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.ujmp.core.Matrix;
+import org.ujmp.core.SparseMatrix;
+
+import io.coala.exception.Thrower;
+import io.coala.math.MatrixUtil;
+import io.coala.random.PseudoRandom;
+
+/**
+ * {@link SocialGraph} is an immutable undirected graph in compressed sparse row
+ * (CSR) form: the peers of node {@code i} are stored (sorted, in both
+ * directions) at {@code peers[offsets[i]..offsets[i+1]]}, so
+ * {@link #degree(int)} is O(1), {@link #peers(int)} is O(degree) and
+ * {@link #isPeer(int, int)} is O(log degree), rather than scanning a full
+ * {@link Matrix} row and column as {@link SocialConnector#availablePeers}
+ * does. The {@link #wattsStrogatz}, {@link #erdosRenyi} and
+ * {@link #configuration} generators draw each node's links from its own
+ * random stream, so they may run in parallel yet remain reproducible per seed
+ * 
+ * @version $Id$
+ * @author Rick van Krevelen
+ */
+public class SocialGraph
+{
+	/** node {@code i}'s peers start at {@code offsets[i]}, size n+1 */
+	private final int[] offsets;
+
+	/** the (sorted) peers of each node, size 2m */
+	private final int[] peers;
+
+	/** the link weights, aligned with {@link #peers}, or {@code null} if 1 */
+	private final double[] weights;
+
+	private SocialGraph( final int[] offsets, final int[] peers,
+		final double[] weights )
+	{
+		this.offsets = offsets;
+		this.peers = peers;
+		this.weights = weights;
+	}
+
+	/** @return the number of nodes */
+	public int size()
+	{
+		return this.offsets.length - 1;
+	}
+
+	/** @return the number of (undirected) links */
+	public long linkCount()
+	{
+		return this.peers.length / 2;
+	}
+
+	/** @return the number of peers of node {@code i} */
+	public int degree( final int i )
+	{
+		return this.offsets[i + 1] - this.offsets[i];
+	}
+
+	/** @return the peers of node {@code i}, in ascending order */
+	public IntStream peers( final int i )
+	{
+		return Arrays.stream( this.peers, this.offsets[i],
+				this.offsets[i + 1] );
+	}
+
+	/** like {@link SocialConnector#availablePeers(Matrix, long)} */
+	public LongStream availablePeers( final long i )
+	{
+		return peers( (int) i ).asLongStream();
+	}
+
+	public void forEachPeer( final int i, final IntConsumer action )
+	{
+		for( int k = this.offsets[i], end = this.offsets[i + 1]; k < end; k++ )
+			action.accept( this.peers[k] );
+	}
+
+	/** consumes a peer and the weight of its link */
+	@FunctionalInterface
+	public interface LinkConsumer
+	{
+		void accept( int j, double w );
+	}
+
+	/** visits the peers of node {@code i} in ascending order, with weights */
+	public void forEachLink( final int i, final LinkConsumer action )
+	{
+		for( int k = this.offsets[i], end = this.offsets[i + 1]; k < end; k++ )
+			action.accept( this.peers[k],
+					this.weights == null ? 1 : this.weights[k] );
+	}
+
+	private int indexOf( final int i, final int j )
+	{
+		return Arrays.binarySearch( this.peers, this.offsets[i],
+				this.offsets[i + 1], j );
+	}
+
+	/** @return {@code true} iff nodes {@code i} and {@code j} are linked */
+	public boolean isPeer( final int i, final int j )
+	{
+		return indexOf( i, j ) >= 0;
+	}
+
+	/** @return the weight of link (i,j), or 0 if not linked */
+	public double weight( final int i, final int j )
+	{
+		final int k = indexOf( i, j );
+		return k < 0 ? 0 : this.weights == null ? 1 : this.weights[k];
+	}
+
+	/** weighs the (undirected) link between nodes {@code i < j} */
+	@FunctionalInterface
+	public interface Weigher
+	{
+		double weigh( int i, int j );
+	}
+
+	/**
+	 * @param weigher the link {@link Weigher}, applied once per link
+	 * @return a copy of this {@link SocialGraph} with specified weights
+	 */
+	public SocialGraph weighted( final Weigher weigher )
+	{
+		final double[] result = new double[this.peers.length];
+		// weigh each link (i<j) once, then mirror (j>i) for symmetry
+		IntStream.range( 0, size() ).parallel().forEach( i ->
+		{
+			for( int k = this.offsets[i]; k < this.offsets[i + 1]; k++ )
+				if( i < this.peers[k] )
+					result[k] = weigher.weigh( i, this.peers[k] );
+		} );
+		IntStream.range( 0, size() ).parallel().forEach( i ->
+		{
+			for( int k = this.offsets[i]; k < this.offsets[i + 1]; k++ )
+				if( i > this.peers[k] )
+					result[k] = result[indexOf( this.peers[k], i )];
+		} );
+		return new SocialGraph( this.offsets, this.peers, result );
+	}
+
+	/**
+	 * @return a {@link SparseMatrix} with for each link W(i,j): i&lt;j, see
+	 *         {@link SocialConnector#setSymmetric(Matrix, Object, long...)}
+	 */
+	public Matrix toMatrix()
+	{
+		final Matrix result = SparseMatrix.Factory.zeros( size(), size() );
+		for( int i = 0; i < size(); i++ )
+			for( int k = this.offsets[i]; k < this.offsets[i + 1]; k++ )
+				if( i < this.peers[k] ) result.setAsDouble(
+						this.weights == null ? 1 : this.weights[k], i,
+						this.peers[k] );
+		return result;
+	}
+
+	/**
+	 * @param W a (symmetric, triangular) weight {@link Matrix}, e.g. from
+	 *            {@link SocialConnector#connect}
+	 * @return the {@link SocialGraph} of all non-zero weights in {@code W}
+	 */
+	public static SocialGraph of( final Matrix W )
+	{
+		final Builder result = new Builder( (int) W.getRowCount() );
+		MatrixUtil.streamAvailableCoordinates( W, false )
+				.filter( x -> x[0] != x[1] && W.getAsDouble( x ) != 0d )
+				.forEach( x -> result.link( (int) x[0], (int) x[1],
+						W.getAsDouble( x ) ) );
+		return result.build();
+	}
+
+	/**
+	 * {@link Builder} collects links, ignoring self-links; duplicate links
+	 * keep their first weight. Not thread-safe
+	 */
+	public static class Builder
+	{
+		private final int size;
+
+		private int[] from = new int[16], to = new int[16];
+
+		private double[] weights = null;
+
+		private int n = 0;
+
+		public Builder( final int size )
+		{
+			this.size = size;
+		}
+
+		public Builder link( final int i, final int j )
+		{
+			return link( i, j, 1 );
+		}
+
+		public Builder link( final int i, final int j, final double w )
+		{
+			if( i < 0 || j < 0 || i >= this.size || j >= this.size )
+				Thrower.throwNew( IndexOutOfBoundsException::new,
+						() -> "Link (" + i + "," + j + ") out of bounds: "
+								+ this.size );
+			if( i == j ) return this;
+			if( this.n == this.from.length )
+			{
+				this.from = Arrays.copyOf( this.from, 2 * this.n );
+				this.to = Arrays.copyOf( this.to, 2 * this.n );
+				if( this.weights != null )
+					this.weights = Arrays.copyOf( this.weights, 2 * this.n );
+			}
+			if( w != 1 && this.weights == null )
+			{
+				this.weights = new double[this.from.length];
+				Arrays.fill( this.weights, 0, this.n, 1 );
+			}
+			this.from[this.n] = i;
+			this.to[this.n] = j;
+			if( this.weights != null ) this.weights[this.n] = w;
+			this.n++;
+			return this;
+		}
+
+		public SocialGraph build()
+		{
+			return SocialGraph.build( this.size, this.from, this.to,
+					this.weights, this.n );
+		}
+	}
+
+	/**
+	 * @param targets per node, its outgoing links (each link need only appear
+	 *            at one of its ends)
+	 */
+	static SocialGraph build( final int[][] targets )
+	{
+		final int size = targets.length;
+		final long n = Arrays.stream( targets ).mapToLong( t -> t.length )
+				.sum();
+		if( 2 * n > Integer.MAX_VALUE ) Thrower.throwNew(
+				IllegalArgumentException::new, () -> "Too many links: " + n );
+		final int[] from = new int[(int) n], to = new int[(int) n];
+		for( int i = 0, k = 0; i < size; i++ )
+			for( int j : targets[i] )
+			{
+				from[k] = i;
+				to[k++] = j;
+			}
+		return build( size, from, to, null, (int) n );
+	}
+
+	/** mirrors, sorts and deduplicates the first {@code n} (i,j) links */
+	static SocialGraph build( final int size, final int[] from, final int[] to,
+		final double[] w, final int n )
+	{
+		// count both directions, skipping self-links
+		final int[] offsets = new int[size + 1];
+		for( int k = 0; k < n; k++ )
+			if( from[k] != to[k] )
+			{
+				offsets[from[k] + 1]++;
+				offsets[to[k] + 1]++;
+			}
+		for( int i = 0; i < size; i++ )
+			offsets[i + 1] += offsets[i];
+		if( offsets[size] < 0 ) Thrower.throwNew(
+				IllegalArgumentException::new, () -> "Too many links: " + n );
+		final int[] fill = Arrays.copyOf( offsets, size );
+		final int[] peers = new int[offsets[size]];
+		final double[] weights = w == null ? null : new double[offsets[size]];
+		for( int k = 0; k < n; k++ )
+			if( from[k] != to[k] )
+			{
+				if( weights != null )
+				{
+					weights[fill[from[k]]] = w[k];
+					weights[fill[to[k]]] = w[k];
+				}
+				peers[fill[from[k]]++] = to[k];
+				peers[fill[to[k]]++] = from[k];
+			}
+
+		// sort and deduplicate each row (in place), counting remaining peers
+		final int[] degrees = new int[size];
+		IntStream.range( 0, size ).parallel().forEach( i ->
+		{
+			final int start = offsets[i], end = offsets[i + 1];
+			if( weights == null )
+				Arrays.sort( peers, start, end );
+			else
+				sortByPeer( peers, weights, start, end );
+			int d = 0;
+			for( int k = start; k < end; k++ )
+				if( d == 0 || peers[k] != peers[start + d - 1] )
+				{
+					peers[start + d] = peers[k];
+					if( weights != null ) weights[start + d] = weights[k];
+					d++;
+				}
+			degrees[i] = d;
+		} );
+
+		// compact rows
+		final int[] compact = new int[size + 1];
+		for( int i = 0; i < size; i++ )
+			compact[i + 1] = compact[i] + degrees[i];
+		if( compact[size] == offsets[size] )
+			return new SocialGraph( offsets, peers, weights );
+		final int[] resultPeers = new int[compact[size]];
+		final double[] resultWeights = weights == null ? null
+				: new double[compact[size]];
+		IntStream.range( 0, size ).parallel().forEach( i ->
+		{
+			System.arraycopy( peers, offsets[i], resultPeers, compact[i],
+					degrees[i] );
+			if( weights != null ) System.arraycopy( weights, offsets[i],
+					resultWeights, compact[i], degrees[i] );
+		} );
+		return new SocialGraph( compact, resultPeers, resultWeights );
+	}
+
+	/** stable insertion sort of a (typically short) row by peer */
+	private static void sortByPeer( final int[] peers, final double[] weights,
+		final int start, final int end )
+	{
+		for( int k = start + 1; k < end; k++ )
+		{
+			final int p = peers[k];
+			final double w = weights[k];
+			int m = k - 1;
+			for( ; m >= start && peers[m] > p; m-- )
+			{
+				peers[m + 1] = peers[m];
+				weights[m + 1] = weights[m];
+			}
+			peers[m + 1] = p;
+			weights[m + 1] = w;
+		}
+	}
+
+	/** @return the random stream of node {@code i} given the graph's seed */
+	static SplittableRandom stream( final long seed, final int i )
+	{
+		// mix, see Steele et al. (2014) SplitMix64
+		long z = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new SplittableRandom( z ^ (z >>> 31) );
+	}
+
+	/**
+	 * a <a href=
+	 * "https://www.wikiwand.com/en/Watts_and_Strogatz_model">Watts–Strogatz</a>
+	 * small-world graph: a ring lattice linking each node to its {@code k}
+	 * successors (so mean degree 2k), each link rewired with probability
+	 * {@code beta} to a uniformly drawn non-peer
+	 * 
+	 * @param rng the {@link PseudoRandom} to draw the graph's seed from
+	 * @param size the number of nodes
+	 * @param k the number of lattice successors per node
+	 * @param beta the rewiring probability
+	 * @return the {@link SocialGraph}
+	 */
+	public static SocialGraph wattsStrogatz( final PseudoRandom rng,
+		final int size, final int k, final double beta )
+	{
+		final long seed = rng.nextLong();
+		final int K = Math.min( k, (size - 1) / 2 );
+		final int[][] targets = new int[size][];
+		IntStream.range( 0, size ).parallel().forEach( i ->
+		{
+			final SplittableRandom rnd = stream( seed, i );
+			final int[] row = new int[K];
+			for( int m = 0; m < K; m++ )
+			{
+				int j = (i + 1 + m) % size;
+				if( rnd.nextDouble() < beta ) for( int attempt = 0; attempt < 10
+						&& (j == i || contains( row, m, j )
+								|| j == (i + 1 + m) % size); attempt++ )
+					j = rnd.nextInt( size );
+				// lattice links to successors are unique within the row
+				row[m] = j == i || contains( row, m, j ) ? (i + 1 + m) % size
+						: j;
+			}
+			targets[i] = row;
+		} );
+		return build( targets );
+	}
+
+	private static boolean contains( final int[] row, final int n,
+		final int j )
+	{
+		for( int m = 0; m < n; m++ )
+			if( row[m] == j ) return true;
+		return false;
+	}
+
+	/**
+	 * an <a href=
+	 * "https://www.wikiwand.com/en/Erd%C5%91s%E2%80%93R%C3%A9nyi_model">Erdős-Rényi</a>
+	 * G(n,p) random graph, skipping geometrically distributed gaps between
+	 * links (Batagelj &amp; Brandes, 2005) in O(n+m) rather than O(n&sup2;)
+	 * 
+	 * @param rng the {@link PseudoRandom} to draw the graph's seed from
+	 * @param size the number of nodes
+	 * @param meanDegree the expected degree, i.e. p(n-1)
+	 * @return the {@link SocialGraph}
+	 */
+	public static SocialGraph erdosRenyi( final PseudoRandom rng,
+		final int size, final double meanDegree )
+	{
+		final long seed = rng.nextLong();
+		final double p = Math.min( 1, meanDegree / Math.max( 1, size - 1 ) );
+		final double logq = Math.log( 1 - p );
+		final int[][] targets = new int[size][];
+		IntStream.range( 0, size ).parallel().forEach( i ->
+		{
+			final SplittableRandom rnd = stream( seed, i );
+			int[] row = new int[Math.max( 4, (int) (p * (size - i)) + 1 )];
+			int n = 0;
+			// link i to successors j > i only, each with probability p
+			for( long j = i; p > 0; )
+			{
+				j += p == 1 ? 1
+						: 1 + (long) Math.floor(
+								Math.log( 1 - rnd.nextDouble() ) / logq );
+				if( j >= size ) break;
+				if( n == row.length ) row = Arrays.copyOf( row, 2 * n );
+				row[n++] = (int) j;
+			}
+			targets[i] = Arrays.copyOf( row, n );
+		} );
+		return build( targets );
+	}
+
+	/**
+	 * an (erased) <a href=
+	 * "https://www.wikiwand.com/en/Configuration_model">configuration
+	 * model</a> random graph, pairing shuffled link stubs and dropping
+	 * self-links and duplicates, so realized degrees may fall slightly short
+	 * 
+	 * @param rng the {@link PseudoRandom} to draw the graph's seed from
+	 * @param degrees the (target) degree of each node
+	 * @return the {@link SocialGraph}
+	 */
+	public static SocialGraph configuration( final PseudoRandom rng,
+		final int[] degrees )
+	{
+		final long total = Arrays.stream( degrees ).asLongStream().sum();
+		if( total > Integer.MAX_VALUE ) Thrower.throwNew(
+				IllegalArgumentException::new,
+				() -> "Too many link stubs: " + total );
+		final int[] stubs = new int[(int) total];
+		for( int i = 0, k = 0; i < degrees.length; i++ )
+			for( int d = 0; d < degrees[i]; d++ )
+				stubs[k++] = i;
+		// Fisher-Yates shuffle
+		final SplittableRandom rnd = new SplittableRandom( rng.nextLong() );
+		for( int k = stubs.length - 1; k > 0; k-- )
+		{
+			final int m = rnd.nextInt( k + 1 ), s = stubs[k];
+			stubs[k] = stubs[m];
+			stubs[m] = s;
+		}
+		final int n = stubs.length / 2;
+		final int[] from = new int[n], to = new int[n];
+		for( int k = 0; k < n; k++ )
+		{
+			from[k] = stubs[2 * k];
+			to[k] = stubs[2 * k + 1];
+		}
+		return build( degrees.length, from, to, null, n );
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[size=" + size() + ", links="
+				+ linkCount() + "]";
+	}
+}
@@ -21,6 +21,7 @@ package nl.rivm.cib.episim.model.disease.infection;
 
 import java.beans.PropertyChangeEvent;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
@@ -28,6 +29,9 @@ import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 import javax.measure.Quantity;
+import javax.measure.Unit;
+
+import org.apache.logging.log4j.Logger;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.util.concurrent.AtomicDouble;
@@ -38,15 +42,20 @@ import io.coala.bind.LocalBinding;
 import io.coala.config.JsonConfigurable;
 import io.coala.config.Jsonifiable;
 import io.coala.exception.Thrower;
+import io.coala.log.LogUtil;
+import io.coala.math.QuantityUtil;
 import io.coala.random.ProbabilityDistribution;
 import io.coala.random.QuantityDistribution;
 import io.coala.time.Expectation;
+import io.coala.time.Instant;
 import io.coala.time.Proactive;
 import io.coala.time.Scheduler;
 import io.reactivex.Maybe;
 import io.reactivex.Observable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.subjects.BehaviorSubject;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
 import nl.rivm.cib.episim.model.disease.IllnessTrajectory;
 
 /**
@@ -395,6 +404,466 @@ public interface MSEIRS //extends IllnessTrajectory
 		}
 	}
 
+	/**
+	 * {@link Pool} follows the default state machine (see
+	 * {@link Broker#defaultTransition(Compartment)}) for a whole population at
+	 * once, holding each slot's current {@link Compartment} and
+	 * {@link Transition} period, its entry time and its next transition time in
+	 * primitive arrays. A single indexed heap orders the pending transitions,
+	 * and only its earliest is scheduled. Transitions fired at the same instant
+	 * are emitted as one {@link Transitions} batch, so no per-individual
+	 * subjects, subscriptions or closures are needed. Not thread-safe: use
+	 * from the {@link Scheduler} thread only
+	 */
+	class Pool implements Proactive
+	{
+		/** */
+		private static final Logger LOG = LogUtil.getLogger( Pool.class );
+
+		/**
+		 * {@link Delay} draws the duration of a {@link Transition} period
+		 */
+		@FunctionalInterface
+		public interface Delay
+		{
+			/**
+			 * @param period the {@link Transition} period just entered
+			 * @return its duration in {@link Pool#unit()}s, 0 to transition
+			 *         immediately (within the same batch), or
+			 *         {@link Double#NaN} to stay indefinitely, as does a slot
+			 *         for which this method fails
+			 */
+			double draw( Transition period ) throws Exception;
+		}
+
+		/**
+		 * {@link Transitions} is a batch of transitions fired at one instant
+		 */
+		public static class Transitions
+		{
+			private final Instant time;
+
+			private final int[] slots;
+
+			private final byte[] periods;
+
+			private final byte[] previous;
+
+			private final byte[] next;
+
+			private final int size;
+
+			Transitions( final Instant time, final int[] slots,
+				final byte[] periods, final byte[] previous, final byte[] next,
+				final int size )
+			{
+				this.time = time;
+				this.slots = slots;
+				this.periods = periods;
+				this.previous = previous;
+				this.next = next;
+				this.size = size;
+			}
+
+			public Instant time()
+			{
+				return this.time;
+			}
+
+			public int size()
+			{
+				return this.size;
+			}
+
+			public int slot( final int k )
+			{
+				return this.slots[k];
+			}
+
+			/** @return the {@link Transition} period entered by the k-th slot */
+			public Transition transition( final int k )
+			{
+				return TRANSITIONS[this.periods[k]];
+			}
+
+			/** @return the {@link Compartment} left by the k-th slot */
+			public Compartment from( final int k )
+			{
+				return COMPARTMENTS[this.previous[k]];
+			}
+
+			/** @return the {@link Compartment} entered by the k-th slot */
+			public Compartment to( final int k )
+			{
+				return COMPARTMENTS[this.next[k]];
+			}
+
+			@Override
+			public String toString()
+			{
+				return getClass().getSimpleName() + "[t=" + this.time
+						+ ", n=" + this.size + "]";
+			}
+		}
+
+		private static final Transition[] TRANSITIONS = Transition.values();
+
+		private static final Compartment[] COMPARTMENTS = Compartment.values();
+
+		private static final byte NONE = -1;
+
+		private final Scheduler scheduler;
+
+		private final Delay delay;
+
+		private final Unit<?> unit;
+
+		private final Subject<Transitions> emitter = PublishSubject.create();
+
+		/** per slot: {@link Compartment} ordinal, or {@link #NONE} if free */
+		private byte[] compartment;
+
+		/** per slot: current {@link Transition} period ordinal */
+		private byte[] period;
+
+		/** per slot: entry time of the current compartment */
+		private double[] entered;
+
+		/** per slot: time of the next transition, or NaN if none */
+		private double[] due;
+
+		/** per slot: position in {@link #heap}, or -1 */
+		private int[] heapIndex;
+
+		/** min-heap of slots, ordered by {@link #due} (then by slot) */
+		private int[] heap;
+
+		private int heapSize = 0;
+
+		/** released slots, reused first */
+		private int[] free = new int[16];
+
+		private int freeSize = 0;
+
+		private int slots = 0;
+
+		private transient Expectation pending = null;
+
+		private transient double pendingDue = Double.NaN;
+
+		public Pool( final Scheduler scheduler, final Delay delay )
+		{
+			this( scheduler, delay, 1024 );
+		}
+
+		public Pool( final Scheduler scheduler, final Delay delay,
+			final int capacity )
+		{
+			this.scheduler = scheduler;
+			this.delay = delay;
+			this.unit = scheduler.now().unit();
+			final int n = Math.max( 16, capacity );
+			this.compartment = new byte[n];
+			this.period = new byte[n];
+			this.entered = new double[n];
+			this.due = new double[n];
+			this.heapIndex = new int[n];
+			this.heap = new int[n];
+		}
+
+		@Override
+		public Scheduler scheduler()
+		{
+			return this.scheduler;
+		}
+
+		/** @return the time {@link Unit} of {@link #entered} and {@link #due} */
+		public Unit<?> unit()
+		{
+			return this.unit;
+		}
+
+		/** @return the shared stream of {@link Transitions} batches */
+		public Observable<Transitions> transitions()
+		{
+			return this.emitter;
+		}
+
+		/** @return the number of allocated slots */
+		public int size()
+		{
+			return this.slots - this.freeSize;
+		}
+
+		public Compartment compartment( final int slot )
+		{
+			return this.compartment[slot] == NONE ? null
+					: COMPARTMENTS[this.compartment[slot]];
+		}
+
+		public Transition period( final int slot )
+		{
+			return this.compartment[slot] == NONE ? null
+					: TRANSITIONS[this.period[slot]];
+		}
+
+		/** @return the entry time of the slot's current compartment */
+		public double entered( final int slot )
+		{
+			return this.entered[slot];
+		}
+
+		/** @return the time of the slot's next transition, or NaN if none */
+		public double due( final int slot )
+		{
+			return this.due[slot];
+		}
+
+		private double nowValue()
+		{
+			return now().to( this.unit ).decimal().doubleValue();
+		}
+
+		/**
+		 * @param initialPeriod the initial {@link Transition} period
+		 * @return the allocated slot
+		 */
+		public int allocate( final Transition initialPeriod )
+		{
+			final int slot;
+			if( this.freeSize > 0 )
+				slot = this.free[--this.freeSize];
+			else
+			{
+				if( this.slots == this.compartment.length ) grow();
+				slot = this.slots++;
+			}
+			this.heapIndex[slot] = -1;
+			enter( slot, Broker.source( initialPeriod ), initialPeriod,
+					nowValue() );
+			reschedule();
+			return slot;
+		}
+
+		/** @param slot the slot to free, e.g. upon death or emigration */
+		public void release( final int slot )
+		{
+			if( this.compartment[slot] == NONE ) return;
+			heapRemove( slot );
+			this.compartment[slot] = NONE;
+			this.due[slot] = Double.NaN;
+			if( this.freeSize == this.free.length )
+				this.free = Arrays.copyOf( this.free, 2 * this.freeSize );
+			this.free[this.freeSize++] = slot;
+			reschedule();
+		}
+
+		/**
+		 * force slots into a new period, e.g. upon infection or vaccination,
+		 * emitting them as one {@link Transitions} batch
+		 * 
+		 * @param period the {@link Transition} period to enter
+		 * @param slots the slots to transition
+		 */
+		public void transition( final Transition period, final int... slots )
+		{
+			final double now = nowValue();
+			final Compartment to = Broker.source( period );
+			final int[] moved = new int[slots.length];
+			final byte[] periods = new byte[slots.length],
+					previous = new byte[slots.length],
+					next = new byte[slots.length];
+			int n = 0;
+			for( int slot : slots )
+			{
+				if( this.compartment[slot] == NONE ) continue;
+				moved[n] = slot;
+				periods[n] = (byte) period.ordinal();
+				previous[n] = this.compartment[slot];
+				next[n++] = (byte) to.ordinal();
+				enter( slot, to, period, now );
+			}
+			reschedule();
+			if( n > 0 ) this.emitter.onNext( new Transitions( now(), moved,
+					periods, previous, next, n ) );
+		}
+
+		/** @return an {@link MSEIRS} view of specified slot */
+		public MSEIRS slot( final int slot )
+		{
+			return new MSEIRS()
+			{
+				@Override
+				public MSEIRS reset( final Transition initialPeriod,
+					final StateMachine ignored )
+				{
+					// pooled slots always follow the pool's default machine
+					transition( initialPeriod, slot );
+					return this;
+				}
+
+				@Override
+				public Observable<Transition> mseirsEmitter()
+				{
+					return transitions().concatMap( batch ->
+					{
+						for( int k = 0; k < batch.size(); k++ )
+							if( batch.slot( k ) == slot )
+								return Observable.just( batch.transition( k ) );
+						return Observable.empty();
+					} ).startWith( Observable.fromCallable(
+							() -> period( slot ) ) );
+				}
+			};
+		}
+
+		private void enter( final int slot, final Compartment compartment,
+			final Transition period, final double now )
+		{
+			this.compartment[slot] = (byte) compartment.ordinal();
+			this.period[slot] = (byte) period.ordinal();
+			this.entered[slot] = now;
+			double d;
+			try
+			{
+				d = this.delay.draw( period );
+			} catch( final Exception e )
+			{
+				// fail this slot only, keeping the shared transitions alive
+				LOG.error( "Slot " + slot + " stays " + period
+						+ ", delay failed", e );
+				d = Double.NaN;
+			}
+			this.due[slot] = now + d;
+			if( Double.isNaN( d ) )
+				heapRemove( slot );
+			else if( this.heapIndex[slot] < 0 )
+				heapAdd( slot );
+			else
+				heapUpdate( slot );
+		}
+
+		private void fire()
+		{
+			this.pending = null;
+			this.pendingDue = Double.NaN;
+			final double now = nowValue();
+			int[] slots = new int[16];
+			byte[] periods = new byte[16], previous = new byte[16],
+					next = new byte[16];
+			int n = 0;
+			while( this.heapSize > 0 && this.due[this.heap[0]] <= now )
+			{
+				final int slot = this.heap[0];
+				final Compartment to = TRANSITIONS[this.period[slot]]
+						.outcome();
+				final Transition period = Broker.defaultTransition( to );
+				if( n == slots.length )
+				{
+					slots = Arrays.copyOf( slots, 2 * n );
+					periods = Arrays.copyOf( periods, 2 * n );
+					previous = Arrays.copyOf( previous, 2 * n );
+					next = Arrays.copyOf( next, 2 * n );
+				}
+				slots[n] = slot;
+				periods[n] = (byte) period.ordinal();
+				previous[n] = this.compartment[slot];
+				next[n++] = (byte) to.ordinal();
+				enter( slot, to, period, now );
+			}
+			reschedule();
+			if( n > 0 ) this.emitter.onNext( new Transitions( now(), slots,
+					periods, previous, next, n ) );
+		}
+
+		/** (re)schedule a single expectation for the earliest transition */
+		private void reschedule()
+		{
+			final double next = this.heapSize == 0 ? Double.NaN
+					: this.due[this.heap[0]];
+			if( Double.compare( next, this.pendingDue ) == 0 ) return;
+			if( this.pending != null ) this.pending.remove();
+			this.pendingDue = next;
+			this.pending = Double.isNaN( next ) ? null
+					: at( Instant.of( Math.max( next, nowValue() ),
+							this.unit ) ).call( t -> fire() );
+		}
+
+		private void grow()
+		{
+			final int n = 2 * this.compartment.length;
+			this.compartment = Arrays.copyOf( this.compartment, n );
+			this.period = Arrays.copyOf( this.period, n );
+			this.entered = Arrays.copyOf( this.entered, n );
+			this.due = Arrays.copyOf( this.due, n );
+			this.heapIndex = Arrays.copyOf( this.heapIndex, n );
+			this.heap = Arrays.copyOf( this.heap, n );
+		}
+
+		private boolean before( final int a, final int b )
+		{
+			final int c = Double.compare( this.due[a], this.due[b] );
+			return c < 0 || (c == 0 && a < b);
+		}
+
+		private void heapAdd( final int slot )
+		{
+			this.heap[this.heapSize] = slot;
+			this.heapIndex[slot] = this.heapSize;
+			siftUp( this.heapSize++ );
+		}
+
+		private void heapRemove( final int slot )
+		{
+			final int i = this.heapIndex[slot];
+			if( i < 0 ) return;
+			this.heapIndex[slot] = -1;
+			final int last = this.heap[--this.heapSize];
+			if( i == this.heapSize ) return;
+			this.heap[i] = last;
+			this.heapIndex[last] = i;
+			siftDown( siftUp( i ) );
+		}
+
+		private void heapUpdate( final int slot )
+		{
+			siftDown( siftUp( this.heapIndex[slot] ) );
+		}
+
+		private int siftUp( int i )
+		{
+			final int slot = this.heap[i];
+			while( i > 0 )
+			{
+				final int parent = (i - 1) >>> 1;
+				if( !before( slot, this.heap[parent] ) ) break;
+				this.heap[i] = this.heap[parent];
+				this.heapIndex[this.heap[i]] = i;
+				i = parent;
+			}
+			this.heap[i] = slot;
+			this.heapIndex[slot] = i;
+			return i;
+		}
+
+		private void siftDown( int i )
+		{
+			final int slot = this.heap[i];
+			for( int child; (child = 2 * i + 1) < this.heapSize; )
+			{
+				if( child + 1 < this.heapSize
+						&& before( this.heap[child + 1], this.heap[child] ) )
+					child++;
+				if( !before( this.heap[child], slot ) ) break;
+				this.heap[i] = this.heap[child];
+				this.heapIndex[this.heap[i]] = i;
+				i = child;
+			}
+			this.heap[i] = slot;
+			this.heapIndex[slot] = i;
+		}
+	}
+
 	/**
 	 * {@link Broker} (e.g. pathogen) can create a {@link IllnessTrajectory} for
 	 * all individuals in a population
@@ -437,6 +906,37 @@ public interface MSEIRS //extends IllnessTrajectory
 			}
 		}
 
+		/**
+		 * @param period the {@link Transition} period
+		 * @return the {@link Compartment} whose default transition it is (or
+		 *         the first such, e.g. {@link Compartment#SUSCEPTIBLE} rather
+		 *         than {@link Compartment#DORMANT})
+		 */
+		static Compartment source( final Transition period )
+		{
+			switch( period )
+			{
+			case PASSIVE:
+			case WANING_PASSIVE:
+				return Compartment.PASSIVE_IMMUNE;
+			case SUSCEPTIBILITY:
+				return Compartment.SUSCEPTIBLE;
+			case LATENCY:
+				return Compartment.EXPOSED;
+			case INFECTIOUS:
+				return Compartment.INFECTIVE;
+			case WANING_NATURAL:
+				return Compartment.RECOVERED;
+			case ACCEPTANCE:
+				return Compartment.NEWBORN;
+			case WANING_ACQUIRED:
+				return Compartment.VACCINATED;
+			default:
+				return Thrower.throwNew( IllegalArgumentException::new,
+						() -> "No source for: " + period );
+			}
+		}
+
 //		@Singleton
 		/**
 		 * {@link SimpleDefault} triggers the default transitions proactively,
@@ -535,6 +1035,41 @@ public interface MSEIRS //extends IllnessTrajectory
 			}
 		}
 
+		/**
+		 * {@link Pooled} creates slot views onto a single {@link Pool}, drawing
+		 * delays from the same (configured) distributions as
+		 * {@link SimpleDefault}
+		 */
+		class Pooled extends SimpleDefault
+		{
+			private transient Pool pool = null;
+
+			public Pool pool()
+			{
+				if( this.pool == null )
+				{
+					final Unit<?> unit = scheduler().now().unit();
+					this.pool = new Pool( scheduler(), period ->
+					{
+						final Quantity<?> delay = cachedDelayDist( period )
+								.draw();
+						return delay == null ? 0
+								: QuantityUtil.decimalValue( delay, unit )
+										.doubleValue();
+					} );
+				}
+				return this.pool;
+			}
+
+			@Override
+			public MSEIRS create( final Transition initialPeriod,
+				final Observable<PropertyChangeEvent> stateChanges )
+			{
+				final Pool pool = pool();
+				return pool.slot( pool.allocate( initialPeriod ) );
+			}
+		}
+
 		class LocalPressure extends SimpleDefault
 		{
 			static class Tuple implements Comparable<Tuple>
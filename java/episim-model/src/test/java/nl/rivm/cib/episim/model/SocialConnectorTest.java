@@ -19,6 +19,19 @@
  */
 package nl.rivm.cib.episim.model;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import io.coala.log.LogUtil;
+import io.coala.math3.Math3PseudoRandom;
+import io.coala.random.PseudoRandom;
+
 /**
  * {@link SocialConnectorTest} tests {@link SocialConnector}
  * 
@@ -28,4 +41,86 @@ package nl.rivm.cib.episim.model;
 public class SocialConnectorTest
 {
 
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger( SocialConnectorTest.class );
+
+	private static PseudoRandom rng( final long seed )
+	{
+		return new Math3PseudoRandom.MersenneTwisterFactory()
+				.create( PseudoRandom.Config.NAME_DEFAULT, seed );
+	}
+
+	private static void assertSymmetric( final SocialGraph g )
+	{
+		for( int i = 0; i < g.size(); i++ )
+		{
+			final int[] peers = g.peers( i ).toArray();
+			assertEquals( "degree " + i, peers.length, g.degree( i ) );
+			for( int k = 0; k < peers.length; k++ )
+			{
+				assertTrue( "no self-links", peers[k] != i );
+				assertTrue( "sorted, unique", k == 0 || peers[k - 1] < peers[k] );
+				assertTrue( "symmetric", g.isPeer( peers[k], i ) );
+			}
+		}
+	}
+
+	@Test
+	public void testWattsStrogatzGraph()
+	{
+		final int n = 10000, k = 3;
+		final SocialGraph g = new SocialConnector.WattsStrogatz( rng( 1L ), .1 )
+				.graph( n, k );
+		LOG.trace( "Watts-Strogatz: {}", g );
+		assertSymmetric( g );
+		// rewired links rarely coincide
+		assertTrue( "links", g.linkCount() > .99 * n * k );
+		assertTrue( "links", g.linkCount() <= n * k );
+
+		final SocialGraph h = new SocialConnector.WattsStrogatz( rng( 1L ), .1 )
+				.graph( n, k );
+		for( int i = 0; i < n; i++ )
+			assertArrayEquals( "reproducible", g.peers( i ).toArray(),
+					h.peers( i ).toArray() );
+	}
+
+	@Test
+	public void testErdosRenyiGraph()
+	{
+		final int n = 10000;
+		final SocialGraph g = SocialGraph.erdosRenyi( rng( 2L ), n, 8 );
+		LOG.trace( "Erdos-Renyi: {}", g );
+		assertSymmetric( g );
+		assertEquals( "mean degree", 8, 2. * g.linkCount() / n, .25 );
+	}
+
+	@Test
+	public void testConfigurationGraph()
+	{
+		final int[] degrees = new int[1000];
+		for( int i = 0; i < degrees.length; i++ )
+			degrees[i] = 1 + i % 7;
+		final SocialGraph g = SocialGraph.configuration( rng( 3L ), degrees );
+		LOG.trace( "Configuration: {}", g );
+		assertSymmetric( g );
+		for( int i = 0; i < degrees.length; i++ )
+			assertTrue( "degree " + i, g.degree( i ) <= degrees[i] );
+		assertTrue( "links", 2 * g.linkCount() > .95
+				* Arrays.stream( degrees ).sum() );
+	}
+
+	@Test
+	public void testWeightedGraph()
+	{
+		final SocialGraph g = new SocialGraph.Builder( 4 ).link( 0, 1 )
+				.link( 1, 0, 3 ).link( 2, 2 ).link( 3, 1 ).build()
+				.weighted( ( i, j ) -> i + 10 * j );
+		assertEquals( "links", 2, g.linkCount() );
+		assertEquals( "self-links", 0, g.degree( 2 ) );
+		assertEquals( "weight", 10, g.weight( 0, 1 ), 0 );
+		assertEquals( "weight", 10, g.weight( 1, 0 ), 0 );
+		assertEquals( "weight", 31, g.weight( 3, 1 ), 0 );
+		assertEquals( "no link", 0, g.weight( 0, 3 ), 0 );
+	}
 }
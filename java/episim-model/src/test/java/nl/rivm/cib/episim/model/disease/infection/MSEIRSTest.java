@@ -19,8 +19,12 @@
  */
 package nl.rivm.cib.episim.model.disease.infection;
 
+import static org.junit.Assert.assertEquals;
+
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
@@ -28,6 +32,7 @@ import java.util.TreeMap;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -72,6 +77,7 @@ import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.BehaviorSubject;
 import net.jodah.concurrentunit.Waiter;
 import nl.rivm.cib.episim.model.disease.IllnessTrajectory;
+import nl.rivm.cib.episim.model.disease.infection.MSEIRS.Compartment;
 import nl.rivm.cib.episim.model.disease.infection.MSEIRS.Transition;
 
 /**
@@ -766,4 +772,48 @@ public class MSEIRSTest
 //		LOG.info( "completed {}", getClass().getSimpleName() );
 //	}
 
+	@Test
+	public void testPool()
+	{
+		final Scheduler scheduler = new LocalConfig.JsonBuilder()
+				.withId( "pool" )
+				.withProvider( Scheduler.class, Dsol3Scheduler.class ).build()
+				.createBinder().inject( Scheduler.class,
+						SchedulerConfig
+								.getOrCreate( MapBuilder.unordered()
+										.put( SchedulerConfig.DURATION_KEY,
+												"10" )
+										.build() )
+								.toJSON() );
+		final int n = 1000, susceptible = 600;
+		final List<Integer> batches = new ArrayList<>();
+		final AtomicReference<MSEIRS.Pool> pool = new AtomicReference<>();
+		scheduler.run( s ->
+		{
+			// susceptibles stay, others become infective after 2 and recover
+			// after another 3 time units
+			pool.set( new MSEIRS.Pool( s,
+					period -> period == Transition.LATENCY ? 2
+							: period == Transition.INFECTIOUS ? 3
+									: Double.NaN ) );
+			pool.get().transitions().subscribe(
+					batch -> batches.add( batch.size() ) );
+			for( int i = 0; i < n; i++ )
+				pool.get().allocate(
+						i < susceptible ? Transition.SUSCEPTIBILITY
+								: Transition.LATENCY );
+			pool.get().transition( Transition.LATENCY, 0 );
+		} );
+		LOG.trace( "Pool batches: {}", batches );
+		assertEquals( "batches", Arrays.asList( 1, n - susceptible + 1,
+				n - susceptible + 1 ), batches );
+		assertEquals( "exposed", Compartment.RECOVERED,
+				pool.get().compartment( 0 ) );
+		assertEquals( "susceptible", Compartment.SUSCEPTIBLE,
+				pool.get().compartment( 1 ) );
+		assertEquals( "infected", Compartment.RECOVERED,
+				pool.get().compartment( n - 1 ) );
+		assertEquals( "slots", n, pool.get().size() );
+	}
+
 }